@@ -0,0 +1,31 @@
+package com.skardach.ro.graphics;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Renderer which is able to lower its rendering quality on request, i.e.
+ * when {@link QualityGovernor} detects that frames take too long.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface AdaptiveRenderer extends CullableRenderer {
+	/**
+	 * @return Position of the rendered object in world coordinates. Used to
+	 * find out which objects are distant from the viewer.
+	 */
+	public Point3D getRenderPosition();
+	/**
+	 * Same as {@link CullableRenderer#renderFrame(GLAutoDrawable, long,
+	 * Frustum)} but rendering should follow the given level of detail.
+	 * @param ioDrawable Target surface to draw on.
+	 * @param iDelaySinceLastInvoke Delay (in milliseconds) since last call.
+	 * @param iViewFrustum Current view frustum or null if not known.
+	 * @param iDetail Requested level of detail. Cannot be null.
+	 * @throws RenderException Whenever something goes wrong with rendering
+	 */
+	public void renderFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail) throws RenderException;
+}
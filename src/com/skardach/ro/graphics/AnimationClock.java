@@ -0,0 +1,74 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Monotonic nanosecond clock driving all animations. The time is sampled
+ * once per frame by {@link #tick()} so that all effects drawn in the same
+ * frame see the same time, no matter how long drawing of the previous ones
+ * took. The clock can be paused, time spent paused does not count.
+ * @author Stanislaw Kardach
+ *
+ */
+public class AnimationClock {
+	private static final AnimationClock _default = new AnimationClock();
+
+	private final long _origin = System.nanoTime();
+	private long _pausedNanos = 0;
+	private long _pausedAt = 0;
+	private boolean _paused = false;
+	private long _frameTime = 0;
+	/**
+	 * @return Process wide clock for effects which are not given another one.
+	 * Only advances when a {@link FrameScheduler} driving it ticks it.
+	 * {@link OpenGLWrapper}s use clocks of their own, so that pausing one of
+	 * them does not stop the others.
+	 */
+	public static AnimationClock getDefault() {
+		return _default;
+	}
+	/**
+	 * @return Current time in nanoseconds since the clock was created,
+	 * excluding pauses.
+	 */
+	public synchronized long now() {
+		long raw = _paused ? _pausedAt : System.nanoTime();
+		return raw - _origin - _pausedNanos;
+	}
+	/**
+	 * Sample the time for the next frame.
+	 * @return New frame time.
+	 */
+	public synchronized long tick() {
+		_frameTime = Math.max(_frameTime, now());
+		return _frameTime;
+	}
+	/**
+	 * @return Time sampled by the last {@link #tick()}, in nanoseconds.
+	 */
+	public synchronized long getFrameTime() {
+		return _frameTime;
+	}
+	/**
+	 * Stop the time until {@link #resume()} is called.
+	 */
+	public synchronized void pause() {
+		if(_paused)
+			return;
+		_pausedAt = System.nanoTime();
+		_paused = true;
+	}
+	/**
+	 * Let the time run again.
+	 */
+	public synchronized void resume() {
+		if(!_paused)
+			return;
+		_pausedNanos += System.nanoTime() - _pausedAt;
+		_paused = false;
+	}
+	/**
+	 * @return True if the clock is paused.
+	 */
+	public synchronized boolean isPaused() {
+		return _paused;
+	}
+}
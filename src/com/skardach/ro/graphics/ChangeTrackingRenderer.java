@@ -0,0 +1,20 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Renderer which knows whether its next frame would look the same as the
+ * last rendered one. Canvases whose renderers all report no change, while
+ * the view stays the same, are not redrawn at all.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface ChangeTrackingRenderer extends Renderer {
+	/**
+	 * Check whether rendering a frame now would draw something else than the
+	 * last rendered frame, assuming the view did not change. May be called
+	 * from a thread other than the OpenGL one, in which case a stale answer
+	 * only delays the redraw until the next check.
+	 * @return True if the renderer needs a redraw. Renderers which cannot
+	 * tell should return true.
+	 */
+	public boolean needsRedraw();
+}
@@ -0,0 +1,111 @@
+package com.skardach.ro.graphics;
+/**
+ * Advances an effect at its own frame rate according to the frame time of
+ * an {@link AnimationClock}, ignoring the millisecond delay it is given.
+ * Elapsed time is accumulated in fixed point (nanoseconds times frames per
+ * second), so rounding errors never add up and the animation speed does not
+ * depend on the display refresh rate or on load. The remainder gives the
+ * position between frames for sub frame interpolation.
+ * @author Stanislaw Kardach
+ *
+ */
+public class ClockFrameAdvanceCalculator
+		implements FractionalFrameAdvanceCalculator {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+	/**
+	 * Frame rate used for effects with invalid frame rate.
+	 */
+	public static final int DEFAULT_FPS = 60;
+
+	private final AnimationClock _clock;
+	private final int _fps;
+	private long _lastTime = 0;
+	/**
+	 * Accumulated time not turned into frames yet, in nanoseconds times
+	 * frames per second.
+	 */
+	private long _remainder = 0;
+	/**
+	 * Whether the next call should advance by exactly one frame.
+	 */
+	private volatile boolean _stepping = false;
+	/**
+	 * Create calculator for a given frame rate.
+	 * @param iClock Clock to follow.
+	 * @param iFps Frames per second of the effect.
+	 */
+	public ClockFrameAdvanceCalculator(AnimationClock iClock, int iFps) {
+		_clock = iClock;
+		_fps = iFps > 0 ? iFps : DEFAULT_FPS;
+	}
+	/**
+	 * @return Frames per second the effect is advanced at.
+	 */
+	public int getFps() {
+		return _fps;
+	}
+	/**
+	 * Make the next {@link #calculateFrameToRender(long, int)} return the
+	 * frame after the last rendered one, with no fraction, regardless of the
+	 * clock. Used to step through an effect while the clock is paused.
+	 */
+	public void step() {
+		_stepping = true;
+	}
+
+	@Override
+	public int calculateFrameToRender(
+			long iDelaySinceLastInvoke,
+			int iLastRenderedFrame) {
+		long now = _clock.getFrameTime();
+		if(iLastRenderedFrame == NO_FRAME) { // always start with first frame
+			_lastTime = now;
+			_remainder = 0;
+			_stepping = false;
+			return 0;
+		}
+		if(_stepping) {
+			_stepping = false;
+			_lastTime = now;
+			_remainder = 0;
+			return iLastRenderedFrame + 1;
+		}
+		_remainder += (now - _lastTime) * _fps;
+		_lastTime = now;
+		long frames = _remainder / NANOS_PER_SECOND;
+		_remainder -= frames * NANOS_PER_SECOND;
+		return iLastRenderedFrame + (int)Math.min(frames, Integer.MAX_VALUE / 2);
+	}
+
+	@Override
+	public float getFrameFraction() {
+		return (float)_remainder / NANOS_PER_SECOND;
+	}
+	/**
+	 * Get the frame {@link #calculateFrameToRender(long, int)} would return
+	 * at the current clock frame time, without advancing.
+	 * @param iLastRenderedFrame Last rendered frame.
+	 * @return Frame to render.
+	 */
+	public int peekFrameToRender(int iLastRenderedFrame) {
+		if(iLastRenderedFrame == NO_FRAME)
+			return 0;
+		if(_stepping)
+			return iLastRenderedFrame + 1;
+		long frames = peekRemainder() / NANOS_PER_SECOND;
+		return iLastRenderedFrame + (int)Math.min(frames, Integer.MAX_VALUE / 2);
+	}
+	/**
+	 * @return Fraction {@link #getFrameFraction()} would return after
+	 * advancing to the current clock frame time.
+	 */
+	public float peekFrameFraction() {
+		if(_stepping)
+			return 0;
+		return (float)(peekRemainder() % NANOS_PER_SECOND) / NANOS_PER_SECOND;
+	}
+
+	private long peekRemainder() {
+		return _remainder + (_clock.getFrameTime() - _lastTime) * _fps;
+	}
+}
@@ -0,0 +1,34 @@
+package com.skardach.ro.graphics;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Renderer which, instead of drawing its effects itself, can hand their
+ * layer quads to the {@link Compositor} of the canvas. The compositor sorts
+ * effects of all such renderers back to front and draws them in one pass.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface CompositedRenderer extends Renderer {
+	/**
+	 * Advance the animation the same way
+	 * {@link AdaptiveRenderer#renderFrame(GLAutoDrawable, long, Frustum,
+	 * RenderDetail)} would, but add layer quads of the frame to the
+	 * compositor instead of drawing them. Each effect should be closed with
+	 * {@link QuadBuffer#endGroup(float)} and buffers other than
+	 * {@link Compositor#getBuffer()} added with
+	 * {@link Compositor#add(QuadBuffer)}.
+	 * @param ioDrawable Target surface.
+	 * @param iDelaySinceLastInvoke Delay (in milliseconds) since last call.
+	 * @param iViewFrustum Current view frustum or null if not known.
+	 * @param iDetail Requested level of detail. Cannot be null.
+	 * @param ioCompositor Compositor of the canvas, its camera is set.
+	 * @throws RenderException Whenever something goes wrong with rendering
+	 */
+	public void collectFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail,
+			Compositor ioCompositor) throws RenderException;
+}
@@ -0,0 +1,196 @@
+package com.skardach.ro.graphics;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.jogamp.opengl.GL2;
+
+import com.skardach.ro.resource.AsyncTextureLoader;
+
+/**
+ * Draws effects of all {@link CompositedRenderer}s of a canvas in a single
+ * pass. A frame goes as follows:
+ * <ol>
+ * <li>{@link #begin(GL2)} reads the camera matrix,</li>
+ * <li>renderers add eye space layer quads, one group per effect, to
+ * {@link #getBuffer()} or to buffers of their own given to
+ * {@link #add(QuadBuffer)},</li>
+ * <li>{@link #submit(GL2)} sorts groups back to front, so that translucent
+ * effects of different renderers blend in the right order, and draws them
+ * with one {@link LayerDrawer} setup. Adjacent quads sharing texture and
+ * blending are batched, also across effects.</li>
+ * </ol>
+ * Layers within an effect keep their order. A compositor must only be used
+ * by the OpenGL thread.
+ * @author Stanislaw Kardach
+ *
+ */
+public class Compositor {
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * A group of quads of one effect.
+	 */
+	private static class Item {
+		QuadBuffer _buffer;
+		int _from;
+		int _to;
+		float _depth;
+	}
+	/**
+	 * Orders items from the farthest one. Sorting is stable, so items at the
+	 * same depth stay in the order they were added.
+	 */
+	private static final Comparator<Item> BACK_TO_FRONT =
+		new Comparator<Item>() {
+			@Override
+			public int compare(Item iA, Item iB) {
+				return Float.compare(iA._depth, iB._depth);
+			}
+		};
+
+	private final LayerDrawer _drawer;
+	private final QuadBuffer _buffer = new QuadBuffer();
+	private final float _camera[] = new float[16];
+	private QuadBuffer _buffers[] = new QuadBuffer[INITIAL_CAPACITY];
+	private int _bufferCount = 0;
+	private Item _items[] = new Item[0];
+	private int _itemCount = 0;
+	/**
+	 * Whether some layers were not drawn in the last frame because their
+	 * textures are still being loaded.
+	 */
+	private volatile boolean _waitingForTextures = false;
+	/**
+	 * Create a compositor drawing with a new {@link LayerDrawer}.
+	 */
+	public Compositor() {
+		this(new LayerDrawer());
+	}
+	/**
+	 * Create a compositor.
+	 * @param iDrawer Drawer used for all effects. Must not be used by anyone
+	 * else.
+	 */
+	public Compositor(LayerDrawer iDrawer) {
+		_drawer = iDrawer;
+	}
+	/**
+	 * @param iCombiner Combiner for multi texture presets of the canvas
+	 * context or null to draw them with the first texture mapping only.
+	 */
+	public void setCombiner(MultiTextureCombiner iCombiner) {
+		_drawer.setCombiner(iCombiner);
+	}
+	/**
+	 * @param iTextureLoader Loader requested for textures which are not
+	 * uploaded yet, or null to load them synchronously.
+	 */
+	public void setTextureLoader(AsyncTextureLoader iTextureLoader) {
+		_drawer.setTextureLoader(iTextureLoader);
+	}
+	/**
+	 * Start collecting a frame.
+	 * @param iGL GL context, its model view matrix is the camera.
+	 */
+	public void begin(GL2 iGL) {
+		iGL.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, _camera, 0);
+		_buffer.clear();
+		_bufferCount = 0;
+		add(_buffer);
+	}
+	/**
+	 * @return Model view matrix read in {@link #begin(GL2)}, column major.
+	 * Must not be modified.
+	 */
+	public float[] getCamera() {
+		return _camera;
+	}
+	/**
+	 * @return Buffer shared by renderers which evaluate on the OpenGL
+	 * thread. Already added.
+	 */
+	public QuadBuffer getBuffer() {
+		return _buffer;
+	}
+	/**
+	 * Draw groups of a buffer in this frame. The buffer must not change
+	 * until {@link #submit(GL2)}.
+	 * @param iBuffer Buffer to add.
+	 */
+	public void add(QuadBuffer iBuffer) {
+		if(_bufferCount == _buffers.length)
+			_buffers = Arrays.copyOf(_buffers, _bufferCount * 2);
+		_buffers[_bufferCount++] = iBuffer;
+	}
+	/**
+	 * @return Number of effects drawn by the last {@link #submit(GL2)}.
+	 */
+	public int getItemCount() {
+		return _itemCount;
+	}
+	/**
+	 * @return True if some layers of the last frame were skipped because
+	 * their textures are still being loaded. May be called from any thread.
+	 */
+	public boolean isWaitingForTextures() {
+		return _waitingForTextures;
+	}
+	/**
+	 * Sort collected effects and draw them.
+	 * @param iGL GL context
+	 * @throws RenderException If a texture could not be loaded.
+	 */
+	public void submit(GL2 iGL) throws RenderException {
+		collectItems();
+		if(_itemCount == 0) {
+			_waitingForTextures = false;
+			return;
+		}
+		Arrays.sort(_items, 0, _itemCount, BACK_TO_FRONT);
+		_drawer.begin(iGL);
+		try {
+			_drawer.beginQuads(iGL);
+			for(int i = 0; i < _itemCount; i++) {
+				Item item = _items[i];
+				_drawer.drawQuads(iGL, item._buffer, item._from, item._to);
+			}
+			_drawer.endQuads(iGL);
+		} finally {
+			_waitingForTextures = _drawer.getWaitingLayers() > 0;
+			_drawer.end(iGL);
+			// do not keep effects alive until the next frame
+			for(int i = 0; i < _itemCount; i++)
+				_items[i]._buffer = null;
+			for(int i = 0; i < _bufferCount; i++)
+				_buffers[i] = null;
+			_bufferCount = 0;
+		}
+	}
+	/**
+	 * Turn groups of added buffers into items.
+	 */
+	private void collectItems() {
+		int count = 0;
+		for(int b = 0; b < _bufferCount; b++)
+			count += _buffers[b]._groupCount;
+		if(_items.length < count) {
+			Item items[] = Arrays.copyOf(_items, Math.max(count, _items.length * 2));
+			for(int i = _items.length; i < items.length; i++)
+				items[i] = new Item();
+			_items = items;
+		}
+		_itemCount = 0;
+		for(int b = 0; b < _bufferCount; b++) {
+			QuadBuffer buffer = _buffers[b];
+			int from = 0;
+			for(int g = 0; g < buffer._groupCount; g++) {
+				Item item = _items[_itemCount++];
+				item._buffer = buffer;
+				item._from = from;
+				item._to = buffer._groupEnds[g];
+				item._depth = buffer._groupDepths[g];
+				from = item._to;
+			}
+		}
+	}
+}
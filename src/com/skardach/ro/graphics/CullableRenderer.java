@@ -0,0 +1,27 @@
+package com.skardach.ro.graphics;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Renderer which is able to skip drawing when its output would not be visible
+ * in the current view.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface CullableRenderer extends Renderer {
+	/**
+	 * Same as {@link Renderer#renderFrame(GLAutoDrawable, long)} but the
+	 * renderer should only advance its animation state, without evaluating
+	 * or drawing anything, if the frame to render lies outside of the given
+	 * view frustum.
+	 * @param ioDrawable Target surface to draw on.
+	 * @param iDelaySinceLastInvoke Delay (in milliseconds) since last call.
+	 * @param iViewFrustum Current view frustum or null if not known, in which
+	 * case the frame is always rendered.
+	 * @throws RenderException Whenever something goes wrong with rendering
+	 */
+	public void renderFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum) throws RenderException;
+}
@@ -0,0 +1,197 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Playback state of one running copy of an effect: when it started and where
+ * it is drawn. Everything else (key frames, active key frame tables, bounds)
+ * lives in the {@link StrTimeline} shared by all instances of the same effect,
+ * so an instance takes only a few dozen bytes. The current frame is derived
+ * from the start time and the time of the frame being drawn, hence instances
+ * do not need to be advanced one by one.
+ * Instances are owned by an {@link EffectInstancePool} and must not be used
+ * after being despawned.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class EffectInstance {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	StrTimeline _timeline;
+	long _startTime;
+	boolean _looping;
+	float _x;
+	float _y;
+	float _z;
+	float _xRotation;
+	float _yRotation;
+	float _zRotation;
+	float _xScale;
+	float _yScale;
+	float _zScale;
+	/**
+	 * Direction of the effect Y axis in world coordinates (with scale), see
+	 * {@link SimpleStrRenderer}. Kept as separate fields to avoid an array.
+	 */
+	float _yAxisX;
+	float _yAxisY;
+	float _yAxisZ;
+	/**
+	 * Position in the pool, -1 if the instance is not active.
+	 */
+	int _slot = -1;
+
+	EffectInstance() {
+	}
+	/**
+	 * Set up a freshly spawned instance. Transform is reset to identity.
+	 */
+	void start(StrTimeline iTimeline, long iStartTime, boolean iLooping) {
+		_timeline = iTimeline;
+		_startTime = iStartTime;
+		_looping = iLooping;
+		_x = _y = _z = 0;
+		_xRotation = _yRotation = _zRotation = 0;
+		_xScale = _yScale = _zScale = 1;
+		computeYAxis();
+	}
+	/**
+	 * @return Timeline of the played effect.
+	 */
+	public StrTimeline getTimeline() {
+		return _timeline;
+	}
+	/**
+	 * @return Clock time at which the first frame was shown.
+	 */
+	public long getStartTime() {
+		return _startTime;
+	}
+	/**
+	 * Start playback over.
+	 * @param iStartTime Clock time of the first frame.
+	 */
+	public void restart(long iStartTime) {
+		_startTime = iStartTime;
+	}
+	/**
+	 * Move playback to the beginning of the frame following the one drawn at
+	 * a given time.
+	 * @param iTime Clock time of the frame being drawn.
+	 */
+	public void step(long iTime) {
+		long next = getFramePosition(iTime) + 1;
+		long fps = _timeline.getFps();
+		// rounded up, so that the frame position is exactly the next frame
+		_startTime = iTime - (next * NANOS_PER_SECOND + fps - 1) / fps;
+	}
+	/**
+	 * @return True if the effect starts over after the last frame.
+	 */
+	public boolean isLooping() {
+		return _looping;
+	}
+	/**
+	 * @param iLooping True if the effect should start over after the last
+	 * frame, false to finish it.
+	 */
+	public void setLooping(boolean iLooping) {
+		_looping = iLooping;
+	}
+	/**
+	 * @return True if the instance is spawned.
+	 */
+	public boolean isActive() {
+		return _slot >= 0;
+	}
+	/**
+	 * Set where the effect is drawn.
+	 */
+	public void setPosition(float iX, float iY, float iZ) {
+		_x = iX;
+		_y = iY;
+		_z = iZ;
+	}
+	/**
+	 * Set additional rotation, in degrees, applied the same way as in
+	 * {@link SimpleStrRenderer}.
+	 */
+	public void setRotation(float iX, float iY, float iZ) {
+		_xRotation = iX;
+		_yRotation = iY;
+		_zRotation = iZ;
+		computeYAxis();
+	}
+	/**
+	 * Set how much the effect is scaled.
+	 */
+	public void setScale(float iX, float iY, float iZ) {
+		_xScale = iX;
+		_yScale = iY;
+		_zScale = iZ;
+		computeYAxis();
+	}
+	public float getX() {
+		return _x;
+	}
+	public float getY() {
+		return _y;
+	}
+	public float getZ() {
+		return _z;
+	}
+	public float getXScale() {
+		return _xScale;
+	}
+	public float getYScale() {
+		return _yScale;
+	}
+	public float getZScale() {
+		return _zScale;
+	}
+	/**
+	 * @param iTime Clock time of the frame being drawn.
+	 * @return True if the effect does not loop and its last frame has passed.
+	 */
+	public boolean isFinished(long iTime) {
+		return !_looping && getFramePosition(iTime) >= _timeline.getFrameCount();
+	}
+	/**
+	 * @param iTime Clock time of the frame being drawn.
+	 * @return Frame to draw, in range [0, frame count[, or frame count if the
+	 * instance has finished.
+	 */
+	public int getFrame(long iTime) {
+		long position = getFramePosition(iTime);
+		int frameCount = _timeline.getFrameCount();
+		if(position < frameCount)
+			return (int)position;
+		return _looping && frameCount > 0
+			? (int)(position % frameCount) : frameCount;
+	}
+	/**
+	 * @param iTime Clock time of the frame being drawn.
+	 * @return Position between the drawn frame and the next one, in range
+	 * [0, 1[.
+	 */
+	public float getFrameFraction(long iTime) {
+		long elapsed = Math.max(0, iTime - _startTime) * _timeline.getFps();
+		return (float)(elapsed % NANOS_PER_SECOND) / NANOS_PER_SECOND;
+	}
+
+	private long getFramePosition(long iTime) {
+		return Math.max(0, iTime - _startTime) * _timeline.getFps()
+			/ NANOS_PER_SECOND;
+	}
+	/**
+	 * Rotate the scaled Y axis the same way the renderer does: first around
+	 * Y, then Z and finally X axis.
+	 */
+	private void computeYAxis() {
+		double z = Math.toRadians(_zRotation);
+		float x = (float)(-_yScale * Math.sin(z));
+		float y = (float)(_yScale * Math.cos(z));
+		double xr = Math.toRadians(_xRotation);
+		_yAxisX = x;
+		_yAxisY = (float)(y * Math.cos(xr));
+		_yAxisZ = (float)(y * Math.sin(xr));
+	}
+}
@@ -0,0 +1,221 @@
+package com.skardach.ro.graphics;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.skardach.ro.resource.Texture;
+
+/**
+ * Preallocated set of {@link EffectInstance} objects. Active instances are
+ * kept densely at the beginning of the array and free ones after them, so
+ * spawning and despawning only swap references and never allocate, unless
+ * the pool runs out of instances, in which case its capacity is doubled.
+ * Textures drawn by a timeline are pinned while at least one instance of it
+ * is active, so that the texture manager does not evict them, and unpinned
+ * when its last instance is despawned.
+ * Not thread safe, instances should be spawned and despawned from the
+ * thread drawing them.
+ * @author Stanislaw Kardach
+ *
+ */
+public class EffectInstancePool {
+	private EffectInstance _instances[];
+	private int _activeCount = 0;
+	/**
+	 * Timelines of active instances and how many instances use each.
+	 */
+	private StrTimeline _timelines[] = new StrTimeline[4];
+	private int _timelineUses[] = new int[4];
+	private int _timelineCount = 0;
+	/**
+	 * Whether textures of used timelines are pinned, see
+	 * {@link #releaseTextures()}.
+	 */
+	private boolean _texturesPinned = true;
+	/**
+	 * Create a pool.
+	 * @param iCapacity Number of instances to preallocate.
+	 */
+	public EffectInstancePool(int iCapacity) {
+		_instances = new EffectInstance[Math.max(1, iCapacity)];
+		for(int i = 0; i < _instances.length; i++)
+			_instances[i] = new EffectInstance();
+	}
+	/**
+	 * Start playing an effect. The instance is placed at the origin without
+	 * rotation and scale.
+	 * @param iTimeline Timeline of the effect, see
+	 * {@link StrTimeline#forEffect(com.skardach.ro.resource.str.Str)}.
+	 * @param iStartTime Clock time of the first frame, usually
+	 * {@link AnimationClock#getFrameTime()}.
+	 * @param iLooping Whether the effect starts over after the last frame.
+	 * @return Spawned instance.
+	 */
+	public EffectInstance spawn(
+			StrTimeline iTimeline,
+			long iStartTime,
+			boolean iLooping) {
+		if(_activeCount == _instances.length)
+			grow();
+		EffectInstance result = _instances[_activeCount];
+		result._slot = _activeCount++;
+		acquire(iTimeline);
+		result.start(iTimeline, iStartTime, iLooping);
+		return result;
+	}
+	/**
+	 * Stop playing an instance and return it to the pool. The last active
+	 * instance takes its place, so despawning while iterating over active
+	 * instances has to visit the same index again.
+	 * @param iInstance Instance to despawn. Ignored if not active.
+	 */
+	public void despawn(EffectInstance iInstance) {
+		int slot = iInstance._slot;
+		if(slot < 0 || slot >= _activeCount || _instances[slot] != iInstance)
+			return;
+		int last = --_activeCount;
+		EffectInstance moved = _instances[last];
+		_instances[slot] = moved;
+		moved._slot = slot;
+		_instances[last] = iInstance;
+		iInstance._slot = -1;
+		release(iInstance._timeline);
+		iInstance._timeline = null;
+	}
+	/**
+	 * Despawn all instances which have finished.
+	 * @param iTime Clock time of the frame being drawn.
+	 * @return Number of despawned instances.
+	 */
+	public int despawnFinished(long iTime) {
+		int result = 0;
+		for(int i = 0; i < _activeCount; ) {
+			if(_instances[i].isFinished(iTime)) {
+				despawn(_instances[i]);
+				result++;
+			} else {
+				i++;
+			}
+		}
+		return result;
+	}
+	/**
+	 * Despawn all instances.
+	 */
+	public void clear() {
+		while(_activeCount > 0)
+			despawn(_instances[_activeCount - 1]);
+	}
+	/**
+	 * @return Number of spawned instances.
+	 */
+	public int getActiveCount() {
+		return _activeCount;
+	}
+	/**
+	 * @param iIndex Index in range [0, active count[
+	 * @return Active instance. Order changes when instances are despawned.
+	 */
+	public EffectInstance getActive(int iIndex) {
+		if(iIndex >= _activeCount)
+			throw new IndexOutOfBoundsException(
+				"Index: " + iIndex + ", active: " + _activeCount);
+		return _instances[iIndex];
+	}
+	/**
+	 * @return Number of instances allocated.
+	 */
+	public int getCapacity() {
+		return _instances.length;
+	}
+	/**
+	 * Unpin textures of all active instances, i.e. when the renderer drawing
+	 * them is disposed. Instances spawned afterwards do not pin their
+	 * textures either, until {@link #pinTextures()}.
+	 */
+	public void releaseTextures() {
+		if(!_texturesPinned)
+			return;
+		_texturesPinned = false;
+		for(int i = 0; i < _timelineCount; i++)
+			pin(_timelines[i], false);
+	}
+	/**
+	 * Pin textures of active instances again after
+	 * {@link #releaseTextures()}, i.e. when the renderer is initialized.
+	 */
+	public void pinTextures() {
+		if(_texturesPinned)
+			return;
+		_texturesPinned = true;
+		for(int i = 0; i < _timelineCount; i++)
+			pin(_timelines[i], true);
+	}
+	/**
+	 * Count an instance of a timeline, pinning its textures for the first
+	 * one.
+	 */
+	private void acquire(StrTimeline iTimeline) {
+		for(int i = 0; i < _timelineCount; i++) {
+			if(_timelines[i] == iTimeline) {
+				_timelineUses[i]++;
+				return;
+			}
+		}
+		if(_timelineCount == _timelines.length) {
+			_timelines = Arrays.copyOf(_timelines, _timelineCount * 2);
+			_timelineUses = Arrays.copyOf(_timelineUses, _timelineCount * 2);
+		}
+		_timelines[_timelineCount] = iTimeline;
+		_timelineUses[_timelineCount++] = 1;
+		if(_texturesPinned)
+			pin(iTimeline, true);
+	}
+	/**
+	 * Stop counting an instance of a timeline, unpinning its textures after
+	 * the last one.
+	 */
+	private void release(StrTimeline iTimeline) {
+		for(int i = 0; i < _timelineCount; i++) {
+			if(_timelines[i] != iTimeline)
+				continue;
+			if(--_timelineUses[i] > 0)
+				return;
+			int last = --_timelineCount;
+			_timelines[i] = _timelines[last];
+			_timelineUses[i] = _timelineUses[last];
+			_timelines[last] = null;
+			if(_texturesPinned)
+				pin(iTimeline, false);
+			return;
+		}
+	}
+	/**
+	 * Pin or unpin all textures a timeline draws. The background layer is
+	 * drawn without textures.
+	 * @param iTimeline Timeline.
+	 * @param iPin True to pin, false to unpin.
+	 */
+	private static void pin(StrTimeline iTimeline, boolean iPin) {
+		for(int l = 1; l < iTimeline.getLayerCount(); l++) {
+			List<Texture> textures = iTimeline.getLayer(l).get_textures();
+			for(int t = 0; t < textures.size(); t++) {
+				Texture texture = textures.get(t);
+				if(texture == null || !iTimeline.isTextureUsed(l, t))
+					continue;
+				if(iPin)
+					texture.pin();
+				else
+					texture.unpin();
+			}
+		}
+	}
+
+	private void grow() {
+		EffectInstance grown[] = new EffectInstance[_instances.length * 2];
+		System.arraycopy(_instances, 0, grown, 0, _instances.length);
+		for(int i = _instances.length; i < grown.length; i++)
+			grown[i] = new EffectInstance();
+		_instances = grown;
+	}
+}
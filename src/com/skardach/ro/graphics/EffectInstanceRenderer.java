@@ -0,0 +1,414 @@
+package com.skardach.ro.graphics;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLAutoDrawable;
+
+import com.skardach.ro.resource.AsyncTextureLoader;
+import com.skardach.ro.resource.ResourceException;
+import com.skardach.ro.resource.str.Layer;
+
+/**
+ * Draws all active instances of an {@link EffectInstancePool}. Each frame
+ * goes through two stages:
+ * <ol>
+ * <li>evaluation: active instances are split into fixed chunks and layer
+ * quads of each chunk are evaluated straight from the precomputed tables of
+ * {@link StrTimeline} into the chunk's {@link QuadBuffer}, in parallel on a
+ * work stealing pool if there is more than one chunk,</li>
+ * <li>submission: the OpenGL thread draws the buffers one after another.</li>
+ * </ol>
+ * Chunks cover consecutive instances and are drawn in order, so the result
+ * does not depend on which worker evaluated what. Finished instances are
+ * despawned before evaluation starts. When composited, quads of each
+ * instance form a group the {@link Compositor} sorts by depth.
+ * Textures are loaded on first use (or requested from the background loader)
+ * and stay pinned by the pool while instances drawing them are active.
+ * @author Stanislaw Kardach
+ *
+ */
+public class EffectInstanceRenderer
+		implements
+			CullableRenderer,
+			ChangeTrackingRenderer,
+			CompositedRenderer,
+			SteppableRenderer {
+	/**
+	 * Default number of instances evaluated by a single task.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64;
+
+	private final EffectInstancePool _pool;
+	private final AnimationClock _clock;
+	private final LayerDrawer _drawer = new LayerDrawer();
+	/**
+	 * Model view matrix when drawing started, column major.
+	 */
+	private final float _camera[] = new float[16];
+	private QuadBuffer _buffers[] = new QuadBuffer[0];
+	private boolean _interpolate = false;
+	private ForkJoinPool _evaluationPool = EvaluationPool.getShared();
+	private int _chunkSize = DEFAULT_CHUNK_SIZE;
+	/**
+	 * Per frame parameters read by evaluation tasks.
+	 */
+	private long _frameTime;
+	private Frustum _frustum;
+	/**
+	 * Whether anything was drawn or waited for textures in the last frame.
+	 */
+	private volatile boolean _drewLastFrame = false;
+	/**
+	 * Whether active instances should advance by one frame before the next
+	 * evaluation.
+	 */
+	private volatile boolean _stepping = false;
+	/**
+	 * Create a renderer.
+	 * @param iPool Instances to draw.
+	 * @param iClock Clock which instance start times refer to.
+	 */
+	public EffectInstanceRenderer(EffectInstancePool iPool, AnimationClock iClock) {
+		_pool = iPool;
+		_clock = iClock;
+	}
+	/**
+	 * @return Instances drawn by this renderer.
+	 */
+	public EffectInstancePool getPool() {
+		return _pool;
+	}
+	/**
+	 * Load textures in the background instead of on first use.
+	 * @param iTextureLoader Loader to use or null to load textures
+	 * synchronously.
+	 */
+	public void setTextureLoader(AsyncTextureLoader iTextureLoader) {
+		_drawer.setTextureLoader(iTextureLoader);
+	}
+	/**
+	 * Enable evaluation of morph frames between whole frames, see
+	 * {@link SimpleStrRenderer#setSubFrameInterpolation(boolean)}.
+	 * @param iInterpolate True to interpolate.
+	 */
+	public void setSubFrameInterpolation(boolean iInterpolate) {
+		_interpolate = iInterpolate;
+	}
+	/**
+	 * Set how instances are evaluated.
+	 * @param iPool Pool to evaluate chunks on or null to evaluate all of
+	 * them on the OpenGL thread.
+	 * @param iChunkSize Number of instances evaluated by a single task.
+	 */
+	public void setParallelism(ForkJoinPool iPool, int iChunkSize) {
+		_evaluationPool = iPool;
+		_chunkSize = Math.max(1, iChunkSize);
+	}
+
+	@Override
+	public void renderFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke) throws RenderException {
+		renderFrame(ioDrawable, iDelaySinceLastInvoke, null);
+	}
+
+	@Override
+	public void renderFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum) throws RenderException {
+		GL2 gl = ioDrawable.getGL().getGL2();
+		gl.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, _camera, 0);
+		int chunks = evaluateFrame(iViewFrustum);
+		if(chunks == 0)
+			return;
+		_drawer.begin(gl);
+		for(int c = 0; c < chunks; c++)
+			_drawer.submit(gl, _buffers[c]);
+		_drawer.end(gl);
+	}
+
+	@Override
+	public void collectFrame(
+			GLAutoDrawable ioDrawable,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail,
+			Compositor ioCompositor) throws RenderException {
+		System.arraycopy(ioCompositor.getCamera(), 0, _camera, 0, 16);
+		int chunks = evaluateFrame(iViewFrustum);
+		for(int c = 0; c < chunks; c++)
+			ioCompositor.add(_buffers[c]);
+	}
+	/**
+	 * Despawn finished instances and evaluate the rest into chunk buffers,
+	 * using the camera matrix in {@link #_camera}.
+	 * @param iViewFrustum Current view frustum or null.
+	 * @return Number of chunks filled.
+	 */
+	private int evaluateFrame(Frustum iViewFrustum) {
+		_frameTime = _clock.getFrameTime();
+		_frustum = iViewFrustum;
+		if(_stepping) {
+			_stepping = false;
+			for(int i = 0; i < _pool.getActiveCount(); i++)
+				_pool.getActive(i).step(_frameTime);
+		}
+		_pool.despawnFinished(_frameTime);
+		int chunks = (_pool.getActiveCount() + _chunkSize - 1) / _chunkSize;
+		_drewLastFrame = chunks > 0;
+		if(chunks == 0)
+			return 0;
+		if(_buffers.length < chunks) {
+			QuadBuffer buffers[] = new QuadBuffer[chunks];
+			System.arraycopy(_buffers, 0, buffers, 0, _buffers.length);
+			for(int i = _buffers.length; i < chunks; i++)
+				buffers[i] = new QuadBuffer();
+			_buffers = buffers;
+		}
+		if(chunks == 1 || _evaluationPool == null) {
+			for(int c = 0; c < chunks; c++)
+				evaluateChunk(c);
+		} else {
+			_evaluationPool.invoke(new EvaluateTask(0, chunks));
+		}
+		return chunks;
+	}
+	/**
+	 * Evaluates a range of chunks, splitting it in halves until a single
+	 * chunk is left.
+	 */
+	private class EvaluateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int _from;
+		private final int _to;
+
+		EvaluateTask(int iFrom, int iTo) {
+			_from = iFrom;
+			_to = iTo;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from == 1) {
+				evaluateChunk(_from);
+				return;
+			}
+			int middle = (_from + _to) >>> 1;
+			invokeAll(
+				new EvaluateTask(_from, middle),
+				new EvaluateTask(middle, _to));
+		}
+	}
+	/**
+	 * Evaluate instances of a chunk into its buffer.
+	 * @param iChunk Chunk index.
+	 */
+	private void evaluateChunk(int iChunk) {
+		QuadBuffer buffer = _buffers[iChunk];
+		buffer.clear();
+		int end = Math.min(_pool.getActiveCount(), (iChunk + 1) * _chunkSize);
+		for(int i = iChunk * _chunkSize; i < end; i++) {
+			EffectInstance instance = _pool.getActive(i);
+			int frame = instance.getFrame(_frameTime);
+			float fraction =
+				_interpolate ? instance.getFrameFraction(_frameTime) : 0;
+			if(_frustum == null
+				|| isVisible(instance, frame, fraction, _frustum, buffer._bounds)) {
+				evaluate(instance, frame, fraction, buffer);
+				buffer.endGroup(buffer._matrix[14]);
+			}
+		}
+	}
+	/**
+	 * Evaluate all drawn layers of an instance.
+	 * @param iInstance Instance to evaluate.
+	 * @param iFrame Frame to evaluate.
+	 * @param iFraction Position between the frame and the next one.
+	 * @param ioBuffer Buffer to add quads to.
+	 */
+	private void evaluate(
+			EffectInstance iInstance,
+			int iFrame,
+			float iFraction,
+			QuadBuffer ioBuffer) {
+		StrTimeline timeline = iInstance._timeline;
+		computeMatrix(iInstance, _camera, ioBuffer._matrix);
+		// morph all drawn layers in one batch first
+		LayerBatchEvaluator batch = ioBuffer._evaluator;
+		batch.clear();
+		for(int l = 0; l < timeline.getLayerCount(); l++) {
+			if(!timeline.isDrawn(l, iFrame, iFraction))
+				continue;
+			int base = timeline.getBaseFrameIndex(l, iFrame);
+			int animation = timeline.getAnimationFrameIndex(l, iFrame);
+			if(animation == FrameAdvanceCalculator.NO_FRAME) {
+				batch.add(
+					timeline.getPackedBaseFrames(l),
+					base * LayerState.PACKED_SIZE,
+					null,
+					0,
+					0);
+			} else {
+				batch.add(
+					timeline.getPackedBaseFrames(l),
+					base * LayerState.PACKED_SIZE,
+					timeline.getPackedAnimationFrames(l),
+					animation * LayerState.PACKED_SIZE,
+					iFrame
+					- timeline.getKeyFrames(l)[animation].get_framenum()
+					+ getFrameFraction(timeline, l, iFrame, iFraction));
+			}
+		}
+		batch.evaluate();
+		LayerState state = ioBuffer._state;
+		int slot = 0;
+		for(int l = 0; l < timeline.getLayerCount(); l++) {
+			if(!timeline.isDrawn(l, iFrame, iFraction))
+				continue;
+			Layer layer = timeline.getLayer(l);
+			state.evaluate(
+				l,
+				layer,
+				timeline.getBaseFrame(l, iFrame),
+				iFrame,
+				batch.getResults(),
+				LayerBatchEvaluator.getResultOffset(slot++));
+			ioBuffer.add(
+				state,
+				l != 0 ? layer.get_textures().get(state._textureIndex) : null,
+				l,
+				ioBuffer._matrix);
+		}
+	}
+	/**
+	 * Compute the matrix layer quads of an instance are drawn with, see
+	 * {@link LayerDrawer#computeEffectMatrix(float[], float, float, float,
+	 * float, float, float, float, float, float, float[])}.
+	 * @param iInstance Instance.
+	 * @param iCamera Model view matrix, column major.
+	 * @param oMatrix Result, column major.
+	 */
+	static void computeMatrix(
+			EffectInstance iInstance,
+			float iCamera[],
+			float oMatrix[]) {
+		LayerDrawer.computeEffectMatrix(
+			iCamera,
+			iInstance._x,
+			iInstance._y,
+			iInstance._z,
+			iInstance._xRotation,
+			iInstance._yRotation,
+			iInstance._zRotation,
+			iInstance._xScale,
+			iInstance._yScale,
+			iInstance._zScale,
+			oMatrix);
+	}
+	/**
+	 * Same rule as {@link SimpleStrRenderer#getFrameFraction(int, int)}: only
+	 * interpolate if the next frame keeps the same key frames.
+	 */
+	private static float getFrameFraction(
+			StrTimeline iTimeline,
+			int iLayer,
+			int iFrame,
+			float iFraction) {
+		if(iFraction == 0 || iFrame + 1 >= iTimeline.getFrameCount())
+			return 0;
+		if(iTimeline.getBaseFrameIndex(iLayer, iFrame + 1)
+				!= iTimeline.getBaseFrameIndex(iLayer, iFrame)
+			|| iTimeline.getAnimationFrameIndex(iLayer, iFrame + 1)
+				!= iTimeline.getAnimationFrameIndex(iLayer, iFrame))
+			return 0;
+		return iFraction;
+	}
+	/**
+	 * Check whether the bounds of an instance frame intersect the view
+	 * frustum, the same way {@link SimpleStrRenderer} does.
+	 * @param ioBounds Scratch array of 8 floats.
+	 */
+	private static boolean isVisible(
+			EffectInstance iInstance,
+			int iFrame,
+			float iFraction,
+			Frustum iViewFrustum,
+			float ioBounds[]) {
+		StrTimeline timeline = iInstance._timeline;
+		boolean interpolated =
+			iFraction > 0 && iFrame + 1 < timeline.getFrameCount();
+		if(timeline.isFrameEmpty(iFrame)
+			&& (!interpolated || timeline.isFrameEmpty(iFrame + 1)))
+			return false;
+		timeline.getBounds(iFrame, ioBounds);
+		if(interpolated) {
+			// next frame bounds go to the second half of the array
+			System.arraycopy(ioBounds, 0, ioBounds, 4, 4);
+			timeline.getBounds(iFrame + 1, ioBounds);
+			ioBounds[0] = Math.min(ioBounds[0], ioBounds[4]);
+			ioBounds[1] = Math.min(ioBounds[1], ioBounds[5]);
+			ioBounds[2] = Math.max(ioBounds[2], ioBounds[6]);
+			ioBounds[3] = Math.max(ioBounds[3], ioBounds[7]);
+		}
+		float centerX = (ioBounds[0] + ioBounds[2]) / 2;
+		float centerY = (ioBounds[1] + ioBounds[3]) / 2;
+		float halfWidth = (ioBounds[2] - ioBounds[0]) / 2 * iInstance._xScale;
+		float halfHeight = (ioBounds[3] - ioBounds[1]) / 2 * iInstance._yScale;
+		float radius =
+			(float)Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight)
+			+ timeline.getDepth();
+		return iViewFrustum.intersectsSphere(
+			iInstance._x + centerX * iInstance._xScale
+				+ centerY * iInstance._yAxisX,
+			iInstance._y + centerY * iInstance._yAxisY,
+			iInstance._z + centerY * iInstance._yAxisZ,
+			radius);
+	}
+
+	/**
+	 * Active instances are assumed to animate. Once the last one finishes,
+	 * one more redraw clears it from the view.
+	 */
+	@Override
+	public boolean needsRedraw() {
+		return _pool.getActiveCount() > 0 || _drewLastFrame || _stepping;
+	}
+	/**
+	 * Each active instance advances by one frame of its own effect.
+	 */
+	@Override
+	public void step() {
+		_stepping = true;
+	}
+
+	@Override
+	public void initialize(GLAutoDrawable ioDrawable) throws ResourceException {
+		_pool.pinTextures();
+		_drawer.setCombiner(
+			MultiTextureCombiner.forContext(ioDrawable.getGL().getGL2()));
+	}
+	/**
+	 * Restart all active instances.
+	 */
+	@Override
+	public void reset() {
+		long now = _clock.getFrameTime();
+		for(int i = 0; i < _pool.getActiveCount(); i++)
+			_pool.getActive(i).restart(now);
+	}
+
+	@Override
+	public void dispose(GLAutoDrawable ioDrawable) {
+		// unpinned textures are left for the texture manager to evict
+		_pool.releaseTextures();
+	}
+
+	@Override
+	public void handleReshape(GLAutoDrawable drawable, int x, int y, int width,
+			int height) {
+		// nothing to do.
+	}
+}
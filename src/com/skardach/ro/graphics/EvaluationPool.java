@@ -0,0 +1,25 @@
+package com.skardach.ro.graphics;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Work stealing pool shared by renderers which evaluate effects on several
+ * cores. Evaluation never touches OpenGL, drawing stays on the OpenGL thread.
+ * The pool is created on first use with one worker per available core.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class EvaluationPool {
+	private static ForkJoinPool _shared = null;
+
+	private EvaluationPool() {
+	}
+	/**
+	 * @return Pool shared by all renderers.
+	 */
+	public static synchronized ForkJoinPool getShared() {
+		if(_shared == null)
+			_shared = new ForkJoinPool();
+		return _shared;
+	}
+}
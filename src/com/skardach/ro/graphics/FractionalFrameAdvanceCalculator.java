@@ -0,0 +1,18 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Frame advance calculator which also knows how far playback got between
+ * the frame it returned last and the next one, so that renderers can
+ * interpolate when the display refreshes faster than the effect frame rate.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface FractionalFrameAdvanceCalculator
+		extends FrameAdvanceCalculator {
+	/**
+	 * @return Position between the frame returned by the last call to
+	 * {@link #calculateFrameToRender(long, int)} and the next frame, in range
+	 * [0, 1[.
+	 */
+	float getFrameFraction();
+}
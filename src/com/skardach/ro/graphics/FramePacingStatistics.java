@@ -0,0 +1,86 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Frame pacing statistics: how regular the intervals between presented
+ * frames are and how many frames missed their deadline, i.e. took more than
+ * one and a half of the target frame period.
+ * @author Stanislaw Kardach
+ *
+ */
+public class FramePacingStatistics {
+	private final long _targetNanos;
+	private long _frames = 0;
+	private long _missed = 0;
+	private double _mean = 0;
+	/**
+	 * Sum of squared differences from the mean (Welford's algorithm).
+	 */
+	private double _squares = 0;
+	private long _worst = 0;
+	/**
+	 * Create statistics for a given frame period.
+	 * @param iTargetNanos Expected interval between frames in nanoseconds.
+	 */
+	public FramePacingStatistics(long iTargetNanos) {
+		_targetNanos = iTargetNanos;
+	}
+	/**
+	 * Record an interval between two frames.
+	 * @param iIntervalNanos Interval in nanoseconds.
+	 */
+	public synchronized void record(long iIntervalNanos) {
+		_frames++;
+		double delta = iIntervalNanos - _mean;
+		_mean += delta / _frames;
+		_squares += delta * (iIntervalNanos - _mean);
+		if(iIntervalNanos * 2 > _targetNanos * 3)
+			_missed++;
+		_worst = Math.max(_worst, iIntervalNanos);
+	}
+	/**
+	 * Forget all recorded intervals.
+	 */
+	public synchronized void reset() {
+		_frames = 0;
+		_missed = 0;
+		_mean = 0;
+		_squares = 0;
+		_worst = 0;
+	}
+	/**
+	 * @return Expected interval between frames in nanoseconds.
+	 */
+	public long getTargetNanos() {
+		return _targetNanos;
+	}
+	/**
+	 * @return Number of recorded intervals.
+	 */
+	public synchronized long getFrameCount() {
+		return _frames;
+	}
+	/**
+	 * @return Number of intervals longer than one and a half of the target.
+	 */
+	public synchronized long getMissedDeadlines() {
+		return _missed;
+	}
+	/**
+	 * @return Average interval in nanoseconds.
+	 */
+	public synchronized double getAverageNanos() {
+		return _mean;
+	}
+	/**
+	 * @return Standard deviation of intervals in nanoseconds.
+	 */
+	public synchronized double getJitterNanos() {
+		return _frames > 1 ? Math.sqrt(_squares / (_frames - 1)) : 0;
+	}
+	/**
+	 * @return Longest interval in nanoseconds.
+	 */
+	public synchronized long getWorstNanos() {
+		return _worst;
+	}
+}
@@ -0,0 +1,202 @@
+package com.skardach.ro.graphics;
+
+import java.awt.EventQueue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Drives drawing of canvases from a single thread. Each iteration samples
+ * the {@link AnimationClock} once, displays all canvases and then waits for
+ * the next frame deadline. Deadlines follow a fixed grid of the target frame
+ * period, so that late frames do not shift all the following ones, unless
+ * a frame is late by more than a whole period. With vertical synchronization
+ * the swap waits for the display refresh, which aligns presentation to it;
+ * the scheduler only keeps the loop from running faster than the target.
+ * Drawables added with a {@link RedrawCondition} are only displayed when it
+ * says something changed, so that idle views cost next to nothing.
+ * @author Stanislaw Kardach
+ *
+ */
+public class FrameScheduler {
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final AnimationClock _clock;
+	private final long _periodNanos;
+	private final boolean _vsync;
+	/**
+	 * Drawable to display and its redraw condition or null to always
+	 * display it.
+	 */
+	private static class Entry {
+		final GLAutoDrawable _drawable;
+		final RedrawCondition _condition;
+
+		Entry(GLAutoDrawable iDrawable, RedrawCondition iCondition) {
+			_drawable = iDrawable;
+			_condition = iCondition;
+		}
+	}
+	private final List<Entry> _drawables = new CopyOnWriteArrayList<Entry>();
+	private volatile long _skippedFrames = 0;
+	private final FramePacingStatistics _statistics;
+	private volatile Thread _thread = null;
+	/**
+	 * Create a scheduler.
+	 * @param iClock Clock sampled at the beginning of each frame.
+	 * @param iTargetFps Frames per second to present at most.
+	 * @param iVsync Should canvases wait for the display refresh when
+	 * swapping buffers. Applied by {@link #applySwapInterval(GLAutoDrawable)}.
+	 */
+	public FrameScheduler(AnimationClock iClock, int iTargetFps, boolean iVsync) {
+		_clock = iClock;
+		_periodNanos = NANOS_PER_SECOND / Math.max(1, iTargetFps);
+		_vsync = iVsync;
+		_statistics = new FramePacingStatistics(_periodNanos);
+	}
+	/**
+	 * @return Clock sampled by the scheduler.
+	 */
+	public AnimationClock getClock() {
+		return _clock;
+	}
+	/**
+	 * @return Pacing statistics of presented frames.
+	 */
+	public FramePacingStatistics getStatistics() {
+		return _statistics;
+	}
+	/**
+	 * @return True if presentation is synchronized with display refresh.
+	 */
+	public boolean isVsync() {
+		return _vsync;
+	}
+	/**
+	 * Set the swap interval of a drawable according to the vertical
+	 * synchronization setting. Has to be called on the OpenGL thread, i.e.
+	 * when the drawable is initialized.
+	 * @param ioDrawable Drawable to set up.
+	 */
+	public void applySwapInterval(GLAutoDrawable ioDrawable) {
+		ioDrawable.getGL().setSwapInterval(_vsync ? 1 : 0);
+	}
+	/**
+	 * Add a drawable to display every frame.
+	 * @param iDrawable Drawable to add.
+	 */
+	public void add(GLAutoDrawable iDrawable) {
+		add(iDrawable, null);
+	}
+	/**
+	 * Add a drawable to display whenever it needs a redraw.
+	 * @param iDrawable Drawable to add.
+	 * @param iCondition Condition checked every frame or null to display the
+	 * drawable every frame.
+	 */
+	public void add(GLAutoDrawable iDrawable, RedrawCondition iCondition) {
+		_drawables.add(new Entry(iDrawable, iCondition));
+	}
+	/**
+	 * Stop displaying a drawable.
+	 * @param iDrawable Drawable to remove.
+	 */
+	public void remove(GLAutoDrawable iDrawable) {
+		for(Entry e : _drawables)
+			if(e._drawable == iDrawable)
+				_drawables.remove(e);
+	}
+	/**
+	 * @return Number of frames in which no drawable needed a redraw.
+	 */
+	public long getSkippedFrames() {
+		return _skippedFrames;
+	}
+	/**
+	 * Start the drawing thread and resume the clock.
+	 */
+	public synchronized void start() {
+		if(_thread != null)
+			return;
+		_clock.resume();
+		_statistics.reset();
+		_thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "FrameScheduler");
+		_thread.start();
+	}
+	/**
+	 * Stop the drawing thread, wait for it to finish the current frame and
+	 * pause the clock. Does not wait when called on the AWT event thread,
+	 * which AWT canvases may need to display the frame.
+	 */
+	public synchronized void stop() {
+		Thread thread = _thread;
+		if(thread == null)
+			return;
+		_thread = null;
+		if(thread != Thread.currentThread()
+			&& !EventQueue.isDispatchThread()) {
+			LockSupport.unpark(thread);
+			try {
+				thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		_clock.pause();
+	}
+	/**
+	 * @return True if the drawing thread is running.
+	 */
+	public boolean isRunning() {
+		return _thread != null;
+	}
+
+	private void loop() {
+		Thread self = Thread.currentThread();
+		long deadline = System.nanoTime();
+		long lastFrameStart = 0;
+		while(_thread == self) {
+			long frameStart = System.nanoTime();
+			_clock.tick();
+			boolean presented = false;
+			for(Entry e : _drawables) {
+				try {
+					if(e._condition != null
+						&& !e._condition.needsRedraw(e._drawable))
+						continue;
+					e._drawable.display();
+					presented = true;
+				} catch(RuntimeException ex) {
+					ex.printStackTrace();
+				}
+			}
+			if(presented) {
+				if(lastFrameStart != 0)
+					_statistics.record(frameStart - lastFrameStart);
+				lastFrameStart = frameStart;
+			} else {
+				// idle time is not a frame interval
+				lastFrameStart = 0;
+				_skippedFrames++;
+			}
+			deadline += _periodNanos;
+			long now = System.nanoTime();
+			if(now - deadline > _periodNanos) {
+				// too late to catch up, start a new grid
+				deadline = now;
+				continue;
+			}
+			while(_thread == self && deadline - now > 0) {
+				LockSupport.parkNanos(deadline - now);
+				now = System.nanoTime();
+			}
+		}
+	}
+}
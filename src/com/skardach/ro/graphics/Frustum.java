@@ -0,0 +1,116 @@
+package com.skardach.ro.graphics;
+
+/**
+ * View frustum described by six planes in world coordinates. It mirrors the
+ * gluPerspective/gluLookAt pair used by {@link OpenGLWrapper} and is used by
+ * renderers to skip effects which are not visible in the current view.
+ * The object is mutable so that the same instance can be updated every frame
+ * without allocations.
+ * @author Stanislaw Kardach
+ *
+ */
+public class Frustum {
+	private static final int PLANE_COUNT = 6;
+	/**
+	 * Plane equations (a, b, c, d) with normals pointing inside the frustum.
+	 * Point p is inside a plane if a*p.x + b*p.y + c*p.z + d >= 0.
+	 */
+	private final float _planes[] = new float[PLANE_COUNT * 4];
+	/**
+	 * Update the frustum from perspective and look-at settings. Parameters
+	 * are the same as for gluPerspective and gluLookAt.
+	 * @param iAngle Field of view angle in degrees (Y direction).
+	 * @param iAspect Viewport width to height ratio.
+	 * @param iNear Near clipping distance.
+	 * @param iFar Far clipping distance.
+	 * @param iEyeX Eye position
+	 * @param iEyeY Eye position
+	 * @param iEyeZ Eye position
+	 * @param iCenterX Reference point the eye is looking at
+	 * @param iCenterY Reference point the eye is looking at
+	 * @param iCenterZ Reference point the eye is looking at
+	 * @param iUpX Up vector
+	 * @param iUpY Up vector
+	 * @param iUpZ Up vector
+	 */
+	public void update(
+			float iAngle,
+			float iAspect,
+			float iNear,
+			float iFar,
+			float iEyeX, float iEyeY, float iEyeZ,
+			float iCenterX, float iCenterY, float iCenterZ,
+			float iUpX, float iUpY, float iUpZ) {
+		// forward
+		float fx = iCenterX - iEyeX;
+		float fy = iCenterY - iEyeY;
+		float fz = iCenterZ - iEyeZ;
+		float len = length(fx, fy, fz);
+		fx /= len; fy /= len; fz /= len;
+		// side = forward x up
+		float sx = fy * iUpZ - fz * iUpY;
+		float sy = fz * iUpX - fx * iUpZ;
+		float sz = fx * iUpY - fy * iUpX;
+		len = length(sx, sy, sz);
+		sx /= len; sy /= len; sz /= len;
+		// real up = side x forward
+		float ux = sy * fz - sz * fy;
+		float uy = sz * fx - sx * fz;
+		float uz = sx * fy - sy * fx;
+		float tanY = (float)Math.tan(Math.toRadians(iAngle) / 2);
+		float tanX = tanY * iAspect;
+		// near and far
+		setPlane(0, fx, fy, fz,
+			iEyeX + fx * iNear, iEyeY + fy * iNear, iEyeZ + fz * iNear);
+		setPlane(1, -fx, -fy, -fz,
+			iEyeX + fx * iFar, iEyeY + fy * iFar, iEyeZ + fz * iFar);
+		// left, right, bottom, top all go through the eye
+		setPlane(2, sx + fx * tanX, sy + fy * tanX, sz + fz * tanX,
+			iEyeX, iEyeY, iEyeZ);
+		setPlane(3, -sx + fx * tanX, -sy + fy * tanX, -sz + fz * tanX,
+			iEyeX, iEyeY, iEyeZ);
+		setPlane(4, ux + fx * tanY, uy + fy * tanY, uz + fz * tanY,
+			iEyeX, iEyeY, iEyeZ);
+		setPlane(5, -ux + fx * tanY, -uy + fy * tanY, -uz + fz * tanY,
+			iEyeX, iEyeY, iEyeZ);
+	}
+	/**
+	 * Check whether a sphere is at least partially inside the frustum. The
+	 * test is conservative, i.e. it may report spheres lying close to the
+	 * frustum corners as visible.
+	 * @param iX Sphere center
+	 * @param iY Sphere center
+	 * @param iZ Sphere center
+	 * @param iRadius Sphere radius
+	 * @return False if the sphere is guaranteed to be outside the frustum.
+	 */
+	public boolean intersectsSphere(float iX, float iY, float iZ, float iRadius) {
+		for(int p = 0; p < PLANE_COUNT * 4; p += 4) {
+			float distance =
+				_planes[p] * iX
+				+ _planes[p + 1] * iY
+				+ _planes[p + 2] * iZ
+				+ _planes[p + 3];
+			if(distance < -iRadius)
+				return false;
+		}
+		return true;
+	}
+
+	private void setPlane(
+			int iPlane,
+			float iNX, float iNY, float iNZ,
+			float iPX, float iPY, float iPZ) {
+		float len = length(iNX, iNY, iNZ);
+		iNX /= len; iNY /= len; iNZ /= len;
+		int p = iPlane * 4;
+		_planes[p] = iNX;
+		_planes[p + 1] = iNY;
+		_planes[p + 2] = iNZ;
+		_planes[p + 3] = -(iNX * iPX + iNY * iPY + iNZ * iPZ);
+	}
+
+	private static float length(float iX, float iY, float iZ) {
+		return (float)Math.sqrt(iX * iX + iY * iY + iZ * iZ);
+	}
+}
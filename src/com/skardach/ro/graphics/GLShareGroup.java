@@ -0,0 +1,153 @@
+package com.skardach.ro.graphics;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jogamp.opengl.GLAutoDrawable;
+import com.jogamp.opengl.GLCapabilities;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLDrawableFactory;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.GLSharedContextSetter;
+
+/**
+ * Group of OpenGL contexts sharing textures. The group owns an invisible
+ * master context which every member is created shared with, so that a
+ * texture uploaded in any of them can be bound in all of them, and a
+ * second invisible context meant for uploading textures on a background
+ * thread (see
+ * {@link com.skardach.ro.resource.AsyncTextureLoader#setUploadContext(
+ * GLContext)}). Textures remember the group rather than the context they
+ * were uploaded to, see {@link #getKey(GLContext)}.
+ * Drawables have to be {@link #share(GLSharedContextSetter)}d before they
+ * are realized and their contexts {@link #join(GLContext)} the group once
+ * created.
+ * @author Stanislaw Kardach
+ *
+ */
+public class GLShareGroup {
+	private static final Map<GLContext, GLShareGroup> _members =
+		new WeakHashMap<GLContext, GLShareGroup>();
+	/**
+	 * A {@link #getKey(GLContext)} answer. Contexts are only weakly
+	 * referenced, so that a destroyed canvas context can be collected.
+	 */
+	private static final class Lookup {
+		final WeakReference<GLContext> _context;
+		final WeakReference<GLContext> _key;
+
+		Lookup(GLContext iContext, GLContext iKey) {
+			_context = new WeakReference<GLContext>(iContext);
+			_key = new WeakReference<GLContext>(iKey);
+		}
+	}
+	private static final Lookup NO_LOOKUP = new Lookup(null, null);
+	/**
+	 * Last {@link #getKey(GLContext)} answer, since textures of a frame are
+	 * usually bound in the same context.
+	 */
+	private static volatile Lookup _lastLookup = NO_LOOKUP;
+
+	private final GLAutoDrawable _master;
+	private final GLAutoDrawable _uploader;
+	/**
+	 * Master context, identifying textures of the group.
+	 */
+	private final GLContext _key;
+	/**
+	 * Create a group with its master and upload contexts.
+	 * @param iProfile Profile of contexts of the group.
+	 * @return New group.
+	 */
+	public static GLShareGroup create(GLProfile iProfile) {
+		GLDrawableFactory factory = GLDrawableFactory.getFactory(iProfile);
+		GLCapabilities capabilities = new GLCapabilities(iProfile);
+		GLAutoDrawable master =
+			factory.createDummyAutoDrawable(null, true, capabilities, null);
+		master.display(); // realizes the context
+		GLSharedContextSetter uploader = (GLSharedContextSetter)
+			factory.createDummyAutoDrawable(null, true, capabilities, null);
+		uploader.setSharedAutoDrawable(master);
+		uploader.display();
+		return new GLShareGroup(master, uploader);
+	}
+
+	private GLShareGroup(GLAutoDrawable iMaster, GLAutoDrawable iUploader) {
+		_master = iMaster;
+		_uploader = iUploader;
+		_key = _master.getContext();
+		join(_key);
+		join(_uploader.getContext());
+	}
+	/**
+	 * Make a drawable create its context shared with the group. Has to be
+	 * called before the drawable is realized.
+	 * @param ioDrawable Drawable, i.e. a canvas.
+	 */
+	public void share(GLSharedContextSetter ioDrawable) {
+		ioDrawable.setSharedAutoDrawable(_master);
+	}
+	/**
+	 * Register a context created shared with the group. Contexts are
+	 * forgotten once they are garbage collected, so it is safe to join
+	 * every time a drawable (re)creates its context.
+	 * @param iContext Context to register.
+	 */
+	public void join(GLContext iContext) {
+		synchronized(_members) {
+			_members.put(iContext, this);
+			_lastLookup = NO_LOOKUP;
+		}
+	}
+	/**
+	 * @return Context for background uploads. It is not current on any
+	 * thread until someone makes it current.
+	 */
+	public GLContext getUploadContext() {
+		return _uploader.getContext();
+	}
+	/**
+	 * Get the context identifying textures uploaded to a given one.
+	 * @param iContext Context to check.
+	 * @return Master context of the group the context belongs to or the
+	 * context itself if it does not belong to any.
+	 */
+	public static GLContext getKey(GLContext iContext) {
+		Lookup last = _lastLookup;
+		if(iContext != null && last._context.get() == iContext) {
+			GLContext key = last._key.get();
+			if(key != null)
+				return key;
+		}
+		synchronized(_members) {
+			GLShareGroup group = _members.get(iContext);
+			GLContext result = group != null ? group._key : iContext;
+			_lastLookup = new Lookup(iContext, result);
+			return result;
+		}
+	}
+	/**
+	 * @param iContext Context to check.
+	 * @return True if the context belongs to a share group.
+	 */
+	public static boolean isShared(GLContext iContext) {
+		synchronized(_members) {
+			return _members.containsKey(iContext);
+		}
+	}
+	/**
+	 * Destroy the master and upload contexts. Members created shared with
+	 * the group keep their textures, but no new members can be created.
+	 * Whoever uses the upload context has to stop first.
+	 */
+	public void destroy() {
+		synchronized(_members) {
+			_members.remove(_key);
+			_members.remove(_uploader.getContext());
+			_lastLookup = NO_LOOKUP;
+		}
+		_uploader.destroy();
+		_master.destroy();
+	}
+}
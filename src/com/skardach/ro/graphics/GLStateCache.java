@@ -0,0 +1,468 @@
+package com.skardach.ro.graphics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+
+import com.skardach.ro.resource.Texture;
+
+/**
+ * Remembers OpenGL state set through it and drops calls which would not
+ * change anything. Tracks enabled capabilities, blend function, active
+ * texture unit, texture bound to each unit, texture parameters of bound
+ * textures, texture environment mode, color mask and current color. State
+ * changed by calls which do not go through the cache is unknown to it, so
+ * whoever issues them has to {@link #invalidate()} the cache (or the part
+ * of it they touched) afterwards. Unknown state is always set.
+ * One cache is kept per OpenGL context, use {@link #forContext(GL2)} to get
+ * it. A cache must only be used by the thread its context is current on.
+ * @author Stanislaw Kardach
+ *
+ */
+public class GLStateCache {
+	private static final Map<GLContext, GLStateCache> _caches =
+		new WeakHashMap<GLContext, GLStateCache>();
+	private static final int UNKNOWN = -1;
+	private static final int MAX_CAPS = 8;
+	private static final int MAX_UNITS = 4;
+	private static final int MAX_TEXTURE_PARAMETERS = 4;
+
+	private final int _caps[] = new int[MAX_CAPS];
+	/**
+	 * 1 if the capability is enabled, 0 if disabled, {@link #UNKNOWN} if not
+	 * known.
+	 */
+	private final int _capStates[] = new int[MAX_CAPS];
+	private int _capCount = 0;
+	private int _sourceBlend = UNKNOWN;
+	private int _destBlend = UNKNOWN;
+	/**
+	 * Index of the active texture unit or {@link #UNKNOWN}.
+	 */
+	private int _activeUnit = UNKNOWN;
+	private final Texture _boundTextures[] = new Texture[MAX_UNITS];
+	private final int _textureParameterNames[][] =
+		new int[MAX_UNITS][MAX_TEXTURE_PARAMETERS];
+	private final int _textureParameterValues[][] =
+		new int[MAX_UNITS][MAX_TEXTURE_PARAMETERS];
+	private final int _textureParameterCounts[] = new int[MAX_UNITS];
+	private final float _environmentModes[] = new float[MAX_UNITS];
+	/**
+	 * Color mask with red in the lowest bit or {@link #UNKNOWN}.
+	 */
+	private int _colorMask = UNKNOWN;
+	private final float _color[] = new float[4];
+	private boolean _colorKnown = false;
+	private long _issuedCalls = 0;
+	private long _elidedCalls = 0;
+	private long _textureBinds = 0;
+	/**
+	 * Get the cache of the current context of a given GL object.
+	 * @param iGL GL object, its context must be current.
+	 * @return Cache for the context.
+	 */
+	public static GLStateCache forContext(GL2 iGL) {
+		synchronized(_caches) {
+			GLContext context = iGL.getContext();
+			GLStateCache result = _caches.get(context);
+			if(result == null) {
+				result = new GLStateCache();
+				_caches.put(context, result);
+			}
+			return result;
+		}
+	}
+	/**
+	 * Create a cache which knows nothing about the state.
+	 */
+	public GLStateCache() {
+		invalidate();
+	}
+	/**
+	 * Forget all state, i.e. after code which does not use the cache drew
+	 * something.
+	 */
+	public void invalidate() {
+		for(int i = 0; i < _capCount; i++)
+			_capStates[i] = UNKNOWN;
+		_sourceBlend = UNKNOWN;
+		_destBlend = UNKNOWN;
+		_activeUnit = UNKNOWN;
+		invalidateBindings();
+		Arrays.fill(_environmentModes, Float.NaN);
+		_colorMask = UNKNOWN;
+		invalidateColor();
+	}
+	/**
+	 * Forget which textures are bound, i.e. after a texture was created,
+	 * which binds it.
+	 */
+	public void invalidateBindings() {
+		Arrays.fill(_boundTextures, null);
+		Arrays.fill(_textureParameterCounts, 0);
+	}
+	/**
+	 * Forget current color, i.e. after it was set directly.
+	 */
+	public void invalidateColor() {
+		_colorKnown = false;
+	}
+	/**
+	 * @return Number of calls passed to OpenGL since the counters were reset.
+	 */
+	public long getIssuedCalls() {
+		return _issuedCalls;
+	}
+	/**
+	 * @return Number of calls dropped because they would not change state,
+	 * since the counters were reset.
+	 */
+	public long getElidedCalls() {
+		return _elidedCalls;
+	}
+	/**
+	 * @return Number of texture binds passed to OpenGL since the counters
+	 * were reset. Included in {@link #getIssuedCalls()}.
+	 */
+	public long getTextureBinds() {
+		return _textureBinds;
+	}
+	/**
+	 * Zero issued, elided and texture bind counters.
+	 */
+	public void resetCounters() {
+		_issuedCalls = 0;
+		_elidedCalls = 0;
+		_textureBinds = 0;
+	}
+	/**
+	 * glEnable
+	 * @param iGL GL context
+	 * @param iCap Capability to enable.
+	 */
+	public void enable(GL2 iGL, int iCap) {
+		if(setCap(iCap, 1))
+			glEnable(iGL, iCap);
+	}
+	/**
+	 * glDisable
+	 * @param iGL GL context
+	 * @param iCap Capability to disable.
+	 */
+	public void disable(GL2 iGL, int iCap) {
+		if(setCap(iCap, 0))
+			glDisable(iGL, iCap);
+	}
+	/**
+	 * glBlendFunc
+	 * @param iGL GL context
+	 * @param iSource Source factor.
+	 * @param iDest Destination factor.
+	 */
+	public void blendFunc(GL2 iGL, int iSource, int iDest) {
+		if(_sourceBlend == iSource && _destBlend == iDest) {
+			_elidedCalls++;
+			return;
+		}
+		glBlendFunc(iGL, iSource, iDest);
+		_sourceBlend = iSource;
+		_destBlend = iDest;
+		_issuedCalls++;
+	}
+	/**
+	 * glActiveTexture
+	 * @param iGL GL context
+	 * @param iUnit Texture unit, i.e. GL_TEXTURE0.
+	 */
+	public void activeTexture(GL2 iGL, int iUnit) {
+		int unit = iUnit - GL.GL_TEXTURE0;
+		if(unit == _activeUnit && unit != UNKNOWN) {
+			_elidedCalls++;
+			return;
+		}
+		glActiveTexture(iGL, iUnit);
+		_activeUnit = unit >= 0 && unit < MAX_UNITS ? unit : UNKNOWN;
+		_issuedCalls++;
+	}
+	/**
+	 * Bind a texture to the active unit.
+	 * @param iGL GL context
+	 * @param iTexture Texture to bind.
+	 * @return Result of {@link Texture#bind(GL2)}, true if the texture was
+	 * already bound.
+	 */
+	public boolean bindTexture(GL2 iGL, Texture iTexture) {
+		if(_activeUnit != UNKNOWN && _boundTextures[_activeUnit] == iTexture) {
+			_elidedCalls++;
+			return true;
+		}
+		boolean result = bind(iGL, iTexture);
+		_issuedCalls++;
+		_textureBinds++;
+		if(_activeUnit != UNKNOWN) {
+			// a failed bind may have left any texture bound
+			_boundTextures[_activeUnit] = result ? iTexture : null;
+			_textureParameterCounts[_activeUnit] = 0;
+		} else {
+			invalidateBindings();
+		}
+		return result;
+	}
+	/**
+	 * glTexParameteri for the texture bound to the active unit.
+	 * @param iGL GL context
+	 * @param iTarget Texture target.
+	 * @param iName Parameter name.
+	 * @param iValue Parameter value.
+	 */
+	public void texParameteri(GL2 iGL, int iTarget, int iName, int iValue) {
+		int unit = _activeUnit;
+		if(unit == UNKNOWN || _boundTextures[unit] == null) {
+			glTexParameteri(iGL, iTarget, iName, iValue);
+			_issuedCalls++;
+			return;
+		}
+		int names[] = _textureParameterNames[unit];
+		int values[] = _textureParameterValues[unit];
+		int count = _textureParameterCounts[unit];
+		int i = 0;
+		while(i < count && names[i] != iName)
+			i++;
+		if(i < count && values[i] == iValue) {
+			_elidedCalls++;
+			return;
+		}
+		glTexParameteri(iGL, iTarget, iName, iValue);
+		_issuedCalls++;
+		if(i < count) {
+			values[i] = iValue;
+		} else if(count < MAX_TEXTURE_PARAMETERS) {
+			names[count] = iName;
+			values[count] = iValue;
+			_textureParameterCounts[unit] = count + 1;
+		}
+	}
+	/**
+	 * glTexEnvf of the active unit. Only GL_TEXTURE_ENV_MODE is tracked.
+	 * @param iGL GL context
+	 * @param iTarget Environment target.
+	 * @param iName Parameter name.
+	 * @param iValue Parameter value.
+	 */
+	public void texEnvf(GL2 iGL, int iTarget, int iName, float iValue) {
+		boolean tracked = iTarget == GL2.GL_TEXTURE_ENV
+			&& iName == GL2.GL_TEXTURE_ENV_MODE
+			&& _activeUnit != UNKNOWN;
+		if(tracked && _environmentModes[_activeUnit] == iValue) {
+			_elidedCalls++;
+			return;
+		}
+		glTexEnvf(iGL, iTarget, iName, iValue);
+		_issuedCalls++;
+		if(tracked)
+			_environmentModes[_activeUnit] = iValue;
+	}
+	/**
+	 * glColorMask
+	 * @param iGL GL context
+	 * @param iRed Write red.
+	 * @param iGreen Write green.
+	 * @param iBlue Write blue.
+	 * @param iAlpha Write alpha.
+	 */
+	public void colorMask(
+			GL2 iGL,
+			boolean iRed,
+			boolean iGreen,
+			boolean iBlue,
+			boolean iAlpha) {
+		int mask = (iRed ? 1 : 0)
+			| (iGreen ? 2 : 0)
+			| (iBlue ? 4 : 0)
+			| (iAlpha ? 8 : 0);
+		if(mask == _colorMask) {
+			_elidedCalls++;
+			return;
+		}
+		glColorMask(iGL, iRed, iGreen, iBlue, iAlpha);
+		_colorMask = mask;
+		_issuedCalls++;
+	}
+	/**
+	 * glColor4ub. Can be called between glBegin and glEnd.
+	 * @param iGL GL context
+	 * @param iRed Red.
+	 * @param iGreen Green.
+	 * @param iBlue Blue.
+	 * @param iAlpha Alpha.
+	 */
+	public void color4ub(
+			GL2 iGL,
+			byte iRed,
+			byte iGreen,
+			byte iBlue,
+			byte iAlpha) {
+		// same conversion OpenGL does
+		if(isColor(
+				(iRed & 0xFF) / 255f,
+				(iGreen & 0xFF) / 255f,
+				(iBlue & 0xFF) / 255f,
+				(iAlpha & 0xFF) / 255f))
+			return;
+		glColor4ub(iGL, iRed, iGreen, iBlue, iAlpha);
+	}
+	/**
+	 * glColor4f. Can be called between glBegin and glEnd.
+	 * @param iGL GL context
+	 * @param iRed Red.
+	 * @param iGreen Green.
+	 * @param iBlue Blue.
+	 * @param iAlpha Alpha.
+	 */
+	public void color4f(
+			GL2 iGL,
+			float iRed,
+			float iGreen,
+			float iBlue,
+			float iAlpha) {
+		if(isColor(iRed, iGreen, iBlue, iAlpha))
+			return;
+		glColor4f(iGL, iRed, iGreen, iBlue, iAlpha);
+	}
+	/**
+	 * Get current color, asking OpenGL only if it is not known.
+	 * @param iGL GL context
+	 * @param oColor Array for red, green, blue and alpha.
+	 */
+	public void getColor(GL2 iGL, float oColor[]) {
+		if(_colorKnown) {
+			System.arraycopy(_color, 0, oColor, 0, 4);
+			_elidedCalls++;
+			return;
+		}
+		glGetColor(iGL, _color);
+		_colorKnown = true;
+		_issuedCalls++;
+		System.arraycopy(_color, 0, oColor, 0, 4);
+	}
+	/**
+	 * Compare a color with the current one and remember it.
+	 * @return True if the color is already current and the call can be
+	 * dropped.
+	 */
+	private boolean isColor(
+			float iRed,
+			float iGreen,
+			float iBlue,
+			float iAlpha) {
+		float color[] = _color;
+		if(_colorKnown
+			&& color[0] == iRed
+			&& color[1] == iGreen
+			&& color[2] == iBlue
+			&& color[3] == iAlpha) {
+			_elidedCalls++;
+			return true;
+		}
+		color[0] = iRed;
+		color[1] = iGreen;
+		color[2] = iBlue;
+		color[3] = iAlpha;
+		_colorKnown = true;
+		_issuedCalls++;
+		return false;
+	}
+	/**
+	 * Set state of a capability.
+	 * @return True if the call has to be issued.
+	 */
+	private boolean setCap(int iCap, int iState) {
+		int i = 0;
+		while(i < _capCount && _caps[i] != iCap)
+			i++;
+		if(i == _capCount) {
+			if(_capCount == MAX_CAPS) {
+				// not tracked
+				_issuedCalls++;
+				return true;
+			}
+			_caps[_capCount++] = iCap;
+		} else if(_capStates[i] == iState) {
+			_elidedCalls++;
+			return false;
+		}
+		_capStates[i] = iState;
+		_issuedCalls++;
+		return true;
+	}
+	/*
+	 * OpenGL entry points used by the cache. Tests override them to count
+	 * calls which reach OpenGL without needing a context.
+	 */
+	protected void glEnable(GL2 iGL, int iCap) {
+		iGL.glEnable(iCap);
+	}
+
+	protected void glDisable(GL2 iGL, int iCap) {
+		iGL.glDisable(iCap);
+	}
+
+	protected void glBlendFunc(GL2 iGL, int iSource, int iDest) {
+		iGL.glBlendFunc(iSource, iDest);
+	}
+
+	protected void glActiveTexture(GL2 iGL, int iUnit) {
+		iGL.glActiveTexture(iUnit);
+	}
+
+	protected boolean bind(GL2 iGL, Texture iTexture) {
+		return iTexture.bind(iGL);
+	}
+
+	protected void glTexParameteri(
+			GL2 iGL,
+			int iTarget,
+			int iName,
+			int iValue) {
+		iGL.glTexParameteri(iTarget, iName, iValue);
+	}
+
+	protected void glTexEnvf(GL2 iGL, int iTarget, int iName, float iValue) {
+		iGL.glTexEnvf(iTarget, iName, iValue);
+	}
+
+	protected void glColorMask(
+			GL2 iGL,
+			boolean iRed,
+			boolean iGreen,
+			boolean iBlue,
+			boolean iAlpha) {
+		iGL.glColorMask(iRed, iGreen, iBlue, iAlpha);
+	}
+
+	protected void glColor4ub(
+			GL2 iGL,
+			byte iRed,
+			byte iGreen,
+			byte iBlue,
+			byte iAlpha) {
+		iGL.glColor4ub(iRed, iGreen, iBlue, iAlpha);
+	}
+
+	protected void glColor4f(
+			GL2 iGL,
+			float iRed,
+			float iGreen,
+			float iBlue,
+			float iAlpha) {
+		iGL.glColor4f(iRed, iGreen, iBlue, iAlpha);
+	}
+
+	protected void glGetColor(GL2 iGL, float oColor[]) {
+		iGL.glGetFloatv(GL2.GL_CURRENT_COLOR, oColor, 0);
+	}
+}
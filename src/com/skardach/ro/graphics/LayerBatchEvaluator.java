@@ -0,0 +1,125 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Applies animation (morph) frames to many layers at once. Key frames are
+ * given as rows of {@link LayerState#PACKED_SIZE} floats, usually the ones
+ * precomputed by {@link StrTimeline#getPackedBaseFrames(int)} and
+ * {@link StrTimeline#getPackedAnimationFrames(int)}, and each result row is
+ * base + delta * factor. The inner loop is a plain multiply-add over
+ * contiguous arrays, which HotSpot vectorizes on its own, and the results
+ * are bit for bit the same as those of
+ * {@link LayerState#evaluate(int, com.skardach.ro.resource.str.Layer,
+ * com.skardach.ro.resource.str.KeyFrame,
+ * com.skardach.ro.resource.str.KeyFrame, int, float)}.
+ * Arrays grow as needed and are reused after {@link #clear()}. An evaluator
+ * must only be used by one thread at a time.
+ * @author Stanislaw Kardach
+ *
+ */
+public class LayerBatchEvaluator {
+	private static final int STRIDE = LayerState.PACKED_SIZE;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private float _baseRows[][] = new float[INITIAL_CAPACITY][];
+	private int _baseOffsets[] = new int[INITIAL_CAPACITY];
+	private float _deltaRows[][] = new float[INITIAL_CAPACITY][];
+	private int _deltaOffsets[] = new int[INITIAL_CAPACITY];
+	private float _factors[] = new float[INITIAL_CAPACITY];
+	private float _results[] = new float[INITIAL_CAPACITY * STRIDE];
+	private int _size = 0;
+	/**
+	 * Forget all added layers.
+	 */
+	public void clear() {
+		_size = 0;
+	}
+	/**
+	 * @return Number of added layers.
+	 */
+	public int size() {
+		return _size;
+	}
+	/**
+	 * Add a layer to evaluate.
+	 * @param iBase Array with packed base key frame.
+	 * @param iBaseOffset Offset of the base key frame in the array.
+	 * @param iDelta Array with packed animation key frame or null if there is
+	 * none.
+	 * @param iDeltaOffset Offset of the animation key frame in the array.
+	 * @param iFactor Frames (with fraction) since the animation key frame.
+	 * @return Index of the layer in results.
+	 */
+	public int add(
+			float iBase[],
+			int iBaseOffset,
+			float iDelta[],
+			int iDeltaOffset,
+			float iFactor) {
+		if(_size == _factors.length)
+			grow();
+		_baseRows[_size] = iBase;
+		_baseOffsets[_size] = iBaseOffset;
+		_deltaRows[_size] = iDelta;
+		_deltaOffsets[_size] = iDeltaOffset;
+		_factors[_size] = iFactor;
+		return _size++;
+	}
+	/**
+	 * Compute results of all added layers.
+	 */
+	public void evaluate() {
+		float results[] = _results;
+		for(int s = 0; s < _size; s++) {
+			float base[] = _baseRows[s];
+			int b = _baseOffsets[s];
+			int o = s * STRIDE;
+			float delta[] = _deltaRows[s];
+			if(delta == null) {
+				System.arraycopy(base, b, results, o, STRIDE);
+				continue;
+			}
+			int d = _deltaOffsets[s];
+			float factor = _factors[s];
+			for(int a = 0; a < STRIDE; a++)
+				results[o + a] = base[b + a] + delta[d + a] * factor;
+		}
+	}
+	/**
+	 * @return Results of the last {@link #evaluate()}, one row of
+	 * {@link LayerState#PACKED_SIZE} floats per layer, in the order layers
+	 * were added. Pass to
+	 * {@link LayerState#evaluate(int, com.skardach.ro.resource.str.Layer,
+	 * com.skardach.ro.resource.str.KeyFrame, int, float[], int)}.
+	 */
+	public float[] getResults() {
+		return _results;
+	}
+	/**
+	 * @param iIndex Index of the layer as returned by
+	 * {@link #add(float[], int, float[], int, float)}.
+	 * @return Offset of the layer row in {@link #getResults()}.
+	 */
+	public static int getResultOffset(int iIndex) {
+		return iIndex * STRIDE;
+	}
+
+	private void grow() {
+		int capacity = _factors.length * 2;
+		float baseRows[][] = new float[capacity][];
+		System.arraycopy(_baseRows, 0, baseRows, 0, _size);
+		_baseRows = baseRows;
+		int baseOffsets[] = new int[capacity];
+		System.arraycopy(_baseOffsets, 0, baseOffsets, 0, _size);
+		_baseOffsets = baseOffsets;
+		float deltaRows[][] = new float[capacity][];
+		System.arraycopy(_deltaRows, 0, deltaRows, 0, _size);
+		_deltaRows = deltaRows;
+		int deltaOffsets[] = new int[capacity];
+		System.arraycopy(_deltaOffsets, 0, deltaOffsets, 0, _size);
+		_deltaOffsets = deltaOffsets;
+		float factors[] = new float[capacity];
+		System.arraycopy(_factors, 0, factors, 0, _size);
+		_factors = factors;
+		_results = new float[capacity * STRIDE];
+	}
+}
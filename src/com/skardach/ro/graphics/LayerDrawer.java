@@ -0,0 +1,571 @@
+package com.skardach.ro.graphics;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+import com.skardach.ro.resource.AsyncTextureLoader;
+import com.skardach.ro.resource.ResourceException;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.MultiTextureMode;
+
+/**
+ * Draws evaluated layer quads. Shared by all renderers which play effects
+ * from {@link LayerState} objects, so that a quad looks the same no matter
+ * who evaluated it. Keeps its scratch arrays between calls, hence a drawer
+ * must only be used by one thread at a time (the OpenGL one). State changes
+ * go through the {@link GLStateCache} of the context, so layers sharing a
+ * texture or blending do not set it again.
+ * @author Stanislaw Kardach
+ *
+ */
+public class LayerDrawer {
+	private final float _currentColor[] = new float[4];
+	private final float _modelview[] = new float[16];
+	/**
+	 * Shader program which was in use when drawing started.
+	 */
+	private final int _previousProgram[] = new int[1];
+	/**
+	 * Combiner for multi texture presets, null if not available.
+	 */
+	private MultiTextureCombiner _combiner = null;
+	/**
+	 * Background texture loader or null if textures are loaded synchronously
+	 * on first use.
+	 */
+	private AsyncTextureLoader _textureLoader = null;
+	/**
+	 * Layers skipped since {@link #begin(GL2)} because their texture was not
+	 * uploaded yet.
+	 */
+	private int _waitingLayers = 0;
+	/**
+	 * Number of glBegin/glEnd pairs and quads drawn since the drawer was
+	 * created.
+	 */
+	private long _drawCalls = 0;
+	private long _quads = 0;
+	/**
+	 * State cache of the context set in {@link #begin(GL2)}.
+	 */
+	private GLStateCache _state = null;
+	/**
+	 * Quad drawing started by {@link #beginQuads(GL2)}: whether glBegin is
+	 * open, whether quads of the current batch are skipped, whether the
+	 * combiner is in use and the key of the last quad.
+	 */
+	private boolean _open = false;
+	private boolean _skip = false;
+	private boolean _combine = false;
+	private boolean _hasLast = false;
+	private Texture _lastTexture = null;
+	private int _lastSourceBlend = 0;
+	private int _lastDestBlend = 0;
+	private MultiTextureMode _lastMode = null;
+	/**
+	 * @param iCombiner Combiner for multi texture presets of the current
+	 * context or null to draw them with the first texture mapping only.
+	 */
+	public void setCombiner(MultiTextureCombiner iCombiner) {
+		_combiner = iCombiner;
+	}
+	/**
+	 * @param iTextureLoader Loader requested for textures which are not
+	 * uploaded yet, or null to load them synchronously.
+	 */
+	public void setTextureLoader(AsyncTextureLoader iTextureLoader) {
+		_textureLoader = iTextureLoader;
+	}
+	/**
+	 * @return State cache used by the current batch, null before the first
+	 * {@link #begin(GL2)}.
+	 */
+	public GLStateCache getStateCache() {
+		return _state;
+	}
+	/**
+	 * Prepare for drawing a batch of layers. Matrix for the effect has to be
+	 * set up by the caller.
+	 * @param iGL GL context
+	 */
+	public void begin(GL2 iGL) {
+		_waitingLayers = 0;
+		_state = stateCacheFor(iGL);
+		// whatever was drawn since the last batch did not use the cache
+		_state.invalidate();
+		_state.activeTexture(iGL, GL.GL_TEXTURE0);
+		_state.enable(iGL, GL.GL_TEXTURE_2D);
+		if(_combiner != null && _combiner.isAvailable())
+			iGL.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, _previousProgram, 0);
+	}
+	/**
+	 * Finish drawing a batch of layers.
+	 * @param iGL GL context
+	 */
+	public void end(GL2 iGL) {
+		_state.disable(iGL, GL.GL_TEXTURE_2D);
+	}
+	/**
+	 * @return Number of layers skipped since {@link #begin(GL2)} because their
+	 * texture is still being loaded. Such layers appear once it is uploaded,
+	 * so the picture is going to change.
+	 */
+	public int getWaitingLayers() {
+		return _waitingLayers;
+	}
+	/**
+	 * @return Number of glBegin/glEnd pairs issued since the drawer was
+	 * created.
+	 */
+	public long getDrawCalls() {
+		return _drawCalls;
+	}
+	/**
+	 * @return Number of quads drawn since the drawer was created.
+	 */
+	public long getQuadCount() {
+		return _quads;
+	}
+	/**
+	 * Bind a layer texture, loading it first if needed.
+	 * @param iGL GL context
+	 * @param iTexture Texture to bind.
+	 * @return False if the layer should be skipped because its texture was
+	 * requested from the background loader and is not uploaded yet.
+	 * @throws RenderException If the texture could not be loaded.
+	 */
+	public boolean bind(GL2 iGL, Texture iTexture) throws RenderException {
+		// fails if not loaded yet or loaded to a context lost since
+		if(_state.bindTexture(iGL, iTexture))
+			return true;
+		if(_textureLoader != null) {
+			// do not wait for it, skip the layer until it is uploaded
+			_textureLoader.request(iTexture);
+			_waitingLayers++;
+			return false;
+		}
+		try {
+			iTexture.load(iGL);
+		} catch (ResourceException e) {
+			throw new RenderException(
+				"Could not load texture: "
+				+ iTexture
+				+ ". Reason: "
+				+ e);
+		}
+		return _state.bindTexture(iGL, iTexture);
+	}
+	/**
+	 * Draw an evaluated layer quad.
+	 * @param iGL GL context
+	 * @param iLayerNumber Layer number in the effect stack
+	 * @param iLayer layer object
+	 * @param iState Evaluated layer state
+	 * @param iXScale Horizontal scale of the effect, kept by billboarding.
+	 * @param iYScale Vertical scale of the effect, kept by billboarding.
+	 * @throws RenderException If layer texture could not be loaded.
+	 */
+	public void draw(
+			GL2 iGL,
+			int iLayerNumber,
+			Layer iLayer,
+			LayerState iState,
+			float iXScale,
+			float iYScale) throws RenderException {
+		Texture texture = iLayerNumber != 0
+			? iLayer.get_textures().get(iState._textureIndex) : null;
+		if(texture != null && !bind(iGL, texture))
+			return;
+		_state.getColor(iGL, _currentColor);
+		Color finalColor = iState._color;
+		Point2D finalPosition = iState._position;
+		Rectangle<Point2D> finalRectangle = iState._rectangle;
+		Rectangle<Point2D> finalTextureMapping = iState._textureMapping;
+		Rectangle<Point2D> finalTextureMapping2 = iState._textureMapping2;
+		boolean combine = false;
+
+		if (texture != null) {
+			combine = iState._multiTextureMode.needsCombiner()
+				&& _combiner != null
+				&& _combiner.isAvailable();
+			if(combine) {
+				// second stage samples the same texture with second UV set
+				_state.activeTexture(iGL, GL.GL_TEXTURE1);
+				_state.bindTexture(iGL, texture);
+				_state.activeTexture(iGL, GL.GL_TEXTURE0);
+				_combiner.begin(iGL, iState._multiTextureMode);
+			}
+			_state.enable(iGL, GL2.GL_TEXTURE_2D);
+			// linear filter
+			_state.texParameteri(iGL, GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR); // or NEAREST
+		} else {
+			_state.disable(iGL, GL2.GL_TEXTURE_2D);
+			_state.blendFunc(iGL, GL2.GL_ONE, GL2.GL_ZERO);
+		}
+
+		iGL.glPushMatrix();
+
+		billboard(iGL, iXScale, iYScale);
+		_state.color4ub(
+			iGL,
+			(byte)finalColor._r,
+			(byte)finalColor._g,
+			(byte)finalColor._b,
+			(byte)finalColor._alpha);
+
+		iGL.glTranslatef(
+			finalPosition._x,
+			finalPosition._y,
+			0f);
+		iGL.glRotatef(iState._rotation, 0, 0, 1);
+
+		_state.enable(iGL, GL.GL_BLEND);
+
+		_state.blendFunc(iGL, iState._baseFrame.get_sourceBlend().toGLValue(),
+		iState._baseFrame.get_destBlend().toGLValue());
+
+		_state.colorMask(iGL, true, true, true, true);
+		iGL.glBegin(GL2.GL_QUADS);				//BEGIN ----------------
+		_drawCalls++;
+		_quads++;
+
+		iGL.glTexCoord2f(
+			finalTextureMapping._d._x,
+			finalTextureMapping._d._y);
+		if(combine)
+			iGL.glMultiTexCoord2f(
+				GL.GL_TEXTURE1,
+				finalTextureMapping2._d._x,
+				finalTextureMapping2._d._y);
+		iGL.glVertex3f(
+			finalRectangle._c._x,
+			finalRectangle._c._y,
+			StrTimeline.LAYER_Z_STEP * iLayerNumber);
+
+		iGL.glTexCoord2f(
+			finalTextureMapping._c._x,
+			finalTextureMapping._c._y);
+		if(combine)
+			iGL.glMultiTexCoord2f(
+				GL.GL_TEXTURE1,
+				finalTextureMapping2._c._x,
+				finalTextureMapping2._c._y);
+		iGL.glVertex3f(
+			finalRectangle._d._x,
+			finalRectangle._d._y,
+			StrTimeline.LAYER_Z_STEP * iLayerNumber);
+
+		iGL.glTexCoord2f(
+			finalTextureMapping._a._x,
+			finalTextureMapping._a._y);
+		if(combine)
+			iGL.glMultiTexCoord2f(
+				GL.GL_TEXTURE1,
+				finalTextureMapping2._a._x,
+				finalTextureMapping2._a._y);
+		iGL.glVertex3f(
+			finalRectangle._a._x,
+			finalRectangle._a._y,
+			StrTimeline.LAYER_Z_STEP * iLayerNumber);
+
+		iGL.glTexCoord2f(
+			finalTextureMapping._b._x,
+			finalTextureMapping._b._y);
+		if(combine)
+			iGL.glMultiTexCoord2f(
+				GL.GL_TEXTURE1,
+				finalTextureMapping2._b._x,
+				finalTextureMapping2._b._y);
+		iGL.glVertex3f(
+			finalRectangle._b._x,
+			finalRectangle._b._y,
+			StrTimeline.LAYER_Z_STEP * iLayerNumber);
+		iGL.glEnd();
+		if(combine)
+			_combiner.end(iGL, _previousProgram[0]);
+
+		_state.colorMask(iGL, true, true, true, true);
+		_state.disable(iGL, GL.GL_BLEND);
+		_state.blendFunc(iGL, GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+		_state.color4f(
+			iGL,
+			_currentColor[0],
+			_currentColor[1],
+			_currentColor[2],
+			_currentColor[3]);
+		iGL.glPopMatrix();
+	}
+	/**
+	 * Draw quads evaluated ahead of time. Vertices are in eye coordinates so
+	 * the model view matrix is replaced by identity while drawing. Adjacent
+	 * quads with the same texture and blending are drawn in one batch.
+	 * @param iGL GL context
+	 * @param iQuads Quads to draw.
+	 * @throws RenderException If a texture could not be loaded.
+	 */
+	public void submit(GL2 iGL, QuadBuffer iQuads) throws RenderException {
+		if(iQuads._count == 0)
+			return;
+		beginQuads(iGL);
+		drawQuads(iGL, iQuads, 0, iQuads._count);
+		endQuads(iGL);
+	}
+	/**
+	 * Prepare for drawing quads evaluated ahead of time with
+	 * {@link #drawQuads(GL2, QuadBuffer, int, int)}.
+	 * @param iGL GL context
+	 */
+	public void beginQuads(GL2 iGL) {
+		_state.getColor(iGL, _currentColor);
+		glPushMatrix(iGL);
+		glLoadIdentity(iGL);
+		_state.enable(iGL, GL.GL_BLEND);
+		_state.colorMask(iGL, true, true, true, true);
+		_open = false;
+		_skip = false;
+		_combine = false;
+		_hasLast = false;
+		_lastTexture = null;
+		_lastMode = null;
+	}
+	/**
+	 * Draw a range of quads. Quads with the same texture and blending as the
+	 * previous one, also one drawn by an earlier call, are drawn in the same
+	 * batch.
+	 * @param iGL GL context
+	 * @param iQuads Quads to draw.
+	 * @param iFrom Index of the first quad.
+	 * @param iTo Index after the last quad.
+	 * @throws RenderException If a texture could not be loaded.
+	 */
+	public void drawQuads(
+			GL2 iGL,
+			QuadBuffer iQuads,
+			int iFrom,
+			int iTo) throws RenderException {
+		float v[] = iQuads._vertices;
+		for(int q = iFrom; q < iTo; q++) {
+			Texture texture = iQuads._textures[q];
+			if(!_hasLast
+				|| texture != _lastTexture
+				|| iQuads._sourceBlend[q] != _lastSourceBlend
+				|| iQuads._destBlend[q] != _lastDestBlend
+				|| iQuads._modes[q] != _lastMode) {
+				_hasLast = true;
+				_lastTexture = texture;
+				_lastSourceBlend = iQuads._sourceBlend[q];
+				_lastDestBlend = iQuads._destBlend[q];
+				_lastMode = iQuads._modes[q];
+				if(_open) {
+					glEnd(iGL);
+					if(_combine)
+						_combiner.end(iGL, _previousProgram[0]);
+					_open = false;
+				}
+				_combine = false;
+				_skip = texture != null && !bind(iGL, texture);
+				if(_skip)
+					continue;
+				if(texture != null) {
+					_combine = iQuads._modes[q].needsCombiner()
+						&& _combiner != null
+						&& _combiner.isAvailable();
+					if(_combine) {
+						_state.activeTexture(iGL, GL.GL_TEXTURE1);
+						_state.bindTexture(iGL, texture);
+						_state.activeTexture(iGL, GL.GL_TEXTURE0);
+						_combiner.begin(iGL, iQuads._modes[q]);
+					}
+					_state.enable(iGL, GL2.GL_TEXTURE_2D);
+					_state.texParameteri(iGL, GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+				} else {
+					_state.disable(iGL, GL2.GL_TEXTURE_2D);
+				}
+				_state.blendFunc(iGL, iQuads._sourceBlend[q], iQuads._destBlend[q]);
+				glBegin(iGL, GL2.GL_QUADS);
+				_drawCalls++;
+				_open = true;
+			} else if(_skip) {
+				continue;
+			}
+			_quads++;
+			int color = iQuads._colors[q];
+			_state.color4ub(
+				iGL,
+				(byte)color,
+				(byte)(color >> 8),
+				(byte)(color >> 16),
+				(byte)(color >> 24));
+			int o = q * QuadBuffer.QUAD_FLOATS;
+			for(int i = 0; i < 4; i++, o += QuadBuffer.VERTEX_FLOATS) {
+				glTexCoord2f(iGL, v[o + 3], v[o + 4]);
+				if(_combine)
+					glMultiTexCoord2f(iGL, GL.GL_TEXTURE1, v[o + 5], v[o + 6]);
+				glVertex3f(iGL, v[o], v[o + 1], v[o + 2]);
+			}
+		}
+	}
+	/**
+	 * Finish drawing quads started with {@link #beginQuads(GL2)}.
+	 * @param iGL GL context
+	 */
+	public void endQuads(GL2 iGL) {
+		if(_open) {
+			glEnd(iGL);
+			if(_combine)
+				_combiner.end(iGL, _previousProgram[0]);
+			_open = false;
+		}
+		_lastTexture = null;
+		_lastMode = null;
+		_state.disable(iGL, GL.GL_BLEND);
+		_state.blendFunc(iGL, GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+		_state.color4f(
+			iGL,
+			_currentColor[0],
+			_currentColor[1],
+			_currentColor[2],
+			_currentColor[3]);
+		glPopMatrix(iGL);
+	}
+	/**
+	 * Compute on the CPU the matrix {@link #draw(GL2, int, Layer, LayerState,
+	 * float, float)} draws layers with, so that quads can be transformed to
+	 * eye coordinates ahead of drawing: the camera matrix with effect
+	 * translation, rotations (around X, Z and Y axis, in that order) and
+	 * scale applied, followed by cylindrical billboarding.
+	 * @param iCamera Model view matrix, column major.
+	 * @param iX Effect position.
+	 * @param iY Effect position.
+	 * @param iZ Effect position.
+	 * @param iXRotation Rotation around X axis in degrees.
+	 * @param iYRotation Rotation around Y axis in degrees.
+	 * @param iZRotation Rotation around Z axis in degrees.
+	 * @param iXScale Effect scale.
+	 * @param iYScale Effect scale.
+	 * @param iZScale Effect scale.
+	 * @param oMatrix Result, column major. Element 14 is the eye space depth
+	 * of the effect origin.
+	 */
+	public static void computeEffectMatrix(
+			float iCamera[],
+			float iX,
+			float iY,
+			float iZ,
+			float iXRotation,
+			float iYRotation,
+			float iZRotation,
+			float iXScale,
+			float iYScale,
+			float iZScale,
+			float oMatrix[]) {
+		float m[] = oMatrix;
+		System.arraycopy(iCamera, 0, m, 0, 16);
+		for(int r = 0; r < 4; r++)
+			m[12 + r] += m[r] * iX + m[4 + r] * iY + m[8 + r] * iZ;
+		rotate(m, 4, 8, iXRotation); // around X: Y and Z columns
+		rotate(m, 0, 4, iZRotation); // around Z: X and Y columns
+		rotate(m, 8, 0, iYRotation); // around Y: Z and X columns
+		for(int r = 0; r < 4; r++) {
+			m[r] *= iXScale;
+			m[4 + r] *= iYScale;
+			m[8 + r] *= iZScale;
+		}
+		// same as billboard()
+		m[0] = iXScale;
+		m[1] = 0;
+		m[2] = 0;
+		m[8] = 0;
+		m[9] = 0;
+		m[10] = 1;
+	}
+	/**
+	 * Multiply a matrix by a rotation within the plane of two of its columns,
+	 * the first one turning towards the second.
+	 */
+	private static void rotate(float ioMatrix[], int iA, int iB, float iAngle) {
+		if(iAngle == 0)
+			return;
+		double angle = Math.toRadians(iAngle);
+		float cos = (float)Math.cos(angle);
+		float sin = (float)Math.sin(angle);
+		for(int r = 0; r < 4; r++) {
+			float a = ioMatrix[iA + r];
+			float b = ioMatrix[iB + r];
+			ioMatrix[iA + r] = a * cos + b * sin;
+			ioMatrix[iB + r] = b * cos - a * sin;
+		}
+	}
+	/**
+	 * Make the effect face us.
+	 * @param iGL GL context
+	 * @param iXScale Horizontal scale to keep.
+	 * @param iYScale Vertical scale to keep.
+	 */
+	private void billboard(GL2 iGL, float iXScale, float iYScale) {
+		// Cheat Cylindrical. Credits:
+		// http://www.lighthouse3d.com/opengl/billboarding/index.php3?billCheat1
+		float modelview[] = _modelview;
+		iGL.glGetFloatv(GL2.GL_MODELVIEW_MATRIX , modelview, 0);
+		float v;
+		for( int i=0; i<3; i+=2 )
+		    for( int j=0; j<3; j++ ) {
+				if ( i==j ) {
+					if (i == 0)
+						v = iXScale;
+					else if (i == 1)
+						v = iYScale;
+					else
+						v = 1.0f;
+					modelview[i*4+j] = v;
+				}
+				else {
+					modelview[i*4+j] = 0.0f;
+				}
+		    }
+		iGL.glLoadMatrixf(modelview,0);
+	}
+	/**
+	 * @param iGL GL object, its context must be current.
+	 * @return State cache of the context.
+	 */
+	protected GLStateCache stateCacheFor(GL2 iGL) {
+		return GLStateCache.forContext(iGL);
+	}
+	/*
+	 * OpenGL entry points used for quads evaluated ahead of time. Tests
+	 * override them to see the batches drawn without needing a context.
+	 */
+	protected void glPushMatrix(GL2 iGL) {
+		iGL.glPushMatrix();
+	}
+
+	protected void glLoadIdentity(GL2 iGL) {
+		iGL.glLoadIdentity();
+	}
+
+	protected void glPopMatrix(GL2 iGL) {
+		iGL.glPopMatrix();
+	}
+
+	protected void glBegin(GL2 iGL, int iMode) {
+		iGL.glBegin(iMode);
+	}
+
+	protected void glEnd(GL2 iGL) {
+		iGL.glEnd();
+	}
+
+	protected void glTexCoord2f(GL2 iGL, float iS, float iT) {
+		iGL.glTexCoord2f(iS, iT);
+	}
+
+	protected void glMultiTexCoord2f(GL2 iGL, int iUnit, float iS, float iT) {
+		iGL.glMultiTexCoord2f(iUnit, iS, iT);
+	}
+
+	protected void glVertex3f(GL2 iGL, float iX, float iY, float iZ) {
+		iGL.glVertex3f(iX, iY, iZ);
+	}
+}
@@ -0,0 +1,374 @@
+package com.skardach.ro.graphics;
+
+import com.skardach.ro.resource.str.AnimationType;
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.MultiTextureMode;
+
+/**
+ * Drawing parameters of a single layer in a given frame, i.e. the values of
+ * the current base key frame with the current animation (morph) frame
+ * applied. Objects of this class are meant to be reused from frame to frame
+ * so that layer evaluation does not allocate.
+ * @author Stanislaw Kardach
+ *
+ */
+public class LayerState {
+	static final float STR_ANGLE_TO_DEGREES = 1f; //= 2.8444f;
+	/**
+	 * Number of floats written by {@link #packBase(KeyFrame, float[], int)}
+	 * and {@link #packDelta(KeyFrame, float[], int)}.
+	 */
+	public static final int PACKED_SIZE = 31;
+
+	public final Color _color = new Color(0, 0, 0, 0);
+	public final Point2D _position = new Point2D(0, 0);
+	public float _rotation;
+	/**
+	 * Drawing rectangle. Vertices go like in
+	 * {@link KeyFrame#get_drawingRectangle()}.
+	 */
+	public final Rectangle<Point2D> _rectangle = newRectangle();
+	/**
+	 * Texture mapping. Note that the vertices are stored in reverse order
+	 * compared to {@link KeyFrame#get_textureUVMapping()}.
+	 */
+	public final Rectangle<Point2D> _textureMapping = newRectangle();
+	/**
+	 * Second texture mapping used by multi texture presets. Stored in the
+	 * same order as {@link #_textureMapping}.
+	 */
+	public final Rectangle<Point2D> _textureMapping2 = newRectangle();
+	/**
+	 * Multi texture preset of the base frame.
+	 */
+	public MultiTextureMode _multiTextureMode;
+	/**
+	 * Index of the texture on the layer texture list.
+	 */
+	public int _textureIndex;
+	/**
+	 * Base key frame this state was evaluated from.
+	 */
+	public KeyFrame _baseFrame;
+	/**
+	 * Evaluate layer state for a given frame.
+	 * @param iLayerNumber Number of the layer in the effect. Layer 0 is
+	 * treated as a background layer and covers the whole view.
+	 * @param iLayer Layer being evaluated.
+	 * @param iBaseFrame Current base key frame of the layer. Cannot be null.
+	 * @param iAnimationFrame Current animation key frame of the layer or null
+	 * if there is none.
+	 * @param iFrame Frame number being evaluated.
+	 */
+	public void evaluate(
+			int iLayerNumber,
+			Layer iLayer,
+			KeyFrame iBaseFrame,
+			KeyFrame iAnimationFrame,
+			int iFrame) {
+		evaluate(iLayerNumber, iLayer, iBaseFrame, iAnimationFrame, iFrame, 0);
+	}
+	/**
+	 * Evaluate layer state at a position between two frames. Only the
+	 * animation (morph) frame contribution is interpolated, texture changes
+	 * stay discrete.
+	 * @param iLayerNumber Number of the layer in the effect.
+	 * @param iLayer Layer being evaluated.
+	 * @param iBaseFrame Current base key frame of the layer. Cannot be null.
+	 * @param iAnimationFrame Current animation key frame of the layer or null
+	 * if there is none.
+	 * @param iFrame Frame number being evaluated.
+	 * @param iFraction Position between iFrame and the next frame, in range
+	 * [0, 1[. Should be 0 unless the next frame uses the same key frames.
+	 */
+	public void evaluate(
+			int iLayerNumber,
+			Layer iLayer,
+			KeyFrame iBaseFrame,
+			KeyFrame iAnimationFrame,
+			int iFrame,
+			float iFraction) {
+		_baseFrame = iBaseFrame;
+		Color color = iBaseFrame.get_color();
+		_color._r = color._r;
+		_color._g = color._g;
+		_color._b = color._b;
+		_color._alpha = color._alpha;
+		// translate by character size
+		_position._x = iBaseFrame.get_position()._x - 320;
+		_position._y = iBaseFrame.get_position()._y - 290;
+		_rotation = iBaseFrame.get_rotation() / STR_ANGLE_TO_DEGREES;
+		Rectangle<Point2D> rectangle = iBaseFrame.get_drawingRectangle();
+		copy(rectangle._a, _rectangle._a);
+		copy(rectangle._b, _rectangle._b);
+		copy(rectangle._c, _rectangle._c);
+		copy(rectangle._d, _rectangle._d);
+		Rectangle<Point2D> mapping = iBaseFrame.get_textureUVMapping();
+		copy(mapping._d, _textureMapping._a);
+		copy(mapping._c, _textureMapping._b);
+		copy(mapping._b, _textureMapping._c);
+		copy(mapping._a, _textureMapping._d);
+		mapping = iBaseFrame.get_textureUVMapping2();
+		copy(mapping._d, _textureMapping2._a);
+		copy(mapping._c, _textureMapping2._b);
+		copy(mapping._b, _textureMapping2._c);
+		copy(mapping._a, _textureMapping2._d);
+		_multiTextureMode = iBaseFrame.get_multiTexturePreset();
+
+		if(iAnimationFrame != null)
+			applyAnimationFrame(iAnimationFrame, iFrame, iFraction);
+		evaluateTexture(iLayerNumber, iLayer, iBaseFrame, iFrame);
+	}
+	/**
+	 * Evaluate layer state from values computed by
+	 * {@link LayerBatchEvaluator}. Gives the same result as
+	 * {@link #evaluate(int, Layer, KeyFrame, KeyFrame, int, float)} with the
+	 * key frames the values were computed from.
+	 * @param iLayerNumber Number of the layer in the effect.
+	 * @param iLayer Layer being evaluated.
+	 * @param iBaseFrame Current base key frame of the layer. Cannot be null.
+	 * @param iFrame Frame number being evaluated.
+	 * @param iValues Array with values laid out as by
+	 * {@link #packBase(KeyFrame, float[], int)}.
+	 * @param iOffset Offset of the values in the array.
+	 */
+	public void evaluate(
+			int iLayerNumber,
+			Layer iLayer,
+			KeyFrame iBaseFrame,
+			int iFrame,
+			float iValues[],
+			int iOffset) {
+		_baseFrame = iBaseFrame;
+		float v[] = iValues;
+		int o = iOffset;
+		_color._r = v[o++];
+		_color._g = v[o++];
+		_color._b = v[o++];
+		_color._alpha = v[o++];
+		_position._x = v[o++];
+		_position._y = v[o++];
+		_rotation = v[o++];
+		o = unpack(v, o, _rectangle);
+		o = unpack(v, o, _textureMapping);
+		unpack(v, o, _textureMapping2);
+		_multiTextureMode = iBaseFrame.get_multiTexturePreset();
+		evaluateTexture(iLayerNumber, iLayer, iBaseFrame, iFrame);
+	}
+	/**
+	 * Write values a base key frame sets, in the order used by
+	 * {@link LayerBatchEvaluator}: color (4), position (2), rotation (1),
+	 * drawing rectangle (8), texture mapping (8) and second texture mapping
+	 * (8), {@link #PACKED_SIZE} floats in total. Mappings are stored in the
+	 * same order as in layer state.
+	 * @param iBaseFrame Base key frame.
+	 * @param oValues Array to write to.
+	 * @param iOffset Where to start writing.
+	 */
+	public static void packBase(KeyFrame iBaseFrame, float oValues[], int iOffset) {
+		float v[] = oValues;
+		int o = iOffset;
+		Color color = iBaseFrame.get_color();
+		v[o++] = color._r;
+		v[o++] = color._g;
+		v[o++] = color._b;
+		v[o++] = color._alpha;
+		// translate by character size
+		v[o++] = iBaseFrame.get_position()._x - 320;
+		v[o++] = iBaseFrame.get_position()._y - 290;
+		v[o++] = iBaseFrame.get_rotation() / STR_ANGLE_TO_DEGREES;
+		Rectangle<Point2D> r = iBaseFrame.get_drawingRectangle();
+		o = pack(r._a, r._b, r._c, r._d, v, o);
+		r = iBaseFrame.get_textureUVMapping();
+		o = pack(r._d, r._c, r._b, r._a, v, o);
+		r = iBaseFrame.get_textureUVMapping2();
+		pack(r._d, r._c, r._b, r._a, v, o);
+	}
+	/**
+	 * Write per frame changes an animation key frame applies, laid out like
+	 * {@link #packBase(KeyFrame, float[], int)}, so that the animated value
+	 * is base + delta * (frames since the animation frame).
+	 * @param iAnimationFrame Animation key frame.
+	 * @param oValues Array to write to.
+	 * @param iOffset Where to start writing.
+	 */
+	public static void packDelta(
+			KeyFrame iAnimationFrame,
+			float oValues[],
+			int iOffset) {
+		float v[] = oValues;
+		int o = iOffset;
+		Color color = iAnimationFrame.get_color();
+		v[o++] = color._r;
+		v[o++] = color._g;
+		v[o++] = color._b;
+		v[o++] = color._alpha;
+		v[o++] = iAnimationFrame.get_position()._x;
+		v[o++] = iAnimationFrame.get_position()._y;
+		v[o++] = iAnimationFrame.get_rotation() / STR_ANGLE_TO_DEGREES;
+		Rectangle<Point2D> r = iAnimationFrame.get_drawingRectangle();
+		o = pack(r._a, r._b, r._c, r._d, v, o);
+		o = packMappingDelta(iAnimationFrame.get_textureUVMapping(), v, o);
+		packMappingDelta(iAnimationFrame.get_textureUVMapping2(), v, o);
+	}
+	/**
+	 * Same pairing of u and v deltas as in
+	 * {@link #addMapping(Rectangle, float, Rectangle)}.
+	 */
+	private static int packMappingDelta(
+			Rectangle<Point2D> iDelta,
+			float oValues[],
+			int iOffset) {
+		int o = iOffset;
+		oValues[o++] = iDelta._a._x;
+		oValues[o++] = iDelta._b._y;
+		oValues[o++] = iDelta._b._x;
+		oValues[o++] = iDelta._c._y;
+		oValues[o++] = iDelta._c._x;
+		oValues[o++] = iDelta._d._y;
+		oValues[o++] = iDelta._d._x;
+		oValues[o++] = iDelta._a._y;
+		return o;
+	}
+
+	private static int pack(
+			Point2D iA,
+			Point2D iB,
+			Point2D iC,
+			Point2D iD,
+			float oValues[],
+			int iOffset) {
+		int o = iOffset;
+		oValues[o++] = iA._x;
+		oValues[o++] = iA._y;
+		oValues[o++] = iB._x;
+		oValues[o++] = iB._y;
+		oValues[o++] = iC._x;
+		oValues[o++] = iC._y;
+		oValues[o++] = iD._x;
+		oValues[o++] = iD._y;
+		return o;
+	}
+
+	private static int unpack(
+			float iValues[],
+			int iOffset,
+			Rectangle<Point2D> oRectangle) {
+		int o = iOffset;
+		oRectangle._a._x = iValues[o++];
+		oRectangle._a._y = iValues[o++];
+		oRectangle._b._x = iValues[o++];
+		oRectangle._b._y = iValues[o++];
+		oRectangle._c._x = iValues[o++];
+		oRectangle._c._y = iValues[o++];
+		oRectangle._d._x = iValues[o++];
+		oRectangle._d._y = iValues[o++];
+		return o;
+	}
+	/**
+	 * Evaluate texture index and, for background layer, the rectangle.
+	 */
+	private void evaluateTexture(
+			int iLayerNumber,
+			Layer iLayer,
+			KeyFrame iBaseFrame,
+			int iFrame) {
+		float textureId = iBaseFrame.get_textureId();
+		//prevent out of bounds
+		if(textureId < 0)
+			textureId *= -1;
+		if(iBaseFrame.get_animationType() != AnimationType.NO_CHANGE) {
+			textureId +=
+				iBaseFrame.get_animationDelta() * 2
+				* (iFrame - iBaseFrame.get_framenum());
+		}
+		int textureCount = iLayer.get_textures().size();
+		if(iBaseFrame.get_animationType() == AnimationType.TYPE_2
+			&& (int)textureId >= textureCount)
+			textureId = (float)(textureCount - 1);
+		textureId %= textureCount;
+		_textureIndex = (int)textureId;
+
+		if(iLayerNumber == 0) {
+			// background layer
+			_rectangle._a._x = -400;
+			_rectangle._a._y = 300;
+			_rectangle._b._x = 400;
+			_rectangle._b._y = 300;
+			_rectangle._d._x = -400;
+			_rectangle._d._y = -300;
+			_rectangle._c._x = 400;
+			_rectangle._c._y = -300;
+		}
+	}
+	/**
+	 * Applies animation frame modifications unto current state.
+	 * @param iAnimationFrame Animation frame to apply
+	 * @param iFrame current rendered frame (used to calculate
+	 * animation intensity)
+	 * @param iFraction position between current and next frame
+	 */
+	private void applyAnimationFrame(
+			KeyFrame iAnimationFrame,
+			int iFrame,
+			float iFraction) {
+		float anifactor = iFrame - iAnimationFrame.get_framenum() + iFraction;
+		Color color = iAnimationFrame.get_color();
+		_color._r += color._r * anifactor;
+		_color._g += color._g * anifactor;
+		_color._b += color._b * anifactor;
+		_color._alpha += color._alpha * anifactor;
+		_position._x += iAnimationFrame.get_position()._x * anifactor;
+		_position._y += iAnimationFrame.get_position()._y * anifactor;
+		_rotation +=
+			(iAnimationFrame.get_rotation() / STR_ANGLE_TO_DEGREES) * anifactor;
+		Rectangle<Point2D> rectangle = iAnimationFrame.get_drawingRectangle();
+		add(rectangle._a, anifactor, _rectangle._a);
+		add(rectangle._b, anifactor, _rectangle._b);
+		add(rectangle._c, anifactor, _rectangle._c);
+		add(rectangle._d, anifactor, _rectangle._d);
+		addMapping(
+			iAnimationFrame.get_textureUVMapping(),
+			anifactor,
+			_textureMapping);
+		addMapping(
+			iAnimationFrame.get_textureUVMapping2(),
+			anifactor,
+			_textureMapping2);
+	}
+
+	private static void addMapping(
+			Rectangle<Point2D> iDelta,
+			float iFactor,
+			Rectangle<Point2D> ioMapping) {
+		// u and v deltas come from different vertices on purpose, see
+		// how base mapping is stored in reversed order
+		ioMapping._a._x += iDelta._a._x * iFactor;
+		ioMapping._a._y += iDelta._b._y * iFactor;
+		ioMapping._b._x += iDelta._b._x * iFactor;
+		ioMapping._b._y += iDelta._c._y * iFactor;
+		ioMapping._c._x += iDelta._c._x * iFactor;
+		ioMapping._c._y += iDelta._d._y * iFactor;
+		ioMapping._d._x += iDelta._d._x * iFactor;
+		ioMapping._d._y += iDelta._a._y * iFactor;
+	}
+
+	private static void copy(Point2D iFrom, Point2D oTo) {
+		oTo._x = iFrom._x;
+		oTo._y = iFrom._y;
+	}
+
+	private static void add(Point2D iDelta, float iFactor, Point2D ioTo) {
+		ioTo._x += iDelta._x * iFactor;
+		ioTo._y += iDelta._y * iFactor;
+	}
+
+	private static Rectangle<Point2D> newRectangle() {
+		return new Rectangle<Point2D>(
+			new Point2D(0, 0),
+			new Point2D(0, 0),
+			new Point2D(0, 0),
+			new Point2D(0, 0));
+	}
+}
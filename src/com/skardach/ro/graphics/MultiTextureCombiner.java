@@ -0,0 +1,140 @@
+package com.skardach.ro.graphics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jogamp.common.util.IOUtil;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+
+import com.skardach.ro.resource.str.MultiTextureMode;
+
+/**
+ * Implements {@link MultiTextureMode} presets in a single pass with a
+ * fragment shader. The shader combines the vertex color with two texture
+ * stages: texture unit 0 sampled with the first UV set and texture unit 1
+ * sampled with the second UV set (see {@link
+ * com.skardach.ro.resource.str.KeyFrame#get_textureUVMapping2()}). Key
+ * frames only reference a single texture so the renderer binds the same
+ * texture to both units.
+ * One combiner is created per OpenGL context, use {@link #forContext(GL2)}
+ * to get it.
+ * @author Stanislaw Kardach
+ *
+ */
+public class MultiTextureCombiner {
+	private static final String SHADER_PATH =
+		"/com/skardach/ro/graphics/shaders/multi_texture.glsl";
+	private static final Map<GLContext, MultiTextureCombiner> _combiners =
+		new WeakHashMap<GLContext, MultiTextureCombiner>();
+
+	private int _shaderId = 0;
+	private int _programId = 0;
+	private int _modeLocation = -1;
+	/**
+	 * Get the combiner of the current context of a given GL object. Shader
+	 * program is compiled on first request.
+	 * @param iGL GL object, its context must be current.
+	 * @return Combiner for the context. If shaders are not available
+	 * {@link #isAvailable()} returns false.
+	 */
+	public static MultiTextureCombiner forContext(GL2 iGL) {
+		synchronized(_combiners) {
+			GLContext context = iGL.getContext();
+			MultiTextureCombiner result = _combiners.get(context);
+			if(result == null) {
+				result = new MultiTextureCombiner();
+				result.create(iGL);
+				_combiners.put(context, result);
+			}
+			return result;
+		}
+	}
+
+	private void create(GL2 iGL) {
+		try {
+			String shaderCode = new String(
+				IOUtil.copyStream2ByteArray(
+					MultiTextureCombiner.class.getResourceAsStream(SHADER_PATH)));
+			_shaderId = iGL.glCreateShader(GL2.GL_FRAGMENT_SHADER);
+			if(_shaderId == 0)
+				return;
+			iGL.glShaderSource(_shaderId, 1,
+				new String[] { shaderCode },
+				new int[] { shaderCode.length() }, 0);
+			iGL.glCompileShader(_shaderId);
+			int status[] = new int[1];
+			iGL.glGetShaderiv(_shaderId, GL2.GL_COMPILE_STATUS, status, 0);
+			if(status[0] == 0) {
+				System.err.println("Could not compile multi texture shader");
+				destroy(iGL);
+				return;
+			}
+			_programId = iGL.glCreateProgram();
+			if(_programId == 0) {
+				destroy(iGL);
+				return;
+			}
+			iGL.glAttachShader(_programId, _shaderId);
+			iGL.glLinkProgram(_programId);
+			iGL.glGetProgramiv(_programId, GL2.GL_LINK_STATUS, status, 0);
+			if(status[0] == 0) {
+				System.err.println("Could not link multi texture shader");
+				destroy(iGL);
+				return;
+			}
+			int previous[] = new int[1];
+			iGL.glGetIntegerv(GL2.GL_CURRENT_PROGRAM, previous, 0);
+			iGL.glUseProgram(_programId);
+			iGL.glUniform1i(iGL.glGetUniformLocation(_programId, "texture0"), 0);
+			iGL.glUniform1i(iGL.glGetUniformLocation(_programId, "texture1"), 1);
+			_modeLocation = iGL.glGetUniformLocation(_programId, "mode");
+			iGL.glUseProgram(previous[0]);
+		} catch (IOException e) {
+			System.err.println("Could not load shader. Reason: "
+				+ e.getLocalizedMessage());
+			destroy(iGL);
+		}
+	}
+	/**
+	 * @return True if the shader program was created successfully.
+	 */
+	public boolean isAvailable() {
+		return _programId != 0;
+	}
+	/**
+	 * Enable the combiner program for a given preset. Texture to be combined
+	 * should be bound to texture unit 0 and 1 and second texture coordinates
+	 * passed on {@link GL2#GL_TEXTURE1}.
+	 * @param iGL GL context
+	 * @param iMode Preset to apply
+	 */
+	public void begin(GL2 iGL, MultiTextureMode iMode) {
+		iGL.glUseProgram(_programId);
+		iGL.glUniform1i(_modeLocation, iMode.toInt());
+	}
+	/**
+	 * Switch back to a given program.
+	 * @param iGL GL context
+	 * @param iPreviousProgram Program used before {@link #begin(GL2,
+	 * MultiTextureMode)} or 0 for fixed function pipeline.
+	 */
+	public void end(GL2 iGL, int iPreviousProgram) {
+		iGL.glUseProgram(iPreviousProgram);
+	}
+	/**
+	 * Delete the shader program.
+	 * @param iGL GL context
+	 */
+	public void destroy(GL2 iGL) {
+		if(_programId != 0) {
+			iGL.glDeleteProgram(_programId);
+			_programId = 0;
+		}
+		if(_shaderId != 0) {
+			iGL.glDeleteShader(_shaderId);
+			_shaderId = 0;
+		}
+	}
+}
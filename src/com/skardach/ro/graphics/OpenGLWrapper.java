@@ -3,7 +3,14 @@ package com.skardach.ro.graphics;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.jogamp.opengl.DebugGL2;
 import com.jogamp.opengl.GL;
@@ -12,12 +19,14 @@ import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.GLCapabilities;
 import com.jogamp.opengl.GLEventListener;
 import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.GLRunnable;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.glu.GLU;
 
 import com.jogamp.common.util.IOUtil;
-import com.jogamp.opengl.util.FPSAnimator;
+import com.skardach.ro.resource.AsyncTextureLoader;
 import com.skardach.ro.resource.ResourceException;
+import com.skardach.ro.resource.TextureManager;
 
 
 
@@ -31,7 +40,7 @@ import com.skardach.ro.resource.ResourceException;
 public class OpenGLWrapper {
 	// JOGL classes
 	GLProfile _profile;
-	FPSAnimator _animator;
+	FrameScheduler _scheduler;
 	GLU _glu;
 	// Shader related ids
 	private int _pinkRemoverShaderId = 0;
@@ -39,6 +48,18 @@ public class OpenGLWrapper {
 
 	LinkedList<RendererHandler> _registeredRenderers =
 		new LinkedList<RendererHandler>();
+	HashMap<GLCanvas, CanvasEventHandler> _canvasHandlers =
+		new HashMap<GLCanvas, CanvasEventHandler>();
+	// Optional frame time controller, null means always full quality
+	QualityGovernor _governor = null;
+	// Optional background texture loader, uploads are drained every frame
+	AsyncTextureLoader _textureLoader = null;
+	// Optional texture manager given a chance to release textures every frame
+	TextureManager _textureManager = null;
+	// Whether composited renderers are drawn by the canvas compositor
+	volatile boolean _compositing = true;
+	// Contexts new canvases share textures with, null if not sharing
+	GLShareGroup _shareGroup = null;
 
 	// Settings. TODO: This should be configurable
 	private static class Settings {
@@ -50,27 +71,89 @@ public class OpenGLWrapper {
 	/**
 	 * Handler for Canvas GL and keyboard events. Performs some scene setup,
 	 * draws axis and tries to offer some navigation (a very crude support for
-	 * scene navigation and rotation is buggy as hell right now).
+	 * scene navigation and rotation is buggy as hell right now). Tells the
+	 * scheduler to skip the canvas while neither the view nor any of its
+	 * renderers changed. Collects effects of {@link CompositedRenderer}s
+	 * into the canvas {@link Compositor} and draws them, before other
+	 * renderers draw themselves.
 	 *
 	 * @author Stanislaw Kardach
 	 *
 	 */
-	private class CanvasEventHandler implements GLEventListener, KeyListener {
+	private class CanvasEventHandler
+			implements GLEventListener, KeyListener, RedrawCondition {
 		int _eyeX = 0;
 		int _eyeY = -20;
 		int _eyeZ = 700;
 		int _centerX = 0;
 		int _centerY = -20;
 		int _centerZ = 0;
+		/**
+		 * View frustum matching the perspective set in last display call.
+		 */
+		Frustum _frustum = new Frustum();
+		/**
+		 * Renderers registered on this canvas. Also read by the scheduler
+		 * thread.
+		 */
+		List<RendererHandler> _renderers =
+			new CopyOnWriteArrayList<RendererHandler>();
+		/**
+		 * Adaptive renderers sorted by distance from the eye. Kept between
+		 * frames to avoid allocations.
+		 */
+		ArrayList<RendererHandler> _byDistance =
+			new ArrayList<RendererHandler>();
+		volatile long _lastFrameStart = 0;
+		/**
+		 * Set when the view or the set of renderers changed since the
+		 * canvas was last displayed.
+		 */
+		volatile boolean _dirty = true;
+		/**
+		 * Sorts and draws effects of composited renderers.
+		 */
+		final Compositor _compositor = new Compositor();
+		/**
+		 * Group the canvas context is shared with or null.
+		 */
+		final GLShareGroup _group;
+
+		CanvasEventHandler(GLShareGroup iGroup) {
+			_group = iGroup;
+		}
 
 		@Override
 		public void reshape(GLAutoDrawable drawable, int x, int y, int width,
 				int height) {
+			_dirty = true;
 		}
 
 		@Override
 		public void init(GLAutoDrawable drawable) {
+			_dirty = true;
+			if (_group != null)
+				_group.join(drawable.getContext());
 			initOpenGLInCanvas(drawable);
+			_compositor.setCombiner(
+				MultiTextureCombiner.forContext(drawable.getGL().getGL2()));
+		}
+
+		@Override
+		public boolean needsRedraw(GLAutoDrawable iDrawable) {
+			boolean result = _dirty
+				|| _compositor.isWaitingForTextures()
+				|| (_textureLoader != null
+					&& _textureLoader.getPendingUploads() > 0);
+			for (RendererHandler rh : _renderers) {
+				if (result)
+					break;
+				result = !(rh._renderer instanceof ChangeTrackingRenderer)
+					|| ((ChangeTrackingRenderer) rh._renderer).needsRedraw();
+			}
+			if (!result) // idle time is not a slow frame
+				_lastFrameStart = 0;
+			return result;
 		}
 
 		@Override
@@ -80,7 +163,16 @@ public class OpenGLWrapper {
 
 		@Override
 		public void display(GLAutoDrawable drawable) {
+			_dirty = false;
+			long frameStart = System.nanoTime();
+			if (_governor != null && _lastFrameStart != 0)
+				_governor.frameFinished(frameStart - _lastFrameStart);
+			_lastFrameStart = frameStart;
 			GL2 gl = drawable.getGL().getGL2();
+			if (_textureManager != null)
+				_textureManager.releaseUnused(gl);
+			if (_textureLoader != null)
+				_textureLoader.uploadPending(gl);
 			gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 			setPerspective(
 				drawable,
@@ -95,9 +187,78 @@ public class OpenGLWrapper {
 				_centerX,
 				_centerY,
 				_centerZ);
+			_frustum.update(
+				Settings.PERSPECTIVE_ANGLE,
+				(float) drawable.getSurfaceWidth()
+					/ (float) drawable.getSurfaceHeight(),
+				Settings.CLIPPING_NEAR,
+				Settings.CLIPPING_FAR,
+				_eyeX, _eyeY, _eyeZ,
+				_centerX, _centerY, _centerZ,
+				0, 1, 0);
+			if (_governor != null)
+				updateRenderDetails(drawable.getSurfaceHeight());
 			gl.glUseProgram(0);
 			drawAxis(drawable);
 			gl.glUseProgram(_shaderProgramId);
+			composite(drawable);
+		}
+
+		/**
+		 * Collect effects of composited renderers and draw them back to
+		 * front.
+		 *
+		 * @param drawable
+		 *            canvas being drawn
+		 */
+		private void composite(GLAutoDrawable drawable) {
+			if (!_compositing)
+				return;
+			GL2 gl = drawable.getGL().getGL2();
+			_compositor.setTextureLoader(_textureLoader);
+			_compositor.begin(gl);
+			for (RendererHandler rh : _renderers) {
+				if (rh._renderer instanceof CompositedRenderer)
+					rh.collect(drawable, _compositor);
+			}
+			try {
+				_compositor.submit(gl);
+			} catch (RenderException e) {
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Ask the governor for the level of detail of each adaptive renderer
+		 * on this canvas based on its distance from the eye.
+		 *
+		 * @param iHeight
+		 *            height of the drawing field
+		 */
+		private void updateRenderDetails(int iHeight) {
+			float pixelsPerUnitAtOne = iHeight / (2 * (float) Math.tan(
+				Math.toRadians(Settings.PERSPECTIVE_ANGLE) / 2));
+			_byDistance.clear();
+			for (RendererHandler rh : _renderers) {
+				if (rh._renderer instanceof AdaptiveRenderer) {
+					Point3D p =
+						((AdaptiveRenderer) rh._renderer).getRenderPosition();
+					float dx = p._x - _eyeX;
+					float dy = p._y - _eyeY;
+					float dz = p._z - _eyeZ;
+					rh._distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+					_byDistance.add(rh);
+				}
+			}
+			Collections.sort(_byDistance, DISTANCE_ORDER);
+			int rank = 0;
+			for (RendererHandler rh : _byDistance) {
+				_governor.fillDetail(
+					rh._distance,
+					pixelsPerUnitAtOne / Math.max(rh._distance, Settings.CLIPPING_NEAR),
+					rank++,
+					rh._detail);
+			}
 		}
 
 		@Override
@@ -130,6 +291,7 @@ public class OpenGLWrapper {
 				_eyeZ += 10;
 				break;
 			}
+			_dirty = true;
 		}
 
 		@Override
@@ -138,28 +300,89 @@ public class OpenGLWrapper {
 	}
 
 	/**
-	 * Used in JOGL drawing event calls. Calls renderer callbacks.
+	 * Used in JOGL drawing event calls. Calls renderer callbacks. Renderers
+	 * implementing {@link CullableRenderer} are given the view frustum of the
+	 * canvas so that they can skip drawing of invisible effects. Composited
+	 * renderers are driven by the canvas handler instead, see
+	 * {@link #collect(GLAutoDrawable, Compositor)}.
 	 *
 	 * @author Stanislaw Kardach
 	 *
 	 */
 	private class RendererHandler implements GLEventListener {
 		Renderer _renderer;
-		long _lastDisplayInvoke = 0;
-
-		public RendererHandler(Renderer iRenderer) {
+		CanvasEventHandler _canvasHandler;
+		// clock frame time of the last display call, negative if none
+		long _lastDisplayInvoke = -1;
+		// Level of detail for adaptive renderers and distance it's based on
+		RenderDetail _detail = new RenderDetail();
+		float _distance = 0;
+
+		public RendererHandler(
+				Renderer iRenderer,
+				CanvasEventHandler iCanvasHandler) {
 			_renderer = iRenderer;
+			_canvasHandler = iCanvasHandler;
 		}
 
-		@Override
-		public void display(GLAutoDrawable drawable) {
+		/**
+		 * @return Delay in milliseconds since the last call, 0 on the first
+		 *         one.
+		 */
+		private long nextDelay() {
 			long displayInvokeDelay = 0;
 			long last = _lastDisplayInvoke;
-			_lastDisplayInvoke = System.nanoTime() / 1000000; // get millisecond
-			if (last != 0)
-				displayInvokeDelay = _lastDisplayInvoke - last;
+			_lastDisplayInvoke = _scheduler.getClock().getFrameTime();
+			if (last >= 0) // in milliseconds
+				displayInvokeDelay = (_lastDisplayInvoke - last) / 1000000;
+			return displayInvokeDelay;
+		}
+
+		/**
+		 * Let a composited renderer add its effects to the compositor.
+		 *
+		 * @param drawable
+		 *            canvas being drawn
+		 * @param ioCompositor
+		 *            compositor of the canvas
+		 */
+		public void collect(GLAutoDrawable drawable, Compositor ioCompositor) {
+			long displayInvokeDelay = nextDelay();
 			try {
-				_renderer.renderFrame(drawable, displayInvokeDelay);
+				((CompositedRenderer) _renderer).collectFrame(
+					drawable,
+					displayInvokeDelay,
+					_canvasHandler._frustum,
+					_detail,
+					ioCompositor);
+			} catch (RenderException e) {
+				e.printStackTrace();
+			}
+		}
+
+		@Override
+		public void display(GLAutoDrawable drawable) {
+			if (_compositing
+					&& _canvasHandler != null
+					&& _renderer instanceof CompositedRenderer)
+				return; // drawn by the canvas handler
+			long displayInvokeDelay = nextDelay();
+			try {
+				if (_renderer instanceof AdaptiveRenderer
+						&& _canvasHandler != null)
+					((AdaptiveRenderer) _renderer).renderFrame(
+						drawable,
+						displayInvokeDelay,
+						_canvasHandler._frustum,
+						_detail);
+				else if (_renderer instanceof CullableRenderer
+						&& _canvasHandler != null)
+					((CullableRenderer) _renderer).renderFrame(
+						drawable,
+						displayInvokeDelay,
+						_canvasHandler._frustum);
+				else
+					_renderer.renderFrame(drawable, displayInvokeDelay);
 			} catch (RenderException e) {
 				e.printStackTrace();
 			}
@@ -193,10 +416,21 @@ public class OpenGLWrapper {
 		}
 
 		public void resetTimer() {
-			_lastDisplayInvoke = 0;
+			_lastDisplayInvoke = -1;
 		}
 	}
 
+	/**
+	 * Orders renderer handlers by their distance from the eye.
+	 */
+	private static final Comparator<RendererHandler> DISTANCE_ORDER =
+		new Comparator<RendererHandler>() {
+			@Override
+			public int compare(RendererHandler iA, RendererHandler iB) {
+				return Float.compare(iA._distance, iB._distance);
+			}
+		};
+
 	/**
 	 * Set viewing perspective on given drawable. Required for STRViewer. If
 	 * reusing rendering code for particular renderers, this will probably not
@@ -230,44 +464,104 @@ public class OpenGLWrapper {
 		gl.glLoadIdentity();
 	}
 	/**
-	 * Creates an OpenGL wrapper for a given profile and creates an animator
-	 * to use in all canvas created by this wrapper.
+	 * Creates an OpenGL wrapper for a given profile and creates a frame
+	 * scheduler to use in all canvas created by this wrapper. The scheduler
+	 * follows a clock of this wrapper (see {@link #getClock()}), so that
+	 * stopping the animation of one wrapper does not pause the others, and
+	 * waits for vertical synchronization.
 	 * @param iGraphicsProfile OpenGL profile to use. If null then
 	 * GLProfile.getDefault() is used.
-	 * @param iFps FPS of the animator used for Canvas created by this wrapper.
+	 * @param iFps Maximal FPS of canvas created by this wrapper. Effects are
+	 * animated at their own frame rate regardless.
 	 */
 	public OpenGLWrapper(GLProfile iGraphicsProfile, int iFps) {
 		if (iGraphicsProfile != null)
 			_profile = iGraphicsProfile;
 		else
 			_profile = GLProfile.getDefault();
-		_animator = new FPSAnimator(iFps);
+		_scheduler = new FrameScheduler(new AnimationClock(), iFps, true);
+	}
+
+	/**
+	 * @return OpenGL profile of canvas created by this wrapper.
+	 */
+	public GLProfile getProfile() {
+		return _profile;
+	}
+
+	/**
+	 * @return Scheduler driving canvas created by this wrapper. Its
+	 * statistics describe frame pacing.
+	 */
+	public FrameScheduler getScheduler() {
+		return _scheduler;
+	}
+
+	/**
+	 * @return Clock sampled by the scheduler of this wrapper. Effects drawn
+	 * on canvases of this wrapper should follow it, it is paused when the
+	 * animation is stopped.
+	 */
+	public AnimationClock getClock() {
+		return _scheduler.getClock();
+	}
+
+	/**
+	 * Make canvases created from now on share one set of textures. Each
+	 * texture is then uploaded once, instead of once per canvas, and the
+	 * texture loader, if any, uploads on a background thread with a context
+	 * of its own instead of at the beginning of frames. Canvases created
+	 * before keep their own contexts. Sharing cannot be turned off.
+	 */
+	public void enableContextSharing() {
+		if (_shareGroup != null)
+			return;
+		_shareGroup = GLShareGroup.create(_profile);
+		if (_textureLoader != null)
+			_textureLoader.setUploadContext(_shareGroup.getUploadContext());
 	}
 
 	/**
-	 * Creates a GLCanvas and attaches it to the internal animator
+	 * @return Group shared by canvases of this wrapper or null if contexts
+	 *         are not shared.
+	 */
+	public GLShareGroup getShareGroup() {
+		return _shareGroup;
+	}
+
+	/**
+	 * Creates a GLCanvas and attaches it to the internal frame scheduler.
+	 * If context sharing is enabled, the canvas shares textures with other
+	 * canvases of this wrapper.
 	 *
-	 * @return canvas ready to draw on and with animator.
+	 * @return canvas ready to draw on and driven by the scheduler.
 	 */
 	public GLCanvas createGLCanvasWithAnimator() {
 		GLCapabilities capabilities = new GLCapabilities(_profile);
 		capabilities.setHardwareAccelerated(true);
 		capabilities.setDoubleBuffered(true);
 		GLCanvas result = new GLCanvas(capabilities);
-		CanvasEventHandler ceh = new CanvasEventHandler();
+		if (_shareGroup != null)
+			_shareGroup.share(result);
+		CanvasEventHandler ceh = new CanvasEventHandler(_shareGroup);
 		result.addGLEventListener(ceh);
 		result.addKeyListener(ceh);
-		_animator.add(result);
+		_canvasHandlers.put(result, ceh);
+		_scheduler.add(result, ceh);
 		return result;
 	}
 
 	/**
-	 * Performs destruction of a canvas and removes it from animator list.
+	 * Performs destruction of a canvas and removes it from the scheduler.
 	 *
 	 * @param ioCanvas
 	 */
 	public void destroyCanvas(GLCanvas ioCanvas) {
-		_animator.remove(ioCanvas);
+		_scheduler.remove(ioCanvas);
+		CanvasEventHandler ceh = _canvasHandlers.remove(ioCanvas);
+		// destroying the canvas disposes its renderers, drop references
+		if (ceh != null)
+			_registeredRenderers.removeAll(ceh._renderers);
 		ioCanvas.destroy();
 	}
 	/**
@@ -287,6 +581,7 @@ public class OpenGLWrapper {
 		_glu = new GLU();
 		GL2 gl = ioCanvas.getGL().getGL2();
 		ioCanvas.setGL(new DebugGL2(gl));
+		_scheduler.applySwapInterval(ioCanvas);
 		gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 1);
 		gl.glEnable(GL.GL_DEPTH_TEST);
@@ -373,20 +668,107 @@ public class OpenGLWrapper {
 	}
 
 	/**
-	 * Fire up the animator.
+	 * Fire up the scheduler, resuming the animation clock.
 	 */
 	public void startAnimation() {
-		_animator.start();
+		_scheduler.start();
 	}
 
 	/**
-	 * Stop the animator.
+	 * Stop the scheduler, pausing the animation clock.
 	 */
 	public void stopAnimation() {
-		_animator.stop();
+		_scheduler.stop();
 		for(RendererHandler r : _registeredRenderers) {
 			r.resetTimer();
 		}
+		for(CanvasEventHandler ceh : _canvasHandlers.values()) {
+			ceh._lastFrameStart = 0;
+		}
+		if (_governor != null)
+			_governor.reset();
+	}
+
+	/**
+	 * Show the next frame on all canvases while the animation is stopped.
+	 * Each {@link SteppableRenderer} advances by exactly one frame at its own
+	 * frame rate, as the paused clock does not move. Other renderers advance
+	 * the way their frame advance calculator does on every display.
+	 */
+	public void stepAnimation() {
+		for(RendererHandler r : _registeredRenderers) {
+			if(r._renderer instanceof SteppableRenderer)
+				((SteppableRenderer) r._renderer).step();
+		}
+		for(GLCanvas canvas : _canvasHandlers.keySet()) {
+			_canvasHandlers.get(canvas)._dirty = true;
+			canvas.display();
+		}
+	}
+
+	/**
+	 * Set a controller which lowers rendering quality of adaptive renderers
+	 * when frames take too long.
+	 *
+	 * @param iGovernor Governor to use or null to always render with full
+	 * quality.
+	 */
+	public void setQualityGovernor(QualityGovernor iGovernor) {
+		_governor = iGovernor;
+		for(RendererHandler r : _registeredRenderers) {
+			r._detail.reset();
+		}
+	}
+
+	/**
+	 * @return Quality governor in use or null if there is none.
+	 */
+	public QualityGovernor getQualityGovernor() {
+		return _governor;
+	}
+	/**
+	 * Set a loader whose decoded textures are uploaded at the beginning of
+	 * each frame, within the loader upload budget. Renderers using the same
+	 * loader do not block on texture loading. With context sharing enabled
+	 * the loader uploads on a background thread instead.
+	 *
+	 * @param iTextureLoader Loader to drain or null.
+	 */
+	public void setTextureLoader(AsyncTextureLoader iTextureLoader) {
+		if (_shareGroup != null && _textureLoader != null)
+			_textureLoader.setUploadContext(null);
+		_textureLoader = iTextureLoader;
+		if (_shareGroup != null && _textureLoader != null)
+			_textureLoader.setUploadContext(_shareGroup.getUploadContext());
+	}
+
+	/**
+	 * @return Texture loader drained every frame or null if there is none.
+	 */
+	public AsyncTextureLoader getTextureLoader() {
+		return _textureLoader;
+	}
+	/**
+	 * Set a texture manager which is allowed to release textures at the
+	 * beginning of each frame, see
+	 * {@link TextureManager#releaseUnused(GL2)}.
+	 *
+	 * @param iTextureManager Texture manager or null.
+	 */
+	public void setTextureManager(TextureManager iTextureManager) {
+		_textureManager = iTextureManager;
+	}
+	/**
+	 * Set whether effects of {@link CompositedRenderer}s are sorted back to
+	 * front and drawn together by the compositor of their canvas, or each
+	 * renderer draws its own. Compositing is on by default.
+	 *
+	 * @param iCompositing False to let every renderer draw itself.
+	 */
+	public void setCompositing(boolean iCompositing) {
+		_compositing = iCompositing;
+		for (CanvasEventHandler ceh : _canvasHandlers.values())
+			ceh._dirty = true;
 	}
 	/**
 	 * Reset animation state.
@@ -405,12 +787,65 @@ public class OpenGLWrapper {
 	 */
 	public void registerRendererOnCanvas(Renderer iRenderer, GLCanvas ioCanvas) {
 		if (iRenderer != null && ioCanvas != null) {
-			RendererHandler rh = new RendererHandler(iRenderer);
+			CanvasEventHandler ceh = _canvasHandlers.get(ioCanvas);
+			RendererHandler rh = new RendererHandler(iRenderer, ceh);
+			if (ceh != null) {
+				ceh._renderers.add(rh);
+				ceh._dirty = true;
+			}
 			ioCanvas.addGLEventListener(rh);
 			_registeredRenderers.add(rh);
 		}
 	}
 
+	/**
+	 * Remove given renderer from the rendering pipeline of a given canvas
+	 * and dispose it, so that it releases its textures. Can be called from
+	 * any thread: disposal is queued to the OpenGL thread of the canvas and
+	 * done before the next frame is drawn.
+	 *
+	 * @param iRenderer Renderer to remove
+	 * @param ioCanvas GLCanvas the renderer was registered to
+	 */
+	public void unregisterRendererFromCanvas(
+			Renderer iRenderer,
+			GLCanvas ioCanvas) {
+		if (iRenderer == null || ioCanvas == null)
+			return;
+		final CanvasEventHandler ceh = _canvasHandlers.get(ioCanvas);
+		RendererHandler found = null;
+		for (Iterator<RendererHandler> i = _registeredRenderers.iterator();
+				i.hasNext();) {
+			RendererHandler rh = i.next();
+			if (rh._renderer == iRenderer && rh._canvasHandler == ceh) {
+				i.remove();
+				found = rh;
+				break;
+			}
+		}
+		if (found == null)
+			return;
+		final RendererHandler rh = found;
+		if (ceh != null)
+			ceh._dirty = true;
+		boolean queued = ioCanvas.invoke(false, new GLRunnable() {
+			@Override
+			public boolean run(GLAutoDrawable drawable) {
+				if (ceh != null)
+					ceh._renderers.remove(rh);
+				drawable.removeGLEventListener(rh);
+				rh.dispose(drawable);
+				return true;
+			}
+		});
+		if (!queued) {
+			// canvas not realized, there is nothing to release in OpenGL
+			if (ceh != null)
+				ceh._renderers.remove(rh);
+			ioCanvas.removeGLEventListener(rh);
+		}
+	}
+
 	/**
 	 * Draws axis to have some reference for the view.
 	 *
@@ -449,7 +884,7 @@ public class OpenGLWrapper {
 
 	/**
 	 * Create wrapper with a desktop profile.
-	 * @param iFps FPS for animator used on canvas created by this wrapper
+	 * @param iFps Maximal FPS of canvas created by this wrapper
 	 */
 	public static OpenGLWrapper createDesktopWrapper(int iFps) {
 		return new OpenGLWrapper(GLProfile.get(GLProfile.GL2), iFps);
@@ -457,7 +892,7 @@ public class OpenGLWrapper {
 
 	/**
 	 * Create wrapper with mobile profile
-	 * @param iFps FPS for animator used on canvas created by this wrapper
+	 * @param iFps Maximal FPS of canvas created by this wrapper
 	 */
 	public static OpenGLWrapper createMobileWrapper(int iFps) {
 		return new OpenGLWrapper(GLProfile.getGL2ES1(), iFps);
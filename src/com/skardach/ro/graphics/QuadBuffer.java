@@ -0,0 +1,182 @@
+package com.skardach.ro.graphics;
+
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.str.MultiTextureMode;
+
+/**
+ * Layer quads evaluated ahead of drawing, with vertices already transformed
+ * to eye coordinates, so that evaluation can run on any thread and only
+ * {@link LayerDrawer#submit(com.jogamp.opengl.GL2, QuadBuffer)} needs the
+ * OpenGL one. Quads of one effect can be closed into a group with
+ * {@link #endGroup(float)}, so that {@link Compositor} can sort effects by
+ * depth. Arrays grow as needed and are reused after {@link #clear()},
+ * so a buffer filled every frame stops allocating once it is big enough.
+ * A buffer must only be filled by one thread at a time.
+ * @author Stanislaw Kardach
+ *
+ */
+public class QuadBuffer {
+	/**
+	 * Floats per vertex: x, y, z, u, v and u, v of the second mapping.
+	 */
+	static final int VERTEX_FLOATS = 7;
+	static final int QUAD_FLOATS = 4 * VERTEX_FLOATS;
+	private static final int INITIAL_CAPACITY = 64;
+
+	float _vertices[] = new float[INITIAL_CAPACITY * QUAD_FLOATS];
+	/**
+	 * Color of each quad as RGBA bytes, red in the lowest one.
+	 */
+	int _colors[] = new int[INITIAL_CAPACITY];
+	/**
+	 * Texture of each quad, null for the background layer.
+	 */
+	Texture _textures[] = new Texture[INITIAL_CAPACITY];
+	int _sourceBlend[] = new int[INITIAL_CAPACITY];
+	int _destBlend[] = new int[INITIAL_CAPACITY];
+	MultiTextureMode _modes[] = new MultiTextureMode[INITIAL_CAPACITY];
+	int _count = 0;
+	/**
+	 * Index after the last quad of each group and eye space depth of the
+	 * group.
+	 */
+	int _groupEnds[] = new int[INITIAL_CAPACITY];
+	float _groupDepths[] = new float[INITIAL_CAPACITY];
+	int _groupCount = 0;
+	/**
+	 * Scratch objects for whoever fills the buffer.
+	 */
+	final LayerState _state = new LayerState();
+	final float _matrix[] = new float[16];
+	final float _bounds[] = new float[8];
+	final LayerBatchEvaluator _evaluator = new LayerBatchEvaluator();
+	/**
+	 * Forget all quads, keeping the arrays.
+	 */
+	public void clear() {
+		_count = 0;
+		_groupCount = 0;
+	}
+	/**
+	 * Close the group of quads added since the previous group ended. Empty
+	 * groups are dropped.
+	 * @param iDepth Eye space Z of the group, i.e. of the effect origin.
+	 * Smaller is farther.
+	 */
+	public void endGroup(float iDepth) {
+		int start = _groupCount > 0 ? _groupEnds[_groupCount - 1] : 0;
+		if(start == _count)
+			return;
+		if(_groupCount == _groupEnds.length) {
+			int ends[] = new int[_groupCount * 2];
+			System.arraycopy(_groupEnds, 0, ends, 0, _groupCount);
+			_groupEnds = ends;
+			float depths[] = new float[_groupCount * 2];
+			System.arraycopy(_groupDepths, 0, depths, 0, _groupCount);
+			_groupDepths = depths;
+		}
+		_groupEnds[_groupCount] = _count;
+		_groupDepths[_groupCount] = iDepth;
+		_groupCount++;
+	}
+	/**
+	 * @return Number of closed groups.
+	 */
+	public int getGroupCount() {
+		return _groupCount;
+	}
+	/**
+	 * @return Number of quads in the buffer.
+	 */
+	public int size() {
+		return _count;
+	}
+	/**
+	 * Add an evaluated layer quad, transformed the same way
+	 * {@link LayerDrawer#draw(com.jogamp.opengl.GL2, int,
+	 * com.skardach.ro.resource.str.Layer, LayerState, float, float)} does.
+	 * @param iState Evaluated layer state.
+	 * @param iTexture Texture of the layer or null for background layer.
+	 * @param iLayerNumber Layer number in the effect stack.
+	 * @param iMatrix Billboarded model view matrix of the effect, column
+	 * major.
+	 */
+	public void add(
+			LayerState iState,
+			Texture iTexture,
+			int iLayerNumber,
+			float iMatrix[]) {
+		if(_count == _colors.length)
+			grow();
+		Color color = iState._color;
+		_colors[_count] =
+			((int)color._r & 0xFF)
+			| ((int)color._g & 0xFF) << 8
+			| ((int)color._b & 0xFF) << 16
+			| ((int)color._alpha & 0xFF) << 24;
+		_textures[_count] = iTexture;
+		_sourceBlend[_count] = iState._baseFrame.get_sourceBlend().toGLValue();
+		_destBlend[_count] = iState._baseFrame.get_destBlend().toGLValue();
+		_modes[_count] = iState._multiTextureMode;
+		double angle = Math.toRadians(iState._rotation);
+		float cos = (float)Math.cos(angle);
+		float sin = (float)Math.sin(angle);
+		float z = StrTimeline.LAYER_Z_STEP * iLayerNumber;
+		Rectangle<Point2D> r = iState._rectangle;
+		Rectangle<Point2D> t = iState._textureMapping;
+		Rectangle<Point2D> t2 = iState._textureMapping2;
+		int o = _count * QUAD_FLOATS;
+		// same vertex and mapping order as the immediate mode drawing
+		o = putVertex(o, r._c, t._d, t2._d, z, cos, sin, iState, iMatrix);
+		o = putVertex(o, r._d, t._c, t2._c, z, cos, sin, iState, iMatrix);
+		o = putVertex(o, r._a, t._a, t2._a, z, cos, sin, iState, iMatrix);
+		putVertex(o, r._b, t._b, t2._b, z, cos, sin, iState, iMatrix);
+		_count++;
+	}
+
+	private int putVertex(
+			int iOffset,
+			Point2D iVertex,
+			Point2D iMapping,
+			Point2D iMapping2,
+			float iZ,
+			float iCos,
+			float iSin,
+			LayerState iState,
+			float iMatrix[]) {
+		// layer rotation and position first, then the effect matrix
+		float x = iVertex._x * iCos - iVertex._y * iSin + iState._position._x;
+		float y = iVertex._x * iSin + iVertex._y * iCos + iState._position._y;
+		float v[] = _vertices;
+		v[iOffset] = iMatrix[0] * x + iMatrix[4] * y + iMatrix[8] * iZ + iMatrix[12];
+		v[iOffset + 1] = iMatrix[1] * x + iMatrix[5] * y + iMatrix[9] * iZ + iMatrix[13];
+		v[iOffset + 2] = iMatrix[2] * x + iMatrix[6] * y + iMatrix[10] * iZ + iMatrix[14];
+		v[iOffset + 3] = iMapping._x;
+		v[iOffset + 4] = iMapping._y;
+		v[iOffset + 5] = iMapping2._x;
+		v[iOffset + 6] = iMapping2._y;
+		return iOffset + VERTEX_FLOATS;
+	}
+
+	private void grow() {
+		int capacity = _colors.length * 2;
+		float vertices[] = new float[capacity * QUAD_FLOATS];
+		System.arraycopy(_vertices, 0, vertices, 0, _vertices.length);
+		_vertices = vertices;
+		int colors[] = new int[capacity];
+		System.arraycopy(_colors, 0, colors, 0, _count);
+		_colors = colors;
+		Texture textures[] = new Texture[capacity];
+		System.arraycopy(_textures, 0, textures, 0, _count);
+		_textures = textures;
+		int sourceBlend[] = new int[capacity];
+		System.arraycopy(_sourceBlend, 0, sourceBlend, 0, _count);
+		_sourceBlend = sourceBlend;
+		int destBlend[] = new int[capacity];
+		System.arraycopy(_destBlend, 0, destBlend, 0, _count);
+		_destBlend = destBlend;
+		MultiTextureMode modes[] = new MultiTextureMode[capacity];
+		System.arraycopy(_modes, 0, modes, 0, _count);
+		_modes = modes;
+	}
+}
@@ -0,0 +1,181 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Tracks frame times and decides how much effect rendering work should be
+ * shed to stay within a frame time budget. Quality is lowered one level at a
+ * time while the averaged frame time stays above the budget and restored one
+ * level at a time once it falls well below it:
+ * <ol start="0">
+ * <li>Full quality.</li>
+ * <li>Layers with low alpha or small on screen are not drawn.</li>
+ * <li>Additionally distant effects are evaluated less often.</li>
+ * <li>Additionally only a limited number of effects closest to the viewer
+ * are drawn.</li>
+ * </ol>
+ * @author Stanislaw Kardach
+ *
+ */
+public class QualityGovernor {
+	/**
+	 * Highest degradation level.
+	 */
+	public static final int MAX_LEVEL = 3;
+	/**
+	 * Frame times above this value are treated as animation pauses and
+	 * ignored.
+	 */
+	private static final long PAUSE_NANOS = 1000000000L;
+	/**
+	 * Weight of a new sample in the frame time moving average.
+	 */
+	private static final float AVERAGE_WEIGHT = 0.1f;
+
+	private long _budgetNanos;
+	private float _recoverRatio = 0.8f;
+	private int _degradeFrames = 30;
+	private int _recoverFrames = 120;
+	private float _minAlpha = 0.1f;
+	private float _minScreenSize = 4f;
+	private float _distantThreshold = 1500f;
+	private int _distantUpdateInterval = 2;
+	private int _maxInstances = 32;
+
+	private int _level = 0;
+	private float _averageNanos = 0;
+	private int _framesSinceChange = 0;
+	/**
+	 * Create a governor trying to keep given frame rate.
+	 * @param iTargetFps Minimal frame rate to keep.
+	 */
+	public QualityGovernor(float iTargetFps) {
+		_budgetNanos = (long)(1000000000L / iTargetFps);
+	}
+	/**
+	 * Record time of the last frame and update quality level if needed.
+	 * @param iFrameNanos Time between the last two frames in nanoseconds.
+	 */
+	public synchronized void frameFinished(long iFrameNanos) {
+		if(iFrameNanos <= 0 || iFrameNanos > PAUSE_NANOS)
+			return;
+		if(_averageNanos == 0)
+			_averageNanos = iFrameNanos;
+		else
+			_averageNanos += (iFrameNanos - _averageNanos) * AVERAGE_WEIGHT;
+		_framesSinceChange++;
+		if(_averageNanos > _budgetNanos) {
+			if(_level < MAX_LEVEL && _framesSinceChange >= _degradeFrames) {
+				_level++;
+				_framesSinceChange = 0;
+			}
+		} else if(_averageNanos < _budgetNanos * _recoverRatio) {
+			if(_level > 0 && _framesSinceChange >= _recoverFrames) {
+				_level--;
+				_framesSinceChange = 0;
+			}
+		} else {
+			// within the hysteresis band, wait for a clear trend
+			_framesSinceChange = 0;
+		}
+	}
+	/**
+	 * Forget frame time history, i.e. when animation was stopped. Quality
+	 * level is kept.
+	 */
+	public synchronized void reset() {
+		_averageNanos = 0;
+		_framesSinceChange = 0;
+	}
+	/**
+	 * @return Current degradation level in range [0, {@link #MAX_LEVEL}].
+	 */
+	public synchronized int getLevel() {
+		return _level;
+	}
+	/**
+	 * @return Averaged frame time in nanoseconds.
+	 */
+	public synchronized float getAverageFrameNanos() {
+		return _averageNanos;
+	}
+	/**
+	 * Fill in detail requested from a renderer at a given distance from the
+	 * viewer, according to the current level.
+	 * @param iDistance Distance of the renderer from the viewer.
+	 * @param iPixelsPerUnit How many pixels a unit of length takes on screen
+	 * at the renderer position.
+	 * @param iRank Position of the renderer on the list of renderers sorted
+	 * by the distance from the viewer (0 is the closest).
+	 * @param oDetail Detail to fill in.
+	 */
+	public synchronized void fillDetail(
+			float iDistance,
+			float iPixelsPerUnit,
+			int iRank,
+			RenderDetail oDetail) {
+		oDetail.reset();
+		if(_level >= 1) {
+			oDetail._minAlpha = _minAlpha;
+			oDetail._minScreenSize = _minScreenSize;
+			oDetail._pixelsPerUnit = iPixelsPerUnit;
+		}
+		if(_level >= 2 && iDistance > _distantThreshold)
+			oDetail._updateInterval = _distantUpdateInterval;
+		if(_level >= 3 && iRank >= _maxInstances)
+			oDetail._dropped = true;
+	}
+	/**
+	 * @param iTargetFps Minimal frame rate to keep.
+	 */
+	public synchronized void setTargetFps(float iTargetFps) {
+		_budgetNanos = (long)(1000000000L / iTargetFps);
+	}
+	/**
+	 * @param iRecoverRatio Quality is restored when averaged frame time drops
+	 * below budget multiplied by this ratio. Should be below 1.
+	 */
+	public synchronized void setRecoverRatio(float iRecoverRatio) {
+		_recoverRatio = iRecoverRatio;
+	}
+	/**
+	 * @param iDegradeFrames Number of frames over budget after which quality
+	 * is lowered by one level.
+	 * @param iRecoverFrames Number of frames well below budget after which
+	 * quality is raised by one level.
+	 */
+	public synchronized void setReactionFrames(
+			int iDegradeFrames,
+			int iRecoverFrames) {
+		_degradeFrames = iDegradeFrames;
+		_recoverFrames = iRecoverFrames;
+	}
+	/**
+	 * @param iMinAlpha Minimal layer alpha (in range [0,1]) drawn from
+	 * level 1.
+	 * @param iMinScreenSize Minimal layer size in pixels drawn from level 1.
+	 */
+	public synchronized void setLayerLimits(
+			float iMinAlpha,
+			float iMinScreenSize) {
+		_minAlpha = iMinAlpha;
+		_minScreenSize = iMinScreenSize;
+	}
+	/**
+	 * @param iDistantThreshold Distance from the viewer from which effects
+	 * are considered distant.
+	 * @param iUpdateInterval Distant effects are evaluated every n-th frame
+	 * from level 2.
+	 */
+	public synchronized void setDistantEffects(
+			float iDistantThreshold,
+			int iUpdateInterval) {
+		_distantThreshold = iDistantThreshold;
+		_distantUpdateInterval = iUpdateInterval;
+	}
+	/**
+	 * @param iMaxInstances Maximal number of effects drawn on a canvas from
+	 * level 3.
+	 */
+	public synchronized void setMaxInstances(int iMaxInstances) {
+		_maxInstances = iMaxInstances;
+	}
+}
@@ -0,0 +1,18 @@
+package com.skardach.ro.graphics;
+
+import com.jogamp.opengl.GLAutoDrawable;
+
+/**
+ * Decides whether {@link FrameScheduler} has to display a drawable in the
+ * current frame or can leave the last presented picture on screen.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface RedrawCondition {
+	/**
+	 * Called on the scheduler thread after the animation clock was sampled.
+	 * @param iDrawable Drawable about to be displayed.
+	 * @return False to skip displaying the drawable in this frame.
+	 */
+	public boolean needsRedraw(GLAutoDrawable iDrawable);
+}
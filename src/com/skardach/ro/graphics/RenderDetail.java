@@ -0,0 +1,44 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Level of detail requested from an {@link AdaptiveRenderer} for a single
+ * frame. Filled in by {@link OpenGLWrapper} according to the current
+ * {@link QualityGovernor} level. Default values mean full quality.
+ * @author Stanislaw Kardach
+ *
+ */
+public class RenderDetail {
+	/**
+	 * Layers with alpha (in range [0,1]) below this value should not be drawn.
+	 */
+	public float _minAlpha = 0;
+	/**
+	 * Layers whose longer side would take fewer pixels on screen than this
+	 * value should not be drawn.
+	 */
+	public float _minScreenSize = 0;
+	/**
+	 * How many pixels a unit of length at the renderer position takes on
+	 * screen. Used together with {@link #_minScreenSize}.
+	 */
+	public float _pixelsPerUnit = 0;
+	/**
+	 * Layer states should be evaluated only every n-th frame. In between the
+	 * last evaluated state is drawn again.
+	 */
+	public int _updateInterval = 1;
+	/**
+	 * If true, renderer should only advance its animation without drawing.
+	 */
+	public boolean _dropped = false;
+	/**
+	 * Restore full quality.
+	 */
+	public void reset() {
+		_minAlpha = 0;
+		_minScreenSize = 0;
+		_pixelsPerUnit = 0;
+		_updateInterval = 1;
+		_dropped = false;
+	}
+}
@@ -17,13 +17,15 @@ public interface Renderer {
 	 * that implementation can perform some frame skipping if needed.
 	 * On the first call to the renderer this should be 0.
 	 *
-	 * Remark: In this code Renderers are invoked via JOGL FPSAnimator class,
+	 * Remark: In this code Renderers are invoked via {@link FrameScheduler},
 	 * which is set to perform an arbitrary number of refresh operations per
 	 * second so instead of passing a delay, a current frame number could be
-	 * passed. However If for any reason the animator class fails to run at a
+	 * passed. However If for any reason the scheduler fails to run at a
 	 * requested speed, the animation would appear to be slowed down. Time
-	 * delay allows to perform animation steps irrespectively of the Animator
-	 * slow downs (and of course it allows frame skips).
+	 * delay allows to perform animation steps irrespectively of the scheduler
+	 * slow downs (and of course it allows frame skips). Renderers needing
+	 * better than millisecond precision can follow the
+	 * {@link AnimationClock} the scheduler samples each frame instead.
 	 * @throws RenderException Whenever something goes wrong with rendering
 	 */
 	public void renderFrame(
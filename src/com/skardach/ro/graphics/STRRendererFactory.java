@@ -3,6 +3,7 @@ package com.skardach.ro.graphics;
 import com.skardach.ro.graphics.SimpleStrRenderer;
 import com.skardach.ro.graphics.Renderer;
 import com.skardach.ro.graphics.debug.DebugSimpleStrRenderer;
+import com.skardach.ro.resource.AsyncTextureLoader;
 import com.skardach.ro.resource.str.Str;
 /**
  * Factory hiding the renderer implementation
@@ -11,6 +12,108 @@ import com.skardach.ro.resource.str.Str;
  */
 public class STRRendererFactory {
 
+	/**
+	 * Same as
+	 * {@link #createEffectRenderer(Str, Point3D, float, float, float, float, float, float, int, AnimationClock, boolean, boolean)}
+	 * with the renderer following {@link AnimationClock#getDefault()}.
+	 * @param iEffect Effect to render
+	 * @param iRenderPosition Position to render the effect on
+	 * @param iXRotation Rotation on X axis to apply to the effect
+	 * @param iYRotation Rotation on Y axis to apply to the effect
+	 * @param iZRotation Rotation on Z axis to apply to the effect
+	 * @param iXScale Scale on X axis to apply to the effect
+	 * @param iYScale Scale on Y axis to apply to the effect
+	 * @param iZScale Scale on Z axis to apply to the effect
+	 * @param iFps Frames per second of the effect, usually
+	 * {@link Str#get_fps()}.
+	 * @param iPreloadTextures If true then renderer should pre-load all
+	 * textures before first call to
+	 * {@link Renderer#renderFrame(javax.media.opengl.GLAutoDrawable, long)}.
+	 * @param iDebug If true, a debugging version of a renderer will be
+	 * created
+	 * @return Renderer implementation
+	 * @throws RenderException In case creating the renderer fails.
+	 */
+	public static Renderer createEffectRenderer(
+			Str iEffect,
+			Point3D iRenderPosition,
+			float iXRotation,
+			float iYRotation,
+			float iZRotation,
+			float iXScale,
+			float iYScale,
+			float iZScale,
+			int iFps,
+			boolean iPreloadTextures,
+			boolean iDebug) throws RenderException {
+		return createEffectRenderer(
+			iEffect,
+			iRenderPosition,
+			iXRotation,
+			iYRotation,
+			iZRotation,
+			iXScale,
+			iYScale,
+			iZScale,
+			iFps,
+			AnimationClock.getDefault(),
+			iPreloadTextures,
+			iDebug,
+			null);
+	}
+	/**
+	 * Same as
+	 * {@link #createEffectRenderer(Str, Point3D, float, float, float, float, float, float, int, AnimationClock, boolean, boolean, AsyncTextureLoader)}
+	 * with the renderer following {@link AnimationClock#getDefault()}.
+	 * @param iEffect Effect to render
+	 * @param iRenderPosition Position to render the effect on
+	 * @param iXRotation Rotation on X axis to apply to the effect
+	 * @param iYRotation Rotation on Y axis to apply to the effect
+	 * @param iZRotation Rotation on Z axis to apply to the effect
+	 * @param iXScale Scale on X axis to apply to the effect
+	 * @param iYScale Scale on Y axis to apply to the effect
+	 * @param iZScale Scale on Z axis to apply to the effect
+	 * @param iFps Frames per second of the effect, usually
+	 * {@link Str#get_fps()}.
+	 * @param iPreloadTextures If true then renderer should pre-load all
+	 * textures before first call to
+	 * {@link Renderer#renderFrame(javax.media.opengl.GLAutoDrawable, long)}.
+	 * @param iDebug If true, a debugging version of a renderer will be
+	 * created
+	 * @param iTextureLoader Loader for textures or null to load them
+	 * synchronously.
+	 * @return Renderer implementation
+	 * @throws RenderException In case creating the renderer fails.
+	 */
+	public static Renderer createEffectRenderer(
+			Str iEffect,
+			Point3D iRenderPosition,
+			float iXRotation,
+			float iYRotation,
+			float iZRotation,
+			float iXScale,
+			float iYScale,
+			float iZScale,
+			int iFps,
+			boolean iPreloadTextures,
+			boolean iDebug,
+			AsyncTextureLoader iTextureLoader) throws RenderException {
+		return createEffectRenderer(
+			iEffect,
+			iRenderPosition,
+			iXRotation,
+			iYRotation,
+			iZRotation,
+			iXScale,
+			iYScale,
+			iZScale,
+			iFps,
+			AnimationClock.getDefault(),
+			iPreloadTextures,
+			iDebug,
+			iTextureLoader);
+	}
+
 	/**
 	 * Create the STR file renderer which will render the effect at given
 	 * position, with given rotation and scale.
@@ -22,7 +125,11 @@ public class STRRendererFactory {
 	 * @param iXScale Scale on X axis to apply to the effect
 	 * @param iYScale Scale on Y axis to apply to the effect
 	 * @param iZScale Scale on Z axis to apply to the effect
-	 * @param iFps Frames per second to use when rendering
+	 * @param iFps Frames per second of the effect, usually
+	 * {@link Str#get_fps()}. Invalid values fall back to
+	 * {@link ClockFrameAdvanceCalculator#DEFAULT_FPS}.
+	 * @param iClock Clock the effect follows, usually
+	 * {@link OpenGLWrapper#getClock()} of the wrapper drawing it.
 	 * @param iPreloadTextures If true then renderer should pre-load all
 	 * textures before first call to
 	 * {@link Renderer#renderFrame(javax.media.opengl.GLAutoDrawable, long)}.
@@ -41,14 +148,72 @@ public class STRRendererFactory {
 			float iYScale,
 			float iZScale,
 			int iFps,
+			AnimationClock iClock,
 			boolean iPreloadTextures,
 			boolean iDebug) throws RenderException {
+		return createEffectRenderer(
+			iEffect,
+			iRenderPosition,
+			iXRotation,
+			iYRotation,
+			iZRotation,
+			iXScale,
+			iYScale,
+			iZScale,
+			iFps,
+			iClock,
+			iPreloadTextures,
+			iDebug,
+			null);
+	}
+	/**
+	 * Same as
+	 * {@link #createEffectRenderer(Str, Point3D, float, float, float, float, float, float, int, AnimationClock, boolean, boolean)}
+	 * but the renderer loads its textures in the background.
+	 * @param iEffect Effect to render
+	 * @param iRenderPosition Position to render the effect on
+	 * @param iXRotation Rotation on X axis to apply to the effect
+	 * @param iYRotation Rotation on Y axis to apply to the effect
+	 * @param iZRotation Rotation on Z axis to apply to the effect
+	 * @param iXScale Scale on X axis to apply to the effect
+	 * @param iYScale Scale on Y axis to apply to the effect
+	 * @param iZScale Scale on Z axis to apply to the effect
+	 * @param iFps Frames per second of the effect, usually
+	 * {@link Str#get_fps()}. Invalid values fall back to
+	 * {@link ClockFrameAdvanceCalculator#DEFAULT_FPS}.
+	 * @param iClock Clock the effect follows, usually
+	 * {@link OpenGLWrapper#getClock()} of the wrapper drawing it.
+	 * @param iPreloadTextures If true then renderer should pre-load all
+	 * textures before first call to
+	 * {@link Renderer#renderFrame(javax.media.opengl.GLAutoDrawable, long)}.
+	 * @param iDebug If true, a debugging version of a renderer will be
+	 * created
+	 * @param iTextureLoader Loader for textures or null to load them
+	 * synchronously.
+	 * @return Renderer implementation
+	 * @throws RenderException In case creating the renderer fails.
+	 */
+	public static Renderer createEffectRenderer(
+			Str iEffect,
+			Point3D iRenderPosition,
+			float iXRotation,
+			float iYRotation,
+			float iZRotation,
+			float iXScale,
+			float iYScale,
+			float iZScale,
+			int iFps,
+			AnimationClock iClock,
+			boolean iPreloadTextures,
+			boolean iDebug,
+			AsyncTextureLoader iTextureLoader) throws RenderException {
 		assert(iEffect != null);
+		// advance at the effect frame rate, whatever the display rate is
 		FrameAdvanceCalculator calc =
-				new StepCalculator();
-				//new DelayBasedFPSFrameAdvanceCalculator(iFps);
+				new ClockFrameAdvanceCalculator(iClock, iFps);
+		SimpleStrRenderer result;
 		if(iDebug)
-			return new DebugSimpleStrRenderer(
+			result = new DebugSimpleStrRenderer(
 				iEffect,
 				calc,
 				iPreloadTextures,
@@ -60,7 +225,7 @@ public class STRRendererFactory {
 				iYScale,
 				iZScale);
 		else
-			return new SimpleStrRenderer(
+			result = new SimpleStrRenderer(
 				iEffect,
 				calc,
 				iPreloadTextures,
@@ -71,5 +236,9 @@ public class STRRendererFactory {
 				iXScale,
 				iYScale,
 				iZScale);
+		result.setTextureLoader(iTextureLoader);
+		// the clock based calculator knows positions between frames
+		result.setSubFrameInterpolation(true);
+		return result;
 	}
 }
@@ -1,20 +1,21 @@
 package com.skardach.ro.graphics;
 
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.glu.GLU;
 
-import com.skardach.ro.common.ObjectHolder;
+import com.skardach.ro.resource.AsyncTextureLoader;
 import com.skardach.ro.resource.ResourceException;
 import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.str.AnimationType;
 import com.skardach.ro.resource.str.KeyFrame;
 import com.skardach.ro.resource.str.KeyFrameType;
 import com.skardach.ro.resource.str.Layer;
 import com.skardach.ro.resource.str.Str;
-import com.skardach.ro.resource.str.AnimationType;
 
 /**
  * Simple implementation of rendering STR files. Most of the credit goes to
@@ -23,13 +24,27 @@ import com.skardach.ro.resource.str.AnimationType;
  * @author Stanislaw Kardach
  *
  */
-public class SimpleStrRenderer implements Renderer {
-	private static final float STR_ANGLE_TO_DEGREES =1f; //= 2.8444f;
-
+public class SimpleStrRenderer
+		implements
+			AdaptiveRenderer,
+			ChangeTrackingRenderer,
+			CompositedRenderer,
+			SteppableRenderer {
+	private static final RenderDetail FULL_DETAIL = new RenderDetail();
+	/**
+	 * Default number of layers from which layer states are evaluated in
+	 * parallel.
+	 */
+	public static final int DEFAULT_PARALLEL_LAYER_THRESHOLD = 128;
+	/**
+	 * Number of layers evaluated by a single task.
+	 */
+	static final int PARALLEL_LAYER_CHUNK = 32;
 	// OpenGL utilities
 	GLU _glu = new GLU();
 	// Object rendered
 	Str _effect;
+	StrTimeline _timeline;
 	// Rendering parameters
 	boolean _preloadTextures;
 	Point3D _renderPosition;
@@ -57,6 +72,90 @@ public class SimpleStrRenderer implements Renderer {
 	 * animation frames.
 	 */
 	protected int _currentAnimationFrameOnLayer[];
+	/**
+	 * Evaluated state of each layer, reused between frames.
+	 */
+	LayerState _layerStates[];
+	/**
+	 * Direction of the effect Y axis in world coordinates (with scale) after
+	 * renderer rotations are applied. Used for visibility checks.
+	 */
+	private final float _yAxis[] = new float[3];
+	private final float _bounds[] = new float[4];
+	private final float _nextBounds[] = new float[4];
+	/**
+	 * Billboarded matrix of the effect when quads are handed to a compositor.
+	 */
+	private final float _matrix[] = new float[16];
+	/**
+	 * Level of detail of the frame being rendered.
+	 */
+	protected RenderDetail _detail = FULL_DETAIL;
+	/**
+	 * Whether the layer was drawn when layer states were last evaluated.
+	 */
+	boolean _layerDrawn[];
+	/**
+	 * Inputs each layer state was last evaluated from: base and animation key
+	 * frame indexes, frame (or {@link #FRAME_INDEPENDENT} if the state does
+	 * not depend on it) and frame fraction. A layer whose inputs did not
+	 * change keeps its state without evaluating it again.
+	 */
+	private int _evaluatedBase[];
+	private int _evaluatedAnimation[];
+	private int _evaluatedFrame[];
+	private float _evaluatedFraction[];
+	private static final int FRAME_INDEPENDENT = -1;
+	/**
+	 * Whether some layers were not drawn in the last frame because their
+	 * textures are still being loaded.
+	 */
+	private volatile boolean _waitingForTextures = false;
+	private int _framesSinceEvaluation = 0;
+	/**
+	 * Draws evaluated layer quads.
+	 */
+	final LayerDrawer _drawer = new LayerDrawer();
+	private boolean _layerStatesValid = false;
+	/**
+	 * Background texture loader or null if textures are loaded synchronously
+	 * on first use.
+	 */
+	AsyncTextureLoader _textureLoader = null;
+	/**
+	 * Whether playback starts over after the last frame. Otherwise the
+	 * renderer stops drawing and releases textures when they are not needed
+	 * anymore.
+	 */
+	boolean _looping = true;
+	private boolean _finished = false;
+	/**
+	 * How many frames ahead of their first use textures are loaded, unless
+	 * all are preloaded.
+	 */
+	private int _prefetchFrames = 0;
+	/**
+	 * Whether morph frames are interpolated between whole frames and the
+	 * position between the rendered frame and the next one.
+	 */
+	boolean _interpolate = false;
+	protected float _frameFraction = 0;
+	/**
+	 * Time (in nanoseconds) the last {@link #render(GL2, int)} spent
+	 * evaluating layers and submitting them to OpenGL.
+	 */
+	protected long _evaluationNanos = 0;
+	protected long _submissionNanos = 0;
+	/**
+	 * Textures held by this renderer, null until initialized.
+	 */
+	TextureResidency _residency = null;
+	/**
+	 * Pool evaluating layers of big effects or null to always evaluate them
+	 * on the OpenGL thread.
+	 */
+	private ForkJoinPool _evaluationPool = EvaluationPool.getShared();
+	private int _parallelLayerThreshold = DEFAULT_PARALLEL_LAYER_THRESHOLD;
 	/**
 	 * Create a simple implementation of Effect renderer. It is based on
 	 * open-raganrok implementation
@@ -70,7 +169,9 @@ public class SimpleStrRenderer implements Renderer {
 	 * {@link Texture#load(GL2)} on all textures used in all layers in
 	 * {@link #initialize(GLAutoDrawable)} method to have them loaded before
 	 * rendering begins. Naturally if textures are managed by an external
-	 * texture manager, this may not be required.
+	 * texture manager, this may not be required. Otherwise textures are
+	 * loaded shortly before their first use, see
+	 * {@link #setTexturePrefetch(int)}.
 	 * @param iRenderPosition Where the effect should be rendered.
 	 * @param iXRotation Additional rotation if required.
 	 * @param iYRotation Additional rotation if required.
@@ -104,11 +205,41 @@ public class SimpleStrRenderer implements Renderer {
 		_xScale = iXScale;
 		_yScale = iYScale;
 		_zScale = iZScale;
+		_timeline = StrTimeline.forEffect(iEffect);
+		_layerStates = new LayerState[_timeline.getLayerCount()];
+		for(int i = 0; i < _layerStates.length; i++)
+			_layerStates[i] = new LayerState();
+		_layerDrawn = new boolean[_layerStates.length];
+		_evaluatedBase = new int[_layerStates.length];
+		_evaluatedAnimation = new int[_layerStates.length];
+		_evaluatedFrame = new int[_layerStates.length];
+		_evaluatedFraction = new float[_layerStates.length];
+		// nothing evaluated yet
+		Arrays.fill(_evaluatedBase, Integer.MIN_VALUE);
+		computeYAxis();
+	}
+	/**
+	 * Rotate the scaled Y axis the same way {@link #beforeRender(GL2)} does:
+	 * first around Y, then Z and finally X axis.
+	 */
+	private void computeYAxis() {
+		// rotation around Y does not change the Y axis
+		double z = Math.toRadians(_zRotation);
+		float x = (float)(-_yScale * Math.sin(z));
+		float y = (float)(_yScale * Math.cos(z));
+		double xr = Math.toRadians(_xRotation);
+		_yAxis[0] = x;
+		_yAxis[1] = (float)(y * Math.cos(xr));
+		_yAxis[2] = (float)(y * Math.sin(xr));
 	}
 	@Override
 	public void reset() {
 		resetCurrentFrameTables();
 		_lastRenderedFrame = FrameAdvanceCalculator.NO_FRAME;
+		_layerStatesValid = false;
+		_finished = false;
+		if(_residency != null)
+			_residency.rewind();
 	}
 	/**
 	 * Render a single frame. Preserves current matrix from being overwritten.
@@ -119,11 +250,212 @@ public class SimpleStrRenderer implements Renderer {
 	public void renderFrame(
 			GLAutoDrawable ioCanvas,
 			long iDelaySinceLastInvoke) throws RenderException {
+		renderFrame(ioCanvas, iDelaySinceLastInvoke, null);
+	}
+	/**
+	 * Render a single frame if it is visible in the given view frustum.
+	 * Otherwise only key frame tables are advanced.
+	 * @param ioCanvas OpenGL context
+	 * @param iDelaySinceLastInvoke Delay in ms since last invoke.
+	 * @param iViewFrustum Current view frustum or null to always render.
+	 */
+	@Override
+	public void renderFrame(
+			GLAutoDrawable ioCanvas,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum) throws RenderException {
+		renderFrame(ioCanvas, iDelaySinceLastInvoke, iViewFrustum, FULL_DETAIL);
+	}
+	/**
+	 * Render a single frame with a given level of detail if it is visible in
+	 * the given view frustum. Otherwise only key frame tables are advanced.
+	 * @param ioCanvas OpenGL context
+	 * @param iDelaySinceLastInvoke Delay in ms since last invoke.
+	 * @param iViewFrustum Current view frustum or null to always render.
+	 * @param iDetail Level of detail to render with.
+	 */
+	@Override
+	public void renderFrame(
+			GLAutoDrawable ioCanvas,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail) throws RenderException {
 		GL2 gl = ioCanvas.getGL().getGL2();
+		int frameToRender = advanceFrame(iDelaySinceLastInvoke);
+		updateTextures(gl, frameToRender);
+		if(_finished)
+			return;
+		if(iDetail._dropped
+			|| (iViewFrustum != null
+				&& !isVisible(frameToRender, iViewFrustum))) {
+			skipFrame(frameToRender);
+			return;
+		}
+		_detail = iDetail;
 		beforeRender(gl);
-		render(gl, iDelaySinceLastInvoke);
+		render(gl, frameToRender);
 		afterRender(gl);
 	}
+	/**
+	 * Same as {@link #renderFrame(GLAutoDrawable, long, Frustum,
+	 * RenderDetail)}, but layer quads of the frame are transformed to eye
+	 * coordinates and added to the compositor buffer as one group.
+	 * @param ioCanvas OpenGL context
+	 * @param iDelaySinceLastInvoke Delay in ms since last invoke.
+	 * @param iViewFrustum Current view frustum or null to always render.
+	 * @param iDetail Level of detail to render with.
+	 * @param ioCompositor Compositor of the canvas.
+	 */
+	@Override
+	public void collectFrame(
+			GLAutoDrawable ioCanvas,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail,
+			Compositor ioCompositor) throws RenderException {
+		GL2 gl = ioCanvas.getGL().getGL2();
+		int frameToRender = advanceFrame(iDelaySinceLastInvoke);
+		updateTextures(gl, frameToRender);
+		if(_finished)
+			return;
+		if(iDetail._dropped
+			|| (iViewFrustum != null
+				&& !isVisible(frameToRender, iViewFrustum))) {
+			skipFrame(frameToRender);
+			return;
+		}
+		_detail = iDetail;
+		evaluateFrame(frameToRender);
+		LayerDrawer.computeEffectMatrix(
+			ioCompositor.getCamera(),
+			_renderPosition._x,
+			_renderPosition._y,
+			_renderPosition._z,
+			_xRotation,
+			_yRotation,
+			_zRotation,
+			_xScale,
+			_yScale,
+			_zScale,
+			_matrix);
+		QuadBuffer buffer = ioCompositor.getBuffer();
+		for(int i = 0; i < _timeline.getLayerCount(); i++) {
+			if(_timeline.isLayerEmpty(i)
+				|| !_layerDrawn[i]
+				|| !isDetailed(i, _layerStates[i]))
+				continue;
+			LayerState state = _layerStates[i];
+			buffer.add(
+				state,
+				i != 0
+					? _timeline.getLayer(i).get_textures().get(state._textureIndex)
+					: null,
+				i,
+				_matrix);
+		}
+		buffer.endGroup(_matrix[14]);
+		// textures are bound by the compositor, which tracks waiting layers
+		_waitingForTextures = false;
+		_lastRenderedFrame = frameToRender;
+	}
+
+	/**
+	 * Load textures in the background instead of on first use. Layers whose
+	 * texture is not loaded yet are not drawn.
+	 * @param iTextureLoader Loader to use or null to load textures
+	 * synchronously.
+	 */
+	public void setTextureLoader(AsyncTextureLoader iTextureLoader) {
+		_textureLoader = iTextureLoader;
+		_drawer.setTextureLoader(iTextureLoader);
+	}
+	/**
+	 * Set whether the effect starts over after the last frame. Takes effect
+	 * on next {@link #initialize(GLAutoDrawable)}.
+	 * @param iLooping False to play the effect once and release each texture
+	 * after its last use.
+	 */
+	public void setLooping(boolean iLooping) {
+		_looping = iLooping;
+	}
+	/**
+	 * @return True if the effect does not loop and its last frame was played.
+	 */
+	public boolean isFinished() {
+		return _finished;
+	}
+	/**
+	 * Enable evaluation of morph (animation) frames at fractional frame
+	 * positions, so that effects look smooth on displays refreshing faster
+	 * than the effect frame rate. Base frame switches and texture changes
+	 * stay discrete. Only has effect with frame advance calculators
+	 * implementing {@link FractionalFrameAdvanceCalculator}.
+	 * @param iInterpolate True to interpolate.
+	 */
+	public void setSubFrameInterpolation(boolean iInterpolate) {
+		_interpolate = iInterpolate;
+		_frameFraction = 0;
+	}
+	/**
+	 * Set how layer states of effects with many layers are evaluated. Drawing
+	 * always happens on the OpenGL thread in layer order.
+	 * @param iPool Pool to evaluate layers on or null to evaluate them on the
+	 * OpenGL thread.
+	 * @param iMinLayers Number of layers from which layers are evaluated on
+	 * the pool.
+	 */
+	public void setParallelEvaluation(ForkJoinPool iPool, int iMinLayers) {
+		_evaluationPool = iPool;
+		_parallelLayerThreshold = iMinLayers;
+	}
+	/**
+	 * Set how many frames before its first use a texture is loaded when
+	 * textures are not preloaded. Takes effect on next
+	 * {@link #initialize(GLAutoDrawable)}.
+	 * @param iFrames Number of frames, 0 to load textures when first drawn.
+	 */
+	public void setTexturePrefetch(int iFrames) {
+		_prefetchFrames = iFrames;
+	}
+
+	/**
+	 * Nothing changes while the frame advance calculator stays at the last
+	 * rendered frame, unless sub frame interpolation is on and the fraction
+	 * moved, or some layers wait for their textures. Only calculators
+	 * driven by a clock, i.e. {@link ClockFrameAdvanceCalculator}, can be
+	 * asked without advancing them; with others a redraw is always needed.
+	 */
+	@Override
+	public boolean needsRedraw() {
+		if(_lastRenderedFrame == FrameAdvanceCalculator.NO_FRAME
+			|| _waitingForTextures)
+			return true;
+		if(_finished)
+			return false;
+		if(!(_frameAdvanceCalculator instanceof ClockFrameAdvanceCalculator))
+			return true;
+		ClockFrameAdvanceCalculator calculator =
+			(ClockFrameAdvanceCalculator)_frameAdvanceCalculator;
+		if(calculator.peekFrameToRender(_lastRenderedFrame)
+				!= _lastRenderedFrame)
+			return true;
+		return _interpolate
+			&& calculator.peekFrameFraction() != _frameFraction;
+	}
+	/**
+	 * Only effects advanced by a {@link ClockFrameAdvanceCalculator} need to
+	 * be told, other calculators advance on every rendered frame anyway.
+	 */
+	@Override
+	public void step() {
+		if(_frameAdvanceCalculator instanceof ClockFrameAdvanceCalculator)
+			((ClockFrameAdvanceCalculator)_frameAdvanceCalculator).step();
+	}
+
+	@Override
+	public Point3D getRenderPosition() {
+		return _renderPosition;
+	}
 	/**
 	 * Preserve current processing matrix and move rendering according to
 	 * renderer settings.
@@ -139,364 +471,366 @@ public class SimpleStrRenderer implements Renderer {
 		iGL.glRotatef(_zRotation, 0, 0, 1);
 		iGL.glRotatef(_yRotation, 0, 1, 0);
 		iGL.glScalef(_xScale, _yScale, _zScale);
-		iGL.glEnable(GL.GL_TEXTURE_2D);
+		_drawer.begin(iGL);
 	}
 	/**
 	 * Restore original matrix.
 	 * @param iGL GL context
 	 */
 	protected void afterRender(GL2 iGL) {
-		iGL.glDisable(GL.GL_TEXTURE_2D);
+		_waitingForTextures = _drawer.getWaitingLayers() > 0;
+		_drawer.end(iGL);
 		iGL.glPopMatrix();
 	}
 	/**
-	 * Main rendering method. Iterates through each layer and renders it.
-	 * @param iGL
-	 * @param iDelaySinceLastInvoke Time (in ms) since this method was last
-	 * invoked. Required for calculating animation deltas and potential new
-	 * key frames to apply
-	 * @throws RenderException If something goes wrong with rendering (GL
-	 * error, improper texture, etc.).
+	 * Check which frame should be rendered next. If the animation has looped
+	 * then key frame tables are reset. If it has ended and does not loop, the
+	 * renderer is marked as finished.
+	 * @param iDelaySinceLastInvoke Time (in ms) since last frame was rendered.
+	 * @return Number of the frame to render, in range [0, frame count[, or
+	 * frame count if the renderer has finished.
 	 */
-	protected void render(
-			GL2 iGL,
-			long iDelaySinceLastInvoke) throws RenderException {
-		// few assertion to be sure we're sane
-		assert(_effect != null);
-		// Check which frame should we render
+	protected int advanceFrame(long iDelaySinceLastInvoke) {
 		int frameToRender =
 			_frameAdvanceCalculator.calculateFrameToRender(
 				iDelaySinceLastInvoke,
 				_lastRenderedFrame);
+		_frameFraction =
+			_interpolate
+				&& _frameAdvanceCalculator
+					instanceof FractionalFrameAdvanceCalculator
+			? ((FractionalFrameAdvanceCalculator)_frameAdvanceCalculator)
+				.getFrameFraction()
+			: 0;
 		if(frameToRender >= _effect.get_frameCount()) {
+			if(!_looping) {
+				_finished = true;
+				_frameFraction = 0;
+				return _effect.get_frameCount();
+			}
 			// Since we've made an animation loop first reset layer counters
 			resetCurrentFrameTables();
+			if(_residency != null)
+				_residency.rewind();
 			frameToRender %= _effect.get_frameCount();
 		}
-		int i = 0;
-		for(Layer l : _effect.get_layers()) {
-			renderLayer(
+		return frameToRender;
+	}
+	/**
+	 * Load textures shown soon after a given frame and, for non looping
+	 * playback, release those which will not be shown anymore.
+	 * @param iGL GL context
+	 * @param iFrame Frame to render as returned by
+	 * {@link #advanceFrame(long)}.
+	 * @throws RenderException If a texture could not be loaded.
+	 */
+	protected void updateTextures(GL2 iGL, int iFrame) throws RenderException {
+		if(_residency == null)
+			return;
+		try {
+			_residency.update(iGL, iFrame);
+		} catch (ResourceException e) {
+			throw new RenderException(
+				"Could not load textures of frame "
+				+ iFrame
+				+ ". Reason: "
+				+ e);
+		}
+	}
+	/**
+	 * Check whether the bounding volume of a given frame intersects the view
+	 * frustum. The bounding box precomputed in {@link StrTimeline} is turned
+	 * into a sphere in world coordinates the same way
+	 * {@link #Billboard(GL2)} transforms layer quads.
+	 * @param iFrame Frame to check.
+	 * @param iViewFrustum View frustum.
+	 * @return False if nothing from the frame can be visible.
+	 */
+	protected boolean isVisible(int iFrame, Frustum iViewFrustum) {
+		boolean interpolated =
+			_frameFraction > 0 && iFrame + 1 < _timeline.getFrameCount();
+		if(_timeline.isFrameEmpty(iFrame)
+			&& (!interpolated || _timeline.isFrameEmpty(iFrame + 1)))
+			return false;
+		_timeline.getBounds(iFrame, _bounds);
+		if(interpolated) {
+			// quads move towards the next frame, include its bounds
+			_timeline.getBounds(iFrame + 1, _nextBounds);
+			_bounds[0] = Math.min(_bounds[0], _nextBounds[0]);
+			_bounds[1] = Math.min(_bounds[1], _nextBounds[1]);
+			_bounds[2] = Math.max(_bounds[2], _nextBounds[2]);
+			_bounds[3] = Math.max(_bounds[3], _nextBounds[3]);
+		}
+		float centerX = (_bounds[0] + _bounds[2]) / 2;
+		float centerY = (_bounds[1] + _bounds[3]) / 2;
+		float halfWidth = (_bounds[2] - _bounds[0]) / 2 * _xScale;
+		float halfHeight = (_bounds[3] - _bounds[1]) / 2 * _yScale;
+		float radius =
+			(float)Math.sqrt(halfWidth * halfWidth + halfHeight * halfHeight)
+			+ _timeline.getDepth();
+		return iViewFrustum.intersectsSphere(
+			_renderPosition._x + centerX * _xScale + centerY * _yAxis[0],
+			_renderPosition._y + centerY * _yAxis[1],
+			_renderPosition._z + centerY * _yAxis[2],
+			radius);
+	}
+	/**
+	 * Advance key frame tables to a given frame without drawing anything.
+	 * @param iFrameToRender Frame which would have been rendered.
+	 * @throws RenderException If key frame tables could not be updated.
+	 */
+	protected void skipFrame(int iFrameToRender) throws RenderException {
+		for(int i = 0; i < _timeline.getLayerCount(); i++)
+			updateProcessedKeyFrames(
 				i,
-				l,
-				frameToRender,
-				iGL);
-			i++;
+				_timeline.getKeyFrames(i),
+				iFrameToRender);
+		_lastRenderedFrame = iFrameToRender;
+		_layerStatesValid = false;
+	}
+	/**
+	 * Main rendering method. Iterates through each layer and renders it. Layer
+	 * states of effects with many layers are evaluated in parallel first, see
+	 * {@link #setParallelEvaluation(ForkJoinPool, int)}, and then drawn in the
+	 * same order as they would be otherwise.
+	 * @param iGL
+	 * @param iFrameToRender Frame to render as returned by
+	 * {@link #advanceFrame(long)}.
+	 * @throws RenderException If something goes wrong with rendering (GL
+	 * error, improper texture, etc.).
+	 */
+	protected void render(
+			GL2 iGL,
+			int iFrameToRender) throws RenderException {
+		// few assertion to be sure we're sane
+		assert(_effect != null);
+		long start = System.nanoTime();
+		evaluateFrame(iFrameToRender);
+		long evaluated = System.nanoTime();
+		for(int i = 0; i < _timeline.getLayerCount(); i++) {
+			if(_timeline.isLayerEmpty(i)) // skip placeholder layers
+				continue;
+			if(_layerDrawn[i] && isDetailed(i, _layerStates[i]))
+				drawLayer(i, _timeline.getLayer(i), _layerStates[i], iGL);
 		}
-		_lastRenderedFrame = frameToRender;
+		_evaluationNanos = evaluated - start;
+		_submissionNanos = System.nanoTime() - evaluated;
+		_lastRenderedFrame = iFrameToRender;
 	}
 	/**
-	 * Render a single layer. Texture and location data are taken from a current
-	 * base key frame and then a current animation frame transformations are
-	 * applied (given that animation frame has been reached).
+	 * Advance key frame tables of all layers to a given frame and evaluate
+	 * their states, in parallel for effects with many layers.
+	 * @param iFrameToRender Frame to render as returned by
+	 * {@link #advanceFrame(long)}.
+	 * @throws RenderException If key frame tables could not be updated.
+	 */
+	private void evaluateFrame(int iFrameToRender) throws RenderException {
+		// with lowered update rate last evaluated states are drawn again
+		boolean evaluate =
+			_framesSinceEvaluation + 1 >= _detail._updateInterval
+			|| !_layerStatesValid;
+		_framesSinceEvaluation = evaluate ? 0 : _framesSinceEvaluation + 1;
+		_layerStatesValid = true;
+		int layerCount = _timeline.getLayerCount();
+		boolean parallel = evaluate
+			&& _evaluationPool != null
+			&& layerCount >= _parallelLayerThreshold;
+		if(parallel) {
+			LayerEvaluationTask task =
+				new LayerEvaluationTask(0, layerCount, iFrameToRender);
+			_evaluationPool.invoke(task);
+			if(task._error != null)
+				throw task._error;
+			return;
+		}
+		for(int i = 0; i < layerCount; i++) {
+			if(!_timeline.isLayerEmpty(i)) // skip placeholder layers
+				evaluateLayer(i, iFrameToRender, evaluate);
+		}
+	}
+	/**
+	 * Evaluates a range of layers, splitting it into chunks of
+	 * {@link SimpleStrRenderer#PARALLEL_LAYER_CHUNK} layers. Each layer has its
+	 * own key frame table entries and state object, so chunks do not share
+	 * anything they write. The first error is kept for the OpenGL thread to
+	 * rethrow.
+	 */
+	private class LayerEvaluationTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int _from;
+		private final int _to;
+		private final int _frame;
+		volatile RenderException _error = null;
+
+		LayerEvaluationTask(int iFrom, int iTo, int iFrame) {
+			_from = iFrom;
+			_to = iTo;
+			_frame = iFrame;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from <= PARALLEL_LAYER_CHUNK) {
+				try {
+					for(int i = _from; i < _to; i++)
+						if(!_timeline.isLayerEmpty(i))
+							evaluateLayer(i, _frame, true);
+				} catch (RenderException e) {
+					_error = e;
+				}
+				return;
+			}
+			int middle = (_from + _to) >>> 1;
+			LayerEvaluationTask left =
+				new LayerEvaluationTask(_from, middle, _frame);
+			LayerEvaluationTask right =
+				new LayerEvaluationTask(middle, _to, _frame);
+			invokeAll(left, right);
+			_error = left._error != null ? left._error : right._error;
+		}
+	}
+	/**
+	 * Advance key frame tables of a single layer and evaluate its state.
+	 * Texture and location data are taken from a current base key frame and
+	 * then a current animation frame transformations are applied (given that
+	 * animation frame has been reached). Does not touch OpenGL, so it may run
+	 * on any thread as long as each layer is evaluated by one thread only.
 	 * @param iLayerNumber Layer number in the effect stack (decides ordering
 	 * on Z axis)
-	 * @param iLayer layer object
 	 * @param iFrameToRender which frame should be rendered (used to calculate
 	 * current base and animation frames to use).
-	 * @param iGL GL context
-	 * @throws RenderException If anything goes wrong with rendering.
+	 * @param iEvaluate If false, layer state evaluated in one of previous
+	 * frames is kept.
+	 * @throws RenderException If key frame tables could not be updated.
 	 */
-	private void renderLayer(
+	private void evaluateLayer(
 			int iLayerNumber,
-			Layer iLayer,
 			int iFrameToRender,
-			GL2 iGL) throws RenderException {
+			boolean iEvaluate) throws RenderException {
+		KeyFrame keyFrames[] = _timeline.getKeyFrames(iLayerNumber);
 		updateProcessedKeyFrames(
 			iLayerNumber,
-			iLayer.get_keyFrames(),
+			keyFrames,
 			iFrameToRender);
-
-		if (_currentBaseFrameOnLayer[iLayerNumber]
-			!= FrameAdvanceCalculator.NO_FRAME) {
-			//We have a base frame to work on...
-			float currentcolor[] = new float[4];
-			iGL.glGetFloatv(GL2.GL_CURRENT_COLOR, currentcolor, 0);
-			KeyFrame baseFrame =
-				iLayer.get_keyFrames().get(
-					_currentBaseFrameOnLayer[iLayerNumber]);
-			if ( true ) {
-				Color finalColor = new Color(baseFrame.get_color());
-				Point2D finalPosition =
-						new Point2D( // translate by character size
-							baseFrame.get_position()._x - 320,
-							baseFrame.get_position()._y - 290);
-				ObjectHolder<Float> finalRotation =
-					new ObjectHolder<Float>(
-						baseFrame.get_rotation() / STR_ANGLE_TO_DEGREES);
-				Rectangle<Point2D> finalRectangle =
-					new Rectangle<Point2D>(
-						new Point2D(baseFrame.get_drawingRectangle().get_a()),
-						new Point2D(baseFrame.get_drawingRectangle().get_b()),
-						new Point2D(baseFrame.get_drawingRectangle().get_c()),
-						new Point2D(baseFrame.get_drawingRectangle().get_d()));
-				Rectangle<Point2D> finalTextureMapping =
-					new Rectangle<Point2D>(
-						new Point2D(baseFrame.get_textureUVMapping().get_d()),
-						new Point2D(baseFrame.get_textureUVMapping().get_c()),
-						new Point2D(baseFrame.get_textureUVMapping().get_b()),
-						new Point2D(baseFrame.get_textureUVMapping().get_a()));
-				
-				float finalTextureId =baseFrame.get_textureId();
-
-
-				if (_currentAnimationFrameOnLayer[iLayerNumber]
-					!= FrameAdvanceCalculator.NO_FRAME) {
-					KeyFrame animationFrame =
-						iLayer.get_keyFrames().get(
-							_currentAnimationFrameOnLayer[iLayerNumber]);
-					applyAnimationFrame(animationFrame, iFrameToRender,
-							finalColor, finalPosition, finalRotation,
-							finalRectangle, finalTextureMapping , 0);
-										
-				}
-				
-				//finalTextureId=(float)Math.random()*10;
-				
-				//prevent out of bounds
-				if (finalTextureId<0) {
-					finalTextureId*=-1;
-				}
-				
-				if ( baseFrame.get_animationType() != AnimationType.NO_CHANGE ) {
-					finalTextureId += 
-							(baseFrame.get_animationDelta() +0) * 2 *
-							(iFrameToRender - baseFrame.get_framenum() +0);
-					
-					//System.out.print(finalTextureId + " ");
-				}
-				
-				if ( baseFrame.get_animationType() == AnimationType.TYPE_2 && ((int)finalTextureId >= iLayer.get_textures().size()) ) {
-					finalTextureId=(float)(iLayer.get_textures().size()-1);		
-				
-				}
-				
-				finalTextureId%=iLayer.get_textures().size();
-				
-				if (iLayerNumber !=0) {
-					Texture texture =
-							
-							iLayer.get_textures().get((int)finalTextureId);		
-					
-					if(!texture.isLoaded())
-						try {
-							texture.load(iGL);
-						} catch (ResourceException e) {
-							throw new RenderException(
-								"Could not load texture: "
-								+ texture
-								+ ". Reason: "
-								+ e);
-						}
-					
-					texture.bind(iGL);	
-				}
-				
-				if (iLayerNumber==0) {
-					iGL.glDisable(GL2.GL_TEXTURE_2D);
-					
-					finalRectangle._a._x = -400;
-					finalRectangle._a._y = 300;
-					finalRectangle._b._x = 400;
-					finalRectangle._b._y = 300;
-					finalRectangle._d._x = -400;
-					finalRectangle._d._y = -300;
-					finalRectangle._c._x = 400;
-					finalRectangle._c._y = -300;
-					
-					iGL.glBlendFunc( GL2.GL_ONE,GL2.GL_ZERO);			
-
-					
-				} else {
-					iGL.glEnable(GL2.GL_TEXTURE_2D);
-
-					
-					// linear filter
-					iGL.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR); // or NEAREST
-					
-					
-					
-				}
-				
-							
-				iGL.glPushMatrix();
-
-				Billboard(iGL);
-				iGL.glColor4ub(
-					(byte)finalColor._r,
-					(byte)finalColor._g,
-					(byte)finalColor._b,
-					(byte)finalColor._alpha);
-				
-				iGL.glTranslatef(
-					finalPosition._x,
-					finalPosition._y,
-					0f);
-				iGL.glRotatef(finalRotation.getObject(), 0, 0, 1);
-
-				iGL.glEnable(GL.GL_BLEND);
-
-				iGL.glBlendFunc( baseFrame.get_sourceBlend().toGLValue(),
-				baseFrame.get_destBlend().toGLValue());			
-
-				
-				iGL.glColorMask(true, true, true, true);
-;
-				iGL.glBegin(GL2.GL_QUADS);				//BEGIN ----------------
-				
-				iGL.glTexCoord2f(
-					finalTextureMapping._d._x,
-					finalTextureMapping._d._y);
-				iGL.glVertex3f(
-					finalRectangle._c._x,
-					finalRectangle._c._y,
-					0.02f * iLayerNumber);
-
-				iGL.glTexCoord2f(
-					finalTextureMapping._c._x,
-					finalTextureMapping._c._y);
-				iGL.glVertex3f(
-					finalRectangle._d._x,
-					finalRectangle._d._y,
-					0.02f * iLayerNumber);
-
-				iGL.glTexCoord2f(
-					finalTextureMapping._a._x,
-					finalTextureMapping._a._y);
-				iGL.glVertex3f(
-					finalRectangle._a._x,
-					finalRectangle._a._y,
-					0.02f * iLayerNumber);
-
-				iGL.glTexCoord2f(
-					finalTextureMapping._b._x,
-					finalTextureMapping._b._y);
-				iGL.glVertex3f(
-					finalRectangle._b._x,
-					finalRectangle._b._y,
-					0.02f * iLayerNumber);
-				iGL.glEnd();
-
-				iGL.glColorMask(true, true, true, true);
-				iGL.glDisable(GL.GL_BLEND);
-				iGL.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
-				iGL.glColor4f(
-					currentcolor[0],
-					currentcolor[1],
-					currentcolor[2],
-					currentcolor[3]);
-				iGL.glPopMatrix();
-			}
+		if(!iEvaluate)
+			return;
+		_layerDrawn[iLayerNumber] =
+			_currentBaseFrameOnLayer[iLayerNumber]
+				!= FrameAdvanceCalculator.NO_FRAME
+			&& !isPruned(iLayerNumber, iFrameToRender);
+		if(!_layerDrawn[iLayerNumber])
+			return;
+		//We have a base frame to work on...
+		int base = _currentBaseFrameOnLayer[iLayerNumber];
+		int animation = _currentAnimationFrameOnLayer[iLayerNumber];
+		KeyFrame baseFrame = keyFrames[base];
+		KeyFrame animationFrame =
+			animation != FrameAdvanceCalculator.NO_FRAME
+			? keyFrames[animation]
+			: null;
+		// static base frames do not change until the next key frame
+		int frame =
+			animationFrame != null
+				|| baseFrame.get_animationType() != AnimationType.NO_CHANGE
+			? iFrameToRender : FRAME_INDEPENDENT;
+		float fraction = animationFrame != null
+			? getFrameFraction(iLayerNumber, iFrameToRender) : 0;
+		if(_evaluatedBase[iLayerNumber] == base
+			&& _evaluatedAnimation[iLayerNumber] == animation
+			&& _evaluatedFrame[iLayerNumber] == frame
+			&& _evaluatedFraction[iLayerNumber] == fraction)
+			return;
+		_layerStates[iLayerNumber].evaluate(
+			iLayerNumber,
+			_timeline.getLayer(iLayerNumber),
+			baseFrame,
+			animationFrame,
+			iFrameToRender,
+			fraction);
+		_evaluatedBase[iLayerNumber] = base;
+		_evaluatedAnimation[iLayerNumber] = animation;
+		_evaluatedFrame[iLayerNumber] = frame;
+		_evaluatedFraction[iLayerNumber] = fraction;
+	}
+	/**
+	 * Get the position between frames a layer should be evaluated at. Only
+	 * layers which are morphed and keep the same key frames in the next
+	 * frame are interpolated, so key frame switches stay discrete.
+	 * @param iLayerNumber Layer number
+	 * @param iFrameToRender Frame being rendered
+	 * @return Position between frames in range [0, 1[.
+	 */
+	protected float getFrameFraction(int iLayerNumber, int iFrameToRender) {
+		if(_frameFraction == 0
+			|| iFrameToRender + 1 >= _timeline.getFrameCount()
+			|| _currentAnimationFrameOnLayer[iLayerNumber]
+				== FrameAdvanceCalculator.NO_FRAME)
+			return 0;
+		if(_timeline.getBaseFrameIndex(iLayerNumber, iFrameToRender + 1)
+				!= _currentBaseFrameOnLayer[iLayerNumber]
+			|| _timeline.getAnimationFrameIndex(iLayerNumber, iFrameToRender + 1)
+				!= _currentAnimationFrameOnLayer[iLayerNumber])
+			return 0;
+		return _frameFraction;
+	}
+	/**
+	 * Check whether an evaluated layer passes current level of detail limits.
+	 * @param iLayerNumber Layer number. Background layer is never too small.
+	 * @param iState Evaluated layer state
+	 * @return False if the layer should not be drawn.
+	 */
+	private boolean isDetailed(int iLayerNumber, LayerState iState) {
+		if(_detail._minAlpha > 0
+			&& (((int)iState._color._alpha) & 0xFF) < _detail._minAlpha * 255
+			&& StrTimeline.usesVertexAlpha(iState))
+			return false;
+		if(_detail._minScreenSize > 0 && iLayerNumber != 0) {
+			Rectangle<Point2D> r = iState._rectangle;
+			float width =
+				Math.max(Math.max(r._a._x, r._b._x), Math.max(r._c._x, r._d._x))
+				- Math.min(Math.min(r._a._x, r._b._x), Math.min(r._c._x, r._d._x));
+			float height =
+				Math.max(Math.max(r._a._y, r._b._y), Math.max(r._c._y, r._d._y))
+				- Math.min(Math.min(r._a._y, r._b._y), Math.min(r._c._y, r._d._y));
+			float size =
+				Math.max(width * Math.abs(_xScale), height * Math.abs(_yScale))
+				* _detail._pixelsPerUnit;
+			if(size < _detail._minScreenSize)
+				return false;
 		}
+		return true;
 	}
 	/**
-	 * Make the effect face us.
+	 * Check whether {@link StrTimeline} marked the layer as not contributing
+	 * any pixels in a given frame. The mark is only trusted if current key
+	 * frames on the layer are the same as precomputed ones, which may not be
+	 * the case if frames were skipped. When interpolating, a layer drawn in
+	 * the next frame under the same key frames is not pruned.
+	 * @param iLayerNumber Layer number
+	 * @param iFrameToRender Frame being rendered
+	 * @return True if the layer can be skipped in this frame.
+	 */
+	private boolean isPruned(int iLayerNumber, int iFrameToRender) {
+		return !_timeline.isDrawn(iLayerNumber, iFrameToRender, _frameFraction)
+			&& _timeline.getBaseFrameIndex(iLayerNumber, iFrameToRender)
+				== _currentBaseFrameOnLayer[iLayerNumber]
+			&& _timeline.getAnimationFrameIndex(iLayerNumber, iFrameToRender)
+				== _currentAnimationFrameOnLayer[iLayerNumber];
+	}
+	/**
+	 * Draw an evaluated layer quad.
+	 * @param iLayerNumber Layer number in the effect stack
+	 * @param iLayer layer object
+	 * @param iState Evaluated layer state
 	 * @param iGL GL context
+	 * @throws RenderException If layer texture could not be loaded.
 	 */
-	private void Billboard(GL2 iGL) {
-		// Cheat Cylindrical. Credits:
-		// http://www.lighthouse3d.com/opengl/billboarding/index.php3?billCheat1
-		float modelview[] = new float[16];
-		iGL.glGetFloatv(GL2.GL_MODELVIEW_MATRIX , modelview, 0);
-		float v;
-		for( int i=0; i<3; i+=2 )
-		    for( int j=0; j<3; j++ ) {
-				if ( i==j ) {
-					if (i == 0)
-						v = _xScale;
-					else if (i == 1)
-						v = _yScale;
-					else
-						v = 1.0f;
-					modelview[i*4+j] = v;
-				}
-				else {
-					modelview[i*4+j] = 0.0f;
-				}
-		    }
-		iGL.glLoadMatrixf(modelview,0);
-	}
-	/**
-	 * Applies animation frame modifications unto given set of drawing
-	 * parameters.
-	 * @param iAnimationFrame Animation frame to apply
-	 * @param iFrameToRender current rendered frame (used to calculate
-	 * animation intensity)
-	 * @param ioFinalColor Base color to modify
-	 * @param ioFinalPosition Position to modify
-	 * @param ioFinalRotation Rotation of the texture to modify
-	 * @param ioFinalRectangle Texture rectangle to modify
-	 * @param ioFinalTextureMapping Texture mapping to modify
-	 * @param ioFinalTextureMapping Texture mapping to modify
-	 */
-	private void applyAnimationFrame(KeyFrame iAnimationFrame,
-			int iFrameToRender, Color ioFinalColor, Point2D ioFinalPosition,
-			ObjectHolder<Float> ioFinalRotation, Rectangle<Point2D> ioFinalRectangle,
-			Rectangle<Point2D> ioFinalTextureMapping, float ioFinalTextureId) {
-		int anifactor =
-			iFrameToRender - iAnimationFrame.get_framenum();
-		
-			
-		ioFinalColor._r += iAnimationFrame.get_color()._r * anifactor;
-		ioFinalColor._g += iAnimationFrame.get_color()._g * anifactor;
-		ioFinalColor._b += iAnimationFrame.get_color()._b * anifactor;
-		ioFinalColor._alpha += 
-			iAnimationFrame.get_color()._alpha * anifactor;
-		ioFinalPosition._x +=
-			iAnimationFrame.get_position()._x * anifactor;
-		ioFinalPosition._y +=
-				iAnimationFrame.get_position()._y * anifactor;
-		ioFinalRotation.setObject(ioFinalRotation.getObject()
-			+ ((iAnimationFrame.get_rotation() / STR_ANGLE_TO_DEGREES)
-				* anifactor));
-		ioFinalRectangle._a._x +=
-				iAnimationFrame.get_drawingRectangle()._a._x
-				* anifactor;
-		ioFinalRectangle._a._y +=
-				iAnimationFrame.get_drawingRectangle()._a._y
-				* anifactor;
-		ioFinalRectangle._b._x +=
-				iAnimationFrame.get_drawingRectangle()._b._x
-				* anifactor;
-		ioFinalRectangle._b._y +=
-				iAnimationFrame.get_drawingRectangle()._b._y
-				* anifactor;
-		ioFinalRectangle._c._x +=
-				iAnimationFrame.get_drawingRectangle()._c._x
-				* anifactor;
-		ioFinalRectangle._c._y +=
-				iAnimationFrame.get_drawingRectangle()._c._y
-				* anifactor;
-		ioFinalRectangle._d._x +=
-				iAnimationFrame.get_drawingRectangle()._d._x
-				* anifactor;
-		ioFinalRectangle._d._y +=
-				iAnimationFrame.get_drawingRectangle()._d._y
-				* anifactor;
-
-		ioFinalTextureMapping._a._x +=
-				iAnimationFrame.get_textureUVMapping()._a._x
-				* anifactor;
-		ioFinalTextureMapping._a._y +=
-				iAnimationFrame.get_textureUVMapping()._b._y
-				* anifactor;
-		ioFinalTextureMapping._b._x +=
-				iAnimationFrame.get_textureUVMapping()._b._x
-				* anifactor;
-		ioFinalTextureMapping._b._y +=
-				iAnimationFrame.get_textureUVMapping()._c._y
-				* anifactor;
-		ioFinalTextureMapping._c._x +=
-				iAnimationFrame.get_textureUVMapping()._c._x
-				* anifactor;
-		ioFinalTextureMapping._c._y +=
-				iAnimationFrame.get_textureUVMapping()._d._y
-				* anifactor;
-		ioFinalTextureMapping._d._x +=
-				iAnimationFrame.get_textureUVMapping()._d._x
-				* anifactor;
-		ioFinalTextureMapping._d._y +=
-				iAnimationFrame.get_textureUVMapping()._a._y
-				* anifactor;
+	private void drawLayer(
+			int iLayerNumber,
+			Layer iLayer,
+			LayerState iState,
+			GL2 iGL) throws RenderException {
+		_drawer.draw(iGL, iLayerNumber, iLayer, iState, _xScale, _yScale);
 	}
 	/**
 	 * Updates indexes of currently processed key frames for a layer given that
@@ -507,7 +841,7 @@ public class SimpleStrRenderer implements Renderer {
 	 */
 	private void updateProcessedKeyFrames(
 			int iLayerNumber,
-			List<KeyFrame> iLayerFrames,
+			KeyFrame iLayerFrames[],
 			int iFrameToRender) throws RenderException {
 		boolean found = false;
 		// First check if current frame to render is a base or animation
@@ -522,9 +856,9 @@ public class SimpleStrRenderer implements Renderer {
 					// Since there is no animation frame processed then base
 					// frame will be the best place to start search
 						: _currentBaseFrameOnLayer[iLayerNumber]);
-				frameIdx < iLayerFrames.size() // look until the end...
+				frameIdx < iLayerFrames.length // look until the end...
 				; frameIdx++) {
-			KeyFrame kf = iLayerFrames.get(frameIdx);
+			KeyFrame kf = iLayerFrames[frameIdx];
 			if(kf.get_framenum() == iFrameToRender) {
 				if(kf.get_frameType() == KeyFrameType.BASIC) {
 					// new base frame, use it and reset animation frame
@@ -554,7 +888,7 @@ public class SimpleStrRenderer implements Renderer {
 			&& _currentAnimationFrameOnLayer[iLayerNumber]
 				== FrameAdvanceCalculator.NO_FRAME
 			&& _currentBaseFrameOnLayer[iLayerNumber]
-				== iLayerFrames.size() - 1)
+				== iLayerFrames.length - 1)
 			_currentBaseFrameOnLayer[iLayerNumber] =
 				FrameAdvanceCalculator.NO_FRAME;
 	}
@@ -562,27 +896,51 @@ public class SimpleStrRenderer implements Renderer {
 	@Override
 	public void initialize(GLAutoDrawable ioDrawable) throws ResourceException {
 		GL2 gl = ioDrawable.getGL().getGL2();
-		if(_preloadTextures) {
-			for(Layer l : _effect.get_layers())
-				for(Texture t : l.get_textures())
-					t.load(gl);
-		}
+		if(_residency != null)
+			_residency.releaseAll(gl);
+		_residency = new TextureResidency(
+			_effect,
+			_timeline,
+			_textureLoader,
+			_preloadTextures ? TextureResidency.PREFETCH_ALL : _prefetchFrames,
+			!_looping);
+		_finished = false;
+		_residency.update(gl, 0);
+		_drawer.setCombiner(MultiTextureCombiner.forContext(gl));
 		resetCurrentFrameTables();
 	}
+	/**
+	 * @return Drawer of the layers, i.e. for its statistics.
+	 */
+	protected LayerDrawer getLayerDrawer() {
+		return _drawer;
+	}
+	/**
+	 * @return Textures held by the renderer or null if not initialized.
+	 */
+	protected TextureResidency getTextureResidency() {
+		return _residency;
+	}
 	/**
 	 * Resets tables which indicate current processing frames per layer.
 	 */
 	private void resetCurrentFrameTables() {
-		_currentBaseFrameOnLayer = new int[_effect.get_layers().size()];
-		_currentAnimationFrameOnLayer = new int[_effect.get_layers().size()];
-		for(int i = 0; i < _effect.get_layers().size(); i++) {
-			_currentBaseFrameOnLayer[i] = FrameAdvanceCalculator.NO_FRAME;
-			_currentAnimationFrameOnLayer[i] = FrameAdvanceCalculator.NO_FRAME;
+		if(_currentBaseFrameOnLayer == null) {
+			_currentBaseFrameOnLayer = new int[_timeline.getLayerCount()];
+			_currentAnimationFrameOnLayer = new int[_timeline.getLayerCount()];
 		}
+		Arrays.fill(_currentBaseFrameOnLayer, FrameAdvanceCalculator.NO_FRAME);
+		Arrays.fill(
+			_currentAnimationFrameOnLayer,
+			FrameAdvanceCalculator.NO_FRAME);
 	}
 
 	@Override
 	public void dispose(GLAutoDrawable ioDrawable) {
+		if(_residency != null) {
+			_residency.releaseAll(ioDrawable.getGL().getGL2());
+			_residency = null;
+		}
 	}
 
 	@Override
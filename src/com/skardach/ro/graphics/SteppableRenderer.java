@@ -0,0 +1,17 @@
+package com.skardach.ro.graphics;
+
+/**
+ * Renderer which can be moved forward by a single frame while the
+ * animation clock is paused, i.e. by the step button of a viewer.
+ * @author Stanislaw Kardach
+ *
+ */
+public interface SteppableRenderer extends Renderer {
+	/**
+	 * Make the next rendered frame follow the last rendered one by exactly
+	 * one frame of the effect, at its own frame rate, whatever time passed on
+	 * the clock. May be called from a thread other than the OpenGL one, the
+	 * step is taken when the next frame is rendered.
+	 */
+	public void step();
+}
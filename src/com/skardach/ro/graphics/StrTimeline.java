@@ -0,0 +1,462 @@
+package com.skardach.ro.graphics;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import com.jogamp.opengl.GL;
+
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.KeyFrameType;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.Str;
+
+/**
+ * Data precomputed once per effect which does not change during playback:
+ * key frames of each layer in random access form, the base and animation key
+ * frame which is active on each layer in each frame, frames in which a layer
+ * quad can actually contribute any pixels, the first and last frame each
+ * texture is shown in and a conservative bounding box of all such quads in
+ * each frame.
+ * Timelines are immutable and shared between all renderers of the same
+ * {@link Str} object. Use {@link #forEffect(Str)} to obtain one.
+ * @author Stanislaw Kardach
+ *
+ */
+public class StrTimeline {
+	/**
+	 * Distance between layers on the Z axis as used by the renderer.
+	 */
+	static final float LAYER_Z_STEP = 0.02f;
+	/**
+	 * Doubled triangle area below which a triangle is considered degenerate.
+	 */
+	private static final float DEGENERATE_AREA = 1e-6f;
+	private static final Map<Str, StrTimeline> _timelines =
+		new WeakHashMap<Str, StrTimeline>();
+
+	private final int _frameCount;
+	private final int _fps;
+	private final Layer _layers[];
+	private final KeyFrame _keyFrames[][];
+	/**
+	 * [layer][key frame * {@link LayerState#PACKED_SIZE}] key frames packed
+	 * as base frames and as animation frames, see
+	 * {@link LayerState#packBase(KeyFrame, float[], int)}.
+	 */
+	private final float _packedBaseFrames[][];
+	private final float _packedAnimationFrames[][];
+	/**
+	 * [layer][frame] index of the base key frame active in given frame or
+	 * {@link FrameAdvanceCalculator#NO_FRAME}.
+	 */
+	private final int _baseFrameOnLayer[][];
+	/**
+	 * [layer][frame] index of the animation key frame active in given frame
+	 * or {@link FrameAdvanceCalculator#NO_FRAME}.
+	 */
+	private final int _animationFrameOnLayer[][];
+	/**
+	 * Per layer set of frames in which the layer quad is drawn, i.e. it has a
+	 * base frame and is not pruned as invisible.
+	 */
+	private final BitSet _drawnOnLayer[];
+	/**
+	 * Per layer set of texture indexes used by drawn frames.
+	 */
+	private final BitSet _texturesOnLayer[];
+	/**
+	 * [layer][texture] first and last drawn frame showing the texture or
+	 * {@link FrameAdvanceCalculator#NO_FRAME} if it is never shown.
+	 */
+	private final int _textureFirstUse[][];
+	private final int _textureLastUse[][];
+	/**
+	 * Bounding box per frame: minX, minY, maxX, maxY in the effect plane
+	 * (before render position, rotation and scale are applied). Empty frames
+	 * have min > max.
+	 */
+	private final float _bounds[];
+	/**
+	 * Get the timeline of a given effect. Timelines are computed on first
+	 * request and cached for as long as the effect object is alive.
+	 * @param iEffect Effect to get timeline for.
+	 * @return Timeline of the effect.
+	 */
+	public static StrTimeline forEffect(Str iEffect) {
+		synchronized(_timelines) {
+			StrTimeline result = _timelines.get(iEffect);
+			if(result == null) {
+				result = new StrTimeline(iEffect);
+				_timelines.put(iEffect, result);
+			}
+			return result;
+		}
+	}
+
+	private StrTimeline(Str iEffect) {
+		_frameCount = iEffect.get_frameCount();
+		_fps = iEffect.get_fps() > 0
+			? iEffect.get_fps() : ClockFrameAdvanceCalculator.DEFAULT_FPS;
+		List<Layer> layers = iEffect.get_layers();
+		_layers = layers.toArray(new Layer[layers.size()]);
+		_keyFrames = new KeyFrame[_layers.length][];
+		_packedBaseFrames = new float[_layers.length][];
+		_packedAnimationFrames = new float[_layers.length][];
+		_baseFrameOnLayer = new int[_layers.length][_frameCount];
+		_animationFrameOnLayer = new int[_layers.length][_frameCount];
+		_drawnOnLayer = new BitSet[_layers.length];
+		_texturesOnLayer = new BitSet[_layers.length];
+		_textureFirstUse = new int[_layers.length][];
+		_textureLastUse = new int[_layers.length][];
+		for(int l = 0; l < _layers.length; l++) {
+			List<KeyFrame> keyFrames = _layers[l].get_keyFrames();
+			_keyFrames[l] = keyFrames.toArray(new KeyFrame[keyFrames.size()]);
+			computeActiveFrames(l);
+			packKeyFrames(l);
+			_drawnOnLayer[l] = new BitSet(_frameCount);
+			_texturesOnLayer[l] = new BitSet();
+			int textureCount = _layers[l].get_textures().size();
+			_textureFirstUse[l] = new int[textureCount];
+			_textureLastUse[l] = new int[textureCount];
+			Arrays.fill(_textureFirstUse[l], FrameAdvanceCalculator.NO_FRAME);
+			Arrays.fill(_textureLastUse[l], FrameAdvanceCalculator.NO_FRAME);
+		}
+		_bounds = new float[_frameCount * 4];
+		computeFrameData();
+	}
+	/**
+	 * Simulate playback of a layer frame by frame, the same way
+	 * {@link SimpleStrRenderer} advances its key frame tables.
+	 * @param iLayer Layer index.
+	 */
+	private void computeActiveFrames(int iLayer) {
+		KeyFrame frames[] = _keyFrames[iLayer];
+		int base = FrameAdvanceCalculator.NO_FRAME;
+		int animation = FrameAdvanceCalculator.NO_FRAME;
+		for(int f = 0; f < _frameCount; f++) {
+			boolean found = false;
+			for(int idx = 1 + (animation != FrameAdvanceCalculator.NO_FRAME
+						? animation : base);
+					idx < frames.length;
+					idx++) {
+				KeyFrame kf = frames[idx];
+				if(kf.get_framenum() == f) {
+					if(kf.get_frameType() == KeyFrameType.BASIC) {
+						base = idx;
+						animation = FrameAdvanceCalculator.NO_FRAME;
+					} else {
+						animation = idx;
+					}
+					found = true;
+				} else if(kf.get_framenum() > f) {
+					break;
+				}
+			}
+			if(!found
+				&& animation == FrameAdvanceCalculator.NO_FRAME
+				&& base == frames.length - 1)
+				base = FrameAdvanceCalculator.NO_FRAME;
+			_baseFrameOnLayer[iLayer][f] = base;
+			_animationFrameOnLayer[iLayer][f] = animation;
+		}
+	}
+	/**
+	 * Pack all key frames of a layer both ways, whichever way they are
+	 * actually used.
+	 * @param iLayer Layer index.
+	 */
+	private void packKeyFrames(int iLayer) {
+		KeyFrame frames[] = _keyFrames[iLayer];
+		_packedBaseFrames[iLayer] =
+			new float[frames.length * LayerState.PACKED_SIZE];
+		_packedAnimationFrames[iLayer] =
+			new float[frames.length * LayerState.PACKED_SIZE];
+		for(int i = 0; i < frames.length; i++) {
+			if(frames[i].get_frameType() == KeyFrameType.BASIC)
+				LayerState.packBase(
+					frames[i],
+					_packedBaseFrames[iLayer],
+					i * LayerState.PACKED_SIZE);
+			else
+				LayerState.packDelta(
+					frames[i],
+					_packedAnimationFrames[iLayer],
+					i * LayerState.PACKED_SIZE);
+		}
+	}
+	/**
+	 * Evaluate every layer in every frame, find out whether its quad can
+	 * contribute any pixels and if so, accumulate its corners, after the
+	 * layer rotation and position are applied, into per frame boxes.
+	 */
+	private void computeFrameData() {
+		LayerState state = new LayerState();
+		for(int f = 0; f < _frameCount; f++) {
+			float minX = Float.POSITIVE_INFINITY;
+			float minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY;
+			float maxY = Float.NEGATIVE_INFINITY;
+			for(int l = 0; l < _layers.length; l++) {
+				KeyFrame base = getBaseFrame(l, f);
+				if(base == null)
+					continue;
+				state.evaluate(l, _layers[l], base, getAnimationFrame(l, f), f);
+				if(isInvisible(state))
+					continue;
+				_drawnOnLayer[l].set(f);
+				_texturesOnLayer[l].set(state._textureIndex);
+				if(state._textureIndex < _textureFirstUse[l].length) {
+					// frames are visited in order
+					if(_textureFirstUse[l][state._textureIndex]
+							== FrameAdvanceCalculator.NO_FRAME)
+						_textureFirstUse[l][state._textureIndex] = f;
+					_textureLastUse[l][state._textureIndex] = f;
+				}
+				double angle = Math.toRadians(state._rotation);
+				float cos = (float)Math.cos(angle);
+				float sin = (float)Math.sin(angle);
+				Rectangle<Point2D> r = state._rectangle;
+				Point2D corners[] = { r._a, r._b, r._c, r._d };
+				for(Point2D p : corners) {
+					float x = p._x * cos - p._y * sin + state._position._x;
+					float y = p._x * sin + p._y * cos + state._position._y;
+					minX = Math.min(minX, x);
+					minY = Math.min(minY, y);
+					maxX = Math.max(maxX, x);
+					maxY = Math.max(maxY, y);
+				}
+			}
+			_bounds[f * 4] = minX;
+			_bounds[f * 4 + 1] = minY;
+			_bounds[f * 4 + 2] = maxX;
+			_bounds[f * 4 + 3] = maxY;
+		}
+	}
+	/**
+	 * Check whether an evaluated layer quad cannot change the frame buffer
+	 * colors:
+	 * <ul>
+	 * <li>blend function is (ZERO, ONE), i.e. destination is kept as is,</li>
+	 * <li>alpha, as submitted to OpenGL (low byte of the color value), is 0
+	 * and blend function only uses it to fade the source in, unless the
+	 * multi texture preset takes alpha from a texture,</li>
+	 * <li>both triangles of the quad have no area.</li>
+	 * </ul>
+	 * @param iState Evaluated layer state.
+	 * @return True if the quad can be skipped.
+	 */
+	static boolean isInvisible(LayerState iState) {
+		BlendType source = iState._baseFrame.get_sourceBlend();
+		BlendType destination = iState._baseFrame.get_destBlend();
+		if(source.toGLValue() == GL.GL_ZERO
+			&& destination.toGLValue() == GL.GL_ONE)
+			return true;
+		if(source.toGLValue() == GL.GL_SRC_ALPHA
+			&& (destination.toGLValue() == GL.GL_ONE
+				|| destination.toGLValue() == GL.GL_ONE_MINUS_SRC_ALPHA)
+			&& (((int)iState._color._alpha) & 0xFF) == 0
+			&& usesVertexAlpha(iState))
+			return true;
+		Rectangle<Point2D> r = iState._rectangle;
+		// quad is drawn as c, d, a, b
+		return Math.abs(cross(r._c, r._d, r._a)) < DEGENERATE_AREA
+			&& Math.abs(cross(r._c, r._a, r._b)) < DEGENERATE_AREA;
+	}
+
+	/**
+	 * @param iState Evaluated layer state.
+	 * @return True if alpha of the drawn pixels follows the key frame color.
+	 */
+	static boolean usesVertexAlpha(LayerState iState) {
+		return iState._multiTextureMode == null
+			|| iState._multiTextureMode.usesVertexAlpha();
+	}
+
+	private static float cross(Point2D iO, Point2D iA, Point2D iB) {
+		return (iA._x - iO._x) * (iB._y - iO._y)
+			- (iA._y - iO._y) * (iB._x - iO._x);
+	}
+	/**
+	 * @return Number of frames in the effect.
+	 */
+	public int getFrameCount() {
+		return _frameCount;
+	}
+	/**
+	 * @return Frames per second of the effect or
+	 * {@link ClockFrameAdvanceCalculator#DEFAULT_FPS} if the effect does not
+	 * specify a valid one.
+	 */
+	public int getFps() {
+		return _fps;
+	}
+	/**
+	 * @return Number of layers in the effect.
+	 */
+	public int getLayerCount() {
+		return _layers.length;
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @return Layer of the effect.
+	 */
+	public Layer getLayer(int iLayer) {
+		return _layers[iLayer];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @return Key frames of the layer. Callers must not modify the array.
+	 */
+	public KeyFrame[] getKeyFrames(int iLayer) {
+		return _keyFrames[iLayer];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @return Base key frames of the layer packed for
+	 * {@link LayerBatchEvaluator}, row of key frame i starts at
+	 * i * {@link LayerState#PACKED_SIZE}. Rows of animation key frames are
+	 * zeros. Callers must not modify the array.
+	 */
+	public float[] getPackedBaseFrames(int iLayer) {
+		return _packedBaseFrames[iLayer];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @return Animation key frames of the layer packed for
+	 * {@link LayerBatchEvaluator}, laid out like
+	 * {@link #getPackedBaseFrames(int)}. Rows of base key frames are zeros.
+	 * Callers must not modify the array.
+	 */
+	public float[] getPackedAnimationFrames(int iLayer) {
+		return _packedAnimationFrames[iLayer];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return Base key frame active on the layer in given frame or null.
+	 */
+	public KeyFrame getBaseFrame(int iLayer, int iFrame) {
+		int idx = _baseFrameOnLayer[iLayer][iFrame];
+		return idx != FrameAdvanceCalculator.NO_FRAME
+			? _keyFrames[iLayer][idx] : null;
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return Animation key frame active on the layer in given frame or null.
+	 */
+	public KeyFrame getAnimationFrame(int iLayer, int iFrame) {
+		int idx = _animationFrameOnLayer[iLayer][iFrame];
+		return idx != FrameAdvanceCalculator.NO_FRAME
+			? _keyFrames[iLayer][idx] : null;
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return Index of the base key frame active on the layer in given frame
+	 * or {@link FrameAdvanceCalculator#NO_FRAME}.
+	 */
+	public int getBaseFrameIndex(int iLayer, int iFrame) {
+		return _baseFrameOnLayer[iLayer][iFrame];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return Index of the animation key frame active on the layer in given
+	 * frame or {@link FrameAdvanceCalculator#NO_FRAME}.
+	 */
+	public int getAnimationFrameIndex(int iLayer, int iFrame) {
+		return _animationFrameOnLayer[iLayer][iFrame];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return True if the layer quad contributes pixels in given frame.
+	 */
+	public boolean isDrawn(int iLayer, int iFrame) {
+		return _drawnOnLayer[iLayer].get(iFrame);
+	}
+	/**
+	 * Check whether a layer contributes pixels anywhere between a frame and
+	 * the next one. A layer morphed under the same key frames in both, i.e.
+	 * growing from a zero area rectangle or fading in from zero alpha, is
+	 * interpolated between them, so it is drawn if it is drawn in either.
+	 * @param iLayer Layer index
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @param iFraction Position between the frame and the next one, 0 if
+	 * not interpolating.
+	 * @return True if the layer quad contributes pixels at given position.
+	 */
+	public boolean isDrawn(int iLayer, int iFrame, float iFraction) {
+		if(isDrawn(iLayer, iFrame))
+			return true;
+		return iFraction > 0
+			&& iFrame + 1 < _frameCount
+			&& _animationFrameOnLayer[iLayer][iFrame]
+				!= FrameAdvanceCalculator.NO_FRAME
+			&& _baseFrameOnLayer[iLayer][iFrame + 1]
+				== _baseFrameOnLayer[iLayer][iFrame]
+			&& _animationFrameOnLayer[iLayer][iFrame + 1]
+				== _animationFrameOnLayer[iLayer][iFrame]
+			&& isDrawn(iLayer, iFrame + 1);
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @return True if the layer does not draw anything in any frame, i.e. it
+	 * is a placeholder layer.
+	 */
+	public boolean isLayerEmpty(int iLayer) {
+		return _drawnOnLayer[iLayer].isEmpty();
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iTexture Index of the texture on the layer texture list
+	 * @return True if the texture is shown in any of the drawn frames.
+	 */
+	public boolean isTextureUsed(int iLayer, int iTexture) {
+		return _texturesOnLayer[iLayer].get(iTexture);
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iTexture Index of the texture on the layer texture list
+	 * @return First drawn frame showing the texture or
+	 * {@link FrameAdvanceCalculator#NO_FRAME} if it is never shown.
+	 */
+	public int getTextureFirstUse(int iLayer, int iTexture) {
+		return _textureFirstUse[iLayer][iTexture];
+	}
+	/**
+	 * @param iLayer Layer index
+	 * @param iTexture Index of the texture on the layer texture list
+	 * @return Last drawn frame showing the texture or
+	 * {@link FrameAdvanceCalculator#NO_FRAME} if it is never shown.
+	 */
+	public int getTextureLastUse(int iLayer, int iTexture) {
+		return _textureLastUse[iLayer][iTexture];
+	}
+	/**
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @return True if no layer draws anything in given frame.
+	 */
+	public boolean isFrameEmpty(int iFrame) {
+		return _bounds[iFrame * 4] > _bounds[iFrame * 4 + 2];
+	}
+	/**
+	 * Get bounding box of all layer quads in a given frame, in the effect
+	 * plane coordinates.
+	 * @param iFrame Frame number in range [0, frame count[
+	 * @param oBounds Array to receive minX, minY, maxX, maxY.
+	 */
+	public void getBounds(int iFrame, float oBounds[]) {
+		System.arraycopy(_bounds, iFrame * 4, oBounds, 0, 4);
+	}
+	/**
+	 * @return Maximal offset of a layer on the Z axis.
+	 */
+	public float getDepth() {
+		return LAYER_Z_STEP * Math.max(0, _layers.length - 1);
+	}
+}
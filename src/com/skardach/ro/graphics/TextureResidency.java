@@ -0,0 +1,201 @@
+package com.skardach.ro.graphics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jogamp.opengl.GL2;
+
+import com.skardach.ro.resource.AsyncTextureLoader;
+import com.skardach.ro.resource.ResourceException;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.Str;
+
+/**
+ * Keeps textures of a single effect playback resident only around the frames
+ * they are shown in. Key frames fully determine which texture each layer
+ * shows in every frame, so {@link StrTimeline} knows the first and last use
+ * of each texture up front. A texture is pinned and loaded a given number of
+ * frames before its first use and, unless playback loops, unpinned right
+ * after its last use. Unpinned textures no other user holds are unloaded.
+ * Textures of the background layer are never drawn and are not managed.
+ * @author Stanislaw Kardach
+ *
+ */
+public class TextureResidency {
+	/**
+	 * Prefetch distance which makes all textures resident on the first
+	 * update.
+	 */
+	public static final int PREFETCH_ALL = Integer.MAX_VALUE;
+
+	private final Texture _textures[];
+	private final int _firstUse[];
+	private final int _lastUse[];
+	/**
+	 * Texture indexes sorted by first use and by last use.
+	 */
+	private final int _byFirstUse[];
+	private final int _byLastUse[];
+	private final boolean _acquired[];
+	private final AsyncTextureLoader _loader;
+	private final int _prefetchFrames;
+	private final boolean _releaseBehind;
+	private int _nextAcquire = 0;
+	private int _nextRelease = 0;
+	/**
+	 * Create residency manager of an effect.
+	 * @param iEffect Effect played.
+	 * @param iTimeline Timeline of the effect.
+	 * @param iLoader Loader used to load textures in the background or null
+	 * to load them synchronously.
+	 * @param iPrefetchFrames How many frames before its first use a texture
+	 * should be loaded, {@link #PREFETCH_ALL} to load all textures at once.
+	 * @param iReleaseBehind If true, textures are released after their last
+	 * use. Should be false for looping playback.
+	 */
+	public TextureResidency(
+			Str iEffect,
+			StrTimeline iTimeline,
+			AsyncTextureLoader iLoader,
+			int iPrefetchFrames,
+			boolean iReleaseBehind) {
+		_loader = iLoader;
+		_prefetchFrames = Math.max(0, iPrefetchFrames);
+		_releaseBehind = iReleaseBehind;
+		List<Texture> textures = new ArrayList<Texture>();
+		List<Integer> uses = new ArrayList<Integer>();
+		int layer = 0;
+		for(Layer l : iEffect.get_layers()) {
+			int texture = 0;
+			for(Texture t : l.get_textures()) {
+				int first = iTimeline.getTextureFirstUse(layer, texture);
+				// background layer is drawn without textures
+				if(layer != 0 && first != FrameAdvanceCalculator.NO_FRAME) {
+					textures.add(t);
+					uses.add(first);
+					uses.add(iTimeline.getTextureLastUse(layer, texture));
+				}
+				texture++;
+			}
+			layer++;
+		}
+		_textures = textures.toArray(new Texture[textures.size()]);
+		_firstUse = new int[_textures.length];
+		_lastUse = new int[_textures.length];
+		long firstKeys[] = new long[_textures.length];
+		long lastKeys[] = new long[_textures.length];
+		for(int i = 0; i < _textures.length; i++) {
+			_firstUse[i] = uses.get(i * 2);
+			_lastUse[i] = uses.get(i * 2 + 1);
+			// frame in high bits, index in low bits sorts indexes by frame
+			firstKeys[i] = ((long)_firstUse[i] << 32) | i;
+			lastKeys[i] = ((long)_lastUse[i] << 32) | i;
+		}
+		Arrays.sort(firstKeys);
+		Arrays.sort(lastKeys);
+		_byFirstUse = new int[_textures.length];
+		_byLastUse = new int[_textures.length];
+		for(int i = 0; i < _textures.length; i++) {
+			_byFirstUse[i] = (int)firstKeys[i];
+			_byLastUse[i] = (int)lastKeys[i];
+		}
+		_acquired = new boolean[_textures.length];
+	}
+	/**
+	 * Acquire textures which will be shown within the prefetch distance from
+	 * a given frame and release textures which will not be shown anymore.
+	 * Frames have to be passed in increasing order, call {@link #rewind()}
+	 * when playback starts over. Has to be called on the OpenGL thread.
+	 * @param iGLContext Context textures are loaded to.
+	 * @param iFrame Frame being played. Frames past the end of the effect
+	 * release all textures if releasing is enabled.
+	 * @throws ResourceException If a texture could not be loaded
+	 * synchronously.
+	 */
+	public void update(GL2 iGLContext, int iFrame) throws ResourceException {
+		long horizon = (long)iFrame + _prefetchFrames;
+		while(_nextAcquire < _byFirstUse.length
+				&& _firstUse[_byFirstUse[_nextAcquire]] <= horizon) {
+			int i = _byFirstUse[_nextAcquire++];
+			// frames skipped over the whole use of a texture
+			if(_releaseBehind && _lastUse[i] < iFrame)
+				continue;
+			acquire(iGLContext, i);
+		}
+		if(!_releaseBehind)
+			return;
+		while(_nextRelease < _byLastUse.length
+				&& _lastUse[_byLastUse[_nextRelease]] < iFrame)
+			release(iGLContext, _byLastUse[_nextRelease++]);
+	}
+	/**
+	 * Start over from the first frame. Released textures are acquired again
+	 * when the playback gets close to them.
+	 */
+	public void rewind() {
+		_nextAcquire = 0;
+		_nextRelease = 0;
+	}
+	/**
+	 * Release all acquired textures, i.e. when the renderer is disposed. Has
+	 * to be called on the OpenGL thread.
+	 * @param iGLContext Context textures were loaded to.
+	 */
+	public void releaseAll(GL2 iGLContext) {
+		for(int i = 0; i < _textures.length; i++)
+			release(iGLContext, i);
+		rewind();
+	}
+	/**
+	 * @return Number of textures currently held.
+	 */
+	public int getAcquiredCount() {
+		int result = 0;
+		for(boolean acquired : _acquired)
+			if(acquired)
+				result++;
+		return result;
+	}
+	/**
+	 * @return Number of held textures which are uploaded.
+	 */
+	public int getResidentCount() {
+		int result = 0;
+		for(int i = 0; i < _textures.length; i++)
+			if(_acquired[i] && _textures[i].isLoaded())
+				result++;
+		return result;
+	}
+	/**
+	 * @return Estimated video memory (in bytes) taken by held textures.
+	 */
+	public long getUploadedBytes() {
+		long result = 0;
+		for(int i = 0; i < _textures.length; i++)
+			if(_acquired[i])
+				result += _textures[i].getUploadedSize();
+		return result;
+	}
+
+	private void acquire(GL2 iGLContext, int iIndex) throws ResourceException {
+		if(_acquired[iIndex])
+			return;
+		Texture texture = _textures[iIndex];
+		texture.pin();
+		_acquired[iIndex] = true;
+		if(_loader != null)
+			_loader.request(texture);
+		else
+			texture.load(iGLContext);
+	}
+
+	private void release(GL2 iGLContext, int iIndex) {
+		if(!_acquired[iIndex])
+			return;
+		_acquired[iIndex] = false;
+		if(_textures[iIndex].unpin() == 0)
+			_textures[iIndex].unload(iGLContext);
+	}
+}
@@ -1,25 +1,40 @@
 package com.skardach.ro.graphics.debug;
 
 import java.awt.Font;
-import java.util.Arrays;
 
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 
 import com.jogamp.opengl.util.awt.TextRenderer;
+import com.skardach.ro.graphics.Compositor;
 import com.skardach.ro.graphics.FrameAdvanceCalculator;
+import com.skardach.ro.graphics.Frustum;
+import com.skardach.ro.graphics.GLStateCache;
 import com.skardach.ro.graphics.Point3D;
+import com.skardach.ro.graphics.RenderDetail;
 import com.skardach.ro.graphics.RenderException;
 import com.skardach.ro.graphics.SimpleStrRenderer;
 import com.skardach.ro.resource.str.Str;
 /**
  * Debug wrapper over SimpleStrRenderer which displays key frame table states
- * on the rendered canvas.
+ * and a {@link PerformanceHud} on the rendered canvas. Text is built in
+ * reused buffers and drawn in one text rendering pass per frame.
  * @author Stanislaw Kardach
  *
  */
 public class DebugSimpleStrRenderer extends SimpleStrRenderer {
+	private static final int LINE_HEIGHT = 18;
 	TextRenderer _textRenderer;
+	private final PerformanceHud _hud;
+	private final StringBuilder _line = new StringBuilder(128);
+	/**
+	 * Frames and key frame tables as they were before the frame was
+	 * rendered.
+	 */
+	private int _frameBefore;
+	private int _frameToRender;
+	private int _baseFramesBefore[] = null;
+	private int _animationFramesBefore[] = null;
 	/**
 	 * Default constructors. Parameters same as for {@link SimpleStrRenderer}
 	 * @param iEffect See {@link SimpleStrRenderer}
@@ -56,49 +71,126 @@ public class DebugSimpleStrRenderer extends SimpleStrRenderer {
 			iXScale,
 			iYScale,
 			iZScale);
+		_hud = new PerformanceHud(1000000000L / Math.max(1, iEffect.get_fps()));
+	}
+	/**
+	 * @return Performance overlay of the renderer.
+	 */
+	public PerformanceHud getPerformanceHud() {
+		return _hud;
 	}
 	/**
-	 * Draws the number of last rendered frame, calculated frame to render and
-	 * state the of key frame tables before the SimpleStrRenderer renders a
-	 * frame.
+	 * Remembers the number of last rendered frame, calculated frame to render
+	 * and state the of key frame tables before the SimpleStrRenderer renders
+	 * a frame.
 	 * @param iGL OpenGL context
 	 * @param ioCanvas GL drawable to draw the statistics on
-	 * @param iDelaySinceLastInvoke Delay in ms since last invoked.
+	 * @param iFrameToRender Frame which is about to be rendered.
 	 */
-	protected void beforeRender(GL2 iGL, GLAutoDrawable ioCanvas, long iDelaySinceLastInvoke) {
-		if(_textRenderer == null)
-			_textRenderer = new TextRenderer(new Font("SansSerif", Font.BOLD, 14));
-		_textRenderer.beginRendering(ioCanvas.getSurfaceWidth(), ioCanvas.getSurfaceHeight());
-		_textRenderer.setColor(1, 1, 1, 1);
-		_textRenderer.draw("[Before] Frame: " + _lastRenderedFrame, 10, 64);
-		_textRenderer.draw("[Before] Frame to render: " + _frameAdvanceCalculator.calculateFrameToRender(iDelaySinceLastInvoke, _lastRenderedFrame), 10, 46);
-		_textRenderer.draw("[Before] BasicFrames: " + Arrays.toString(_currentBaseFrameOnLayer), 10, 28);
-		_textRenderer.draw("[Before] AnimaFrames: " + Arrays.toString(_currentAnimationFrameOnLayer), 10, 10);
-		_textRenderer.endRendering();
+	protected void beforeRender(GL2 iGL, GLAutoDrawable ioCanvas, int iFrameToRender) {
+		_frameBefore = _lastRenderedFrame;
+		_frameToRender = iFrameToRender;
+		if(_baseFramesBefore == null) {
+			_baseFramesBefore = new int[_currentBaseFrameOnLayer.length];
+			_animationFramesBefore =
+				new int[_currentAnimationFrameOnLayer.length];
+		}
+		System.arraycopy(
+			_currentBaseFrameOnLayer, 0,
+			_baseFramesBefore, 0,
+			_baseFramesBefore.length);
+		System.arraycopy(
+			_currentAnimationFrameOnLayer, 0,
+			_animationFramesBefore, 0,
+			_animationFramesBefore.length);
 		super.beforeRender(iGL);
 	}
 	/**
-	 * Draws the number of last rendered frame and the state of key frame
-	 * tables after SimpleStrRenderer has finished rendering the frame.
+	 * Draws the performance overlay and the state of key frame tables before
+	 * and after SimpleStrRenderer has rendered the frame.
 	 * @param iGL OpenGL context
 	 * @param ioCanvas GL drawable to draw the statistics on
 	 */
 	protected void afterRender(GL2 iGL, GLAutoDrawable ioCanvas) {
 		super.afterRender(iGL);
-		_textRenderer.beginRendering(ioCanvas.getSurfaceWidth(), ioCanvas.getSurfaceHeight());
+		_hud.endFrame(
+			iGL,
+			getLayerDrawer(),
+			_evaluationNanos,
+			_submissionNanos,
+			getTextureResidency());
+		int width = ioCanvas.getSurfaceWidth();
+		int height = ioCanvas.getSurfaceHeight();
+		_hud.drawGraph(iGL, width, height);
+		if(_textRenderer == null)
+			_textRenderer = new TextRenderer(new Font("SansSerif", Font.BOLD, 14));
+		_textRenderer.beginRendering(width, height);
 		_textRenderer.setColor(1, 1, 1, 1);
-		_textRenderer.draw("[After]  Frame: " + _lastRenderedFrame, 10, 122);
-		_textRenderer.draw("[After]  BasicFrames: " + Arrays.toString(_currentBaseFrameOnLayer), 10, 104);
-		_textRenderer.draw("[After]  AnimaFrames: " + Arrays.toString(_currentAnimationFrameOnLayer), 10, 86);
+		_hud.drawText(_textRenderer, height);
+		int y = 10;
+		drawFrames("[Before] AnimaFrames: ", _animationFramesBefore, y);
+		drawFrames("[Before] BasicFrames: ", _baseFramesBefore, y += LINE_HEIGHT);
+		drawFrame("[Before] Frame to render: ", _frameToRender, y += LINE_HEIGHT);
+		drawFrame("[Before] Frame: ", _frameBefore, y += LINE_HEIGHT);
+		drawFrames("[After]  AnimaFrames: ", _currentAnimationFrameOnLayer, y += LINE_HEIGHT);
+		drawFrames("[After]  BasicFrames: ", _currentBaseFrameOnLayer, y += LINE_HEIGHT);
+		drawFrame("[After]  Frame: ", _lastRenderedFrame, y += LINE_HEIGHT);
 		_textRenderer.endRendering();
+		// text and graph drawing changed state behind the cache
+		GLStateCache.forContext(iGL).invalidate();
+	}
+
+	private void drawFrame(String iLabel, int iFrame, int iY) {
+		_line.setLength(0);
+		_line.append(iLabel).append(iFrame);
+		_textRenderer.draw(_line, 10, iY);
+	}
+
+	private void drawFrames(String iLabel, int iFrames[], int iY) {
+		_line.setLength(0);
+		_line.append(iLabel).append('[');
+		for(int i = 0; i < iFrames.length; i++) {
+			if(i > 0)
+				_line.append(", ");
+			_line.append(iFrames[i]);
+		}
+		_line.append(']');
+		_textRenderer.draw(_line, 10, iY);
 	}
 	@Override
 	public void renderFrame(
 			GLAutoDrawable ioCanvas,
-			long iDelaySinceLastInvoke) throws RenderException {
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail) throws RenderException {
 		GL2 gl = ioCanvas.getGL().getGL2();
-		beforeRender(gl, ioCanvas, iDelaySinceLastInvoke);
-		render(gl, iDelaySinceLastInvoke);
+		_hud.beginFrame(gl, getLayerDrawer());
+		int frameToRender = advanceFrame(iDelaySinceLastInvoke);
+		updateTextures(gl, frameToRender);
+		if(isFinished())
+			return;
+		if(iDetail._dropped
+			|| (iViewFrustum != null
+				&& !isVisible(frameToRender, iViewFrustum))) {
+			skipFrame(frameToRender);
+			return;
+		}
+		_detail = iDetail;
+		beforeRender(gl, ioCanvas, frameToRender);
+		render(gl, frameToRender);
 		afterRender(gl, ioCanvas);
 	}
+	/**
+	 * Draws the frame straight away, so that the key frame tables are shown
+	 * next to it. Debugged effects are not sorted with composited ones.
+	 */
+	@Override
+	public void collectFrame(
+			GLAutoDrawable ioCanvas,
+			long iDelaySinceLastInvoke,
+			Frustum iViewFrustum,
+			RenderDetail iDetail,
+			Compositor ioCompositor) throws RenderException {
+		renderFrame(ioCanvas, iDelaySinceLastInvoke, iViewFrustum, iDetail);
+	}
 }
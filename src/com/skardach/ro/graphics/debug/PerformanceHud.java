@@ -0,0 +1,333 @@
+package com.skardach.ro.graphics.debug;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+import com.jogamp.opengl.util.awt.TextRenderer;
+import com.skardach.ro.graphics.FramePacingStatistics;
+import com.skardach.ro.graphics.GLStateCache;
+import com.skardach.ro.graphics.LayerDrawer;
+import com.skardach.ro.graphics.TextureResidency;
+/**
+ * Performance overlay of a single renderer: graph of recent frame times,
+ * their percentiles, time spent evaluating and submitting the effect, draw
+ * calls, texture binds and state changes of the last frame, resident
+ * textures and allocation rate of the OpenGL thread. All buffers are
+ * allocated up front so that updating and drawing the overlay does not
+ * allocate. Must only be used by the OpenGL thread.
+ * @author Stanislaw Kardach
+ *
+ */
+public class PerformanceHud {
+	/**
+	 * Number of frames shown on the graph and used for percentiles.
+	 */
+	public static final int HISTORY = 120;
+	private static final int MARGIN = 10;
+	private static final int LINE_HEIGHT = 18;
+	private static final int GRAPH_HEIGHT = 60;
+	private static final int GRAPH_STEP = 2;
+
+	private final FramePacingStatistics _pacing;
+	/**
+	 * Ring of recent frame intervals, _nextFrame is the oldest one once the
+	 * ring is full.
+	 */
+	private final long _frameNanos[] = new long[HISTORY];
+	private final long _sortedNanos[] = new long[HISTORY];
+	private boolean _sorted = false;
+	private int _frameCount = 0;
+	private int _nextFrame = 0;
+	private long _lastFrameStart = 0;
+	/**
+	 * Thread bean able to tell allocated bytes or null if the JVM cannot.
+	 */
+	private final com.sun.management.ThreadMXBean _threads;
+	private long _lastAllocated = -1;
+	private long _allocationRate = -1;
+	/**
+	 * Counters read when the frame started.
+	 */
+	private long _startDrawCalls = 0;
+	private long _startQuads = 0;
+	private long _startIssued = 0;
+	private long _startElided = 0;
+	private long _startBinds = 0;
+	/**
+	 * Statistics of the last frame.
+	 */
+	private long _evaluationNanos = 0;
+	private long _submissionNanos = 0;
+	private long _drawCalls = 0;
+	private long _quads = 0;
+	private long _issued = 0;
+	private long _elided = 0;
+	private long _binds = 0;
+	private int _residentTextures = 0;
+	private long _residentBytes = 0;
+	private final StringBuilder _line = new StringBuilder(128);
+	/**
+	 * Create the overlay.
+	 * @param iTargetNanos Expected frame interval, drawn on the graph and
+	 * used to count missed deadlines.
+	 */
+	public PerformanceHud(long iTargetNanos) {
+		_pacing = new FramePacingStatistics(iTargetNanos);
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean
+			&& ((com.sun.management.ThreadMXBean)threads)
+				.isThreadAllocatedMemorySupported()) {
+			_threads = (com.sun.management.ThreadMXBean)threads;
+			_threads.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			_threads = null;
+		}
+	}
+	/**
+	 * @return Pacing of recorded frames.
+	 */
+	public FramePacingStatistics getPacing() {
+		return _pacing;
+	}
+	/**
+	 * Record the interval since the previous frame and read counters the
+	 * frame is going to change.
+	 * @param iGL GL context
+	 * @param iDrawer Drawer of the renderer.
+	 */
+	public void beginFrame(GL2 iGL, LayerDrawer iDrawer) {
+		long now = System.nanoTime();
+		if(_lastFrameStart != 0) {
+			long interval = now - _lastFrameStart;
+			recordFrame(interval);
+			updateAllocationRate(interval);
+		}
+		_lastFrameStart = now;
+		GLStateCache state = GLStateCache.forContext(iGL);
+		_startDrawCalls = iDrawer.getDrawCalls();
+		_startQuads = iDrawer.getQuadCount();
+		_startIssued = state.getIssuedCalls();
+		_startElided = state.getElidedCalls();
+		_startBinds = state.getTextureBinds();
+	}
+	/**
+	 * Compute statistics of a rendered frame.
+	 * @param iGL GL context
+	 * @param iDrawer Drawer of the renderer.
+	 * @param iEvaluationNanos Time spent evaluating layers.
+	 * @param iSubmissionNanos Time spent drawing layers.
+	 * @param iResidency Textures of the renderer or null if not known.
+	 */
+	public void endFrame(
+			GL2 iGL,
+			LayerDrawer iDrawer,
+			long iEvaluationNanos,
+			long iSubmissionNanos,
+			TextureResidency iResidency) {
+		GLStateCache state = GLStateCache.forContext(iGL);
+		_evaluationNanos = iEvaluationNanos;
+		_submissionNanos = iSubmissionNanos;
+		_drawCalls = iDrawer.getDrawCalls() - _startDrawCalls;
+		_quads = iDrawer.getQuadCount() - _startQuads;
+		_issued = state.getIssuedCalls() - _startIssued;
+		_elided = state.getElidedCalls() - _startElided;
+		_binds = state.getTextureBinds() - _startBinds;
+		if(iResidency != null) {
+			_residentTextures = iResidency.getResidentCount();
+			_residentBytes = iResidency.getUploadedBytes();
+		}
+	}
+	/**
+	 * Add a frame interval to the graph and statistics.
+	 * @param iIntervalNanos Time since the previous frame.
+	 */
+	public void recordFrame(long iIntervalNanos) {
+		_frameNanos[_nextFrame] = iIntervalNanos;
+		_nextFrame = (_nextFrame + 1) % HISTORY;
+		if(_frameCount < HISTORY)
+			_frameCount++;
+		_sorted = false;
+		_pacing.record(iIntervalNanos);
+	}
+	/**
+	 * Get a percentile of recent frame intervals (nearest rank).
+	 * @param iPercent Percentile, from 1 to 100.
+	 * @return Interval (in nanoseconds) or 0 if no frames were recorded.
+	 */
+	public long getPercentileNanos(int iPercent) {
+		if(_frameCount == 0)
+			return 0;
+		if(!_sorted) {
+			System.arraycopy(_frameNanos, 0, _sortedNanos, 0, _frameCount);
+			Arrays.sort(_sortedNanos, 0, _frameCount);
+			_sorted = true;
+		}
+		int rank = (iPercent * _frameCount + 99) / 100;
+		return _sortedNanos[Math.max(0, Math.min(_frameCount, rank) - 1)];
+	}
+	/**
+	 * @return Bytes allocated per second by the OpenGL thread or -1 if the
+	 * JVM does not tell.
+	 */
+	public long getAllocationRate() {
+		return _allocationRate;
+	}
+
+	private void updateAllocationRate(long iIntervalNanos) {
+		if(_threads == null)
+			return;
+		long allocated =
+			_threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		if(_lastAllocated >= 0 && allocated >= _lastAllocated
+			&& iIntervalNanos > 0)
+			_allocationRate =
+				(allocated - _lastAllocated) * 1000000000L / iIntervalNanos;
+		_lastAllocated = allocated;
+	}
+	/**
+	 * Draw the frame time graph in the top right corner. The target interval
+	 * is drawn at half of the graph height.
+	 * @param iGL GL context
+	 * @param iWidth Surface width.
+	 * @param iHeight Surface height.
+	 */
+	public void drawGraph(GL2 iGL, int iWidth, int iHeight) {
+		if(_frameCount < 2)
+			return;
+		iGL.glPushAttrib(
+			GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_LINE_BIT);
+		iGL.glDisable(GL.GL_TEXTURE_2D);
+		iGL.glDisable(GL.GL_DEPTH_TEST);
+		iGL.glDisable(GL.GL_BLEND);
+		iGL.glMatrixMode(GL2.GL_PROJECTION);
+		iGL.glPushMatrix();
+		iGL.glLoadIdentity();
+		iGL.glOrtho(0, iWidth, 0, iHeight, -1, 1);
+		iGL.glMatrixMode(GL2.GL_MODELVIEW);
+		iGL.glPushMatrix();
+		iGL.glLoadIdentity();
+		iGL.glLineWidth(1);
+		float left = iWidth - MARGIN - (HISTORY - 1) * GRAPH_STEP;
+		float bottom = iHeight - MARGIN - GRAPH_HEIGHT;
+		float scale = GRAPH_HEIGHT / 2f / _pacing.getTargetNanos();
+		iGL.glColor3f(0.5f, 0.5f, 0.5f);
+		iGL.glBegin(GL.GL_LINES);
+		iGL.glVertex2f(left, bottom);
+		iGL.glVertex2f(iWidth - MARGIN, bottom);
+		iGL.glVertex2f(left, bottom + GRAPH_HEIGHT / 2f);
+		iGL.glVertex2f(iWidth - MARGIN, bottom + GRAPH_HEIGHT / 2f);
+		iGL.glEnd();
+		iGL.glColor3f(0, 1, 0);
+		iGL.glBegin(GL.GL_LINE_STRIP);
+		// oldest frame first, newest at the right edge
+		int first = (_nextFrame - _frameCount + HISTORY) % HISTORY;
+		float x = left + (HISTORY - _frameCount) * GRAPH_STEP;
+		for(int i = 0; i < _frameCount; i++, x += GRAPH_STEP) {
+			float y = Math.min(
+				GRAPH_HEIGHT,
+				_frameNanos[(first + i) % HISTORY] * scale);
+			iGL.glVertex2f(x, bottom + y);
+		}
+		iGL.glEnd();
+		iGL.glPopMatrix();
+		iGL.glMatrixMode(GL2.GL_PROJECTION);
+		iGL.glPopMatrix();
+		iGL.glMatrixMode(GL2.GL_MODELVIEW);
+		iGL.glPopAttrib();
+	}
+	/**
+	 * Draw statistics lines in the top left corner. The text renderer has to
+	 * be rendering already.
+	 * @param ioText Text renderer.
+	 * @param iHeight Surface height.
+	 */
+	public void drawText(TextRenderer ioText, int iHeight) {
+		int y = iHeight - MARGIN - LINE_HEIGHT;
+		StringBuilder line = _line;
+
+		line.setLength(0);
+		line.append("Frame ");
+		appendMillis(line, (long)_pacing.getAverageNanos());
+		line.append(" ms  p50 ");
+		appendMillis(line, getPercentileNanos(50));
+		line.append("  p95 ");
+		appendMillis(line, getPercentileNanos(95));
+		line.append("  p99 ");
+		appendMillis(line, getPercentileNanos(99));
+		line.append("  worst ");
+		appendMillis(line, _pacing.getWorstNanos());
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		line.setLength(0);
+		line.append("Jitter ");
+		appendMillis(line, (long)_pacing.getJitterNanos());
+		line.append(" ms  missed ")
+			.append(_pacing.getMissedDeadlines())
+			.append('/')
+			.append(_pacing.getFrameCount());
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		line.setLength(0);
+		line.append("Evaluate ");
+		appendMillis(line, _evaluationNanos);
+		line.append(" ms  submit ");
+		appendMillis(line, _submissionNanos);
+		line.append(" ms");
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		line.setLength(0);
+		line.append("Draw calls ").append(_drawCalls)
+			.append("  quads ").append(_quads)
+			.append("  binds ").append(_binds);
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		line.setLength(0);
+		line.append("State changes ").append(_issued)
+			.append("  elided ").append(_elided);
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		line.setLength(0);
+		line.append("Textures ").append(_residentTextures)
+			.append("  uploaded ").append(_residentBytes >> 10)
+			.append(" KiB");
+		ioText.draw(line, MARGIN, y);
+		y -= LINE_HEIGHT;
+
+		Runtime runtime = Runtime.getRuntime();
+		line.setLength(0);
+		line.append("Alloc ");
+		if(_allocationRate >= 0)
+			line.append(_allocationRate >> 10).append(" KiB/s");
+		else
+			line.append("n/a");
+		line.append("  heap ")
+			.append((runtime.totalMemory() - runtime.freeMemory()) >> 20)
+			.append('/')
+			.append(runtime.maxMemory() >> 20)
+			.append(" MiB");
+		ioText.draw(line, MARGIN, y);
+	}
+	/**
+	 * Append nanoseconds as milliseconds with two decimal places, without
+	 * going through floating point formatting.
+	 * @param ioLine Line to append to.
+	 * @param iNanos Nanoseconds.
+	 */
+	private static void appendMillis(StringBuilder ioLine, long iNanos) {
+		long hundredths = (iNanos + 5000) / 10000;
+		int fraction = (int)(hundredths % 100);
+		ioLine.append(hundredths / 100).append('.');
+		if(fraction < 10)
+			ioLine.append('0');
+		ioLine.append(fraction);
+	}
+}
@@ -0,0 +1,44 @@
+package com.skardach.ro.graphics.debug.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.debug.PerformanceHud;
+/**
+ * Tests for PerformanceHud class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class PerformanceHudTest {
+	/**
+	 * Percentiles use nearest rank over recorded frames
+	 */
+	@Test
+	public void testPercentiles() {
+		PerformanceHud sut = new PerformanceHud(10);
+		assertEquals(0, sut.getPercentileNanos(50));
+		for(int i = 100; i >= 1; i--)
+			sut.recordFrame(i);
+		assertEquals(50, sut.getPercentileNanos(50));
+		assertEquals(95, sut.getPercentileNanos(95));
+		assertEquals(100, sut.getPercentileNanos(100));
+		assertEquals(1, sut.getPercentileNanos(1));
+		assertEquals(100, sut.getPacing().getFrameCount());
+	}
+	/**
+	 * Only the most recent frames are kept
+	 */
+	@Test
+	public void testHistoryWraps() {
+		PerformanceHud sut = new PerformanceHud(10);
+		for(int i = 0; i < PerformanceHud.HISTORY; i++)
+			sut.recordFrame(1000);
+		for(int i = 0; i < PerformanceHud.HISTORY; i++)
+			sut.recordFrame(5);
+		assertEquals(5, sut.getPercentileNanos(100));
+		sut.recordFrame(7);
+		assertEquals(7, sut.getPercentileNanos(100));
+		assertEquals(5, sut.getPercentileNanos(50));
+	}
+}
@@ -0,0 +1,42 @@
+// Combines two texture stages in a single pass according to the STR
+// multi texture presets. See MultiTextureMode for the formulas.
+// texture0 is sampled with the first UV set, texture1 with the second one.
+uniform sampler2D texture0;
+uniform sampler2D texture1;
+uniform int mode;
+
+void main()
+{
+	vec4 color = gl_Color;
+	vec4 t0 = texture2D(texture0, gl_TexCoord[0].xy);
+	vec4 t1 = texture2D(texture1, gl_TexCoord[1].xy);
+	vec3 c0 = t0.rgb * color.rgb;
+	vec4 result;
+	if (mode == 3)
+		result = vec4(t0.rgb + color.rgb, t0.a);
+	else if (mode == 4)
+		result = vec4(t0.rgb * t0.a + color.rgb * (1.0 - t0.a), color.a);
+	else if (mode == 5)
+		result = vec4(t1.rgb * c0, t1.a);
+	else if (mode == 6)
+		result = vec4((1.0 - t1.rgb) * (1.0 - t0.rgb) * color.rgb, t1.a);
+	else if (mode == 7)
+		result = vec4(t1.a * t0.rgb, t1.a);
+	else if (mode == 8 || mode == 11)
+		result = vec4(t1.rgb + c0, t1.a);
+	else if (mode == 9)
+		result = vec4(t1.rgb * t1.a + c0 * (1.0 - t1.a), t1.a);
+	else if (mode == 10)
+		result = vec4(t1.rgb * color.a + c0 * (1.0 - color.a), t1.a);
+	else if (mode == 12)
+		result = vec4((1.0 - t1.rgb) + c0, t1.a);
+	else if (mode == 13)
+		result = vec4(t1.rgb * (t0.rgb + color.rgb), t1.a);
+	else if (mode == 14)
+		result = vec4(t1.rgb * c0 * 2.0, t1.a);
+	else if (mode == 15)
+		result = vec4(t1.rgb + c0 - 0.5, t1.a);
+	else // 1, 2 and anything else: plain modulate
+		result = vec4(c0, t0.a * color.a);
+	gl_FragColor = clamp(result, 0.0, 1.0);
+}
@@ -0,0 +1,106 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.AnimationClock;
+import com.skardach.ro.graphics.ClockFrameAdvanceCalculator;
+import com.skardach.ro.graphics.FrameAdvanceCalculator;
+/**
+ * Tests for ClockFrameAdvanceCalculator class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class ClockFrameAdvanceCalculatorTest {
+	/**
+	 * Clock whose frame time is set by the test.
+	 */
+	private static class ManualClock extends AnimationClock {
+		long _time = 0;
+
+		@Override
+		public synchronized long getFrameTime() {
+			return _time;
+		}
+	}
+	/**
+	 * Play one second at a given display rate.
+	 * @return Frame reached after one second.
+	 */
+	private int playSecond(int iEffectFps, int iDisplayFps) {
+		ManualClock clock = new ManualClock();
+		ClockFrameAdvanceCalculator sut =
+			new ClockFrameAdvanceCalculator(clock, iEffectFps);
+		int frame = sut.calculateFrameToRender(0, FrameAdvanceCalculator.NO_FRAME);
+		for(int i = 1; i <= iDisplayFps; i++) {
+			clock._time = i * 1000000000L / iDisplayFps;
+			frame = sut.calculateFrameToRender(0, frame);
+		}
+		return frame;
+	}
+	/**
+	 * Animation speed does not depend on the display rate and rounding does
+	 * not accumulate
+	 */
+	@Test
+	public void testNativeRate() {
+		assertEquals(60, playSecond(60, 144));
+		assertEquals(60, playSecond(60, 60));
+		assertEquals(60, playSecond(60, 37));
+		assertEquals(30, playSecond(30, 144));
+		assertEquals(24, playSecond(24, 75));
+	}
+	/**
+	 * Playback starts with the first frame and invalid rates use the default
+	 */
+	@Test
+	public void testStart() {
+		ManualClock clock = new ManualClock();
+		clock._time = 123456789L;
+		ClockFrameAdvanceCalculator sut = new ClockFrameAdvanceCalculator(clock, 0);
+		assertEquals(ClockFrameAdvanceCalculator.DEFAULT_FPS, sut.getFps());
+		assertEquals(0, sut.calculateFrameToRender(0, FrameAdvanceCalculator.NO_FRAME));
+		assertEquals(0, sut.calculateFrameToRender(0, 0));
+		clock._time += 1000000000L;
+		assertEquals(
+			ClockFrameAdvanceCalculator.DEFAULT_FPS,
+			sut.calculateFrameToRender(0, 0));
+	}
+	/**
+	 * Time not turned into whole frames is reported as a fraction
+	 */
+	@Test
+	public void testFraction() {
+		ManualClock clock = new ManualClock();
+		ClockFrameAdvanceCalculator sut = new ClockFrameAdvanceCalculator(clock, 50);
+		sut.calculateFrameToRender(0, FrameAdvanceCalculator.NO_FRAME);
+		assertEquals(0, sut.getFrameFraction(), 0);
+		clock._time = 25000000L; // 1.25 frame
+		assertEquals(1, sut.calculateFrameToRender(0, 0));
+		assertEquals(0.25f, sut.getFrameFraction(), 1e-6f);
+		clock._time = 35000000L; // 1.75 frame
+		assertEquals(1, sut.calculateFrameToRender(0, 1));
+		assertEquals(0.75f, sut.getFrameFraction(), 1e-6f);
+	}
+	/**
+	 * A step advances exactly one frame while the clock stands still
+	 */
+	@Test
+	public void testStep() {
+		ManualClock clock = new ManualClock();
+		ClockFrameAdvanceCalculator sut = new ClockFrameAdvanceCalculator(clock, 50);
+		sut.calculateFrameToRender(0, FrameAdvanceCalculator.NO_FRAME);
+		clock._time = 25000000L; // 1.25 frame
+		assertEquals(1, sut.calculateFrameToRender(0, 0));
+		assertEquals(1, sut.calculateFrameToRender(0, 1));
+		sut.step();
+		assertEquals(2, sut.peekFrameToRender(1));
+		assertEquals(2, sut.calculateFrameToRender(0, 1));
+		assertEquals(0, sut.getFrameFraction(), 0);
+		sut.step();
+		assertEquals(3, sut.calculateFrameToRender(0, 2));
+		// without a step a paused clock keeps the frame
+		assertEquals(3, sut.calculateFrameToRender(0, 3));
+	}
+}
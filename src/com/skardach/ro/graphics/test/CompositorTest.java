@@ -0,0 +1,172 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+
+import com.skardach.ro.graphics.BlendType;
+import com.skardach.ro.graphics.Compositor;
+import com.skardach.ro.graphics.GLStateCache;
+import com.skardach.ro.graphics.LayerDrawer;
+import com.skardach.ro.graphics.LayerState;
+import com.skardach.ro.graphics.QuadBuffer;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.TextureImpl;
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.KeyFrameType;
+import com.skardach.ro.resource.str.MultiTextureMode;
+/**
+ * Tests for Compositor class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class CompositorTest {
+	private static final GL2 NO_GL = null;
+	private static final float IDENTITY[] = {
+		1, 0, 0, 0,
+		0, 1, 0, 0,
+		0, 0, 1, 0,
+		0, 0, 0, 1 };
+	/**
+	 * Records drawn quads, identified by X of their first vertex, in batches
+	 * instead of drawing them.
+	 */
+	private static class RecordingDrawer extends LayerDrawer {
+		final List<List<Integer>> _batches = new ArrayList<List<Integer>>();
+		private final GLStateCache _cache =
+			new GLStateCacheTest.CountingStateCache();
+		private int _vertices = 0;
+
+		@Override
+		protected GLStateCache stateCacheFor(GL2 iGL) {
+			return _cache;
+		}
+
+		@Override
+		protected void glPushMatrix(GL2 iGL) {
+		}
+
+		@Override
+		protected void glLoadIdentity(GL2 iGL) {
+		}
+
+		@Override
+		protected void glPopMatrix(GL2 iGL) {
+		}
+
+		@Override
+		protected void glBegin(GL2 iGL, int iMode) {
+			_batches.add(new ArrayList<Integer>());
+		}
+
+		@Override
+		protected void glEnd(GL2 iGL) {
+		}
+
+		@Override
+		protected void glTexCoord2f(GL2 iGL, float iS, float iT) {
+		}
+
+		@Override
+		protected void glMultiTexCoord2f(
+				GL2 iGL,
+				int iUnit,
+				float iS,
+				float iT) {
+		}
+
+		@Override
+		protected void glVertex3f(GL2 iGL, float iX, float iY, float iZ) {
+			if(_vertices++ % 4 == 0)
+				_batches.get(_batches.size() - 1).add(Math.round(iX));
+		}
+	}
+
+	private final Texture _first = new TextureImpl("first.bmp", "", false);
+	private final Texture _second = new TextureImpl("second.bmp", "", false);
+	/**
+	 * Add a point sized quad at given X.
+	 */
+	private static void add(
+			QuadBuffer ioBuffer,
+			int iX,
+			Texture iTexture,
+			int iDestBlend,
+			int iMode) {
+		KeyFrame frame =
+			StrTimelineTest.createKeyFrame(0, KeyFrameType.BASIC, 0, 255);
+		frame.set_destAlpha(BlendType.fromInt(iDestBlend));
+		LayerState state = new LayerState();
+		state._baseFrame = frame;
+		state._multiTextureMode = MultiTextureMode.fromInt(iMode);
+		state._position._x = iX;
+		ioBuffer.add(state, iTexture, 1, IDENTITY);
+	}
+	/**
+	 * Effects of all buffers are drawn from the farthest one, keeping layer
+	 * order, and adjacent quads are batched across effects unless texture,
+	 * blending or multi texture preset changes
+	 */
+	@Test
+	public void testBackToFrontBatches() throws Exception {
+		QuadBuffer twoEffects = new QuadBuffer();
+		add(twoEffects, 1, _first, 2, 0);
+		add(twoEffects, 2, _first, 2, 0);
+		twoEffects.endGroup(-10);
+		add(twoEffects, 5, _first, 2, 0);
+		add(twoEffects, 6, _first, 1, 0);
+		add(twoEffects, 7, _first, 1, 5);
+		twoEffects.endGroup(-1);
+		QuadBuffer oneEffect = new QuadBuffer();
+		add(oneEffect, 3, _first, 2, 0);
+		add(oneEffect, 4, _second, 2, 0);
+		oneEffect.endGroup(-5);
+		RecordingDrawer drawer = new RecordingDrawer();
+		Compositor sut = new Compositor(drawer);
+		sut.add(twoEffects);
+		sut.add(oneEffect);
+		sut.submit(NO_GL);
+		assertEquals(3, sut.getItemCount());
+		assertEquals(
+			Arrays.asList(
+				Arrays.asList(1, 2, 3),
+				Arrays.asList(4),
+				Arrays.asList(5),
+				Arrays.asList(6),
+				Arrays.asList(7)),
+			drawer._batches);
+		assertEquals(5, drawer.getDrawCalls());
+		assertEquals(7, drawer.getQuadCount());
+	}
+	/**
+	 * Effects at the same depth are drawn in the order they were added
+	 */
+	@Test
+	public void testSameDepthKeepsOrder() throws Exception {
+		QuadBuffer first = new QuadBuffer();
+		add(first, 1, _first, 2, 0);
+		first.endGroup(-1);
+		add(first, 2, _second, 2, 0);
+		first.endGroup(-1);
+		QuadBuffer second = new QuadBuffer();
+		add(second, 3, _first, 2, 0);
+		second.endGroup(-1);
+		RecordingDrawer drawer = new RecordingDrawer();
+		Compositor sut = new Compositor(drawer);
+		sut.add(first);
+		sut.add(second);
+		sut.submit(NO_GL);
+		assertEquals(
+			Arrays.asList(
+				Arrays.asList(1),
+				Arrays.asList(2),
+				Arrays.asList(3)),
+			drawer._batches);
+	}
+}
@@ -0,0 +1,121 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.EffectInstance;
+import com.skardach.ro.graphics.EffectInstancePool;
+import com.skardach.ro.graphics.StrTimeline;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.TextureImpl;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.Str;
+/**
+ * Tests for EffectInstancePool and EffectInstance classes.
+ * @author Stanislaw Kardach
+ *
+ */
+public class EffectInstancePoolTest {
+	private static final long FRAME = 1000000000L / 50;
+
+	private StrTimeline createTimeline(int iFrameCount) {
+		Str effect = new Str();
+		effect.set_frameCount(iFrameCount);
+		effect.set_fps(50);
+		return StrTimeline.forEffect(effect);
+	}
+	/**
+	 * Despawning moves the last active instance into the freed slot and
+	 * instances are reused without growing the pool
+	 */
+	@Test
+	public void testSpawnDespawn() {
+		StrTimeline timeline = createTimeline(10);
+		EffectInstancePool sut = new EffectInstancePool(3);
+		EffectInstance a = sut.spawn(timeline, 0, true);
+		EffectInstance b = sut.spawn(timeline, 0, true);
+		EffectInstance c = sut.spawn(timeline, 0, true);
+		assertEquals(3, sut.getActiveCount());
+		sut.despawn(a);
+		assertFalse(a.isActive());
+		assertEquals(2, sut.getActiveCount());
+		assertSame(c, sut.getActive(0));
+		assertSame(b, sut.getActive(1));
+		sut.despawn(a); // already despawned
+		assertEquals(2, sut.getActiveCount());
+		assertSame(a, sut.spawn(timeline, 0, true));
+		assertEquals(3, sut.getCapacity());
+		sut.spawn(timeline, 0, true);
+		assertEquals(4, sut.getActiveCount());
+		assertEquals(6, sut.getCapacity());
+		sut.clear();
+		assertEquals(0, sut.getActiveCount());
+	}
+	/**
+	 * Frame cursor follows the clock, loops or finishes
+	 */
+	@Test
+	public void testFrameCursor() {
+		StrTimeline timeline = createTimeline(10);
+		EffectInstancePool sut = new EffectInstancePool(2);
+		EffectInstance looping = sut.spawn(timeline, 100, true);
+		EffectInstance once = sut.spawn(timeline, 100, false);
+		assertEquals(0, looping.getFrame(0));
+		assertEquals(3, looping.getFrame(100 + 3 * FRAME + FRAME / 2));
+		assertEquals(0.5f, looping.getFrameFraction(100 + 3 * FRAME + FRAME / 2), 1e-3f);
+		assertEquals(2, looping.getFrame(100 + 12 * FRAME + 1));
+		assertEquals(10, once.getFrame(100 + 12 * FRAME + 1));
+		assertFalse(once.isFinished(100 + 9 * FRAME + 1));
+		assertTrue(once.isFinished(100 + 10 * FRAME + 1));
+		assertEquals(1, sut.despawnFinished(100 + 10 * FRAME + 1));
+		assertFalse(once.isActive());
+		assertSame(looping, sut.getActive(0));
+	}
+	/**
+	 * Stepping moves to the beginning of the next frame at the same time
+	 */
+	@Test
+	public void testStep() {
+		StrTimeline timeline = createTimeline(10);
+		EffectInstancePool sut = new EffectInstancePool(1);
+		EffectInstance instance = sut.spawn(timeline, 100, true);
+		long now = 100 + 3 * FRAME + FRAME / 2;
+		instance.step(now);
+		assertEquals(4, instance.getFrame(now));
+		assertEquals(0, instance.getFrameFraction(now), 1e-6f);
+		instance.step(now);
+		assertEquals(5, instance.getFrame(now));
+	}
+	/**
+	 * Used textures stay pinned while any instance of the timeline is active
+	 */
+	@Test
+	public void testTexturesPinned() {
+		Str effect = LayerBatchEvaluatorTest.createEffect(2, 10, 1);
+		Texture used = new TextureImpl("used.bmp", "", false);
+		Texture unused = new TextureImpl("unused.bmp", "", false);
+		Layer layer = effect.get_layers().get(1);
+		layer.get_textures().set(0, used);
+		layer.get_textures().set(1, unused);
+		StrTimeline timeline = StrTimeline.forEffect(effect);
+		assertTrue(timeline.isTextureUsed(1, 0));
+		EffectInstancePool sut = new EffectInstancePool(1);
+		EffectInstance a = sut.spawn(timeline, 0, true);
+		EffectInstance b = sut.spawn(timeline, 0, true);
+		assertTrue(used.isPinned());
+		assertFalse(unused.isPinned());
+		sut.despawn(a);
+		assertTrue(used.isPinned());
+		sut.releaseTextures();
+		assertFalse(used.isPinned());
+		sut.pinTextures();
+		assertTrue(used.isPinned());
+		sut.despawn(b);
+		assertFalse(used.isPinned());
+		sut.spawn(timeline, 0, false);
+		assertTrue(used.isPinned());
+		sut.clear();
+		assertFalse(used.isPinned());
+	}
+}
@@ -0,0 +1,60 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.Frustum;
+/**
+ * Tests for Frustum class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class FrustumTest {
+	private Frustum createViewerFrustum() {
+		// same settings as STRViewer uses by default
+		Frustum sut = new Frustum();
+		sut.update(45f, 1f, 0.1f, 10000f, 0, -20, 700, 0, -20, 0, 0, 1, 0);
+		return sut;
+	}
+	/**
+	 * Spheres in front of the camera are visible
+	 */
+	@Test
+	public void testVisibleInFront() {
+		Frustum sut = createViewerFrustum();
+		assertTrue("Origin not visible", sut.intersectsSphere(0, 0, 0, 1));
+		assertTrue(
+			"Sphere on the far plane not visible",
+			sut.intersectsSphere(0, -20, 700 - 10000, 1));
+	}
+	/**
+	 * Spheres behind the camera or outside the side planes are not visible
+	 */
+	@Test
+	public void testCulledOutside() {
+		Frustum sut = createViewerFrustum();
+		assertFalse(
+			"Sphere behind camera visible",
+			sut.intersectsSphere(0, -20, 800, 50));
+		assertFalse(
+			"Sphere far to the right visible",
+			sut.intersectsSphere(2000, -20, 0, 100));
+		assertFalse(
+			"Sphere far above visible",
+			sut.intersectsSphere(0, 2000, 0, 100));
+		assertFalse(
+			"Sphere behind far plane visible",
+			sut.intersectsSphere(0, -20, -20000, 100));
+	}
+	/**
+	 * Spheres crossing a frustum plane are visible
+	 */
+	@Test
+	public void testPartiallyVisible() {
+		Frustum sut = createViewerFrustum();
+		// at distance 700 the half width is 700 * tan(22.5) ~ 290
+		assertFalse(sut.intersectsSphere(400, -20, 0, 50));
+		assertTrue(sut.intersectsSphere(400, -20, 0, 150));
+	}
+}
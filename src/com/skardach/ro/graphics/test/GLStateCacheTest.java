@@ -0,0 +1,167 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+
+import com.skardach.ro.graphics.GLStateCache;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.TextureImpl;
+/**
+ * Tests for GLStateCache class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class GLStateCacheTest {
+	/**
+	 * Counts calls which would reach OpenGL instead of making them, so no
+	 * context is needed. Binding always succeeds.
+	 */
+	static class CountingStateCache extends GLStateCache {
+		int _calls = 0;
+
+		@Override
+		protected void glEnable(GL2 iGL, int iCap) {
+			_calls++;
+		}
+
+		@Override
+		protected void glDisable(GL2 iGL, int iCap) {
+			_calls++;
+		}
+
+		@Override
+		protected void glBlendFunc(GL2 iGL, int iSource, int iDest) {
+			_calls++;
+		}
+
+		@Override
+		protected void glActiveTexture(GL2 iGL, int iUnit) {
+			_calls++;
+		}
+
+		@Override
+		protected boolean bind(GL2 iGL, Texture iTexture) {
+			_calls++;
+			return true;
+		}
+
+		@Override
+		protected void glTexParameteri(
+				GL2 iGL,
+				int iTarget,
+				int iName,
+				int iValue) {
+			_calls++;
+		}
+
+		@Override
+		protected void glColorMask(
+				GL2 iGL,
+				boolean iRed,
+				boolean iGreen,
+				boolean iBlue,
+				boolean iAlpha) {
+			_calls++;
+		}
+
+		@Override
+		protected void glColor4ub(
+				GL2 iGL,
+				byte iRed,
+				byte iGreen,
+				byte iBlue,
+				byte iAlpha) {
+			_calls++;
+		}
+
+		@Override
+		protected void glColor4f(
+				GL2 iGL,
+				float iRed,
+				float iGreen,
+				float iBlue,
+				float iAlpha) {
+			_calls++;
+		}
+
+		@Override
+		protected void glGetColor(GL2 iGL, float oColor[]) {
+			_calls++;
+		}
+	}
+
+	private static final GL2 NO_GL = null;
+	private CountingStateCache _sut;
+
+	private Texture createTexture() {
+		return new TextureImpl("texture.bmp", "", false);
+	}
+
+	@Before
+	public void setUp() {
+		_sut = new CountingStateCache();
+	}
+	/**
+	 * Repeated state is set once and counted as elided afterwards
+	 */
+	@Test
+	public void testRedundantCallsElided() {
+		for(int i = 0; i < 3; i++) {
+			_sut.enable(NO_GL, GL.GL_BLEND);
+			_sut.blendFunc(NO_GL, GL.GL_SRC_ALPHA, GL.GL_ONE);
+			_sut.colorMask(NO_GL, true, true, true, true);
+			_sut.color4ub(NO_GL, (byte)255, (byte)0, (byte)0, (byte)255);
+		}
+		assertEquals(4, _sut._calls);
+		assertEquals(4, _sut.getIssuedCalls());
+		assertEquals(8, _sut.getElidedCalls());
+		// same color given as floats
+		_sut.color4f(NO_GL, 1f, 0f, 0f, 1f);
+		assertEquals(4, _sut._calls);
+		_sut.disable(NO_GL, GL.GL_BLEND);
+		_sut.blendFunc(NO_GL, GL.GL_ONE, GL.GL_ZERO);
+		assertEquals(6, _sut._calls);
+	}
+	/**
+	 * Texture parameters are remembered only while the same texture stays
+	 * bound
+	 */
+	@Test
+	public void testTextureBinding() {
+		Texture a = createTexture();
+		Texture b = createTexture();
+		_sut.activeTexture(NO_GL, GL.GL_TEXTURE0);
+		assertTrue(_sut.bindTexture(NO_GL, a));
+		_sut.texParameteri(
+			NO_GL, GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		assertTrue(_sut.bindTexture(NO_GL, a));
+		_sut.texParameteri(
+			NO_GL, GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		assertEquals(3, _sut.getIssuedCalls());
+		assertEquals(2, _sut.getElidedCalls());
+		_sut.bindTexture(NO_GL, b);
+		_sut.texParameteri(
+			NO_GL, GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+		assertEquals(5, _sut.getIssuedCalls());
+	}
+	/**
+	 * Nothing is elided after invalidation
+	 */
+	@Test
+	public void testInvalidate() {
+		_sut.enable(NO_GL, GL.GL_BLEND);
+		_sut.color4f(NO_GL, 1f, 1f, 1f, 1f);
+		_sut.invalidate();
+		_sut.enable(NO_GL, GL.GL_BLEND);
+		_sut.color4f(NO_GL, 1f, 1f, 1f, 1f);
+		assertEquals(4, _sut._calls);
+		assertEquals(0, _sut.getElidedCalls());
+		_sut.resetCounters();
+		assertEquals(0, _sut.getIssuedCalls());
+	}
+}
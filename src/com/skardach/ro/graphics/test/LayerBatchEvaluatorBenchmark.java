@@ -0,0 +1,117 @@
+package com.skardach.ro.graphics.test;
+
+import com.skardach.ro.graphics.LayerBatchEvaluator;
+import com.skardach.ro.graphics.LayerState;
+import com.skardach.ro.graphics.StrTimeline;
+/**
+ * Compares evaluation of all layers of an effect, frame by frame, with
+ * {@link LayerState#evaluate(int, com.skardach.ro.resource.str.Layer,
+ * com.skardach.ro.resource.str.KeyFrame,
+ * com.skardach.ro.resource.str.KeyFrame, int, float)} and with
+ * {@link LayerBatchEvaluator}. Run as a Java application, optionally with
+ * the number of layers as the first argument.
+ * @author Stanislaw Kardach
+ *
+ */
+public class LayerBatchEvaluatorBenchmark {
+	private static final int FRAMES = 100;
+	private static final int WARMUP_ROUNDS = 200;
+	private static final int ROUNDS = 1000;
+	private static final float FRACTION = 0.5f;
+
+	private final StrTimeline _timeline;
+	private final LayerState _state = new LayerState();
+	private final LayerBatchEvaluator _batch = new LayerBatchEvaluator();
+	/**
+	 * Sum of evaluated values, so that the work cannot be optimized out.
+	 */
+	private float _sink = 0;
+
+	private LayerBatchEvaluatorBenchmark(int iLayers) {
+		_timeline = StrTimeline.forEffect(
+			LayerBatchEvaluatorTest.createEffect(iLayers, FRAMES, 1));
+	}
+
+	private void scalar() {
+		for(int f = 0; f < FRAMES; f++) {
+			for(int l = 0; l < _timeline.getLayerCount(); l++) {
+				_state.evaluate(
+					l,
+					_timeline.getLayer(l),
+					_timeline.getBaseFrame(l, f),
+					_timeline.getAnimationFrame(l, f),
+					f,
+					FRACTION);
+				_sink += _state._rectangle.get_a()._x;
+			}
+		}
+	}
+
+	private void batch() {
+		for(int f = 0; f < FRAMES; f++) {
+			_batch.clear();
+			for(int l = 0; l < _timeline.getLayerCount(); l++) {
+				int animation = _timeline.getAnimationFrameIndex(l, f);
+				_batch.add(
+					_timeline.getPackedBaseFrames(l),
+					_timeline.getBaseFrameIndex(l, f) * LayerState.PACKED_SIZE,
+					animation >= 0 ? _timeline.getPackedAnimationFrames(l) : null,
+					animation * LayerState.PACKED_SIZE,
+					animation >= 0
+						? f - _timeline.getKeyFrames(l)[animation].get_framenum()
+							+ FRACTION
+						: 0);
+			}
+			_batch.evaluate();
+			for(int l = 0; l < _timeline.getLayerCount(); l++) {
+				_state.evaluate(
+					l,
+					_timeline.getLayer(l),
+					_timeline.getBaseFrame(l, f),
+					f,
+					_batch.getResults(),
+					LayerBatchEvaluator.getResultOffset(l));
+				_sink += _state._rectangle.get_a()._x;
+			}
+		}
+	}
+	/**
+	 * @param iScalar Which path to measure.
+	 * @return Nanoseconds per evaluated layer.
+	 */
+	private double measure(boolean iScalar) {
+		for(int i = 0; i < WARMUP_ROUNDS; i++) {
+			if(iScalar)
+				scalar();
+			else
+				batch();
+		}
+		long start = System.nanoTime();
+		for(int i = 0; i < ROUNDS; i++) {
+			if(iScalar)
+				scalar();
+			else
+				batch();
+		}
+		long elapsed = System.nanoTime() - start;
+		return (double)elapsed / ROUNDS / FRAMES / _timeline.getLayerCount();
+	}
+
+	public static void main(String[] args) {
+		int layers = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		LayerBatchEvaluatorBenchmark benchmark =
+			new LayerBatchEvaluatorBenchmark(layers);
+		// alternate to let both paths get compiled before the final run
+		for(int run = 0; run < 3; run++) {
+			double scalar = benchmark.measure(true);
+			double batch = benchmark.measure(false);
+			System.out.println(String.format(
+				"run %d, %d layers: scalar %.1f ns/layer, batch %.1f ns/layer",
+				run,
+				layers,
+				scalar,
+				batch));
+		}
+		System.out.println("(checksum " + benchmark._sink + ")");
+	}
+}
@@ -0,0 +1,172 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.BlendType;
+import com.skardach.ro.graphics.Color;
+import com.skardach.ro.graphics.LayerBatchEvaluator;
+import com.skardach.ro.graphics.LayerState;
+import com.skardach.ro.graphics.Point2D;
+import com.skardach.ro.graphics.Rectangle;
+import com.skardach.ro.graphics.StrTimeline;
+import com.skardach.ro.resource.str.AnimationType;
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.KeyFrameType;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.MultiTextureMode;
+import com.skardach.ro.resource.str.Str;
+/**
+ * Tests for LayerBatchEvaluator class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class LayerBatchEvaluatorTest {
+	/**
+	 * Create an effect with random key frames: on each layer a base frame
+	 * followed by a morph frame, twice.
+	 * @param iLayers Number of layers.
+	 * @param iFrames Number of frames.
+	 * @param iSeed Random seed.
+	 * @return Effect.
+	 */
+	public static Str createEffect(int iLayers, int iFrames, long iSeed) {
+		Random random = new Random(iSeed);
+		Str result = new Str();
+		result.set_frameCount(iFrames);
+		result.set_fps(60);
+		for(int l = 0; l < iLayers; l++) {
+			Layer layer = new Layer();
+			layer.get_textures().add(null);
+			layer.get_textures().add(null);
+			for(int half = 0; half < 2; half++) {
+				int start = half * iFrames / 2;
+				layer.get_keyFrames().add(
+					createKeyFrame(random, start, KeyFrameType.BASIC, 1));
+				layer.get_keyFrames().add(
+					createKeyFrame(random, start + 1, KeyFrameType.MORPH, 0.1f));
+			}
+			result.get_layers().add(layer);
+		}
+		return result;
+	}
+
+	private static KeyFrame createKeyFrame(
+			Random iRandom,
+			int iFrame,
+			KeyFrameType iType,
+			float iScale) {
+		KeyFrame result = new KeyFrame();
+		result.set_framenum(iFrame);
+		result.set_frameType(iType);
+		result.set_position(randomPoint(iRandom, 100 * iScale));
+		result.set_textureUVMapping(randomRectangle(iRandom, iScale));
+		result.set_textureUVMapping2(randomRectangle(iRandom, iScale));
+		result.set_drawingRectangle(randomRectangle(iRandom, 50 * iScale));
+		result.set_textureId(0);
+		result.set_animationType(AnimationType.NO_CHANGE);
+		result.set_rotation(iRandom.nextFloat() * 360 * iScale);
+		result.set_color(new Color(
+			255 * iScale,
+			iRandom.nextFloat() * 255 * iScale,
+			iRandom.nextFloat() * 255 * iScale,
+			200 * iScale));
+		result.set_sourceBlend(BlendType.fromInt(5));
+		result.set_destAlpha(BlendType.fromInt(2));
+		result.set_multiTexturePreset(MultiTextureMode.fromInt(0));
+		return result;
+	}
+
+	private static Point2D randomPoint(Random iRandom, float iScale) {
+		return new Point2D(
+			(iRandom.nextFloat() - 0.5f) * iScale,
+			(iRandom.nextFloat() - 0.5f) * iScale);
+	}
+
+	private static Rectangle<Point2D> randomRectangle(
+			Random iRandom,
+			float iScale) {
+		return new Rectangle<Point2D>(
+			randomPoint(iRandom, iScale),
+			randomPoint(iRandom, iScale),
+			randomPoint(iRandom, iScale),
+			randomPoint(iRandom, iScale));
+	}
+
+	private static void assertSame(Point2D iExpected, Point2D iActual) {
+		assertEquals(iExpected._x, iActual._x, 0);
+		assertEquals(iExpected._y, iActual._y, 0);
+	}
+
+	private static void assertSame(
+			Rectangle<Point2D> iExpected,
+			Rectangle<Point2D> iActual) {
+		assertSame(iExpected.get_a(), iActual.get_a());
+		assertSame(iExpected.get_b(), iActual.get_b());
+		assertSame(iExpected.get_c(), iActual.get_c());
+		assertSame(iExpected.get_d(), iActual.get_d());
+	}
+	/**
+	 * Batch results are exactly the same as those of the scalar evaluation
+	 */
+	@Test
+	public void testSameAsScalar() {
+		StrTimeline timeline = StrTimeline.forEffect(createEffect(8, 20, 42));
+		LayerBatchEvaluator sut = new LayerBatchEvaluator();
+		LayerState expected = new LayerState();
+		LayerState actual = new LayerState();
+		float fraction = 0.25f;
+		for(int f = 0; f < timeline.getFrameCount(); f++) {
+			sut.clear();
+			for(int l = 0; l < timeline.getLayerCount(); l++) {
+				int base = timeline.getBaseFrameIndex(l, f);
+				int animation = timeline.getAnimationFrameIndex(l, f);
+				if(animation < 0)
+					sut.add(
+						timeline.getPackedBaseFrames(l),
+						base * LayerState.PACKED_SIZE,
+						null,
+						0,
+						0);
+				else
+					sut.add(
+						timeline.getPackedBaseFrames(l),
+						base * LayerState.PACKED_SIZE,
+						timeline.getPackedAnimationFrames(l),
+						animation * LayerState.PACKED_SIZE,
+						f - timeline.getKeyFrames(l)[animation].get_framenum()
+						+ fraction);
+			}
+			sut.evaluate();
+			for(int l = 0; l < timeline.getLayerCount(); l++) {
+				expected.evaluate(
+					l,
+					timeline.getLayer(l),
+					timeline.getBaseFrame(l, f),
+					timeline.getAnimationFrame(l, f),
+					f,
+					timeline.getAnimationFrame(l, f) != null ? fraction : 0);
+				actual.evaluate(
+					l,
+					timeline.getLayer(l),
+					timeline.getBaseFrame(l, f),
+					f,
+					sut.getResults(),
+					LayerBatchEvaluator.getResultOffset(l));
+				assertEquals(expected._color._r, actual._color._r, 0);
+				assertEquals(expected._color._g, actual._color._g, 0);
+				assertEquals(expected._color._b, actual._color._b, 0);
+				assertEquals(expected._color._alpha, actual._color._alpha, 0);
+				assertSame(expected._position, actual._position);
+				assertEquals(expected._rotation, actual._rotation, 0);
+				assertSame(expected._rectangle, actual._rectangle);
+				assertSame(expected._textureMapping, actual._textureMapping);
+				assertSame(expected._textureMapping2, actual._textureMapping2);
+				assertEquals(expected._textureIndex, actual._textureIndex);
+			}
+		}
+	}
+}
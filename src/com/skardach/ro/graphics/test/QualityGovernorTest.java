@@ -0,0 +1,82 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.QualityGovernor;
+import com.skardach.ro.graphics.RenderDetail;
+/**
+ * Tests for QualityGovernor class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class QualityGovernorTest {
+	private static final long SLOW_FRAME = 50000000L; // 20 FPS
+	private static final long FAST_FRAME = 10000000L; // 100 FPS
+
+	private void feed(QualityGovernor iGovernor, long iFrameNanos, int iCount) {
+		for(int i = 0; i < iCount; i++)
+			iGovernor.frameFinished(iFrameNanos);
+	}
+	/**
+	 * Slow frames lower the quality one level at a time up to the maximum
+	 */
+	@Test
+	public void testDegradesUnderLoad() {
+		QualityGovernor sut = new QualityGovernor(30);
+		sut.setReactionFrames(10, 10);
+		assertEquals(0, sut.getLevel());
+		feed(sut, SLOW_FRAME, 10);
+		assertEquals(1, sut.getLevel());
+		feed(sut, SLOW_FRAME, 100);
+		assertEquals(QualityGovernor.MAX_LEVEL, sut.getLevel());
+	}
+	/**
+	 * Quality is restored once frames are well within budget
+	 */
+	@Test
+	public void testRecovers() {
+		QualityGovernor sut = new QualityGovernor(30);
+		sut.setReactionFrames(10, 20);
+		feed(sut, SLOW_FRAME, 100);
+		feed(sut, FAST_FRAME, 200);
+		assertEquals(0, sut.getLevel());
+	}
+	/**
+	 * Pauses (very long frames) are not taken into account
+	 */
+	@Test
+	public void testIgnoresPauses() {
+		QualityGovernor sut = new QualityGovernor(30);
+		sut.setReactionFrames(1, 1);
+		feed(sut, 5000000000L, 10);
+		assertEquals(0, sut.getLevel());
+	}
+	/**
+	 * Details follow the level
+	 */
+	@Test
+	public void testFillDetail() {
+		QualityGovernor sut = new QualityGovernor(30);
+		sut.setReactionFrames(1, 1000);
+		sut.setDistantEffects(100, 3);
+		sut.setMaxInstances(2);
+		RenderDetail detail = new RenderDetail();
+		sut.fillDetail(1000, 1, 5, detail);
+		assertEquals("Full quality drops alpha", 0, detail._minAlpha, 0);
+		assertEquals(1, detail._updateInterval);
+		assertFalse(detail._dropped);
+		feed(sut, SLOW_FRAME, 1);
+		sut.fillDetail(1000, 1, 5, detail);
+		assertTrue(detail._minAlpha > 0);
+		assertEquals(1, detail._updateInterval);
+		feed(sut, SLOW_FRAME, 2);
+		sut.fillDetail(1000, 1, 5, detail);
+		assertEquals(3, detail._updateInterval);
+		assertTrue(detail._dropped);
+		sut.fillDetail(10, 1, 1, detail);
+		assertEquals(1, detail._updateInterval);
+		assertFalse(detail._dropped);
+	}
+}
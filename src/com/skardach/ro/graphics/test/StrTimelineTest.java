@@ -0,0 +1,117 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.skardach.ro.graphics.BlendType;
+import com.skardach.ro.graphics.Color;
+import com.skardach.ro.graphics.Point2D;
+import com.skardach.ro.graphics.Rectangle;
+import com.skardach.ro.graphics.StrTimeline;
+import com.skardach.ro.resource.str.AnimationType;
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.KeyFrameType;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.MultiTextureMode;
+import com.skardach.ro.resource.str.Str;
+/**
+ * Tests for StrTimeline class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class StrTimelineTest {
+	/**
+	 * Create a key frame of a centered square showing texture 0 with alpha
+	 * blending.
+	 * @param iFrame Frame number.
+	 * @param iType Key frame type.
+	 * @param iSize Half of the square side.
+	 * @param iAlpha Alpha of the color.
+	 * @return Key frame.
+	 */
+	public static KeyFrame createKeyFrame(
+			int iFrame,
+			KeyFrameType iType,
+			float iSize,
+			float iAlpha) {
+		KeyFrame result = new KeyFrame();
+		result.set_framenum(iFrame);
+		result.set_frameType(iType);
+		result.set_position(new Point2D(0, 0));
+		result.set_textureUVMapping(createSquare(1));
+		result.set_textureUVMapping2(createSquare(1));
+		result.set_drawingRectangle(createSquare(iSize));
+		result.set_textureId(0);
+		result.set_animationType(AnimationType.NO_CHANGE);
+		result.set_rotation(0);
+		result.set_color(new Color(255, 255, 255, iAlpha));
+		result.set_sourceBlend(BlendType.fromInt(5));
+		result.set_destAlpha(BlendType.fromInt(2));
+		result.set_multiTexturePreset(MultiTextureMode.fromInt(0));
+		return result;
+	}
+
+	private static Rectangle<Point2D> createSquare(float iSize) {
+		return new Rectangle<Point2D>(
+			new Point2D(-iSize, iSize),
+			new Point2D(iSize, iSize),
+			new Point2D(-iSize, -iSize),
+			new Point2D(iSize, -iSize));
+	}
+	/**
+	 * A layer growing from a zero area rectangle under one morph frame is
+	 * not drawn in its first frame, but is drawn between it and the next one
+	 */
+	@Test
+	public void testDrawnWhileInterpolating() {
+		Str effect = new Str();
+		effect.set_frameCount(4);
+		effect.set_fps(60);
+		// background layer is always full screen
+		effect.get_layers().add(new Layer());
+		Layer layer = new Layer();
+		layer.get_textures().add(null);
+		layer.get_keyFrames().add(
+			createKeyFrame(1, KeyFrameType.BASIC, 0, 255));
+		layer.get_keyFrames().add(
+			createKeyFrame(1, KeyFrameType.MORPH, 10, 0));
+		effect.get_layers().add(layer);
+		StrTimeline sut = StrTimeline.forEffect(effect);
+		assertFalse(sut.isDrawn(1, 1));
+		assertTrue(sut.isDrawn(1, 2));
+		assertFalse(sut.isDrawn(1, 1, 0));
+		assertTrue(sut.isDrawn(1, 1, 0.5f));
+		// no key frames yet in frame 0
+		assertFalse(sut.isDrawn(1, 0, 0.5f));
+		// last frame has nothing to interpolate to
+		assertTrue(sut.isDrawn(1, 3, 0.5f));
+	}
+	/**
+	 * Transparent key frame color hides a layer only when its multi texture
+	 * preset takes alpha from the color
+	 */
+	@Test
+	public void testTransparentCombinerLayerDrawn() {
+		Str effect = new Str();
+		effect.set_frameCount(1);
+		effect.set_fps(60);
+		effect.get_layers().add(new Layer());
+		int[] presets = { 0, 1, 3, 4, 5, 15 };
+		for(int preset : presets) {
+			Layer layer = new Layer();
+			layer.get_textures().add(null);
+			KeyFrame frame = createKeyFrame(0, KeyFrameType.BASIC, 10, 0);
+			frame.set_multiTexturePreset(MultiTextureMode.fromInt(preset));
+			layer.get_keyFrames().add(frame);
+			effect.get_layers().add(layer);
+		}
+		StrTimeline sut = StrTimeline.forEffect(effect);
+		assertFalse(sut.isDrawn(1, 0));
+		assertFalse(sut.isDrawn(2, 0));
+		assertTrue(sut.isDrawn(3, 0));
+		assertFalse(sut.isDrawn(4, 0));
+		assertTrue(sut.isDrawn(5, 0));
+		assertTrue(sut.isDrawn(6, 0));
+	}
+}
@@ -0,0 +1,227 @@
+package com.skardach.ro.graphics.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.Buffer;
+
+import org.junit.Test;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLProfile;
+import com.skardach.ro.graphics.StrTimeline;
+import com.skardach.ro.graphics.TextureResidency;
+import com.skardach.ro.resource.Texture;
+import com.skardach.ro.resource.str.KeyFrame;
+import com.skardach.ro.resource.str.KeyFrameType;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.Str;
+/**
+ * Tests for TextureResidency class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class TextureResidencyTest {
+	private static final GL2 NO_GL = null;
+	/**
+	 * Texture counting residency calls.
+	 */
+	private static class CountingTexture implements Texture {
+		int _pins = 0;
+		int _loads = 0;
+		int _unloads = 0;
+		boolean _loaded = false;
+
+		@Override
+		public String getName() {
+			return "counting";
+		}
+		@Override
+		public Buffer getData() {
+			return null;
+		}
+		@Override
+		public int getWidth() {
+			return -1;
+		}
+		@Override
+		public int getHeight() {
+			return -1;
+		}
+		@Override
+		public String toString(String iPrefix) {
+			return iPrefix + getName();
+		}
+		@Override
+		public void load(GL2 iGLContext) {
+			_loads++;
+			_loaded = true;
+		}
+		@Override
+		public void decode(GLProfile iProfile, boolean iCompressionSupported) {
+		}
+		@Override
+		public boolean isDecoded() {
+			return _loaded;
+		}
+		@Override
+		public void upload(GL2 iGLContext) {
+			load(iGLContext);
+		}
+		@Override
+		public int getDecodedSize() {
+			return 0;
+		}
+		@Override
+		public int getUploadedSize() {
+			return _loaded ? 1 : 0;
+		}
+		@Override
+		public void pin() {
+			_pins++;
+		}
+		@Override
+		public int unpin() {
+			return --_pins;
+		}
+		@Override
+		public boolean isPinned() {
+			return _pins > 0;
+		}
+		@Override
+		public void unload(GL2 iGLContext) {
+			_unloads++;
+			_loaded = false;
+		}
+		@Override
+		public boolean isLoaded() {
+			return _loaded;
+		}
+		@Override
+		public boolean bind(GL2 iGLContext) {
+			return _loaded;
+		}
+	}
+
+	private CountingTexture _early = new CountingTexture();
+	private CountingTexture _late = new CountingTexture();
+	/**
+	 * @return Effect showing _early texture in frames 0-4 and _late texture
+	 * in frames 5-9.
+	 */
+	private Str createEffect() {
+		Str result = new Str();
+		result.set_frameCount(10);
+		result.set_fps(60);
+		// background layer is not managed
+		result.get_layers().add(new Layer());
+		Layer layer = new Layer();
+		layer.get_textures().add(_early);
+		layer.get_textures().add(_late);
+		layer.get_keyFrames().add(
+			StrTimelineTest.createKeyFrame(0, KeyFrameType.BASIC, 10, 255));
+		KeyFrame late =
+			StrTimelineTest.createKeyFrame(5, KeyFrameType.BASIC, 10, 255);
+		late.set_textureId(1);
+		layer.get_keyFrames().add(late);
+		result.get_layers().add(layer);
+		return result;
+	}
+
+	private TextureResidency createResidency(
+			int iPrefetchFrames,
+			boolean iReleaseBehind) {
+		Str effect = createEffect();
+		return new TextureResidency(
+			effect,
+			StrTimeline.forEffect(effect),
+			null,
+			iPrefetchFrames,
+			iReleaseBehind);
+	}
+	/**
+	 * Textures are pinned and loaded at first use and unpinned and unloaded
+	 * after the last one
+	 */
+	@Test
+	public void testResidentWhileUsed() throws Exception {
+		TextureResidency sut = createResidency(0, true);
+		sut.update(NO_GL, 0);
+		assertEquals(1, _early._pins);
+		assertEquals(1, _early._loads);
+		assertEquals(0, _late._pins);
+		assertEquals(0, _late._loads);
+		sut.update(NO_GL, 4);
+		assertEquals(1, _early._loads);
+		assertEquals(0, _early._unloads);
+		assertEquals(0, _late._loads);
+		sut.update(NO_GL, 5);
+		assertEquals(0, _early._pins);
+		assertEquals(1, _early._unloads);
+		assertEquals(1, _late._pins);
+		assertEquals(1, _late._loads);
+		assertEquals(1, sut.getAcquiredCount());
+		sut.update(NO_GL, 10);
+		assertEquals(0, _late._pins);
+		assertEquals(1, _late._unloads);
+		assertEquals(0, sut.getAcquiredCount());
+	}
+	/**
+	 * Textures still pinned by another user are not unloaded
+	 */
+	@Test
+	public void testSharedTextureKept() throws Exception {
+		TextureResidency sut = createResidency(0, true);
+		_early.pin();
+		sut.update(NO_GL, 0);
+		assertEquals(2, _early._pins);
+		sut.update(NO_GL, 5);
+		assertEquals(1, _early._pins);
+		assertEquals(0, _early._unloads);
+	}
+	/**
+	 * Textures are loaded the prefetch distance before first use
+	 */
+	@Test
+	public void testPrefetch() throws Exception {
+		TextureResidency sut = createResidency(2, true);
+		sut.update(NO_GL, 2);
+		assertEquals(0, _late._loads);
+		sut.update(NO_GL, 3);
+		assertEquals(1, _late._loads);
+		assertEquals(1, _early._pins);
+	}
+	/**
+	 * Looping playback keeps textures over rewinds
+	 */
+	@Test
+	public void testLoop() throws Exception {
+		TextureResidency sut = createResidency(0, false);
+		for(int frame = 0; frame < 10; frame++)
+			sut.update(NO_GL, frame);
+		sut.rewind();
+		sut.update(NO_GL, 0);
+		assertEquals(1, _early._pins);
+		assertEquals(1, _early._loads);
+		assertEquals(0, _early._unloads);
+		assertEquals(1, _late._pins);
+		assertEquals(2, sut.getAcquiredCount());
+	}
+	/**
+	 * Rewinding acquires released textures again
+	 */
+	@Test
+	public void testRewind() throws Exception {
+		TextureResidency sut = createResidency(0, true);
+		for(int frame = 0; frame <= 10; frame++)
+			sut.update(NO_GL, frame);
+		assertEquals(0, sut.getAcquiredCount());
+		sut.rewind();
+		sut.update(NO_GL, 0);
+		assertEquals(1, _early._pins);
+		assertEquals(2, _early._loads);
+		assertEquals(0, _late._pins);
+		sut.update(NO_GL, 5);
+		assertEquals(1, _late._pins);
+		assertEquals(2, _late._loads);
+	}
+}
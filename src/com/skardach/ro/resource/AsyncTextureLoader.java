@@ -0,0 +1,305 @@
+package com.skardach.ro.resource;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLProfile;
+
+import com.skardach.ro.graphics.GLShareGroup;
+import com.skardach.ro.resource.str.Layer;
+import com.skardach.ro.resource.str.Str;
+
+/**
+ * Loads textures in the background. Texture files are decoded on
+ * {@link ResourceWorkers#getPool()} as soon as they are requested, decoded
+ * textures are queued and uploaded on the OpenGL thread by
+ * {@link #uploadPending(GL2)}, which respects a per frame budget of time and
+ * bytes so that the first appearance of an effect does not cause a hitch.
+ * Renderers should skip drawing with textures which are not loaded yet
+ * instead of loading them synchronously. When drawing contexts share
+ * textures, uploads can instead be done by a background thread with a
+ * context of its own, see {@link #setUploadContext(GLContext)}. Textures
+ * requested while drawing are uploaded to the context they were requested
+ * in, so one loader can serve canvases which do not share textures.
+ * @author Stanislaw Kardach
+ *
+ */
+public class AsyncTextureLoader {
+	private final GLProfile _profile;
+	private volatile boolean _compressionSupported;
+	private long _uploadNanosBudget;
+	private long _uploadBytesBudget;
+	/**
+	 * Textures requested but not uploaded yet (or failed).
+	 */
+	private final Set<Texture> _requested =
+		Collections.newSetFromMap(new IdentityHashMap<Texture, Boolean>());
+	private final BlockingQueue<Pending> _decoded =
+		new LinkedBlockingQueue<Pending>();
+	/**
+	 * A decoded texture waiting for upload.
+	 */
+	private static final class Pending {
+		final Texture _texture;
+		/**
+		 * Key of the context the texture was requested in (see
+		 * {@link GLShareGroup#getKey(GLContext)}) or null if it was
+		 * requested outside of any context and can go to any.
+		 */
+		final WeakReference<GLContext> _key;
+
+		Pending(Texture iTexture, GLContext iKey) {
+			_texture = iTexture;
+			_key = iKey != null ? new WeakReference<GLContext>(iKey) : null;
+		}
+		/**
+		 * @return True if the requesting context was destroyed.
+		 */
+		boolean isLost() {
+			if(_key == null)
+				return false;
+			GLContext key = _key.get();
+			return key == null || !key.isCreated();
+		}
+
+		boolean isFor(GLContext iKey) {
+			return _key == null || _key.get() == iKey;
+		}
+	}
+	/**
+	 * Thread uploading with a shared context or null if textures are
+	 * uploaded by {@link #uploadPending(GL2)}.
+	 */
+	private Thread _uploadThread = null;
+	/**
+	 * Create loader for textures of a given profile.
+	 * @param iProfile Profile of the context textures will be uploaded to.
+	 * @param iCompressionSupported Initial guess whether the context supports
+	 * S3TC compressed textures. It is verified on the first upload.
+	 * @param iUploadNanosBudget Time (in nanoseconds) spent on uploads per
+	 * frame after which no more uploads are started.
+	 * @param iUploadBytesBudget Amount of decoded data uploaded per frame
+	 * after which no more uploads are started.
+	 */
+	public AsyncTextureLoader(
+			GLProfile iProfile,
+			boolean iCompressionSupported,
+			long iUploadNanosBudget,
+			long iUploadBytesBudget) {
+		_profile = iProfile;
+		_compressionSupported = iCompressionSupported;
+		_uploadNanosBudget = iUploadNanosBudget;
+		_uploadBytesBudget = iUploadBytesBudget;
+	}
+	/**
+	 * Set the upload budget.
+	 * @param iUploadNanosBudget Time (in nanoseconds) spent on uploads per
+	 * frame after which no more uploads are started.
+	 * @param iUploadBytesBudget Amount of decoded data uploaded per frame
+	 * after which no more uploads are started.
+	 */
+	public synchronized void setUploadBudget(
+			long iUploadNanosBudget,
+			long iUploadBytesBudget) {
+		_uploadNanosBudget = iUploadNanosBudget;
+		_uploadBytesBudget = iUploadBytesBudget;
+	}
+	/**
+	 * Request all textures of an effect, i.e. right after it was parsed.
+	 * @param iEffect Effect to load textures of.
+	 */
+	public void request(Str iEffect) {
+		for(Layer l : iEffect.get_layers())
+			for(Texture t : l.get_textures())
+				request(t);
+	}
+	/**
+	 * Request a texture to be loaded. Does nothing if the texture is already
+	 * loaded or requested. If called with a context current, the texture is
+	 * uploaded to that context (or its share group).
+	 * @param iTexture Texture to load.
+	 */
+	public void request(final Texture iTexture) {
+		if(iTexture.isLoaded())
+			return;
+		synchronized(_requested) {
+			if(!_requested.add(iTexture))
+				return;
+		}
+		GLContext current = GLContext.getCurrent();
+		final GLContext key =
+			current != null ? GLShareGroup.getKey(current) : null;
+		if(iTexture.isDecoded()) {
+			_decoded.add(new Pending(iTexture, key));
+			return;
+		}
+		ResourceWorkers.getPool().execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					iTexture.decode(_profile, _compressionSupported);
+					_decoded.add(new Pending(iTexture, key));
+				} catch(ResourceException e) {
+					// stays requested so that it is not retried every frame
+					System.err.println(
+						"Could not decode texture " + iTexture
+						+ ". Reason: " + e.getLocalizedMessage());
+				}
+			}
+		});
+	}
+	/**
+	 * @param iTexture Texture to check
+	 * @return True if the texture was requested and is not uploaded yet.
+	 */
+	public boolean isPending(Texture iTexture) {
+		synchronized(_requested) {
+			return _requested.contains(iTexture) && !iTexture.isLoaded();
+		}
+	}
+	/**
+	 * Upload decoded textures until the per frame budget is used. At least
+	 * one texture is uploaded if there is any, so loading always progresses.
+	 * Has to be called on the OpenGL thread, once per frame. Does nothing
+	 * while textures are uploaded by the background thread.
+	 * @param iGLContext Context to upload to.
+	 * @return Number of uploaded textures.
+	 */
+	public int uploadPending(GL2 iGLContext) {
+		synchronized(this) {
+			if(_uploadThread != null)
+				return 0;
+		}
+		return upload(iGLContext, true);
+	}
+	/**
+	 * Upload textures on a background thread instead of in
+	 * {@link #uploadPending(GL2)}, with a context sharing textures with all
+	 * contexts they are drawn in (see
+	 * {@link com.skardach.ro.graphics.GLShareGroup}). Textures are uploaded
+	 * as soon as they are decoded, without a per frame budget, since drawing
+	 * does not wait for them.
+	 * @param iUploadContext Context not current on any thread, or null to
+	 * stop the background thread and upload in {@link #uploadPending(GL2)}
+	 * again.
+	 */
+	public synchronized void setUploadContext(final GLContext iUploadContext) {
+		if(_uploadThread != null) {
+			_uploadThread.interrupt();
+			try {
+				_uploadThread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_uploadThread = null;
+		}
+		if(iUploadContext == null)
+			return;
+		_uploadThread = new Thread("texture-uploader") {
+			@Override
+			public void run() {
+				if(iUploadContext.makeCurrent() == GLContext.CONTEXT_NOT_CURRENT) {
+					System.err.println("Could not make upload context current");
+					return;
+				}
+				try {
+					GL2 gl = iUploadContext.getGL().getGL2();
+					while(!isInterrupted()) {
+						upload(gl, _decoded.take()._texture);
+						upload(gl, false);
+					}
+				} catch (InterruptedException e) {
+					// stopped
+				} finally {
+					iUploadContext.release();
+				}
+			}
+		};
+		_uploadThread.setDaemon(true);
+		_uploadThread.start();
+	}
+	/**
+	 * Upload decoded textures.
+	 * @param iGLContext Current context.
+	 * @param iBudgeted Whether to stop once the per frame budget is used.
+	 * @return Number of uploaded textures.
+	 */
+	private int upload(GL2 iGLContext, boolean iBudgeted) {
+		_compressionSupported = iGLContext.isExtensionAvailable(
+			TextureTranscoder.REQUIRED_EXTENSION);
+		long nanosBudget = Long.MAX_VALUE;
+		long bytesBudget = Long.MAX_VALUE;
+		if(iBudgeted) {
+			synchronized(this) {
+				nanosBudget = _uploadNanosBudget;
+				bytesBudget = _uploadBytesBudget;
+			}
+		}
+		long start = System.nanoTime();
+		long bytes = 0;
+		int result = 0;
+		GLContext key = GLShareGroup.getKey(iGLContext.getContext());
+		Iterator<Pending> i = _decoded.iterator();
+		while(i.hasNext()) {
+			Pending pending = i.next();
+			Texture texture = pending._texture;
+			if(pending.isLost()) {
+				// nobody is going to draw it there anymore
+				i.remove();
+				synchronized(_requested) {
+					_requested.remove(texture);
+				}
+				continue;
+			}
+			// left for the canvas which requested it
+			if(!pending.isFor(key))
+				continue;
+			if(result > 0
+				&& (bytes + texture.getDecodedSize() > bytesBudget
+					|| System.nanoTime() - start > nanosBudget))
+				break;
+			i.remove();
+			bytes += texture.getDecodedSize();
+			if(upload(iGLContext, texture))
+				result++;
+		}
+		return result;
+	}
+	/**
+	 * Upload a single decoded texture.
+	 * @param iGLContext Current context.
+	 * @param iTexture Texture taken from the decoded queue.
+	 * @return True if the texture was uploaded.
+	 */
+	private boolean upload(GL2 iGLContext, Texture iTexture) {
+		boolean result = false;
+		if(iTexture.isDecoded()) {
+			try {
+				iTexture.upload(iGLContext);
+				result = true;
+			} catch(ResourceException e) {
+				System.err.println(
+					"Could not upload texture " + iTexture
+					+ ". Reason: " + e.getLocalizedMessage());
+			}
+		} // otherwise released while waiting for upload
+		synchronized(_requested) {
+			if(!iTexture.isDecoded() || iTexture.isLoaded())
+				_requested.remove(iTexture);
+		}
+		return result;
+	}
+	/**
+	 * @return Number of textures decoded and waiting for upload.
+	 */
+	public int getPendingUploads() {
+		return _decoded.size();
+	}
+}
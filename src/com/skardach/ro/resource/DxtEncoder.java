@@ -0,0 +1,207 @@
+package com.skardach.ro.resource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Simple CPU encoder of S3TC (DXT1 and DXT5) compressed textures. Each 4x4
+ * block of pixels is encoded with end points taken from the bounding box of
+ * the block colors (slightly inset towards the center), which is fast and
+ * good enough for the soft, blurry images effects usually use.
+ * Source pixels are tightly packed 8 bit components, either in RGB(A) or in
+ * BGR(A) order.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class DxtEncoder {
+	/**
+	 * Size of an encoded DXT1 block in bytes.
+	 */
+	public static final int DXT1_BLOCK_SIZE = 8;
+	/**
+	 * Size of an encoded DXT5 block in bytes.
+	 */
+	public static final int DXT5_BLOCK_SIZE = 16;
+	/**
+	 * End points are moved towards the center by 1/INSET of the range to
+	 * lower the average error.
+	 */
+	private static final int INSET = 16;
+
+	private DxtEncoder() {
+	}
+	/**
+	 * Get the size of an encoded image.
+	 * @param iWidth Image width
+	 * @param iHeight Image height
+	 * @param iWithAlpha True for DXT5, false for DXT1.
+	 * @return Size of encoded data in bytes.
+	 */
+	public static int getEncodedSize(int iWidth, int iHeight, boolean iWithAlpha) {
+		return Math.max(1, (iWidth + 3) / 4)
+			* Math.max(1, (iHeight + 3) / 4)
+			* (iWithAlpha ? DXT5_BLOCK_SIZE : DXT1_BLOCK_SIZE);
+	}
+	/**
+	 * Encode an image.
+	 * @param iSource Source pixels starting at buffer position. Buffer
+	 * position is not modified.
+	 * @param iWidth Image width
+	 * @param iHeight Image height
+	 * @param iComponents Number of components per pixel, 3 or 4.
+	 * @param iBGR True if the source is in BGR(A) order.
+	 * @param iWithAlpha True to encode to DXT5, false to encode to DXT1 (alpha
+	 * is ignored).
+	 * @return Direct buffer with encoded blocks.
+	 */
+	public static ByteBuffer encode(
+			ByteBuffer iSource,
+			int iWidth,
+			int iHeight,
+			int iComponents,
+			boolean iBGR,
+			boolean iWithAlpha) {
+		ByteBuffer result =
+			ByteBuffer.allocateDirect(getEncodedSize(iWidth, iHeight, iWithAlpha))
+				.order(ByteOrder.LITTLE_ENDIAN);
+		int block[] = new int[16 * 4];
+		int base = iSource.position();
+		int redOffset = iBGR ? 2 : 0;
+		int blueOffset = iBGR ? 0 : 2;
+		for(int by = 0; by < iHeight; by += 4) {
+			for(int bx = 0; bx < iWidth; bx += 4) {
+				// gather the block as RGBA, repeating edge pixels
+				for(int p = 0; p < 16; p++) {
+					int x = Math.min(bx + (p & 3), iWidth - 1);
+					int y = Math.min(by + (p >> 2), iHeight - 1);
+					int offset = base + (y * iWidth + x) * iComponents;
+					block[p * 4] = iSource.get(offset + redOffset) & 0xFF;
+					block[p * 4 + 1] = iSource.get(offset + 1) & 0xFF;
+					block[p * 4 + 2] = iSource.get(offset + blueOffset) & 0xFF;
+					block[p * 4 + 3] = iComponents == 4
+						? iSource.get(offset + 3) & 0xFF : 0xFF;
+				}
+				if(iWithAlpha)
+					encodeAlphaBlock(block, result);
+				encodeColorBlock(block, result);
+			}
+		}
+		result.flip();
+		return result;
+	}
+	/**
+	 * Check whether any pixel of an image is not fully opaque.
+	 * @param iSource RGBA or BGRA pixels starting at buffer position.
+	 * @param iPixels Number of pixels.
+	 * @return True if the image needs alpha channel.
+	 */
+	public static boolean hasAlpha(ByteBuffer iSource, int iPixels) {
+		int base = iSource.position();
+		for(int p = 0; p < iPixels; p++)
+			if(iSource.get(base + p * 4 + 3) != (byte)0xFF)
+				return true;
+		return false;
+	}
+
+	private static void encodeColorBlock(int iBlock[], ByteBuffer oTarget) {
+		int min[] = { 255, 255, 255 };
+		int max[] = { 0, 0, 0 };
+		for(int p = 0; p < 16; p++) {
+			for(int c = 0; c < 3; c++) {
+				min[c] = Math.min(min[c], iBlock[p * 4 + c]);
+				max[c] = Math.max(max[c], iBlock[p * 4 + c]);
+			}
+		}
+		for(int c = 0; c < 3; c++) {
+			int inset = (max[c] - min[c]) / INSET;
+			min[c] += inset;
+			max[c] -= inset;
+		}
+		int color0 = to565(max);
+		int color1 = to565(min);
+		if(color0 < color1) {
+			// four color mode requires color0 > color1
+			int tmp = color0;
+			color0 = color1;
+			color1 = tmp;
+		}
+		int indices = 0;
+		if(color0 != color1) {
+			int palette[] = new int[4 * 3];
+			from565(color0, palette, 0);
+			from565(color1, palette, 3);
+			for(int c = 0; c < 3; c++) {
+				palette[6 + c] = (2 * palette[c] + palette[3 + c]) / 3;
+				palette[9 + c] = (palette[c] + 2 * palette[3 + c]) / 3;
+			}
+			for(int p = 0; p < 16; p++) {
+				int best = 0;
+				int bestDistance = Integer.MAX_VALUE;
+				for(int i = 0; i < 4; i++) {
+					int dr = iBlock[p * 4] - palette[i * 3];
+					int dg = iBlock[p * 4 + 1] - palette[i * 3 + 1];
+					int db = iBlock[p * 4 + 2] - palette[i * 3 + 2];
+					int distance = dr * dr + dg * dg + db * db;
+					if(distance < bestDistance) {
+						best = i;
+						bestDistance = distance;
+					}
+				}
+				indices |= best << (p * 2);
+			}
+		}
+		oTarget.putShort((short)color0);
+		oTarget.putShort((short)color1);
+		oTarget.putInt(indices);
+	}
+
+	private static void encodeAlphaBlock(int iBlock[], ByteBuffer oTarget) {
+		int min = 255;
+		int max = 0;
+		for(int p = 0; p < 16; p++) {
+			min = Math.min(min, iBlock[p * 4 + 3]);
+			max = Math.max(max, iBlock[p * 4 + 3]);
+		}
+		oTarget.put((byte)max);
+		oTarget.put((byte)min);
+		long indices = 0;
+		if(max != min) {
+			// eight alpha mode: 0 = max, 1 = min, 2..7 = interpolated
+			int palette[] = new int[8];
+			palette[0] = max;
+			palette[1] = min;
+			for(int i = 1; i < 7; i++)
+				palette[i + 1] = ((7 - i) * max + i * min) / 7;
+			for(int p = 0; p < 16; p++) {
+				int alpha = iBlock[p * 4 + 3];
+				int best = 0;
+				int bestDistance = Integer.MAX_VALUE;
+				for(int i = 0; i < 8; i++) {
+					int distance = Math.abs(alpha - palette[i]);
+					if(distance < bestDistance) {
+						best = i;
+						bestDistance = distance;
+					}
+				}
+				indices |= ((long)best) << (p * 3);
+			}
+		}
+		for(int i = 0; i < 6; i++)
+			oTarget.put((byte)(indices >>> (i * 8)));
+	}
+
+	private static int to565(int iColor[]) {
+		return ((iColor[0] * 31 + 127) / 255) << 11
+			| ((iColor[1] * 63 + 127) / 255) << 5
+			| ((iColor[2] * 31 + 127) / 255);
+	}
+
+	private static void from565(int iColor, int oColor[], int iOffset) {
+		int r = (iColor >> 11) & 0x1F;
+		int g = (iColor >> 5) & 0x3F;
+		int b = iColor & 0x1F;
+		oColor[iOffset] = (r << 3) | (r >> 2);
+		oColor[iOffset + 1] = (g << 2) | (g >> 4);
+		oColor[iOffset + 2] = (b << 3) | (b >> 2);
+	}
+}
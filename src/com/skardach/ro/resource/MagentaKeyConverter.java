@@ -0,0 +1,221 @@
+package com.skardach.ro.resource;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.RecursiveAction;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * Converts magenta color key of legacy RO textures into alpha channel.
+ * Colors with magenta component (in CMYK sense) larger than 0.75 get alpha
+ * equal to 1-magenta, all the other colors are fully opaque. Magenta
+ * component only depends on the largest RGB component and green, so alpha
+ * values are precomputed in a 256x256 lookup table instead of doing float
+ * CMYK math per pixel.
+ * Large textures are converted in parallel row bands on
+ * {@link ResourceWorkers#getPool()}.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class MagentaKeyConverter {
+	private static final float MAGENTA_THRESHOLD = 0.75f;
+	/**
+	 * Textures with more pixels are converted in parallel.
+	 */
+	private static final int PARALLEL_PIXELS = 256 * 256;
+	/**
+	 * Number of rows converted by a single task.
+	 */
+	private static final int BAND_ROWS = 64;
+	/**
+	 * [max(r,g,b) * 256 + g] alpha value.
+	 */
+	private static final byte _alpha[] = createAlphaTable();
+
+	private MagentaKeyConverter() {
+	}
+
+	private static byte[] createAlphaTable() {
+		byte result[] = new byte[256 * 256];
+		for(int max = 0; max < 256; max++) {
+			for(int g = 0; g < 256; g++) {
+				float alpha = 1f;
+				if(max > 0 && g <= max) {
+					// m = (1-g-k)/(1-k) where k = 1-max
+					float m = (float)(max - g) / max;
+					if(m > MAGENTA_THRESHOLD)
+						alpha = 1f - m;
+				}
+				result[max * 256 + g] = (byte)Math.round(alpha * 255);
+			}
+		}
+		return result;
+	}
+	/**
+	 * Get alpha value for a given color.
+	 * @param iR Red
+	 * @param iG Green
+	 * @param iB Blue
+	 * @return Alpha in range [0,255].
+	 */
+	public static int alpha(int iR, int iG, int iB) {
+		int max = Math.max(Math.max(iR, iG), iB);
+		return _alpha[(max << 8) | iG] & 0xFF;
+	}
+	/**
+	 * Check whether texture is color keyed, which is the case when the first
+	 * pixel is full magenta. Since red and blue are at the same distance from
+	 * green, works for both RGB and BGR.
+	 * @param iSource Tightly packed 3 byte per pixel data.
+	 * @return True if the texture should be converted.
+	 */
+	public static boolean isColorKeyed(ByteBuffer iSource) {
+		int first = iSource.position();
+		return iSource.remaining() >= 3
+			&& iSource.get(first) == (byte)0xFF
+			&& iSource.get(first + 1) == 0
+			&& iSource.get(first + 2) == (byte)0xFF;
+	}
+	/**
+	 * Convert color keyed texture to a 4 byte per pixel one. Component order
+	 * is preserved (RGB becomes RGBA, BGR becomes BGRA).
+	 * @param iSource Tightly packed 3 byte per pixel data starting at the
+	 * buffer position. Buffer position is not modified.
+	 * @param iWidth Texture width
+	 * @param iHeight Texture height
+	 * @return Direct buffer with converted data or null if the texture is
+	 * not color keyed.
+	 * @throws ResourceException If source buffer is too small.
+	 */
+	public static ByteBuffer convert(
+			ByteBuffer iSource,
+			int iWidth,
+			int iHeight) throws ResourceException {
+		if(!isColorKeyed(iSource))
+			return null;
+		if(iSource.remaining() < iWidth * iHeight * 3)
+			throw new ResourceException(
+				"Could not add alpha channel to texture, error reading texture buffer");
+		ByteBuffer result =
+			ByteBuffer.allocateDirect(iWidth * iHeight * 4)
+				.order(ByteOrder.nativeOrder());
+		ConvertBand all =
+			new ConvertBand(iSource, result, iWidth, 0, iHeight);
+		if(iWidth * iHeight < PARALLEL_PIXELS)
+			all.compute();
+		else
+			ResourceWorkers.getPool().invoke(all);
+		return result;
+	}
+	/**
+	 * Convert texture data if it is color keyed. Only byte sized RGB and BGR
+	 * data is supported, all the other formats are returned as they are.
+	 * @param iData Decoded texture data.
+	 * @return Converted texture data (RGBA or BGRA) or iData if no conversion
+	 * was needed.
+	 * @throws ResourceException If texture data could not be read.
+	 */
+	public static TextureData convert(TextureData iData)
+			throws ResourceException {
+		int pixelFormat = iData.getPixelFormat();
+		if((pixelFormat != GL.GL_RGB && pixelFormat != GL2.GL_BGR)
+			|| iData.getPixelType() != GL.GL_UNSIGNED_BYTE
+			|| !(iData.getBuffer() instanceof ByteBuffer))
+			return iData;
+		ByteBuffer converted = convert(
+			(ByteBuffer)iData.getBuffer(),
+			iData.getWidth(),
+			iData.getHeight());
+		if(converted == null)
+			return iData;
+		return new TextureData(
+			iData.getGLProfile(),
+			GL.GL_RGBA,
+			iData.getWidth(),
+			iData.getHeight(),
+			iData.getBorder(),
+			pixelFormat == GL.GL_RGB ? GL.GL_RGBA : GL2.GL_BGRA,
+			GL.GL_UNSIGNED_BYTE,
+			iData.getMipmap(),
+			false,
+			iData.getMustFlipVertically(),
+			converted,
+			null);
+	}
+	/**
+	 * Convert rows [iFromRow, iToRow[ of source into target.
+	 * @param iSource Source 3 byte per pixel data
+	 * @param oTarget Target 4 byte per pixel buffer
+	 * @param iWidth Texture width
+	 * @param iFromRow First row to convert
+	 * @param iToRow Row after the last one to convert
+	 */
+	static void convertRows(
+			ByteBuffer iSource,
+			ByteBuffer oTarget,
+			int iWidth,
+			int iFromRow,
+			int iToRow) {
+		// work on private views so that bands do not share positions
+		ByteBuffer source = iSource.duplicate();
+		ByteBuffer target = oTarget.duplicate();
+		source.position(iSource.position() + iFromRow * iWidth * 3);
+		target.position(iFromRow * iWidth * 4);
+		byte in[] = new byte[iWidth * 3];
+		byte out[] = new byte[iWidth * 4];
+		for(int row = iFromRow; row < iToRow; row++) {
+			source.get(in);
+			for(int i = 0, o = 0; i < in.length; i += 3, o += 4) {
+				int c0 = in[i] & 0xFF;
+				int c1 = in[i + 1] & 0xFF;
+				int c2 = in[i + 2] & 0xFF;
+				out[o] = in[i];
+				out[o + 1] = in[i + 1];
+				out[o + 2] = in[i + 2];
+				out[o + 3] = _alpha[(Math.max(Math.max(c0, c1), c2) << 8) | c1];
+			}
+			target.put(out);
+		}
+	}
+	/**
+	 * Converts a band of rows, splitting it in halves while it is larger than
+	 * {@link MagentaKeyConverter#BAND_ROWS}.
+	 */
+	private static final class ConvertBand extends RecursiveAction {
+		private static final long serialVersionUID = -4127532419962093375L;
+		private final ByteBuffer _source;
+		private final ByteBuffer _target;
+		private final int _width;
+		private final int _fromRow;
+		private final int _toRow;
+
+		ConvertBand(
+				ByteBuffer iSource,
+				ByteBuffer oTarget,
+				int iWidth,
+				int iFromRow,
+				int iToRow) {
+			_source = iSource;
+			_target = oTarget;
+			_width = iWidth;
+			_fromRow = iFromRow;
+			_toRow = iToRow;
+		}
+
+		@Override
+		protected void compute() {
+			if(_toRow - _fromRow <= BAND_ROWS
+					|| getPool() == null) { // not running in a pool
+				convertRows(_source, _target, _width, _fromRow, _toRow);
+				return;
+			}
+			int middle = (_fromRow + _toRow) >>> 1;
+			invokeAll(
+				new ConvertBand(_source, _target, _width, _fromRow, middle),
+				new ConvertBand(_source, _target, _width, middle, _toRow));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package com.skardach.ro.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * Decoder of uncompressed 8 bit paletted BMP files, which almost all effect
+ * textures are. Palette indexes are expanded straight into a direct BGRA
+ * buffer ready for upload, without intermediate images, and the magenta
+ * color key is applied to the palette, so it costs nothing per pixel.
+ * Files are read into a per thread buffer which is reused between textures.
+ * Other kinds of BMP files are left to the generic decoder.
+ * Decoded rows are stored top down, like the generic decoder does, so the
+ * result must be flipped vertically.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class PalettedBmpDecoder {
+	private static final int FILE_HEADER_SIZE = 14;
+	private static final int INFO_HEADER_SIZE = 40;
+	private static final int BI_RGB = 0;
+	/**
+	 * Per thread read buffers larger than this are not kept.
+	 */
+	private static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+	private static final ThreadLocal<ByteBuffer> _readBuffers =
+		new ThreadLocal<ByteBuffer>();
+
+	private PalettedBmpDecoder() {
+	}
+	/**
+	 * Decode a texture file.
+	 * @param iFile BMP file.
+	 * @param iProfile Profile for the created texture data.
+	 * @param iConvertMagenta Should magenta color key be converted to alpha,
+	 * see {@link MagentaKeyConverter}.
+	 * @return BGRA texture data or null if the file is not an uncompressed 8
+	 * bit paletted BMP.
+	 * @throws IOException If the file could not be read.
+	 */
+	public static TextureData decode(
+			File iFile,
+			GLProfile iProfile,
+			boolean iConvertMagenta) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(iFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				return null;
+			ByteBuffer buffer = getReadBuffer((int)size);
+			while(buffer.hasRemaining())
+				if(channel.read(buffer) < 0)
+					return null;
+			buffer.flip();
+			return decode(buffer, iProfile, iConvertMagenta);
+		} finally {
+			file.close();
+		}
+	}
+	/**
+	 * Decode texture file content.
+	 * @param iFile Whole BMP file starting at buffer position.
+	 * @param iProfile Profile for the created texture data.
+	 * @param iConvertMagenta Should magenta color key be converted to alpha.
+	 * @return BGRA texture data or null if the file is not an uncompressed 8
+	 * bit paletted BMP.
+	 */
+	public static TextureData decode(
+			ByteBuffer iFile,
+			GLProfile iProfile,
+			boolean iConvertMagenta) {
+		int size[] = new int[2];
+		ByteBuffer pixels = decodePixels(iFile, iConvertMagenta, size);
+		if(pixels == null)
+			return null;
+		return new TextureData(
+			iProfile,
+			GL.GL_RGBA,
+			size[0],
+			size[1],
+			0,
+			GL.GL_BGRA,
+			GL.GL_UNSIGNED_BYTE,
+			false,
+			false,
+			true,
+			pixels,
+			null);
+	}
+	/**
+	 * Expand palette indexes of a BMP file into BGRA pixels.
+	 * @param iFile Whole BMP file starting at buffer position. Buffer
+	 * position is not modified.
+	 * @param iConvertMagenta Should magenta color key be converted to alpha.
+	 * Only done when the top left pixel is full magenta.
+	 * @param oSize Array receiving width and height of the image.
+	 * @return Direct buffer with BGRA pixels, top row first, or null if the
+	 * file is not an uncompressed 8 bit paletted BMP.
+	 */
+	public static ByteBuffer decodePixels(
+			ByteBuffer iFile,
+			boolean iConvertMagenta,
+			int oSize[]) {
+		ByteBuffer file = iFile.slice().order(ByteOrder.LITTLE_ENDIAN);
+		if(file.remaining() < FILE_HEADER_SIZE + INFO_HEADER_SIZE
+			|| file.get(0) != 'B' || file.get(1) != 'M')
+			return null;
+		int dataOffset = file.getInt(10);
+		int headerSize = file.getInt(FILE_HEADER_SIZE);
+		int width = file.getInt(FILE_HEADER_SIZE + 4);
+		int height = file.getInt(FILE_HEADER_SIZE + 8);
+		int bitsPerPixel = file.getShort(FILE_HEADER_SIZE + 14);
+		int compression = file.getInt(FILE_HEADER_SIZE + 16);
+		int colorsUsed = file.getInt(FILE_HEADER_SIZE + 32);
+		if(headerSize < INFO_HEADER_SIZE
+			|| bitsPerPixel != 8
+			|| compression != BI_RGB
+			|| width <= 0
+			|| height == 0 || height == Integer.MIN_VALUE)
+			return null;
+		boolean bottomUp = height > 0;
+		height = Math.abs(height);
+		int stride = (width + 3) & ~3;
+		if(colorsUsed <= 0 || colorsUsed > 256)
+			colorsUsed = 256;
+		int paletteOffset = FILE_HEADER_SIZE + headerSize;
+		colorsUsed = Math.min(
+			colorsUsed,
+			Math.max(0, (dataOffset - paletteOffset) / 4));
+		if(dataOffset < paletteOffset
+			|| (long)dataOffset + (long)stride * height > file.limit())
+			return null;
+		// palette entries are stored as B, G, R, unused
+		int blue[] = new int[256];
+		int green[] = new int[256];
+		int red[] = new int[256];
+		for(int i = 0; i < colorsUsed; i++) {
+			blue[i] = file.get(paletteOffset + i * 4) & 0xFF;
+			green[i] = file.get(paletteOffset + i * 4 + 1) & 0xFF;
+			red[i] = file.get(paletteOffset + i * 4 + 2) & 0xFF;
+		}
+		int topRow = dataOffset + (bottomUp ? (height - 1) * stride : 0);
+		int first = file.get(topRow) & 0xFF;
+		boolean keyed = iConvertMagenta
+			&& red[first] == 0xFF && green[first] == 0 && blue[first] == 0xFF;
+		// whole BGRA pixel per palette entry, in native order for int writes
+		boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+		int palette[] = new int[256];
+		for(int i = 0; i < 256; i++) {
+			int alpha = keyed
+				? MagentaKeyConverter.alpha(red[i], green[i], blue[i]) : 0xFF;
+			palette[i] = littleEndian
+				? alpha << 24 | red[i] << 16 | green[i] << 8 | blue[i]
+				: blue[i] << 24 | green[i] << 16 | red[i] << 8 | alpha;
+		}
+		ByteBuffer result =
+			ByteBuffer.allocateDirect(width * height * 4)
+				.order(ByteOrder.nativeOrder());
+		IntBuffer target = result.asIntBuffer();
+		byte indexes[] = new byte[width];
+		int row[] = new int[width];
+		ByteBuffer source = file.duplicate();
+		for(int y = 0; y < height; y++) {
+			source.position(
+				dataOffset + (bottomUp ? height - 1 - y : y) * stride);
+			source.get(indexes);
+			for(int x = 0; x < width; x++)
+				row[x] = palette[indexes[x] & 0xFF];
+			target.put(row);
+		}
+		oSize[0] = width;
+		oSize[1] = height;
+		return result;
+	}
+	/**
+	 * @param iSize Required size
+	 * @return Cleared per thread buffer of given limit.
+	 */
+	private static ByteBuffer getReadBuffer(int iSize) {
+		ByteBuffer result = _readBuffers.get();
+		if(result == null || result.capacity() < iSize) {
+			result = ByteBuffer.allocate(iSize);
+			if(iSize <= MAX_POOLED_SIZE)
+				_readBuffers.set(result);
+		}
+		result.clear();
+		result.limit(iSize);
+		return result;
+	}
+}
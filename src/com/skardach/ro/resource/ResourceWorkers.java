@@ -0,0 +1,39 @@
+package com.skardach.ro.resource;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * Holder of the worker pool shared by resource loading code, i.e. texture
+ * decoding and conversion. Worker threads are daemons so they never keep the
+ * application alive.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class ResourceWorkers {
+	private static final ForkJoinPool _pool =
+		new ForkJoinPool(
+			Runtime.getRuntime().availableProcessors(),
+			new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				@Override
+				public ForkJoinWorkerThread newThread(ForkJoinPool iPool) {
+					ForkJoinWorkerThread result =
+						ForkJoinPool.defaultForkJoinWorkerThreadFactory
+							.newThread(iPool);
+					result.setName("resource-worker-" + result.getPoolIndex());
+					result.setDaemon(true);
+					return result;
+				}
+			},
+			null,
+			false);
+
+	private ResourceWorkers() {
+	}
+	/**
+	 * @return Pool for resource loading work.
+	 */
+	public static ForkJoinPool getPool() {
+		return _pool;
+	}
+}
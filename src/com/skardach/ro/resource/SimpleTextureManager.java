@@ -1,18 +1,57 @@
 package com.skardach.ro.resource;
 
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jogamp.opengl.GL2;
 
 /**
  * Simple implementation of texture manager. It only maintains a map of
  * textures indexed by their pathname. It uses {@link TextureImpl} class for
  * texture objects.
+ * The manager is thread safe and lookups do not block: many parser or loader
+ * threads may request textures at the same time and each texture object is
+ * only created once. Since textures decode in a single flight fashion (see
+ * {@link TextureImpl#decode(com.jogamp.opengl.GLProfile, boolean)}) each
+ * texture file is decoded once no matter how many threads need it.
+ * Optionally memory used by textures can be bounded. When decoded data on
+ * the heap or uploaded data in video memory exceeds its budget, textures
+ * are unloaded in {@link #releaseUnused(GL2)} using the clock (second chance)
+ * algorithm: textures bound since the last sweep are skipped once, pinned
+ * textures are never unloaded. Unloaded textures are loaded again when
+ * needed.
  * @author Stanislaw Kardach
  *
  */
 public class SimpleTextureManager implements TextureManager {
 	private String _textureBaseDir;
-	private HashMap<String, Texture> _textures = new HashMap<String, Texture>();
-	private boolean _convertMagenta;
+	/**
+	 * Textures by their normalized name.
+	 */
+	private final ConcurrentMap<String, TextureImpl> _textures =
+		new ConcurrentHashMap<String, TextureImpl>();
+	/**
+	 * Normalized names by names as requested, so that names are cleaned up
+	 * only once.
+	 */
+	private final ConcurrentMap<String, String> _keys =
+		new ConcurrentHashMap<String, String>();
+	private TexturePipeline _pipeline;
+	/**
+	 * Textures in creation order, swept by the clock hand.
+	 */
+	private final List<TextureImpl> _clock =
+		new CopyOnWriteArrayList<TextureImpl>();
+	private int _clockHand = 0;
+	private long _heapBudget = Long.MAX_VALUE;
+	private long _videoBudget = Long.MAX_VALUE;
+	private long _evictions = 0;
+	private final AtomicLong _lookups = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _creationRaces = new AtomicLong();
 	/**
 	 * Creates a new instance of SimpleTextureManager. All textures are
 	 * created relative to the base path given.
@@ -22,33 +61,150 @@ public class SimpleTextureManager implements TextureManager {
 	 * magenta color to alpha when alpha is missing.
 	 */
 	public SimpleTextureManager(String iBasePath, boolean iTexturesConvertMagenta) {
+		this(
+			iBasePath,
+			new TexturePipeline(
+				iTexturesConvertMagenta,
+				false,
+				null));
+	}
+	/**
+	 * Creates a new instance of SimpleTextureManager.
+	 * @param iBasePath Base path to prepend to all textures retrieved from
+	 * this texture manager.
+	 * @param iPipeline Pipeline used to load created textures.
+	 */
+	public SimpleTextureManager(String iBasePath, TexturePipeline iPipeline) {
 		//iBasePath += "\\" ;
 		_textureBaseDir = iBasePath;	//changed
-		_convertMagenta = false;//iTexturesConvertMagenta;
+		_pipeline = iPipeline;
+	}
+
+	/**
+	 * Set memory budgets. Textures are only unloaded in
+	 * {@link #releaseUnused(GL2)}.
+	 * @param iHeapBytes Maximal size of decoded texture data kept on the heap
+	 * or {@link Long#MAX_VALUE} for no limit.
+	 * @param iVideoBytes Maximal size of texture data uploaded to OpenGL or
+	 * {@link Long#MAX_VALUE} for no limit.
+	 */
+	public synchronized void setBudgets(long iHeapBytes, long iVideoBytes) {
+		_heapBudget = iHeapBytes;
+		_videoBudget = iVideoBytes;
 	}
 
 	@Override
-	public Texture getTexture(String iTextureName) {
-		//System.out.println(iTextureName);		//changed
-		if (iTextureName.length()>0x2e) {
-			iTextureName=iTextureName.substring(0, 0x30); //truncate junk
+	public synchronized int releaseUnused(GL2 iGLContext) {
+		if(_heapBudget == Long.MAX_VALUE && _videoBudget == Long.MAX_VALUE)
+			return 0;
+		long heap = 0;
+		long video = 0;
+		for(TextureImpl t : _clock) {
+			heap += t.getDecodedSize();
+			video += t.getUploadedSize();
 		}
-		iTextureName=iTextureName.replaceAll("\0", "").replaceAll("", "");
-		//System.out.println(iTextureName);
-		
-		Texture result = null;
-		if(iTextureName != null)
-		{
-			result = _textures.get(iTextureName);
-			if(result == null)
-			{
-				result = new TextureImpl(
-					iTextureName,
-					_textureBaseDir,
-					_convertMagenta);
-				_textures.put(iTextureName, result);
+		int result = 0;
+		// two full turns clear all reference bits, so stop after that
+		int steps = _clock.size() * 2;
+		while((heap > _heapBudget || video > _videoBudget) && steps-- > 0) {
+			if(_clockHand >= _clock.size())
+				_clockHand = 0;
+			TextureImpl candidate = _clock.get(_clockHand++);
+			// only textures uploaded to this context, the others may be
+			// waiting for upload or belong to another canvas
+			if(!candidate.isLoadedIn(iGLContext) || candidate.isPinned())
+				continue;
+			if(candidate._referenced) {
+				candidate._referenced = false;
+				continue;
 			}
+			heap -= candidate.getDecodedSize();
+			video -= candidate.getUploadedSize();
+			candidate.unload(iGLContext);
+			// uploads to other contexts stay
+			video += candidate.getUploadedSize();
+			result++;
 		}
+		_evictions += result;
 		return result;
 	}
+	/**
+	 * @return Number of textures unloaded because of memory budgets so far.
+	 */
+	public synchronized long getEvictionCount() {
+		return _evictions;
+	}
+
+	/**
+	 * @return Number of {@link #getTexture(String)} calls so far.
+	 */
+	public long getLookupCount() {
+		return _lookups.get();
+	}
+	/**
+	 * @return Number of lookups which created a new texture object.
+	 */
+	public long getMissCount() {
+		return _misses.get();
+	}
+	/**
+	 * @return Number of lookups which tried to create a texture at the same
+	 * time as another thread and used the texture created by that thread.
+	 */
+	public long getCreationRaceCount() {
+		return _creationRaces.get();
+	}
+	/**
+	 * @return Number of texture objects created.
+	 */
+	public int getTextureCount() {
+		return _textures.size();
+	}
+	/**
+	 * @return Pipeline used to load textures, also holding decode
+	 * statistics.
+	 */
+	public TexturePipeline getPipeline() {
+		return _pipeline;
+	}
+
+	@Override
+	public Texture getTexture(String iTextureName) {
+		_lookups.incrementAndGet();
+		String key = _keys.get(iTextureName);
+		if(key == null) {
+			key = normalizeName(iTextureName);
+			_keys.putIfAbsent(iTextureName, key);
+		}
+		TextureImpl result = _textures.get(key);
+		if(result != null)
+			return result;
+		TextureImpl created = new TextureImpl(
+			key,
+			_textureBaseDir,
+			_pipeline);
+		result = _textures.putIfAbsent(key, created);
+		if(result != null) {
+			_creationRaces.incrementAndGet();
+			return result;
+		}
+		_misses.incrementAndGet();
+		_clock.add(created);
+		return created;
+	}
+	/**
+	 * Clean up texture name as read from an effect file.
+	 * @param iTextureName Raw texture name
+	 * @return Name used as texture key.
+	 */
+	private static String normalizeName(String iTextureName) {
+		//System.out.println(iTextureName);		//changed
+		if (iTextureName.length()>0x2e) {
+			//truncate junk
+			iTextureName=iTextureName.substring(
+				0,
+				Math.min(iTextureName.length(), 0x30));
+		}
+		return iTextureName.replaceAll("\0", "").replaceAll("", "");
+	}
 }
@@ -2,6 +2,7 @@ package com.skardach.ro.resource;
 
 import java.nio.Buffer;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLProfile;
 
 /**
  * Interface for accessing texture data.
@@ -17,7 +18,9 @@ public interface Texture {
 	 */
 	public String getName();
 	/**
-	 * @return Should return buffer with texture content of appropriate format.
+	 * @return Should return buffer with texture content of appropriate format
+	 * or null if the texture is not loaded or does not keep its content after
+	 * upload.
 	 * @throws ResourceException If the is any problem with
 	 * texture data. Implementations may choose to throw it i.e.
 	 * when they are delaying the texture  load to the first
@@ -45,6 +48,55 @@ public interface Texture {
 	 * be located on the drive or registration failed.
 	 */
 	public void load(GL2 iGLContext) throws ResourceException;
+	/**
+	 * Read and prepare texture data for upload without touching OpenGL, so
+	 * that it can be done on any thread. Does nothing if data is already
+	 * decoded.
+	 * @param iProfile Profile of the context texture will be uploaded to.
+	 * @param iCompressionSupported True if the target context supports S3TC
+	 * compressed textures.
+	 * @throws ResourceException If texture data could not be read.
+	 */
+	public void decode(GLProfile iProfile, boolean iCompressionSupported)
+			throws ResourceException;
+	/**
+	 * @return True if texture data is decoded and ready for upload.
+	 */
+	public boolean isDecoded();
+	/**
+	 * Upload decoded texture data to a given OpenGL context. Has to be called
+	 * on the thread owning the context.
+	 * @param iGLContext OpenGL context for the texture.
+	 * @throws ResourceException If texture is not decoded or upload failed.
+	 */
+	public void upload(GL2 iGLContext) throws ResourceException;
+	/**
+	 * @return Approximate size in bytes of decoded texture data or 0 if
+	 * texture is not decoded.
+	 */
+	public int getDecodedSize();
+	/**
+	 * @return Approximate size in bytes of texture data uploaded to OpenGL or
+	 * 0 if texture is not loaded.
+	 */
+	public int getUploadedSize();
+	/**
+	 * Mark the texture as being in use, i.e. by an active renderer. Pinned
+	 * textures are never evicted by texture managers. Calls can be nested,
+	 * each has to be matched by {@link #unpin()}, so the number of pins is
+	 * the number of users sharing the texture.
+	 */
+	public void pin();
+	/**
+	 * Revert a single {@link #pin()} call. The last user should release the
+	 * texture with {@link #unload(GL2)} when this returns 0.
+	 * @return Number of pins left.
+	 */
+	public int unpin();
+	/**
+	 * @return True if the texture is pinned.
+	 */
+	public boolean isPinned();
 	/**
 	 * Should release all resources taken by the texture, i.e. image data,
 	 * OpenGL handles etc.
@@ -59,7 +111,9 @@ public interface Texture {
 	/**
 	 * Bind texture to given GL context
 	 * @param iGLContext OpenGL context for binding the texture
-	 * @return True if bound successfully, false otherwise
+	 * @return True if bound successfully, false otherwise, i.e. when the
+	 * texture was uploaded to a context which was lost since. Such texture
+	 * is not loaded anymore and has to be loaded again.
 	 */
 	public boolean bind(GL2 iGLContext);
 }
@@ -0,0 +1,367 @@
+package com.skardach.ro.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * On disk cache of processed texture data. Each entry holds raw pixels (or
+ * compressed blocks) of all mipmap levels of a single texture, ready for
+ * upload, along with a header describing the pixel format and the source
+ * file it was made from. Entry data is memory mapped and handed to OpenGL
+ * as it is, so loading a cached texture costs no decoding and no copying.
+ * Entries are invalidated when the source file size changes or when its
+ * modification time changes and so does its content hash.
+ * The cache is best effort: any problem with reading or writing an entry is
+ * treated as a cache miss.
+ * @author Stanislaw Kardach
+ *
+ */
+public class TextureDiskCache {
+	private static final int MAGIC = 0x52545843; // RTXC
+	private static final int VERSION = 3;
+	private static final Charset PATH_CHARSET = Charset.forName("UTF-8");
+	private static final String ENTRY_EXTENSION = ".tex";
+
+	private final File _directory;
+	/**
+	 * Create cache storing entries in a given directory. The directory is
+	 * created when the first entry is stored.
+	 * @param iDirectory Cache directory.
+	 */
+	public TextureDiskCache(File iDirectory) {
+		_directory = iDirectory;
+	}
+	/**
+	 * @return Cache in the default location, being .strviewer/textures in the
+	 * user home directory.
+	 */
+	public static TextureDiskCache createDefault() {
+		String base = System.getProperty("user.home");
+		if(base == null)
+			base = System.getProperty("java.io.tmpdir");
+		return new TextureDiskCache(
+			new File(new File(base, ".strviewer"), "textures"));
+	}
+	/**
+	 * @return Directory holding cache entries.
+	 */
+	public File getDirectory() {
+		return _directory;
+	}
+	/**
+	 * Read cached data of a texture.
+	 * @param iSource Texture source file.
+	 * @param iVariant Name of the processing applied to the texture, i.e.
+	 * "magenta". Different variants of the same source are stored separately.
+	 * @param iProfile Profile for the created texture data.
+	 * @return Texture data or null if there is no valid entry for the source.
+	 */
+	public TextureData load(File iSource, String iVariant, GLProfile iProfile) {
+		File entry = getEntryFile(iSource, iVariant);
+		if(!entry.isFile())
+			return null;
+		try {
+			RandomAccessFile file = new RandomAccessFile(entry, "r");
+			try {
+				FileChannel channel = file.getChannel();
+				Header header = readHeader(channel);
+				if(header == null || !header.matches(iSource))
+					return null;
+				long offset = channel.position();
+				if(channel.size() - offset != header.getDataSize())
+					return null;
+				// mappings stay valid after the file is closed
+				ByteBuffer levels[] = new ByteBuffer[header._levelSizes.length];
+				for(int i = 0; i < levels.length; i++) {
+					levels[i] = channel.map(
+						FileChannel.MapMode.READ_ONLY,
+						offset,
+						header._levelSizes[i]).order(ByteOrder.nativeOrder());
+					offset += header._levelSizes[i];
+				}
+				return header.createTextureData(iProfile, levels);
+			} finally {
+				file.close();
+			}
+		} catch(IOException e) {
+			return null;
+		}
+	}
+	/**
+	 * Store texture data in the cache. Data must be held in byte buffers,
+	 * other data is silently ignored.
+	 * @param iSource Texture source file.
+	 * @param iVariant Name of the processing applied to the texture.
+	 * @param iData Data to store.
+	 * @return True if the entry was written.
+	 */
+	public boolean store(File iSource, String iVariant, TextureData iData) {
+		ByteBuffer levels[] = getLevels(iData);
+		if(levels == null)
+			return false;
+		if(!_directory.isDirectory() && !_directory.mkdirs())
+			return false;
+		File entry = getEntryFile(iSource, iVariant);
+		File temporary = new File(
+			_directory,
+			entry.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			Header header = new Header(iSource, iData, levels);
+			RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+			try {
+				file.setLength(0);
+				FileChannel channel = file.getChannel();
+				channel.write(header.toBuffer());
+				for(ByteBuffer level : levels)
+					while(level.hasRemaining())
+						channel.write(level);
+			} finally {
+				file.close();
+			}
+			// replace atomically so that readers never see partial entries,
+			// fails if the old entry is mapped on systems locking such files
+			if(entry.exists() && !entry.delete())
+				return false;
+			return temporary.renameTo(entry);
+		} catch(IOException e) {
+			return false;
+		} finally {
+			if(temporary.exists())
+				temporary.delete();
+		}
+	}
+	/**
+	 * Remove all entries from the cache.
+	 */
+	public void clear() {
+		File entries[] = _directory.listFiles();
+		if(entries == null)
+			return;
+		for(File entry : entries)
+			if(entry.getName().endsWith(ENTRY_EXTENSION))
+				entry.delete();
+	}
+
+	/**
+	 * Get views of all data levels of a texture.
+	 * @param iData Texture data
+	 * @return Duplicates of level buffers, rewound, or null if data is not
+	 * held in byte buffers.
+	 */
+	private static ByteBuffer[] getLevels(TextureData iData) {
+		Buffer mipmaps[] = iData.getMipmapData();
+		if(mipmaps == null)
+			mipmaps = new Buffer[] { iData.getBuffer() };
+		ByteBuffer result[] = new ByteBuffer[mipmaps.length];
+		for(int i = 0; i < mipmaps.length; i++) {
+			if(!(mipmaps[i] instanceof ByteBuffer))
+				return null;
+			result[i] = ((ByteBuffer)mipmaps[i]).duplicate();
+			result[i].rewind();
+		}
+		return result;
+	}
+
+	private File getEntryFile(File iSource, String iVariant) {
+		String path = iSource.getAbsolutePath();
+		// base name keeps entries recognizable, hash makes them unique
+		return new File(
+			_directory,
+			iSource.getName().replaceAll("[^A-Za-z0-9_.-]", "_")
+			+ "-" + Integer.toHexString(path.hashCode())
+			+ "-" + iVariant
+			+ ENTRY_EXTENSION);
+	}
+
+	/**
+	 * Compute content hash of a file.
+	 * @param iFile File to hash
+	 * @return CRC32 of the file content.
+	 * @throws IOException If file could not be read.
+	 */
+	static long hash(File iFile) throws IOException {
+		CRC32 result = new CRC32();
+		FileInputStream stream = new FileInputStream(iFile);
+		try {
+			byte buffer[] = new byte[8192];
+			int read;
+			while((read = stream.read(buffer)) > 0)
+				result.update(buffer, 0, read);
+		} finally {
+			stream.close();
+		}
+		return result.getValue();
+	}
+
+	private static Header readHeader(FileChannel iChannel) throws IOException {
+		ByteBuffer fixed = ByteBuffer.allocate(Header.FIXED_SIZE);
+		while(fixed.hasRemaining())
+			if(iChannel.read(fixed) < 0)
+				return null;
+		fixed.flip();
+		if(fixed.getInt() != MAGIC || fixed.getInt() != VERSION)
+			return null;
+		Header result = new Header();
+		result._sourceLength = fixed.getLong();
+		result._sourceModified = fixed.getLong();
+		result._sourceHash = fixed.getLong();
+		result._width = fixed.getInt();
+		result._height = fixed.getInt();
+		result._internalFormat = fixed.getInt();
+		result._pixelFormat = fixed.getInt();
+		result._pixelType = fixed.getInt();
+		int flags = fixed.getInt();
+		result._mustFlipVertically = (flags & Header.FLAG_FLIP) != 0;
+		result._compressed = (flags & Header.FLAG_COMPRESSED) != 0;
+		result._mipmapped = (flags & Header.FLAG_MIPMAPPED) != 0;
+		int levelCount = fixed.getInt();
+		int pathLength = fixed.getInt();
+		if(levelCount < 1 || levelCount > Header.MAX_LEVELS
+			|| pathLength < 0 || pathLength > 0xFFFF)
+			return null;
+		ByteBuffer variable = ByteBuffer.allocate(levelCount * 4 + pathLength);
+		while(variable.hasRemaining())
+			if(iChannel.read(variable) < 0)
+				return null;
+		variable.flip();
+		result._levelSizes = new int[levelCount];
+		for(int i = 0; i < levelCount; i++) {
+			result._levelSizes[i] = variable.getInt();
+			if(result._levelSizes[i] < 0)
+				return null;
+		}
+		byte path[] = new byte[pathLength];
+		variable.get(path);
+		result._sourcePath = new String(path, PATH_CHARSET);
+		return result;
+	}
+	/**
+	 * Cache entry header.
+	 */
+	private static final class Header {
+		static final int FIXED_SIZE = 4 * 2 + 8 * 3 + 4 * 8;
+		static final int MAX_LEVELS = 32;
+		static final int FLAG_FLIP = 1;
+		static final int FLAG_COMPRESSED = 2;
+		static final int FLAG_MIPMAPPED = 4;
+
+		String _sourcePath;
+		long _sourceLength;
+		long _sourceModified;
+		long _sourceHash;
+		int _width;
+		int _height;
+		int _internalFormat;
+		int _pixelFormat;
+		int _pixelType;
+		boolean _mustFlipVertically;
+		boolean _compressed;
+		boolean _mipmapped;
+		int _levelSizes[];
+
+		Header() {
+		}
+
+		Header(File iSource, TextureData iData, ByteBuffer iLevels[])
+				throws IOException {
+			_sourcePath = iSource.getAbsolutePath();
+			_sourceLength = iSource.length();
+			_sourceModified = iSource.lastModified();
+			_sourceHash = hash(iSource);
+			_width = iData.getWidth();
+			_height = iData.getHeight();
+			_internalFormat = iData.getInternalFormat();
+			_pixelFormat = iData.getPixelFormat();
+			_pixelType = iData.getPixelType();
+			_mustFlipVertically = iData.getMustFlipVertically();
+			_compressed = iData.isDataCompressed();
+			_mipmapped = iData.getMipmapData() != null;
+			_levelSizes = new int[iLevels.length];
+			for(int i = 0; i < iLevels.length; i++)
+				_levelSizes[i] = iLevels[i].remaining();
+		}
+
+		boolean matches(File iSource) throws IOException {
+			if(!_sourcePath.equals(iSource.getAbsolutePath())
+				|| _sourceLength != iSource.length())
+				return false;
+			// touched or copied files keep their entries if content is same
+			return _sourceModified == iSource.lastModified()
+				|| _sourceHash == hash(iSource);
+		}
+
+		long getDataSize() {
+			long result = 0;
+			for(int size : _levelSizes)
+				result += size;
+			return result;
+		}
+
+		ByteBuffer toBuffer() {
+			byte path[] = _sourcePath.getBytes(PATH_CHARSET);
+			ByteBuffer result = ByteBuffer.allocate(
+				FIXED_SIZE + _levelSizes.length * 4 + path.length);
+			result.putInt(MAGIC);
+			result.putInt(VERSION);
+			result.putLong(_sourceLength);
+			result.putLong(_sourceModified);
+			result.putLong(_sourceHash);
+			result.putInt(_width);
+			result.putInt(_height);
+			result.putInt(_internalFormat);
+			result.putInt(_pixelFormat);
+			result.putInt(_pixelType);
+			result.putInt(
+				(_mustFlipVertically ? FLAG_FLIP : 0)
+				| (_compressed ? FLAG_COMPRESSED : 0)
+				| (_mipmapped ? FLAG_MIPMAPPED : 0));
+			result.putInt(_levelSizes.length);
+			result.putInt(path.length);
+			for(int size : _levelSizes)
+				result.putInt(size);
+			result.put(path);
+			result.flip();
+			return result;
+		}
+
+		TextureData createTextureData(GLProfile iProfile, ByteBuffer iLevels[]) {
+			if(_mipmapped)
+				return new TextureData(
+					iProfile,
+					_internalFormat,
+					_width,
+					_height,
+					0,
+					_pixelFormat,
+					_pixelType,
+					_compressed,
+					_mustFlipVertically,
+					iLevels,
+					null);
+			return new TextureData(
+				iProfile,
+				_internalFormat,
+				_width,
+				_height,
+				0,
+				_pixelFormat,
+				_pixelType,
+				false,
+				_compressed,
+				_mustFlipVertically,
+				iLevels[0],
+				null);
+		}
+	}
+}
@@ -4,17 +4,30 @@ package com.skardach.ro.resource;
 import java.io.File;
 import java.io.IOException;
 import java.nio.Buffer;
-import java.nio.BufferUnderflowException;
-import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.jogamp.opengl.GL;
 import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import com.jogamp.opengl.GLProfile;
 
 import com.jogamp.opengl.util.texture.TextureData;
 import com.jogamp.opengl.util.texture.TextureIO;
+
+import com.skardach.ro.graphics.GLShareGroup;
+import com.skardach.ro.graphics.GLStateCache;
 /**
  * Class describing a texture. Uses JOGL TextureIO toolkit to make things
- * easier.
+ * easier. A texture can be uploaded to several contexts which do not share
+ * textures, i.e. when a texture manager serves more than one canvas. Each
+ * upload is kept until it is unloaded in its context or the context is
+ * destroyed.
  * @author Stanislaw Kardach
  *
  */
@@ -22,9 +35,53 @@ public class TextureImpl implements Texture {
 	String _name;
 	String _path;
 	TextureData _data;
-	com.jogamp.opengl.util.texture.Texture _joglTexture;
 	Integer _GLName = null;
-	private boolean _convertMagenta=false;
+	private TexturePipeline _pipeline;
+	private int _pins = 0;
+	/**
+	 * Size of the uploaded texture, kept for when decoded data is dropped.
+	 */
+	private int _width = -1;
+	private int _height = -1;
+	/**
+	 * Texture uploaded to a single context.
+	 */
+	private static final class Upload {
+		final com.jogamp.opengl.util.texture.Texture _texture;
+		/**
+		 * Native handle of the context at upload time, changes when the
+		 * context object is re-created.
+		 */
+		final long _handle;
+		final int _size;
+
+		Upload(
+				com.jogamp.opengl.util.texture.Texture iTexture,
+				long iHandle,
+				int iSize) {
+			_texture = iTexture;
+			_handle = iHandle;
+			_size = iSize;
+		}
+	}
+	/**
+	 * Uploads by the context they were made in, the master context of their
+	 * share group if it is shared (see {@link GLShareGroup#getKey(GLContext)}).
+	 * Contexts are weakly referenced, so uploads to a collected context go
+	 * with it.
+	 */
+	private final Map<GLContext, Upload> _uploads =
+		new WeakHashMap<GLContext, Upload>();
+	/**
+	 * Set whenever the texture is bound, cleared by the texture manager when
+	 * looking for textures to evict.
+	 */
+	volatile boolean _referenced = false;
+	/**
+	 * Decoding in progress, if any.
+	 */
+	private final AtomicReference<FutureTask<Void>> _decoding =
+		new AtomicReference<FutureTask<Void>>();
 	/**
 	 * Construct the texture with given relative path (name) and base path
 	 * @param iName Name of the texture, being the relative path to the
@@ -40,11 +97,29 @@ public class TextureImpl implements Texture {
 	public TextureImpl(
 			String iName,
 			String iBasePath,
-			boolean iConvertMagenta) {// changed
+			boolean iConvertMagenta) {
+		this(
+			iName,
+			iBasePath,
+			new TexturePipeline(iConvertMagenta, false, null));
+	}
+	/**
+	 * Construct the texture with given relative path (name) and base path,
+	 * loaded through a given pipeline.
+	 * @param iName Name of the texture, being the relative path to the
+	 * texture file.
+	 * @param iBasePath The base path to the texture.
+	 * @param iPipeline Pipeline describing how texture data is read and
+	 * processed before upload.
+	 */
+	public TextureImpl(
+			String iName,
+			String iBasePath,
+			TexturePipeline iPipeline) {// changed
 		//iTextureName=iTextureName.replaceAll("\0", "").replaceAll("", "").replaceAll(".bmp", "");
 		_name = iName.replaceAll("\0", "").replaceAll("", "");
 		_path = iBasePath;
-		_convertMagenta = iConvertMagenta;
+		_pipeline = iPipeline;
 	}
 
 	@Override
@@ -68,23 +143,249 @@ public class TextureImpl implements Texture {
 
 	@Override
 	public synchronized Buffer getData() throws ResourceException {
-		return isLoaded() ? _data.getBuffer() : null;
+		return isLoaded() && _data != null ? _data.getBuffer() : null;
 	}
 
 	@Override
 	public synchronized int getWidth() {
-		return _data != null ? _data.getWidth() : -1;
+		return _data != null ? _data.getWidth() : _width;
 	}
 
 	@Override
 	public synchronized int getHeight() {
-		return _data != null ? _data.getHeight() : -1;
+		return _data != null ? _data.getHeight() : _height;
+	}
+
+	@Override
+	public void load(GL2 iGLContext) throws ResourceException {
+		synchronized(this) {
+			if(isLoadedIn(iGLContext))
+				return;
+		}
+		decode(
+			iGLContext.getGLProfile(),
+			iGLContext.isExtensionAvailable(
+				TextureTranscoder.REQUIRED_EXTENSION));
+		upload(iGLContext);
+	}
+
+	@Override
+	public void decode(GLProfile iProfile, boolean iCompressionSupported)
+			throws ResourceException {
+		while(!isDecoded()) {
+			FutureTask<Void> running = _decoding.get();
+			if(running == null) {
+				FutureTask<Void> task = new FutureTask<Void>(
+					new DecodeTask(iProfile, iCompressionSupported));
+				if(!_decoding.compareAndSet(null, task))
+					continue; // somebody else has just started
+				try {
+					task.run();
+				} finally {
+					_decoding.compareAndSet(task, null);
+				}
+				running = task;
+			}
+			// single flight: concurrent callers wait for the same read
+			try {
+				running.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ResourceException(
+					"Interrupted while decoding texture " + _name);
+			} catch(ExecutionException e) {
+				if(e.getCause() instanceof ResourceException)
+					throw (ResourceException)e.getCause();
+				throw new ResourceException(
+					"Could not decode texture " + _name
+					+ ". Reason: " + e.getCause());
+			}
+		}
+	}
+	/**
+	 * Reads texture data and stores it in the texture. Reading is done
+	 * without holding the texture lock so that the rendering thread can keep
+	 * checking the texture state meanwhile.
+	 */
+	private final class DecodeTask implements Callable<Void> {
+		private final GLProfile _profile;
+		private final boolean _compressionSupported;
+
+		DecodeTask(GLProfile iProfile, boolean iCompressionSupported) {
+			_profile = iProfile;
+			_compressionSupported = iCompressionSupported;
+		}
+
+		@Override
+		public Void call() throws ResourceException {
+			TextureData data = readData(_profile, _compressionSupported);
+			synchronized(TextureImpl.this) {
+				if(_data == null)
+					_data = data;
+				else
+					data.destroy();
+			}
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized boolean isDecoded() {
+		return _data != null;
 	}
 
 	@Override
-	public synchronized void load(GL2 iGLContext) throws ResourceException {
-		if(isLoaded())
+	public synchronized void upload(GL2 iGLContext) throws ResourceException {
+		if(isLoadedIn(iGLContext))
 			return;
+		dropLostUploads();
+		if(_data == null)
+			throw new ResourceException(
+				"Texture " + _name + " has to be decoded before upload");
+		if(_data.isDataCompressed()
+			&& !iGLContext.isExtensionAvailable(
+				TextureTranscoder.REQUIRED_EXTENSION)) {
+			// decoded for a different context, fall back to raw pixels
+			_data.destroy();
+			_data = readData(iGLContext.getGLProfile(), false);
+		}
+		// create the texture
+		com.jogamp.opengl.util.texture.Texture texture =
+			TextureIO.newTexture(_data);
+		// set some parameters
+		texture.setTexParameterf(
+			iGLContext,
+			GL.GL_TEXTURE_WRAP_S,
+			GL.GL_REPEAT);
+		texture.setTexParameterf(
+			iGLContext,
+			GL.GL_TEXTURE_WRAP_T,
+			GL.GL_REPEAT);
+		texture.setTexParameterf(
+			iGLContext,
+			GL.GL_TEXTURE_MAG_FILTER,
+			GL.GL_LINEAR);
+		if(_data.getMipmapData() != null)
+			texture.setTexParameterf(
+				iGLContext,
+				GL.GL_TEXTURE_MIN_FILTER,
+				GL.GL_LINEAR_MIPMAP_LINEAR);
+		//texture.setTexParameterf(iGLContext, GL.GL_BLEND,1.f);
+		GLStateCache state = GLStateCache.forContext(iGLContext);
+		// creating the texture bound it
+		state.invalidateBindings();
+		state.texEnvf(
+			iGLContext,
+			GL2.GL_TEXTURE_ENV,
+			GL2.GL_TEXTURE_ENV_MODE,
+			GL2.GL_MODULATE);
+
+		iGLContext.glColor3f(0, 1, 1);
+		state.invalidateColor();
+		GLContext context = iGLContext.getContext();
+		if(GLShareGroup.isShared(context)) {
+			// other contexts of the group may bind it as soon as we return
+			iGLContext.glFinish();
+		}
+		GLContext key = GLShareGroup.getKey(context);
+		_uploads.put(
+			key,
+			new Upload(texture, key.getHandle(), _data.getEstimatedMemorySize()));
+		_width = _data.getWidth();
+		_height = _data.getHeight();
+		if(!_pipeline.isKeepingDecodedData()) {
+			// read again by decode() if the context is lost
+			_data.destroy();
+			_data = null;
+		}
+	}
+	/**
+	 * Check whether the texture is uploaded to a given context. Contexts of
+	 * one {@link GLShareGroup} count as one.
+	 * @param iGLContext Current context.
+	 * @return True if the texture can be bound in the context.
+	 */
+	synchronized boolean isLoadedIn(GL2 iGLContext) {
+		return getUpload(iGLContext.getContext()) != null;
+	}
+	/**
+	 * Find the upload made in a given context. An upload to a context which
+	 * was destroyed since, or destroyed and created again, i.e. when the
+	 * canvas was re-parented, is forgotten without deleting it, as its name
+	 * died with the context.
+	 * @param iContext Context to check.
+	 * @return Upload or null if there is none.
+	 */
+	private Upload getUpload(GLContext iContext) {
+		GLContext key = GLShareGroup.getKey(iContext);
+		Upload result = _uploads.get(key);
+		if(result != null && isLost(key, result)) {
+			_uploads.remove(key);
+			result = null;
+		}
+		return result;
+	}
+
+	private static boolean isLost(GLContext iKey, Upload iUpload) {
+		return !iKey.isCreated() || iKey.getHandle() != iUpload._handle;
+	}
+	/**
+	 * Forget uploads to contexts which were destroyed.
+	 */
+	private void dropLostUploads() {
+		Iterator<Map.Entry<GLContext, Upload>> i =
+			_uploads.entrySet().iterator();
+		while(i.hasNext()) {
+			Map.Entry<GLContext, Upload> entry = i.next();
+			if(isLost(entry.getKey(), entry.getValue()))
+				i.remove();
+		}
+	}
+
+	@Override
+	public synchronized int getDecodedSize() {
+		return _data != null ? _data.getEstimatedMemorySize() : 0;
+	}
+
+	/**
+	 * @return Approximate size in bytes of texture data uploaded to all
+	 * contexts or 0 if texture is not loaded.
+	 */
+	@Override
+	public synchronized int getUploadedSize() {
+		dropLostUploads();
+		int result = 0;
+		for(Upload upload : _uploads.values())
+			result += upload._size;
+		return result;
+	}
+
+	@Override
+	public synchronized void pin() {
+		_pins++;
+	}
+
+	@Override
+	public synchronized int unpin() {
+		if(_pins > 0)
+			_pins--;
+		return _pins;
+	}
+
+	@Override
+	public synchronized boolean isPinned() {
+		return _pins > 0;
+	}
+	/**
+	 * Read and process texture data from the texture file.
+	 * @param iProfile Profile of the GL context the texture is for.
+	 * @param iCompressionSupported Can the data be S3TC compressed.
+	 * @return Texture data ready for upload.
+	 * @throws ResourceException If texture could not be read.
+	 */
+	private TextureData readData(
+			GLProfile iProfile,
+			boolean iCompressionSupported) throws ResourceException {
 		int idx = _name.lastIndexOf('.');
 		if(idx < 0)
 			throw new ResourceException(
@@ -97,39 +398,11 @@ public class TextureImpl implements Texture {
 				String path = System.getProperty("user.home") + "\\Pictures\\placeholderstr.png";
 				textureFile = new File(path);
 			}
-			_data = TextureIO.newTextureData(
-				iGLContext.getGLProfile(),
+			return _pipeline.read(
 				textureFile,
-				//GL.GL_,GL.GL_UNSIGNED_INT,
-				false,
-				extension);
-			if(_data == null)
-				throw new ResourceException(
-					"Could not read texture " + _name);
-			if(_convertMagenta)
-				;//convertMagentaToAlphaIfNeeded(); changed
-			// create the texture
-			_joglTexture = TextureIO.newTexture(_data);
-			// set some parameters
-			_joglTexture.setTexParameterf(
-				iGLContext,
-				GL.GL_TEXTURE_WRAP_S,
-				GL.GL_REPEAT);
-			_joglTexture.setTexParameterf(
-				iGLContext,
-				GL.GL_TEXTURE_WRAP_T,
-				GL.GL_REPEAT);
-			_joglTexture.setTexParameterf(
-				iGLContext,
-				GL.GL_TEXTURE_MAG_FILTER,
-				GL.GL_LINEAR);
-			//_joglTexture.setTexParameterf(iGLContext, GL.GL_BLEND,1.f);
-			iGLContext.glTexEnvf(
-				GL2.GL_TEXTURE_ENV,
-				GL2.GL_TEXTURE_ENV_MODE,
-				GL2.GL_MODULATE);
-
-			iGLContext.glColor3f(0, 1, 1);
+				extension,
+				iProfile,
+				iCompressionSupported);
 		} catch (IOException e) {
 			throw new ResourceException(
 				"Error loading texture from file: "
@@ -142,107 +415,48 @@ public class TextureImpl implements Texture {
 	}
 
 	/**
-	 * This method will convert all the colors close to magenta (with magenta
-	 * component larger than 0.7) to alpha depending on their distance from
-	 * magenta (alpha = 1.0-magenta).
-	 * Current implementation supports only byte sized color components in
-	 * both RGB and BGR (since the order makes no difference for magenta
-	 * component extraction as it depends on green color).
-	 * @throws ResourceException If there was a problem with reading the
-	 * texture data or creating the converted data.
+	 * Release the upload made in a given context and decoded data. Uploads
+	 * to other contexts are kept, since their names can only be deleted
+	 * while those contexts are current.
+	 * @param iGLContext Current context.
 	 */
-	private void convertMagentaToAlphaIfNeeded()
-			throws ResourceException {
-		int pixelType = _data.getPixelType();
-		int pixelFormat = _data.getPixelFormat();
-		if((pixelFormat == GL.GL_RGB // only support conversion from RGB
-				|| pixelFormat == GL2.GL_BGR) // and BGR format now
-			&& pixelType == GL.GL_UNSIGNED_BYTE
-			&& _data.getBuffer() instanceof ByteBuffer) {
-			ByteBuffer old = (ByteBuffer) _data.getBuffer();
-			byte pixel[] = new byte[4];
-			try {
-				old.get(pixel, 0, 3);
-				// normalize rgb parts
-				float r = (0xFF & pixel[0])/255f;
-				float g = (0xFF & pixel[1])/255f;
-				float b = (0xFF & pixel[2])/255f;
-				// get magenta color (pink)
-				float k = 1f - Math.max(Math.max(r, g), b);
-				float m = (1-g-k)/(1-k);
-				if(pixel[0] == -1
-					&& pixel[1] == 0
-					&& pixel[2] == -1) { // pink on first pixel so convert
-					ByteBuffer converted =
-						ByteBuffer.allocate(
-							_data.getWidth()
-							* _data.getHeight() // number of pixels
-							* 4); // and 4 components per pixel (RGBA/BGRA)
-					pixel[3] = 0;
-					converted.put(pixel);
-					while(old.position() < old.capacity()) {
-						old.get(pixel, 0, 3);
-						// normalize rgb parts
-						r = (0xFF & pixel[0])/255f;
-						g = (0xFF & pixel[1])/255f;
-						b = (0xFF & pixel[2])/255f;
-						// get magenta color (pink)
-						k = 1f - Math.max(Math.max(r, g), b);
-						m = (1-g-k)/(1-k);
-						if(m > 0.75) {
-							pixel[3] = (byte) (-1*(1-m));
-						} else { // max alpha otherwise
-							pixel[3] = -1;
-						}
-						converted.put(pixel);
-					}
-					converted.rewind();
-					_data = new TextureData(
-						_data.getGLProfile(),
-						4,
-						_data.getWidth(),
-						_data.getHeight(),
-						_data.getBorder(),
-						pixelFormat == GL.GL_RGB ? GL.GL_RGBA : GL2.GL_BGRA,
-						_data.getPixelType(),
-						_data.getMipmap(),
-						_data.isDataCompressed(),
-						_data.getMustFlipVertically(),
-						converted, null);
-				} else {
-					old.rewind();
-				}
-			} catch(IllegalArgumentException e) {
-				throw new ResourceException(
-					"Could not add alpha channel to texture, error creating updated texture");
-			}
-			catch(BufferUnderflowException e) {
-				throw new ResourceException(
-					"Could not add alpha channel to texture, error reading texture buffer");
-			}
-		}
-	}
-
 	@Override
 	public synchronized void unload(GL2 iGLContext) {
-		if(!isLoaded())
-			return;
-		_joglTexture.destroy(iGLContext);
-		_data.destroy();
-		_joglTexture = null;
+		GLContext context = iGLContext.getContext();
+		Upload upload = getUpload(context);
+		if(upload != null) {
+			upload._texture.destroy(iGLContext);
+			_uploads.remove(GLShareGroup.getKey(context));
+		}
+		// decoded but not uploaded data is dropped as well
+		if(_data != null)
+			_data.destroy();
 		_data = null;
 	}
-
+	/**
+	 * @return True if the texture is uploaded to the context current on the
+	 * calling thread or, if no context is current, to any context.
+	 */
 	@Override
 	public synchronized boolean isLoaded() {
-		return _joglTexture != null;
+		GLContext current = GLContext.getCurrent();
+		if(current != null)
+			return getUpload(current) != null;
+		dropLostUploads();
+		return !_uploads.isEmpty();
 	}
 
 	@Override
 	public boolean bind(GL2 iGLContext) {
-		if(!isLoaded())
+		Upload upload;
+		synchronized(this) {
+			// not uploaded to this context or the context was lost
+			upload = getUpload(iGLContext.getContext());
+		}
+		if(upload == null)
 			return false;
-		_joglTexture.bind(iGLContext);
+		upload._texture.bind(iGLContext);
+		_referenced = true;
 		return true;
 	}
 }
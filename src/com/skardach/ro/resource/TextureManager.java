@@ -1,5 +1,7 @@
 package com.skardach.ro.resource;
 
+import com.jogamp.opengl.GL2;
+
 /**
  * Fly-weight repository for loading textures.
  * Provides methods for opening textures.
@@ -14,4 +16,14 @@ public interface TextureManager {
 	 * @return Texture object.
 	 */
 	Texture getTexture(String textureName);
+	/**
+	 * Give the manager a chance to release textures it does not want to keep
+	 * anymore, i.e. because of memory limits. Has to be called on the thread
+	 * owning the OpenGL context textures were loaded to, preferably once per
+	 * frame. Uploads to other contexts are left alone, so with many canvases
+	 * every one of them should call it.
+	 * @param iGLContext OpenGL context textures are loaded to.
+	 * @return Number of released textures.
+	 */
+	int releaseUnused(GL2 iGLContext);
 }
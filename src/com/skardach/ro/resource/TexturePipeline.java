@@ -0,0 +1,225 @@
+package com.skardach.ro.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLProfile;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+
+/**
+ * Describes how texture files are turned into data ready for upload: image
+ * decoding (8 bit paletted BMP files with {@link PalettedBmpDecoder}, other
+ * files with JOGL TextureIO), normalization of byte sized 3 component images to 4 components,
+ * optional magenta to alpha conversion, optional mipmap generation with S3TC
+ * compression and caching of the results on disk, so that later runs do not
+ * decode images at all.
+ * Pipelines also tell textures whether to keep decoded data after upload.
+ * Pipelines are immutable, apart from statistics, and can be shared by many
+ * textures and threads.
+ * @author Stanislaw Kardach
+ *
+ */
+public class TexturePipeline {
+	private final boolean _convertMagenta;
+	private final boolean _compress;
+	private final TextureDiskCache _cache;
+	private final boolean _keepDecodedData;
+	private final AtomicLong _decodes = new AtomicLong();
+	private final AtomicLong _cacheHits = new AtomicLong();
+	/**
+	 * Create a pipeline whose textures keep decoded data after upload.
+	 * @param iConvertMagenta Should color keyed textures have their magenta
+	 * converted to alpha. See {@link MagentaKeyConverter}.
+	 * @param iCompress Should textures be mipmapped and compressed, see
+	 * {@link TextureTranscoder}. Only done in contexts supporting S3TC.
+	 * @param iCache Cache for processed textures or null if processing should
+	 * be done on every load.
+	 */
+	public TexturePipeline(
+			boolean iConvertMagenta,
+			boolean iCompress,
+			TextureDiskCache iCache) {
+		this(iConvertMagenta, iCompress, iCache, true);
+	}
+	/**
+	 * Create a pipeline.
+	 * @param iConvertMagenta Should color keyed textures have their magenta
+	 * converted to alpha. See {@link MagentaKeyConverter}.
+	 * @param iCompress Should textures be mipmapped and compressed, see
+	 * {@link TextureTranscoder}. Only done in contexts supporting S3TC.
+	 * @param iCache Cache for processed textures or null if processing should
+	 * be done on every load.
+	 * @param iKeepDecodedData If false, textures drop decoded data as soon as
+	 * it is uploaded and read it again (preferably from the cache) when they
+	 * have to be uploaded again, i.e. after the OpenGL context was lost.
+	 */
+	public TexturePipeline(
+			boolean iConvertMagenta,
+			boolean iCompress,
+			TextureDiskCache iCache,
+			boolean iKeepDecodedData) {
+		_convertMagenta = iConvertMagenta;
+		_compress = iCompress;
+		_cache = iCache;
+		_keepDecodedData = iKeepDecodedData;
+	}
+	/**
+	 * @return True if magenta color key is converted to alpha.
+	 */
+	public boolean isConvertingMagenta() {
+		return _convertMagenta;
+	}
+	/**
+	 * @return True if textures are compressed when possible.
+	 */
+	public boolean isCompressing() {
+		return _compress;
+	}
+	/**
+	 * @return True if textures keep decoded data after upload.
+	 */
+	public boolean isKeepingDecodedData() {
+		return _keepDecodedData;
+	}
+	/**
+	 * @return Disk cache used or null.
+	 */
+	public TextureDiskCache getCache() {
+		return _cache;
+	}
+	/**
+	 * @return Number of texture files decoded so far.
+	 */
+	public long getDecodeCount() {
+		return _decodes.get();
+	}
+	/**
+	 * @return Number of textures read from the disk cache so far.
+	 */
+	public long getCacheHitCount() {
+		return _cacheHits.get();
+	}
+	/**
+	 * Read texture data from file and process it. The result is taken from
+	 * or stored in the disk cache if there is one and magenta conversion or
+	 * compression is done. Unprocessed textures are always decoded, as
+	 * their entries would only duplicate the source files.
+	 * Does not need an OpenGL context.
+	 * @param iFile Texture file.
+	 * @param iExtension Texture file extension (image format).
+	 * @param iProfile Profile of the GL context the texture is for.
+	 * @param iCompressionSupported True if the target context supports S3TC
+	 * compressed textures.
+	 * @return Texture data.
+	 * @throws IOException If texture file could not be read.
+	 * @throws ResourceException If texture data is invalid.
+	 */
+	public TextureData read(
+			File iFile,
+			String iExtension,
+			GLProfile iProfile,
+			boolean iCompressionSupported)
+			throws IOException, ResourceException {
+		boolean compress = _compress && iCompressionSupported;
+		String variant = getVariant(compress);
+		boolean cached = _cache != null && (_convertMagenta || compress);
+		TextureData result = null;
+		if(cached)
+			result = _cache.load(iFile, variant, iProfile);
+		if(result != null) {
+			_cacheHits.incrementAndGet();
+			return result;
+		}
+		_decodes.incrementAndGet();
+		if(iExtension.toLowerCase().endsWith("bmp"))
+			result = PalettedBmpDecoder.decode(
+				iFile,
+				iProfile,
+				_convertMagenta);
+		if(result == null) {
+			result = TextureIO.newTextureData(
+				iProfile,
+				iFile,
+				//GL.GL_,GL.GL_UNSIGNED_INT,
+				false,
+				iExtension);
+			if(result == null)
+				throw new ResourceException(
+					"Could not read texture " + iFile);
+			if(_convertMagenta)
+				result = MagentaKeyConverter.convert(result);
+		}
+		result = expandToFourComponents(result);
+		if(compress)
+			result = TextureTranscoder.transcode(result);
+		if(cached)
+			_cache.store(iFile, variant, result);
+		return result;
+	}
+	/**
+	 * @param iCompress Is compression done
+	 * @return Cache variant name of processed data.
+	 */
+	private String getVariant(boolean iCompress) {
+		if(_convertMagenta && iCompress)
+			return "magenta-dxt";
+		if(_convertMagenta)
+			return "magenta";
+		if(iCompress)
+			return "dxt";
+		return "raw";
+	}
+	/**
+	 * Expand byte sized RGB and BGR data to opaque RGBA and BGRA so that all
+	 * uncompressed textures are uploaded in 4 byte aligned formats. Component
+	 * order is kept.
+	 * @param iData Decoded data
+	 * @return Expanded data or iData if it is in another format.
+	 */
+	private static TextureData expandToFourComponents(TextureData iData) {
+		int pixelFormat = iData.getPixelFormat();
+		if((pixelFormat != GL.GL_RGB && pixelFormat != GL2.GL_BGR)
+			|| iData.getPixelType() != GL.GL_UNSIGNED_BYTE
+			|| iData.isDataCompressed()
+			|| !(iData.getBuffer() instanceof ByteBuffer))
+			return iData;
+		int pixels = iData.getWidth() * iData.getHeight();
+		ByteBuffer source = ((ByteBuffer)iData.getBuffer()).duplicate();
+		if(source.remaining() < pixels * 3)
+			return iData;
+		ByteBuffer expanded =
+			ByteBuffer.allocateDirect(pixels * 4).order(ByteOrder.nativeOrder());
+		byte row[] = new byte[iData.getWidth() * 3];
+		byte out[] = new byte[iData.getWidth() * 4];
+		for(int y = 0; y < iData.getHeight(); y++) {
+			source.get(row);
+			for(int i = 0, o = 0; i < row.length; i += 3, o += 4) {
+				out[o] = row[i];
+				out[o + 1] = row[i + 1];
+				out[o + 2] = row[i + 2];
+				out[o + 3] = (byte)0xFF;
+			}
+			expanded.put(out);
+		}
+		expanded.flip();
+		return new TextureData(
+			iData.getGLProfile(),
+			GL.GL_RGBA,
+			iData.getWidth(),
+			iData.getHeight(),
+			iData.getBorder(),
+			pixelFormat == GL.GL_RGB ? GL.GL_RGBA : GL.GL_BGRA,
+			GL.GL_UNSIGNED_BYTE,
+			iData.getMipmap(),
+			false,
+			iData.getMustFlipVertically(),
+			expanded,
+			null);
+	}
+}
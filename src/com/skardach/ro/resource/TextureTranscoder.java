@@ -0,0 +1,148 @@
+package com.skardach.ro.resource;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.util.texture.TextureData;
+
+/**
+ * Texture pipeline stage turning decoded images into a full chain of S3TC
+ * compressed mipmaps. Opaque images are encoded to DXT1 (8:1 compared to
+ * RGBA), images with alpha to DXT5 (4:1). Effects often draw large textures
+ * on small quads so mipmaps also improve the look of minified textures.
+ * @author Stanislaw Kardach
+ *
+ */
+public final class TextureTranscoder {
+	/**
+	 * Name of the OpenGL extension required to use transcoded textures.
+	 */
+	public static final String REQUIRED_EXTENSION =
+		"GL_EXT_texture_compression_s3tc";
+
+	private TextureTranscoder() {
+	}
+	/**
+	 * Generate mipmaps and compress texture data. Only uncompressed, byte
+	 * sized RGB(A) and BGR(A) data is supported, other data is returned as it
+	 * is.
+	 * @param iData Decoded texture data.
+	 * @return Compressed mipmapped texture data or iData if it could not be
+	 * transcoded.
+	 */
+	public static TextureData transcode(TextureData iData) {
+		int components = getComponentCount(iData.getPixelFormat());
+		if(components == 0
+			|| iData.isDataCompressed()
+			|| iData.getPixelType() != GL.GL_UNSIGNED_BYTE
+			|| !(iData.getBuffer() instanceof ByteBuffer))
+			return iData;
+		int width = iData.getWidth();
+		int height = iData.getHeight();
+		ByteBuffer level = (ByteBuffer)iData.getBuffer();
+		if(level.remaining() < width * height * components)
+			return iData;
+		boolean bgr =
+			iData.getPixelFormat() == GL2.GL_BGR
+			|| iData.getPixelFormat() == GL.GL_BGRA;
+		boolean withAlpha =
+			components == 4 && DxtEncoder.hasAlpha(level, width * height);
+		List<Buffer> mipmaps = new ArrayList<Buffer>();
+		while(true) {
+			mipmaps.add(DxtEncoder.encode(
+				level, width, height, components, bgr, withAlpha));
+			if(width == 1 && height == 1)
+				break;
+			level = downsample(level, width, height, components);
+			width = Math.max(1, width / 2);
+			height = Math.max(1, height / 2);
+		}
+		int format = withAlpha
+			? GL.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT
+			: GL.GL_COMPRESSED_RGB_S3TC_DXT1_EXT;
+		return new TextureData(
+			iData.getGLProfile(),
+			format,
+			iData.getWidth(),
+			iData.getHeight(),
+			0,
+			format,
+			GL.GL_UNSIGNED_BYTE,
+			true,
+			iData.getMustFlipVertically(),
+			mipmaps.toArray(new Buffer[mipmaps.size()]),
+			null);
+	}
+	/**
+	 * @param iPixelFormat OpenGL pixel format
+	 * @return Number of components per pixel or 0 if format is not supported.
+	 */
+	private static int getComponentCount(int iPixelFormat) {
+		switch(iPixelFormat) {
+		case GL.GL_RGB:
+		case GL2.GL_BGR:
+			return 3;
+		case GL.GL_RGBA:
+		case GL.GL_BGRA:
+			return 4;
+		default:
+			return 0;
+		}
+	}
+	/**
+	 * Create next mipmap level with a 2x2 box filter. Colors are weighted by
+	 * alpha so that transparent (formerly magenta) pixels do not bleed into
+	 * their neighbours.
+	 * @param iSource Source level pixels starting at buffer position.
+	 * @param iWidth Source level width
+	 * @param iHeight Source level height
+	 * @param iComponents Number of components per pixel
+	 * @return Next level pixels.
+	 */
+	private static ByteBuffer downsample(
+			ByteBuffer iSource,
+			int iWidth,
+			int iHeight,
+			int iComponents) {
+		int width = Math.max(1, iWidth / 2);
+		int height = Math.max(1, iHeight / 2);
+		ByteBuffer result = ByteBuffer.allocate(width * height * iComponents);
+		int base = iSource.position();
+		int offsets[] = new int[4];
+		for(int y = 0; y < height; y++) {
+			int y0 = Math.min(y * 2, iHeight - 1);
+			int y1 = Math.min(y * 2 + 1, iHeight - 1);
+			for(int x = 0; x < width; x++) {
+				int x0 = Math.min(x * 2, iWidth - 1);
+				int x1 = Math.min(x * 2 + 1, iWidth - 1);
+				offsets[0] = base + (y0 * iWidth + x0) * iComponents;
+				offsets[1] = base + (y0 * iWidth + x1) * iComponents;
+				offsets[2] = base + (y1 * iWidth + x0) * iComponents;
+				offsets[3] = base + (y1 * iWidth + x1) * iComponents;
+				int alphaSum = 0;
+				for(int i = 0; i < 4; i++)
+					alphaSum += iComponents == 4
+						? iSource.get(offsets[i] + 3) & 0xFF : 0xFF;
+				for(int c = 0; c < 3; c++) {
+					int sum = 0;
+					int weightSum = 0;
+					for(int i = 0; i < 4; i++) {
+						int weight = iComponents == 4 && alphaSum > 0
+							? iSource.get(offsets[i] + 3) & 0xFF : 1;
+						sum += (iSource.get(offsets[i] + c) & 0xFF) * weight;
+						weightSum += weight;
+					}
+					result.put((byte)((sum + weightSum / 2) / weightSum));
+				}
+				if(iComponents == 4)
+					result.put((byte)((alphaSum + 2) / 4));
+			}
+		}
+		result.flip();
+		return result;
+	}
+}
@@ -4,7 +4,8 @@ package com.skardach.ro.resource.str;
  * This should be refactored to an interface which provides texture manipulation
  * method and a parametrized factory for creation of objects implementing it,
  * one for each possible value.
- * TODO: There is no support for multi texture mode so far.
+ * Presets are implemented by a single pass shader, see
+ * {@link com.skardach.ro.graphics.MultiTextureCombiner}.
  * @author Stanislaw Kardach
  *
  */
@@ -146,4 +147,33 @@ public enum MultiTextureMode {
 			return UNKNOWN;
 		}
 	}
+	/**
+	 * Convert back to the value stored in STR files.
+	 * @return Int value of the preset or -1 for UNKNOWN.
+	 */
+	public int toInt()
+	{
+		return ordinal() - NO_CHANGE.ordinal();
+	}
+	/**
+	 * @return True if the preset needs anything more than modulating the
+	 * texture with the key frame color, which is what fixed function
+	 * pipeline does.
+	 */
+	public boolean needsCombiner()
+	{
+		return this != UNKNOWN
+			&& this != NO_CHANGE
+			&& this != MODULATE
+			&& this != MODULATEV2;
+	}
+	/**
+	 * @return True if the alpha written by the preset is the key frame color
+	 * alpha. Combiner presets other than BLEND_COLOR_USING_ALPHA take it
+	 * from one of the textures instead.
+	 */
+	public boolean usesVertexAlpha()
+	{
+		return !needsCombiner() || this == BLEND_COLOR_USING_ALPHA;
+	}
 }
\ No newline at end of file
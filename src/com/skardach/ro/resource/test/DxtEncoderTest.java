@@ -0,0 +1,65 @@
+package com.skardach.ro.resource.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import com.skardach.ro.resource.DxtEncoder;
+/**
+ * Tests for DxtEncoder class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class DxtEncoderTest {
+	private static ByteBuffer solid(int iWidth, int iHeight, int iRGBA) {
+		ByteBuffer result = ByteBuffer.allocate(iWidth * iHeight * 4);
+		while(result.hasRemaining())
+			result.putInt(iRGBA);
+		result.rewind();
+		return result;
+	}
+	/**
+	 * Encoded sizes are rounded up to whole blocks
+	 */
+	@Test
+	public void testEncodedSize() {
+		assertEquals(8, DxtEncoder.getEncodedSize(1, 1, false));
+		assertEquals(16, DxtEncoder.getEncodedSize(2, 2, true));
+		assertEquals(2 * 2 * 8, DxtEncoder.getEncodedSize(5, 8, false));
+		assertEquals(64 * 64 * 16, DxtEncoder.getEncodedSize(256, 256, true));
+	}
+	/**
+	 * Solid color blocks use a single end point, BGR input is swizzled
+	 */
+	@Test
+	public void testSolidColor() {
+		ByteBuffer result = DxtEncoder.encode(
+			solid(6, 6, 0x0000FFFF), 6, 6, 4, true, false); // red in BGRA
+		assertEquals(4 * 8, result.remaining());
+		result.order(ByteOrder.LITTLE_ENDIAN);
+		for(int block = 0; block < 4; block++) {
+			assertEquals(0xF800, result.getShort(block * 8) & 0xFFFF);
+			assertEquals(0xF800, result.getShort(block * 8 + 2) & 0xFFFF);
+			assertEquals(0, result.getInt(block * 8 + 4));
+		}
+	}
+	/**
+	 * Alpha end points are exact and each pixel gets the closest one
+	 */
+	@Test
+	public void testAlphaBlock() {
+		ByteBuffer source = solid(4, 4, 0xFFFFFFFF);
+		source.put(3, (byte)0); // first pixel transparent
+		assertTrue(DxtEncoder.hasAlpha(source, 16));
+		ByteBuffer result = DxtEncoder.encode(source, 4, 4, 4, false, true);
+		assertEquals(16, result.remaining());
+		assertEquals(0xFF, result.get(0) & 0xFF);
+		assertEquals(0, result.get(1));
+		// first pixel picks min (index 1), the others max (index 0)
+		assertEquals(1, result.get(2) & 0x7);
+		assertEquals(0, result.get(2) & 0x38);
+	}
+}
@@ -0,0 +1,86 @@
+package com.skardach.ro.resource.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.skardach.ro.resource.MagentaKeyConverter;
+import com.skardach.ro.resource.ResourceException;
+/**
+ * Tests for MagentaKeyConverter class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class MagentaKeyConverterTest {
+	private static ByteBuffer image(int iWidth, int iHeight, int iRGB) {
+		ByteBuffer result = ByteBuffer.allocate(iWidth * iHeight * 3);
+		while(result.hasRemaining()) {
+			result.put((byte)(iRGB >> 16));
+			result.put((byte)(iRGB >> 8));
+			result.put((byte)iRGB);
+		}
+		result.put(0, (byte)0xFF);
+		result.put(1, (byte)0);
+		result.put(2, (byte)0xFF);
+		result.rewind();
+		return result;
+	}
+	/**
+	 * Lookup table gives the same values as CMYK magenta formula
+	 */
+	@Test
+	public void testAlphaMatchesFormula() {
+		for(int r = 0; r < 256; r += 5)
+			for(int g = 0; g < 256; g += 3)
+				for(int b = 0; b < 256; b += 7) {
+					float k = 1f - Math.max(Math.max(r, g), b) / 255f;
+					float m = k < 1 ? (1 - g / 255f - k) / (1 - k) : 0;
+					int expected =
+						m > 0.75f ? Math.round((1 - m) * 255) : 255;
+					assertEquals(
+						expected,
+						MagentaKeyConverter.alpha(r, g, b),
+						1);
+				}
+		assertEquals(0, MagentaKeyConverter.alpha(255, 0, 255));
+		assertEquals(255, MagentaKeyConverter.alpha(0, 0, 0));
+		assertEquals(255, MagentaKeyConverter.alpha(255, 255, 255));
+	}
+	/**
+	 * Textures without magenta in the first pixel are not converted
+	 */
+	@Test
+	public void testNotKeyed() throws ResourceException {
+		ByteBuffer source = image(4, 4, 0x102030);
+		source.put(0, (byte)0xFE);
+		assertNull(MagentaKeyConverter.convert(source, 4, 4));
+	}
+	/**
+	 * Large textures converted in parallel bands give the same result as
+	 * pixel by pixel conversion
+	 */
+	@Test
+	public void testConvertLarge() throws ResourceException {
+		int width = 300;
+		int height = 301;
+		ByteBuffer source = image(width, height, 0xF010E0);
+		source.put((width * 150 + 7) * 3 + 1, (byte)0x80);
+		ByteBuffer result = MagentaKeyConverter.convert(source, width, height);
+		assertEquals(0, source.position());
+		assertEquals(width * height * 4, result.capacity());
+		for(int p = 0; p < width * height; p++) {
+			int r = source.get(p * 3) & 0xFF;
+			int g = source.get(p * 3 + 1) & 0xFF;
+			int b = source.get(p * 3 + 2) & 0xFF;
+			assertEquals(r, result.get(p * 4) & 0xFF);
+			assertEquals(g, result.get(p * 4 + 1) & 0xFF);
+			assertEquals(b, result.get(p * 4 + 2) & 0xFF);
+			assertEquals(
+				MagentaKeyConverter.alpha(r, g, b),
+				result.get(p * 4 + 3) & 0xFF);
+		}
+		assertEquals(0, result.get(3));
+	}
+}
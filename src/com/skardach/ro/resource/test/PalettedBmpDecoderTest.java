@@ -0,0 +1,105 @@
+package com.skardach.ro.resource.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import com.skardach.ro.resource.MagentaKeyConverter;
+import com.skardach.ro.resource.PalettedBmpDecoder;
+/**
+ * Tests for PalettedBmpDecoder class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class PalettedBmpDecoderTest {
+	/**
+	 * Create a bottom up paletted BMP file.
+	 * @param iPalette RGB colors of the palette
+	 * @param iRows Palette indexes, top row first
+	 * @param iBitsPerPixel Value written to the header
+	 * @return File content
+	 */
+	private static ByteBuffer bmp(
+			int iPalette[],
+			int iRows[][],
+			int iBitsPerPixel) {
+		int width = iRows[0].length;
+		int stride = (width + 3) & ~3;
+		int dataOffset = 14 + 40 + iPalette.length * 4;
+		ByteBuffer result = ByteBuffer.allocate(dataOffset + stride * iRows.length)
+			.order(ByteOrder.LITTLE_ENDIAN);
+		result.put((byte)'B').put((byte)'M');
+		result.putInt(result.capacity()).putInt(0).putInt(dataOffset);
+		result.putInt(40).putInt(width).putInt(iRows.length);
+		result.putShort((short)1).putShort((short)iBitsPerPixel);
+		result.putInt(0).putInt(0).putInt(0).putInt(0);
+		result.putInt(iPalette.length).putInt(0);
+		for(int color : iPalette)
+			result.put((byte)color).put((byte)(color >> 8))
+				.put((byte)(color >> 16)).put((byte)0);
+		for(int y = iRows.length - 1; y >= 0; y--) {
+			for(int index : iRows[y])
+				result.put((byte)index);
+			for(int x = width; x < stride; x++)
+				result.put((byte)0xEE);
+		}
+		result.flip();
+		return result;
+	}
+	/**
+	 * Pixels are expanded to BGRA top row first, magenta keyed palette
+	 * entries get alpha
+	 */
+	@Test
+	public void testDecodeKeyed() {
+		int palette[] = { 0xFF00FF, 0x102030, 0xF010E0 };
+		ByteBuffer file = bmp(palette, new int[][] {
+			{ 0, 1, 2 },
+			{ 2, 1, 0 } }, 8);
+		int size[] = new int[2];
+		ByteBuffer pixels = PalettedBmpDecoder.decodePixels(file, true, size);
+		assertEquals(0, file.position());
+		assertEquals(3, size[0]);
+		assertEquals(2, size[1]);
+		int expected[] = { 0, 1, 2, 2, 1, 0 };
+		for(int p = 0; p < expected.length; p++) {
+			int color = palette[expected[p]];
+			int r = color >> 16 & 0xFF;
+			int g = color >> 8 & 0xFF;
+			int b = color & 0xFF;
+			assertEquals(b, pixels.get(p * 4) & 0xFF);
+			assertEquals(g, pixels.get(p * 4 + 1) & 0xFF);
+			assertEquals(r, pixels.get(p * 4 + 2) & 0xFF);
+			assertEquals(
+				MagentaKeyConverter.alpha(r, g, b),
+				pixels.get(p * 4 + 3) & 0xFF);
+		}
+		assertEquals(0, pixels.get(3));
+	}
+	/**
+	 * Textures without magenta in the top left pixel stay opaque
+	 */
+	@Test
+	public void testDecodeNotKeyed() {
+		ByteBuffer file = bmp(new int[] { 0xFF00FF, 0x102030 }, new int[][] {
+			{ 1, 0 },
+			{ 0, 0 } }, 8);
+		ByteBuffer pixels =
+			PalettedBmpDecoder.decodePixels(file, true, new int[2]);
+		for(int p = 0; p < 4; p++)
+			assertEquals(0xFF, pixels.get(p * 4 + 3) & 0xFF);
+	}
+	/**
+	 * Other than 8 bit files are left to the generic decoder
+	 */
+	@Test
+	public void testUnsupported() {
+		ByteBuffer file = bmp(new int[] { 0 }, new int[][] { { 0 } }, 24);
+		assertNull(PalettedBmpDecoder.decodePixels(file, true, new int[2]));
+		assertNull(PalettedBmpDecoder.decodePixels(
+			ByteBuffer.wrap(new byte[] { 'G', 'I', 'F' }), true, new int[2]));
+	}
+}
@@ -0,0 +1,77 @@
+package com.skardach.ro.resource.test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.skardach.ro.resource.SimpleTextureManager;
+import com.skardach.ro.resource.Texture;
+/**
+ * Tests for SimpleTextureManager class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class SimpleTextureManagerTest {
+	private static final int THREADS = 8;
+	private static final int NAMES = 10;
+	/**
+	 * Names are cleaned of padding and the same texture is returned for the
+	 * same file.
+	 */
+	@Test
+	public void testNameNormalization() {
+		SimpleTextureManager sut = new SimpleTextureManager("", false);
+		Texture t = sut.getTexture("effect.bmp\0\0\0");
+		assertSame(t, sut.getTexture("effect.bmp"));
+		// junk after the name is truncated, 47 characters used to throw
+		StringBuilder name = new StringBuilder("a.bmp");
+		while(name.length() < 47)
+			name.append('\0');
+		assertSame(sut.getTexture("a.bmp"), sut.getTexture(name.toString()));
+		assertEquals(2, sut.getTextureCount());
+		assertEquals(2, sut.getMissCount());
+	}
+	/**
+	 * Concurrent lookups create exactly one texture object per name.
+	 */
+	@Test
+	public void testConcurrentLookups() throws InterruptedException {
+		final SimpleTextureManager sut = new SimpleTextureManager("", false);
+		final ConcurrentMap<String, Texture> seen =
+			new ConcurrentHashMap<String, Texture>();
+		final CountDownLatch start = new CountDownLatch(1);
+		final boolean failed[] = { false };
+		Thread threads[] = new Thread[THREADS];
+		for(int t = 0; t < THREADS; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch(InterruptedException e) {
+						return;
+					}
+					for(int i = 0; i < 1000; i++) {
+						String name = "texture" + (i % NAMES) + ".bmp";
+						Texture texture = sut.getTexture(name);
+						Texture previous = seen.putIfAbsent(name, texture);
+						if(previous != null && previous != texture)
+							failed[0] = true;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread t : threads)
+			t.join();
+		assertFalse(failed[0]);
+		assertEquals(NAMES, sut.getTextureCount());
+		assertEquals(NAMES, sut.getMissCount());
+		assertEquals(THREADS * 1000, sut.getLookupCount());
+	}
+}
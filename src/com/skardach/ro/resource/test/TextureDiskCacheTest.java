@@ -0,0 +1,157 @@
+package com.skardach.ro.resource.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.jogamp.opengl.GL;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.skardach.ro.resource.TextureDiskCache;
+/**
+ * Tests for TextureDiskCache class.
+ * @author Stanislaw Kardach
+ *
+ */
+public class TextureDiskCacheTest {
+	private static final String VARIANT = "magenta";
+	private File _directory;
+	private File _source;
+	private TextureDiskCache _sut;
+
+	private static void write(File iFile, byte iContent[]) throws IOException {
+		FileOutputStream stream = new FileOutputStream(iFile);
+		try {
+			stream.write(iContent);
+		} finally {
+			stream.close();
+		}
+	}
+
+	private static TextureData createData() {
+		ByteBuffer pixels =
+			ByteBuffer.allocateDirect(2 * 2 * 4).order(ByteOrder.nativeOrder());
+		for(int i = 0; i < pixels.capacity(); i++)
+			pixels.put((byte)i);
+		pixels.flip();
+		return new TextureData(
+			null,
+			GL.GL_RGBA,
+			2,
+			2,
+			0,
+			GL.GL_RGBA,
+			GL.GL_UNSIGNED_BYTE,
+			false,
+			false,
+			false,
+			pixels,
+			null);
+	}
+
+	private File getEntry() {
+		File entries[] = _sut.getDirectory().listFiles();
+		assertNotNull(entries);
+		assertEquals(1, entries.length);
+		return entries[0];
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		_directory = Files.createTempDirectory("texturecache").toFile();
+		_source = new File(_directory, "source.bmp");
+		write(_source, new byte[] { 1, 2, 3, 4 });
+		_sut = new TextureDiskCache(new File(_directory, "entries"));
+	}
+
+	@After
+	public void tearDown() {
+		_sut.clear();
+		_sut.getDirectory().delete();
+		_source.delete();
+		_directory.delete();
+	}
+	/**
+	 * Stored data is loaded back with the same format and pixels
+	 */
+	@Test
+	public void testRoundTrip() {
+		assertNull(_sut.load(_source, VARIANT, null));
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		TextureData result = _sut.load(_source, VARIANT, null);
+		assertNotNull(result);
+		assertEquals(2, result.getWidth());
+		assertEquals(2, result.getHeight());
+		assertEquals(GL.GL_RGBA, result.getPixelFormat());
+		assertEquals(GL.GL_UNSIGNED_BYTE, result.getPixelType());
+		ByteBuffer pixels = (ByteBuffer)result.getBuffer();
+		assertEquals(16, pixels.remaining());
+		for(int i = 0; i < 16; i++)
+			assertEquals(i, pixels.get(i));
+		// variants are kept apart
+		assertNull(_sut.load(_source, "dxt", null));
+	}
+	/**
+	 * Entries are dropped when source size changes, or when its modification
+	 * time and content both change
+	 */
+	@Test
+	public void testInvalidation() throws IOException {
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		long modified = _source.lastModified();
+		// touched file with the same content is still valid
+		assertTrue(_source.setLastModified(modified - 10000));
+		assertNotNull(_sut.load(_source, VARIANT, null));
+		write(_source, new byte[] { 1, 2, 3, 5 });
+		assertTrue(_source.setLastModified(modified - 20000));
+		assertNull(_sut.load(_source, VARIANT, null));
+
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		modified = _source.lastModified();
+		write(_source, new byte[] { 1, 2, 3, 5, 6 });
+		assertTrue(_source.setLastModified(modified));
+		assertNull(_sut.load(_source, VARIANT, null));
+	}
+	/**
+	 * Entries with a damaged header or data are treated as missing
+	 */
+	@Test
+	public void testDamagedEntry() throws IOException {
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		RandomAccessFile file = new RandomAccessFile(getEntry(), "rw");
+		try {
+			file.seek(4);
+			file.writeInt(Integer.MAX_VALUE);
+		} finally {
+			file.close();
+		}
+		assertNull(_sut.load(_source, VARIANT, null));
+
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		file = new RandomAccessFile(getEntry(), "rw");
+		try {
+			file.setLength(file.length() - 1);
+		} finally {
+			file.close();
+		}
+		assertNull(_sut.load(_source, VARIANT, null));
+
+		assertTrue(_sut.store(_source, VARIANT, createData()));
+		file = new RandomAccessFile(getEntry(), "rw");
+		try {
+			file.setLength(10);
+		} finally {
+			file.close();
+		}
+		assertNull(_sut.load(_source, VARIANT, null));
+	}
+}
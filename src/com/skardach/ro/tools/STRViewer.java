@@ -25,12 +25,16 @@ import javax.swing.JTextArea;
 
 import com.skardach.ro.graphics.OpenGLWrapper;
 import com.skardach.ro.graphics.Point3D;
+import com.skardach.ro.graphics.QualityGovernor;
 import com.skardach.ro.graphics.RenderException;
 import com.skardach.ro.graphics.Renderer;
 import com.skardach.ro.graphics.STRRendererFactory;
+import com.skardach.ro.resource.AsyncTextureLoader;
 import com.skardach.ro.resource.ResourceException;
 import com.skardach.ro.resource.ResourceManager;
 import com.skardach.ro.resource.SimpleTextureManager;
+import com.skardach.ro.resource.TextureDiskCache;
+import com.skardach.ro.resource.TexturePipeline;
 import com.skardach.ro.resource.str.Str;
 import com.skardach.ro.resource.str.StrReader;
 import com.skardach.ro.resource.str.StrReader.ParseException;
@@ -64,6 +68,14 @@ public class STRViewer extends JFrame {
 		public static final float EFFECT_SCALE_Y = 1f;
 		public static final float EFFECT_SCALE_Z = 1f;
 		public static final int FPS = 60;
+		public static final int MIN_FPS = 30;
+		public static final boolean CONVERT_MAGENTA = true;
+		public static final boolean COMPRESS_TEXTURES = true;
+		public static final boolean KEEP_DECODED_TEXTURES = false;
+		public static final long UPLOAD_NANOS_PER_FRAME = 4000000L;
+		public static final long UPLOAD_BYTES_PER_FRAME = 4 * 1024 * 1024;
+		public static final long TEXTURE_HEAP_BUDGET = 256L * 1024 * 1024;
+		public static final long TEXTURE_VIDEO_BUDGET = 256L * 1024 * 1024;
 	}
 	// OpenGL settings wrapper
 	OpenGLWrapper _glWrapper;
@@ -94,6 +106,13 @@ public class STRViewer extends JFrame {
 		setTitle(Settings.WINDOW_TITLE);
 		getContentPane().setLayout(new GridLayout(1, 2));
 		_glWrapper = OpenGLWrapper.createDesktopWrapper(Settings.FPS);
+		_glWrapper.setQualityGovernor(new QualityGovernor(Settings.MIN_FPS));
+		_glWrapper.setTextureLoader(
+			new AsyncTextureLoader(
+				_glWrapper.getProfile(),
+				Settings.COMPRESS_TEXTURES,
+				Settings.UPLOAD_NANOS_PER_FRAME,
+				Settings.UPLOAD_BYTES_PER_FRAME));
 		// OpenGL canvas
 		_canvas = _glWrapper.createGLCanvasWithAnimator();
 		add(_canvas);
@@ -115,7 +134,7 @@ public class STRViewer extends JFrame {
 		stepButton.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				_canvas.display();
+				_glWrapper.stepAnimation();
 			}
 		});
 		final Button resetButton = new Button("Reset");
@@ -185,14 +204,26 @@ public class STRViewer extends JFrame {
 		if(strFile != null) {
 			try {
 				// Read STR
-				ResourceManager rm =
-					new ResourceManager(
-						new SimpleTextureManager(strFile.getParent(), false));
+				SimpleTextureManager textures =
+					new SimpleTextureManager(
+						strFile.getParent(),
+						new TexturePipeline(
+							Settings.CONVERT_MAGENTA,
+							Settings.COMPRESS_TEXTURES,
+							TextureDiskCache.createDefault(),
+							Settings.KEEP_DECODED_TEXTURES));
+				textures.setBudgets(
+					Settings.TEXTURE_HEAP_BUDGET,
+					Settings.TEXTURE_VIDEO_BUDGET);
+				_glWrapper.setTextureManager(textures);
+				ResourceManager rm = new ResourceManager(textures);
 				InputStream stream = new FileInputStream(strFile);
 				StrReader reader = new StrReader();
 				Str effect = reader.readFromStream(rm, stream);
 				if(effect != null)
 				{
+					// start decoding textures while the window is set up
+					_glWrapper.getTextureLoader().request(effect);
 					// fill in the STR details
 					_infoArea.setText(effect.toString());
 					setTitle(Settings.WINDOW_TITLE + " - " + strFile);
@@ -209,8 +240,10 @@ public class STRViewer extends JFrame {
 							Settings.EFFECT_SCALE_Y,
 							Settings.EFFECT_SCALE_Z,
 							effect.get_fps(),
+							_glWrapper.getClock(),
 							true,
-							false);
+							false,
+							_glWrapper.getTextureLoader());
 					// Pre-load textures
 					_glWrapper.registerRendererOnCanvas(renderer, _canvas);
 					// Display everything